@@ -0,0 +1,234 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AsyncDataAccessServlet.java
+# Description:  This servlet handles volume and page requests with Servlet 3.1 asynchronous, non-blocking output
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
+import edu.indiana.d2i.htrc.access.response.AsyncVolumeZipWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.FramedEntryCache;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+import edu.indiana.d2i.htrc.audit.AuditorFactory;
+
+/**
+ * This servlet handles requests for volume and page resources the same way VolumeAccessResource and PageAccessResource do, except that the response
+ * is written asynchronously by an AsyncVolumeZipWriter, so no container thread is held while volumes are fetched or while a slow client reads the
+ * response.  It takes the same parameters under the /async path prefix, but neither serves nor fills the result cache, and its downloads are not resumable.
+ * It relies on HTRCDataAccessApplication for initialization, so it must be loaded after the Jersey servlet
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class AsyncDataAccessServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = Logger.getLogger(AsyncDataAccessServlet.class);
+    
+    protected static final String PATH_VOLUMES = "/" + Constants.FILENAME_VOLUMES;
+    protected static final String PATH_PAGES = "/" + Constants.FILENAME_PAGES;
+
+    /**
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String pathInfo = request.getPathInfo();
+        if (PATH_VOLUMES.equals(pathInfo)) {
+            getVolumes(request, response);
+        } else if (PATH_PAGES.equals(pathInfo)) {
+            getPages(request, response);
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No such resource: " + pathInfo);
+        }
+    }
+    
+    /**
+     * Method to handle requests for volume resources
+     * @param request an HttpServletRequest object
+     * @param response an HttpServletResponse object
+     * @throws IOException thrown if writing an error response failed
+     */
+    protected void getVolumes(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String volumeIDs = request.getParameter("volumeIDs");
+        boolean concatenate = Boolean.parseBoolean(request.getParameter("concat"));
+        boolean retrieveMETS = Boolean.parseBoolean(request.getParameter("mets"));
+        String layout = request.getParameter(ZipMakerFactory.LAYOUT_PARAMETER_NAME);
+        String compression = request.getParameter("compression");
+        String format = request.getParameter("format");
+
+        if (log.isDebugEnabled()) {
+            log.debug("volumeIDs = " + volumeIDs);
+            log.debug("concatenate = " + concatenate);
+            log.debug("mets = " + retrieveMETS);
+            log.debug("layout = " + layout);
+            log.debug("compression = " + compression);
+            log.debug("format = " + format);
+        }
+        
+        ContextExtractor contextExtractor = new ContextExtractor(request, null);
+        Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
+        
+        try {
+            DownloadRequest downloadRequest = DownloadRequest.newVolumeRequest(volumeIDs, concatenate, retrieveMETS, layout, compression, format, getAcceptHeaders(request), auditor);
+            FormatEnum outputFormat = downloadRequest.getOutputFormat();
+            ZipTypeEnum zipMakerType = downloadRequest.getZipMakerType();
+            int compressionLevel = downloadRequest.getCompressionLevel();
+
+            ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
+            Map<String, FramedEntryCache.FramedEntry> framedEntries = null;
+            if (zipMakerType == ZipTypeEnum.COMBINE_PAGE && FramedEntryCache.isApplicable(outputFormat, compressionLevel, false)) {
+                framedEntries = FramedEntryCache.getInstance().lookup(downloadRequest.getIdentifiers(), compressionLevel);
+                volumeRetriever.setFramedVolumeIDs(framedEntries.keySet());
+            }
+            
+            IncrementalZipMaker zipMaker = (IncrementalZipMaker)ZipMakerFactory.newInstance(zipMakerType, auditor, outputFormat, compressionLevel, null, framedEntries);
+            startAsyncDownload(request, response, downloadRequest, volumeRetriever, zipMaker, auditor);
+        } catch (ParseException e) {
+            sendBadRequest(response, DownloadRequest.reportBadRequest(IDTypeEnum.VOLUME_ID, e, auditor));
+        } catch (DataAPIException e) {
+            sendBadRequest(response, DownloadRequest.reportBadRequest(IDTypeEnum.VOLUME_ID, e, auditor));
+        }
+    }
+    
+    /**
+     * Method to handle requests for page resources
+     * @param request an HttpServletRequest object
+     * @param response an HttpServletResponse object
+     * @throws IOException thrown if writing an error response failed
+     */
+    protected void getPages(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String pageIDs = request.getParameter("pageIDs");
+        boolean concatenate = Boolean.parseBoolean(request.getParameter("concat"));
+        boolean retrieveMETS = Boolean.parseBoolean(request.getParameter("mets"));
+        String wordSequence = request.getParameter(ZipMakerFactory.WORD_SEQUENCE_PARAMETER_NAME);
+        String compression = request.getParameter("compression");
+        String format = request.getParameter("format");
+
+        if (log.isDebugEnabled()) {
+            log.debug("pageIDs = " + pageIDs);
+            log.debug("concatenate = " + concatenate);
+            log.debug("mets = " + retrieveMETS);
+            log.debug("wordseq = " + wordSequence);
+            log.debug("compression = " + compression);
+            log.debug("format = " + format);
+        }
+        
+        ContextExtractor contextExtractor = new ContextExtractor(request, null);
+        Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
+        
+        try {
+            DownloadRequest downloadRequest = DownloadRequest.newPageRequest(pageIDs, concatenate, retrieveMETS, wordSequence, compression, format, getAcceptHeaders(request), auditor);
+
+            ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
+            IncrementalZipMaker zipMaker = (IncrementalZipMaker)ZipMakerFactory.newInstance(downloadRequest.getZipMakerType(), auditor, downloadRequest.getOutputFormat(), downloadRequest.getCompressionLevel());
+            startAsyncDownload(request, response, downloadRequest, volumeRetriever, zipMaker, auditor);
+        } catch (ParseException e) {
+            sendBadRequest(response, DownloadRequest.reportBadRequest(IDTypeEnum.PAGE_ID, e, auditor));
+        } catch (DataAPIException e) {
+            sendBadRequest(response, DownloadRequest.reportBadRequest(IDTypeEnum.PAGE_ID, e, auditor));
+        }
+    }
+    
+    /**
+     * Method to put the request into asynchronous mode and to hand the response over to an AsyncVolumeZipWriter
+     * @param request an HttpServletRequest object
+     * @param response an HttpServletResponse object
+     * @param downloadRequest a DownloadRequest object
+     * @param volumeRetriever a ThrottledVolumeRetrieverImpl object, whose retrieval IDs are not set yet
+     * @param zipMaker an IncrementalZipMaker object
+     * @param auditor an Auditor object
+     * @throws IOException thrown if getting the ServletOutputStream failed
+     */
+    protected void startAsyncDownload(HttpServletRequest request, HttpServletResponse response, DownloadRequest downloadRequest, ThrottledVolumeRetrieverImpl volumeRetriever, IncrementalZipMaker zipMaker, Auditor auditor) throws IOException {
+        FormatEnum outputFormat = downloadRequest.getOutputFormat();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(outputFormat.getContentType());
+        response.setHeader(Constants.HTTP_HEADER_CONTENT_DISPOSITION, outputFormat.getContentDisposition(downloadRequest.getFilename()));
+        response.setHeader(Constants.HTTP_HEADER_COMPRESSION_LEVEL, String.valueOf(downloadRequest.getCompressionLevel()));
+
+        AsyncContext asyncContext = request.startAsync();
+        // downloads of large worksets legitimately take longer than any container default
+        asyncContext.setTimeout(0L);
+        
+        AsyncVolumeZipWriter asyncVolumeZipWriter = new AsyncVolumeZipWriter(asyncContext, response.getOutputStream(), volumeRetriever, zipMaker, auditor, SystemResourcesContainerSingleton.getInstance().getAsyncWriterExecutorService());
+        asyncVolumeZipWriter.start(downloadRequest.getIdentifiers());
+    }
+    
+    /**
+     * Method to get the values of the Accept headers of a request
+     * @param request an HttpServletRequest object
+     * @return a List of the values of the Accept headers
+     */
+    protected List<String> getAcceptHeaders(HttpServletRequest request) {
+        return Collections.list(request.getHeaders(Constants.HTTP_HEADER_ACCEPT));
+    }
+    
+    /**
+     * Method to send a plain text 400 Bad Request response
+     * @param response an HttpServletResponse object
+     * @param message the error message
+     * @throws IOException thrown if writing the response failed
+     */
+    protected void sendBadRequest(HttpServletResponse response, String message) throws IOException {
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        response.setContentType(Constants.CONTENT_TYPE_TEXT_PLAIN);
+        response.getWriter().print(message);
+    }
+
+}
+
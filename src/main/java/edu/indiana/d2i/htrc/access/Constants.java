@@ -40,16 +40,31 @@ package edu.indiana.d2i.htrc.access;
 public final class Constants {
     public static final String HTTP_HEADER_CONTENT_TYPE = "Content-Type";
     public static final String HTTP_HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+    public static final String HTTP_HEADER_CONTENT_LENGTH = "Content-Length";
+    public static final String HTTP_HEADER_COMPRESSION_LEVEL = "X-HTRC-Compression-Level";
+    public static final String HTTP_HEADER_ACCEPT = "Accept";
+    public static final String HTTP_HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    public static final String HTTP_HEADER_RANGE = "Range";
+    public static final String HTTP_HEADER_IF_RANGE = "If-Range";
+    public static final String HTTP_HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String HTTP_HEADER_ETAG = "ETag";
+    
+    public static final int HTTP_STATUS_PARTIAL_CONTENT = 206;
+    public static final int HTTP_STATUS_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
     
     public static final String CONTENT_TYPE_APPLICATION_ZIP = "application/zip";
+    public static final String CONTENT_TYPE_APPLICATION_X_TAR = "application/x-tar";
+    public static final String CONTENT_TYPE_APPLICATION_GZIP = "application/gzip";
+    public static final String CONTENT_TYPE_APPLICATION_X_NDJSON = "application/x-ndjson";
+    public static final String CONTENT_TYPE_APPLICATION_VND_APACHE_ARROW_STREAM = "application/vnd.apache.arrow.stream";
     public static final String CONTENT_TYPE_APPLICATION_JSON = "application/json";
     public static final String CONTENT_TYPE_TEXT_XHTML = "text/xhtml";
     public static final String CONTENT_TYPE_TEXT_HTML = "text/html";
     public static final String CONTENT_TYPE_TEXT_PLAIN = "text/plain";
     
-    public static final String FILENAME_VOLUMES_ZIP = "filename=\"volumes.zip\"";
-    public static final String FILENAME_PAGES_ZIP = "filename=\"pages.zip\"";
-    public static final String FILENAME_TOKENCOUNT_ZIP = "filename=\"tokencount.zip\"";
+    public static final String FILENAME_VOLUMES = "volumes";
+    public static final String FILENAME_PAGES = "pages";
+    public static final String FILENAME_TOKENCOUNT = "tokencount";
     
     public static final String ID_SEPARATOR = "|";
     public static final char PAGE_SEQ_START_MARK = '[';
@@ -0,0 +1,260 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DownloadRequest.java
+# Description:  This class holds a parsed request for volume or page resources
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
+import edu.indiana.d2i.htrc.access.exception.MissingParameterException;
+import edu.indiana.d2i.htrc.access.exception.ParameterConflictException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
+import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class holds a request for volume or page resources once its ID list has been parsed and its output format, zip layout and compression level
+ * negotiated.  VolumeAccessResource, PageAccessResource and AsyncDataAccessServlet all go through this class, so a request is checked and its errors
+ * reported the same way whether the response is written by Jersey or asynchronously
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class DownloadRequest {
+
+    private static Logger log = Logger.getLogger(DownloadRequest.class);
+    
+    protected static final String REQUESTED_ACTION = "REQUESTED";
+    
+    protected final String filename;
+    protected final List<? extends RequestedItemCoordinates> identifiers;
+    protected final boolean retrieveMETS;
+    protected final FormatEnum outputFormat;
+    protected final ZipTypeEnum zipMakerType;
+    protected final int compressionLevel;
+    
+    /**
+     * Method to parse a request for volume resources
+     * @param volumeIDs a single String containing raw IDs of the requested volumes
+     * @param concatenate whether the pages of each volume are to be concatenated into a single file
+     * @param retrieveMETS whether METS metadata should also be returned
+     * @param layout the value of the layout parameter, or <code>null</code>
+     * @param compression the value of the compression parameter, or <code>null</code>
+     * @param format the value of the format parameter, or <code>null</code>
+     * @param acceptHeaders a List of the values of the Accept headers, or <code>null</code>
+     * @param auditor an Auditor object, to which each requested volume is audited
+     * @return a DownloadRequest object
+     * @throws MissingParameterException thrown if volumeIDs is <code>null</code>
+     * @throws ParseException thrown if the volume ID list is malformed
+     * @throws PolicyViolationException thrown if the request violates a policy
+     * @throws InvalidParameterValueException thrown if a parameter has a value it does not accept
+     */
+    public static DownloadRequest newVolumeRequest(String volumeIDs, boolean concatenate, boolean retrieveMETS, String layout, String compression, String format, List<String> acceptHeaders, Auditor auditor) throws MissingParameterException, ParseException, PolicyViolationException, InvalidParameterValueException {
+        if (volumeIDs == null) {
+            throw new MissingParameterException("volumeIDs");
+        }
+        
+        Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
+        parser.setRetrieveMETS(retrieveMETS);
+        List<? extends RequestedItemCoordinates> volumeIDList = parser.parse(volumeIDs);
+        
+        for (RequestedItemCoordinates volumeIdentifier : volumeIDList) {
+            auditor.audit(REQUESTED_ACTION, volumeIdentifier.getVolumeID());
+        }
+        
+        FormatEnum outputFormat = ArchiveWriterFactory.negotiateFormat(format, acceptHeaders);
+        ZipTypeEnum zipMakerType = ZipMakerFactory.getVolumeLayoutType(concatenate, layout, outputFormat);
+        int compressionLevel = ArchiveWriterFactory.negotiateCompressionLevel(compression, outputFormat);
+        
+        return new DownloadRequest(Constants.FILENAME_VOLUMES, volumeIDList, retrieveMETS, outputFormat, zipMakerType, compressionLevel);
+    }
+    
+    /**
+     * Method to parse a request for page resources
+     * @param pageIDs a single String containing raw IDs of the requested pages
+     * @param concatenate whether the pages are to be concatenated into a single file
+     * @param retrieveMETS whether METS metadata should also be returned.  Cannot be used together with concatenate
+     * @param wordSequence the value of the wordseq parameter, or <code>null</code>
+     * @param compression the value of the compression parameter, or <code>null</code>
+     * @param format the value of the format parameter, or <code>null</code>
+     * @param acceptHeaders a List of the values of the Accept headers, or <code>null</code>
+     * @param auditor an Auditor object, to which the requested pages of each volume are audited
+     * @return a DownloadRequest object
+     * @throws ParameterConflictException thrown if both concatenate and retrieveMETS are set
+     * @throws MissingParameterException thrown if pageIDs is <code>null</code>
+     * @throws ParseException thrown if the page ID list is malformed
+     * @throws PolicyViolationException thrown if the request violates a policy
+     * @throws InvalidParameterValueException thrown if a parameter has a value it does not accept
+     */
+    public static DownloadRequest newPageRequest(String pageIDs, boolean concatenate, boolean retrieveMETS, String wordSequence, String compression, String format, List<String> acceptHeaders, Auditor auditor) throws ParameterConflictException, MissingParameterException, ParseException, PolicyViolationException, InvalidParameterValueException {
+        if (concatenate && retrieveMETS) {
+            List<String> offendingParams = new LinkedList<String>();
+            offendingParams.add("concat");
+            offendingParams.add("mets");
+            
+            throw new ParameterConflictException("page retrieval", offendingParams);
+        }
+        
+        if (pageIDs == null) {
+            throw new MissingParameterException("pageIDs");
+        }
+        
+        Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.PAGE_ID, PolicyCheckerRegistryImpl.getInstance());
+        parser.setRetrieveMETS(retrieveMETS);
+        List<? extends RequestedItemCoordinates> pageIDList = parser.parse(pageIDs);
+        
+        for (RequestedItemCoordinates pageIdentifier : pageIDList) {
+            auditor.audit(REQUESTED_ACTION, pageIdentifier.getVolumeID(), pageIdentifier.getPageSequences().toArray(new String[0]));
+        }
+        
+        FormatEnum outputFormat = ArchiveWriterFactory.negotiateFormat(format, acceptHeaders);
+        ZipTypeEnum zipMakerType = concatenate ? ZipMakerFactory.getWordSequenceType(wordSequence, outputFormat) : ZipTypeEnum.SEPARATE_PAGE;
+        int compressionLevel = ArchiveWriterFactory.negotiateCompressionLevel(compression, outputFormat);
+        
+        return new DownloadRequest(Constants.FILENAME_PAGES, pageIDList, retrieveMETS, outputFormat, zipMakerType, compressionLevel);
+    }
+    
+    /**
+     * Method to log and audit a request that cannot be served, and to get the message to send back with the 400 Bad Request response
+     * @param idType the type of the IDs requested
+     * @param exception the ParseException or DataAPIException thrown by newVolumeRequest() or newPageRequest()
+     * @param auditor an Auditor object
+     * @return the message to send back to the client
+     */
+    public static String reportBadRequest(IDTypeEnum idType, Exception exception, Auditor auditor) {
+        String message = exception.getMessage();
+        if (exception instanceof MissingParameterException) {
+            String parameterName = ((MissingParameterException)exception).getParameterName();
+            log.error("Required parameter " + parameterName + " is null");
+            auditor.error("Missing Parameter", "Parameter " + parameterName + " required", "");
+        } else if (exception instanceof ParseException) {
+            log.error("ParseException", exception);
+            String idListName = (idType == IDTypeEnum.PAGE_ID) ? "Page ID" : "Volume ID";
+            message = "Malformed " + idListName + " list. Offending token: " + exception.getMessage();
+            auditor.error("ParseException", "Malformed " + idListName + " List", exception.getMessage());
+        } else if (exception instanceof PolicyViolationException) {
+            log.error("PolicyViolationException", exception);
+            message = "Request too greedy. " + exception.getMessage();
+            auditor.error("PolicyViolationException", "Request Too Greedy", exception.getMessage());
+        } else if (exception instanceof ParameterConflictException) {
+            log.error("ParameterConflictException", exception);
+            auditor.error("ParameterConflictException", "Conflicting Parameters", exception.getMessage());
+        } else if (exception instanceof InvalidParameterValueException) {
+            log.error("InvalidParameterValueException", exception);
+            auditor.error("InvalidParameterValueException", "Invalid Parameter Value", exception.getMessage());
+        } else {
+            String exceptionName = exception.getClass().getSimpleName();
+            log.error(exceptionName, exception);
+            auditor.error(exceptionName, "Bad Request", exception.getMessage());
+        }
+        return message;
+    }
+    
+    /**
+     * Constructor. Used internally by the factory methods
+     * @param filename the base name of the downloaded file
+     * @param identifiers a List of the requested items
+     * @param retrieveMETS whether METS metadata should also be returned
+     * @param outputFormat the negotiated output format
+     * @param zipMakerType the type of ZipMaker to write the response with
+     * @param compressionLevel the negotiated compression level
+     */
+    protected DownloadRequest(String filename, List<? extends RequestedItemCoordinates> identifiers, boolean retrieveMETS, FormatEnum outputFormat, ZipTypeEnum zipMakerType, int compressionLevel) {
+        this.filename = filename;
+        this.identifiers = identifiers;
+        this.retrieveMETS = retrieveMETS;
+        this.outputFormat = outputFormat;
+        this.zipMakerType = zipMakerType;
+        this.compressionLevel = compressionLevel;
+    }
+    
+    /**
+     * Method to compute the key naming the cached response and the manifest of the download
+     * @return the key of the request
+     */
+    public String computeRequestKey() {
+        return ResultCache.computeKey(filename + ";" + zipMakerType + ";" + retrieveMETS + ";" + outputFormat + ";" + compressionLevel, identifiers);
+    }
+    
+    /**
+     * Method to get the base name of the downloaded file
+     * @return the base name of the downloaded file
+     */
+    public String getFilename() {
+        return filename;
+    }
+    
+    /**
+     * Method to get the requested items
+     * @return a List of RequestedItemCoordinates objects
+     */
+    public List<? extends RequestedItemCoordinates> getIdentifiers() {
+        return identifiers;
+    }
+    
+    /**
+     * Method to get the negotiated output format
+     * @return the negotiated output format
+     */
+    public FormatEnum getOutputFormat() {
+        return outputFormat;
+    }
+    
+    /**
+     * Method to get the type of ZipMaker to write the response with
+     * @return the type of ZipMaker
+     */
+    public ZipTypeEnum getZipMakerType() {
+        return zipMakerType;
+    }
+    
+    /**
+     * Method to get the negotiated compression level
+     * @return the negotiated compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+}
+
@@ -51,11 +51,18 @@ import org.apache.log4j.PropertyConfigurator;
 
 import edu.indiana.d2i.htrc.access.async.AsyncFetchManager;
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
 import edu.indiana.d2i.htrc.access.policy.MaxPagesPerVolumePolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxTotalPagesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxVolumesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
 import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.tokencount.PageCountStore;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory;
+import edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.DownloadManifest;
+import edu.indiana.d2i.htrc.access.zip.FramedEntryCache;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
 
@@ -104,6 +111,15 @@ public class HTRCDataAccessApplication extends Application {
         
         SystemResourcesContainerSingleton.init(parameterContainer);
         
+        ArchiveWriterFactory.init(parameterContainer, SystemResourcesContainerSingleton.getInstance().getCompressionExecutorService());
+        
+        DownloadManifest.init(parameterContainer);
+        ResultCache.init(parameterContainer);
+        FramedEntryCache.init(parameterContainer);
+        TokenCountZipperFactory.init(parameterContainer);
+        PageCountStore.init(parameterContainer);
+        TokenSliceFilterFactory.init(parameterContainer);
+        
         loadPolicyCheckerRegistry(parameterContainer);
         
         HectorResource.initSingletonInstance(parameterContainer);
@@ -0,0 +1,76 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  IncrementalZipMaker.java
+# Description:  Interface definition for zipping volume content one volume at a time
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+
+/**
+ * Interface definition for ZipMaker implementations that can also be fed one VolumeReader at a time, so that the caller rather than the ZipMaker decides
+ * when to retrieve the next volume.  makeZipFile() is then equivalent to calling open(), append() for each volume returned by the VolumeRetriever,
+ * appendException() for each failed volume, and close()
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface IncrementalZipMaker extends ZipMaker {
+
+    /**
+     * Method to start a zip file
+     * @param outputStream an OutputStream object to which zipped volume content is written
+     * @param volumeRetriever the VolumeRetriever object the volumes come from
+     * @throws IOException thrown if the zip process encounters errors
+     */
+    public void open(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException;
+
+    /**
+     * Method to add the content of a VolumeReader to the zip file
+     * @param volumeReader a VolumeReader object returned by the VolumeRetriever
+     * @throws IOException thrown if the zip process encounters errors
+     */
+    public void append(VolumeReader volumeReader) throws IOException;
+
+    /**
+     * Method to record a failed volume, to be reported in the ERROR.err entry
+     * @param exception the DataAPIException thrown by the VolumeRetriever
+     */
+    public void appendException(DataAPIException exception);
+
+    /**
+     * Method to finish the zip file
+     * @throws IOException thrown if the zip process encounters errors
+     */
+    public void close() throws IOException;
+}
+
@@ -32,7 +32,6 @@
 package edu.indiana.d2i.htrc.access;
 
 import java.text.ParseException;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -45,19 +44,22 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
-import edu.indiana.d2i.htrc.access.exception.ParameterConflictException;
-import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
-import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.CachedResult;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.ResultWriter;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
-import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
-import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
+import edu.indiana.d2i.htrc.access.response.CachedResultStreamingOutput;
+import edu.indiana.d2i.htrc.access.response.CachingStreamingOutput;
 import edu.indiana.d2i.htrc.access.response.VolumeZipStreamingOutput;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
@@ -73,6 +75,8 @@ import edu.indiana.d2i.htrc.audit.AuditorFactory;
 public class PageAccessResource {
     
     private static Logger log = Logger.getLogger(PageAccessResource.class);
+
+    protected static final String ACCESSED_ACTION = "ACCESSED";
     
     /**
      * Wrapper method to allow requests made via HTTP Get
@@ -80,6 +84,9 @@ public class PageAccessResource {
      * @param pageIDs a single String containing raw IDs of requested pages
      * @param concatenate parameter to specify whether the requested pages to be concatenated into a single word sequence or as separate text files. Cannot be used together with retrieveMETS
      * @param retrieveMETS parameter to specify if METS metadata should also be returned. Cannot be used together with concatenate
+     * @param wordSequence parameter to specify how concatenated pages are written, either text or ids for varint token IDs with a trailing dictionary. Defaults to text.
+     * @param compression parameter to specify the compression level of the zip entries, either 0 to 9 or one of none, fast, default and best. Defaults to none.
+     * @param format parameter to specify the output format, one of zip, tar, tar.gz, ndjson and ndjson.gz. Defaults to the format named in the Accept header, or zip.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
@@ -89,10 +96,13 @@ public class PageAccessResource {
     public Response getResourceGet(@QueryParam("pageIDs") String pageIDs,
                                    @QueryParam("concat") boolean concatenate,
                                    @QueryParam("mets") boolean retrieveMETS,
+                                   @QueryParam("wordseq") String wordSequence,
+                                   @QueryParam("compression") String compression,
+                                   @QueryParam("format") String format,
                                    @QueryParam("version") int version,
                                    @Context HttpHeaders httpHeaders,
                                    @Context HttpServletRequest httpServletRequest) {
-        return getResourcePost(pageIDs, concatenate, retrieveMETS, version, httpHeaders, httpServletRequest);
+        return getResourcePost(pageIDs, concatenate, retrieveMETS, wordSequence, compression, format, version, httpHeaders, httpServletRequest);
     }
     
     /**
@@ -101,6 +111,9 @@ public class PageAccessResource {
      * @param pageIDs a single String containing raw IDs of the request pages
      * @param concatenate parameter to specify whether the requested pages to be concatenated into a single word sequence or as separate text files. Cannot be used together with retrieveMETS
      * @param retrieveMETS parameter to specify if METS metadata should also be returned. Cannot be used together with concatenate
+     * @param wordSequence parameter to specify how concatenated pages are written, either text or ids for varint token IDs with a trailing dictionary. Defaults to text.
+     * @param compression parameter to specify the compression level of the zip entries, either 0 to 9 or one of none, fast, default and best. Defaults to none.
+     * @param format parameter to specify the output format, one of zip, tar, tar.gz, ndjson and ndjson.gz. Defaults to the format named in the Accept header, or zip.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
@@ -111,6 +124,9 @@ public class PageAccessResource {
     public Response getResourcePost(@FormParam("pageIDs") String pageIDs,
                                     @FormParam("concat") boolean concatenate,
                                     @FormParam("mets") boolean retrieveMETS,
+                                    @FormParam("wordseq") String wordSequence,
+                                    @FormParam("compression") String compression,
+                                    @FormParam("format") String format,
                                     @FormParam("version") int version,
                                     @Context HttpHeaders httpHeaders,
                                     @Context HttpServletRequest httpServletRequest) {
@@ -120,6 +136,9 @@ public class PageAccessResource {
             log.debug("pageIDs = " + pageIDs);
             log.debug("concatenate = " + concatenate);
             log.debug("mets = " + retrieveMETS);
+            log.debug("wordseq = " + wordSequence);
+            log.debug("compression = " + compression);
+            log.debug("format = " + format);
             log.debug("version = " + version);
         }
         
@@ -128,51 +147,44 @@ public class PageAccessResource {
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
         
-        Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.PAGE_ID, PolicyCheckerRegistryImpl.getInstance());
-        parser.setRetrieveMETS(retrieveMETS);
         try {
+            DownloadRequest downloadRequest = DownloadRequest.newPageRequest(pageIDs, concatenate, retrieveMETS, wordSequence, compression, format, httpHeaders.getRequestHeader(Constants.HTTP_HEADER_ACCEPT), auditor);
+            List<? extends RequestedItemCoordinates> pageIDList = downloadRequest.getIdentifiers();
+            FormatEnum outputFormat = downloadRequest.getOutputFormat();
+            ZipTypeEnum zipMakerType = downloadRequest.getZipMakerType();
+            int compressionLevel = downloadRequest.getCompressionLevel();
 
-            if (concatenate && retrieveMETS) {
-                List<String> offendingParams = new LinkedList<String>();
-                offendingParams.add("concat");
-                offendingParams.add("mets");
-                
-                throw new ParameterConflictException("page retrieval", offendingParams);
+            ResultCache resultCache = ResultCache.getInstance();
+            String requestKey = null;
+            CachedResult cachedResult = null;
+            if (resultCache != null) {
+                requestKey = downloadRequest.computeRequestKey();
+                cachedResult = resultCache.lookup(requestKey);
             }
 
-            if (pageIDs != null) {
-                List<? extends RequestedItemCoordinates> pageIDList = parser.parse(pageIDs);
-                
-                for (RequestedItemCoordinates pageIdentifier : pageIDList) {
-                    String volumeID = pageIdentifier.getVolumeID();
-                    auditor.audit("REQUESTED", volumeID, pageIdentifier.getPageSequences().toArray(new String[0]));
-                }
-
+            StreamingOutput streamingOutput = null;
+            ResponseBuilder responseBuilder = null;
+            if (cachedResult != null) {
+                if (log.isDebugEnabled()) log.debug("serving cached result " + requestKey);
+                streamingOutput = new CachedResultStreamingOutput(cachedResult, pageIDList, ACCESSED_ACTION, auditor);
+                responseBuilder = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_LENGTH, cachedResult.getLength());
+            } else {
                 ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
                 volumeRetriever.setRetrievalIDs(pageIDList);
-                
-                ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.WORD_SEQUENCE : ZipTypeEnum.SEPARATE_PAGE;
-                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor);
-                StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_PAGES_ZIP).build();
-            
-            } else {
-                log.error("Required parameter pageIDs is null");
-                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Missing required parameter pageIDs").build();
-                auditor.error("Missing Parameter", "Parameter pageIDs required", "");
+
+                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor, outputFormat, compressionLevel);
+                streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor);
+                ResultWriter resultWriter = (resultCache != null) ? resultCache.newResultWriter(requestKey) : null;
+                if (resultWriter != null) {
+                    streamingOutput = new CachingStreamingOutput(streamingOutput, volumeRetriever, resultWriter);
+                }
+                responseBuilder = Response.ok(streamingOutput);
             }
+            response = responseBuilder.header(Constants.HTTP_HEADER_CONTENT_TYPE, outputFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, outputFormat.getContentDisposition(Constants.FILENAME_PAGES)).header(Constants.HTTP_HEADER_COMPRESSION_LEVEL, compressionLevel).build();
         } catch (ParseException e) {
-            log.error("ParseException", e);
-            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Malformed Page ID list. Offending token: " + e.getMessage()).build();
-            auditor.error("ParseException", "Malformed Page ID List", e.getMessage());
-        } catch (PolicyViolationException e) {
-            log.error("PolicyViolationException", e);
-            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Request too greedy. " + e.getMessage()).build();
-            auditor.error("PolicyViolationException", "Request Too Greedy", e.getMessage());
-        } catch (ParameterConflictException e) {
-            log.error("ParameterConflictException", e);
-            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
-            auditor.error("ParameterConflictException", "Conflicting Parameters", e.getMessage());
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(DownloadRequest.reportBadRequest(IDTypeEnum.PAGE_ID, e, auditor)).build();
+        } catch (DataAPIException e) {
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(DownloadRequest.reportBadRequest(IDTypeEnum.PAGE_ID, e, auditor)).build();
         }
         
         return response;
@@ -44,6 +44,8 @@ public class SystemResourcesContainerSingleton {
     private static SystemResourcesContainerSingleton instance = null;
     
     private ExecutorService tokenCountExecutorService = null;
+    private ExecutorService compressionExecutorService = null;
+    private ExecutorService asyncWriterExecutorService = null;
     
     public static void init(ParameterContainer parameterContainer) {
         SystemResourcesContainerSingleton.parameterContainer = parameterContainer;
@@ -61,12 +63,34 @@ public class SystemResourcesContainerSingleton {
         return this.tokenCountExecutorService;
     }
     
+    /**
+     * Method to get the ExecutorService on which zip entries are compressed
+     * @return the ExecutorService, or <code>null</code> if compression.threads.count is not set or is 0
+     */
+    public ExecutorService getCompressionExecutorService() {
+        return this.compressionExecutorService;
+    }
+    
+    /**
+     * Method to get the ExecutorService on which responses of the asynchronous servlet are produced and written
+     * @return the ExecutorService
+     */
+    public ExecutorService getAsyncWriterExecutorService() {
+        return this.asyncWriterExecutorService;
+    }
+    
     public void shutdown() {
         tokenCountExecutorService.shutdownNow();
+        if (compressionExecutorService != null) {
+            compressionExecutorService.shutdownNow();
+        }
+        asyncWriterExecutorService.shutdownNow();
     }
     
     private SystemResourcesContainerSingleton() {
         createTokenCountExecutorService(parameterContainer);
+        createCompressionExecutorService(parameterContainer);
+        createAsyncWriterExecutorService(parameterContainer);
     }
     
     private void createTokenCountExecutorService(ParameterContainer parameterContainer) {
@@ -74,6 +98,19 @@ public class SystemResourcesContainerSingleton {
         this.tokenCountExecutorService = Executors.newFixedThreadPool(tokenCountThreadCount);
     }
     
+    private void createCompressionExecutorService(ParameterContainer parameterContainer) {
+        String compressionThreadCount = parameterContainer.getParameter("compression.threads.count");
+        if (compressionThreadCount != null && Integer.parseInt(compressionThreadCount) > 0) {
+            this.compressionExecutorService = Executors.newFixedThreadPool(Integer.parseInt(compressionThreadCount));
+        }
+    }
+    
+    private void createAsyncWriterExecutorService(ParameterContainer parameterContainer) {
+        String asyncWriterThreadCount = parameterContainer.getParameter("async.writer.threads.count");
+        int threadCount = (asyncWriterThreadCount != null) ? Integer.parseInt(asyncWriterThreadCount) : 1;
+        this.asyncWriterExecutorService = Executors.newFixedThreadPool(threadCount);
+    }
+    
 
 }
 
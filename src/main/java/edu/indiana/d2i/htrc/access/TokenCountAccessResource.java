@@ -32,7 +32,9 @@
 package edu.indiana.d2i.htrc.access;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -44,30 +46,46 @@ import javax.ws.rs.Path;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.CachedResult;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.ResultWriter;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
+import edu.indiana.d2i.htrc.access.exception.ParameterConflictException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
 import edu.indiana.d2i.htrc.access.policy.MaxVolumesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
+import edu.indiana.d2i.htrc.access.response.CachedResultStreamingOutput;
+import edu.indiana.d2i.htrc.access.response.CachingStreamingOutput;
 import edu.indiana.d2i.htrc.access.response.TokenCountZipStreamingOutput;
 import edu.indiana.d2i.htrc.access.tokencount.Count;
 import edu.indiana.d2i.htrc.access.tokencount.EmptyTokenRemovalFilter;
+import edu.indiana.d2i.htrc.access.tokencount.FusedTokenFilter;
+import edu.indiana.d2i.htrc.access.tokencount.NgramCountMap;
+import edu.indiana.d2i.htrc.access.tokencount.PageCountStore;
 import edu.indiana.d2i.htrc.access.tokencount.SimpleTokenFilterChain;
 import edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer;
+import edu.indiana.d2i.htrc.access.tokencount.StoredPageCountVolumeRetriever;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipper;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory.TokenCountZipTypeEnum;
 import edu.indiana.d2i.htrc.access.tokencount.TokenFilterChain;
+import edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter;
+import edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilterFactory;
 import edu.indiana.d2i.htrc.access.tokencount.Tokenizer;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
 
@@ -78,14 +96,33 @@ import edu.indiana.d2i.htrc.audit.AuditorFactory;
 @Path("/tokencount")
 public class TokenCountAccessResource {
     private static final Logger log = Logger.getLogger(TokenCountAccessResource.class);
+
+    protected static final String TOKEN_COUNT_ACCESSED_ACTION = "TOKEN_COUNT_ACCESSED";
+    protected static final String TOPK_PARAMETER_NAME = "topK";
+    protected static final String MIN_COUNT_PARAMETER_NAME = "minCount";
+    protected static final String FILTERS_PARAMETER_NAME = "filters";
+    protected static final String NGRAM_PARAMETER_NAME = "ngram";
+    protected static final String APPROXIMATE_PARAMETER_NAME = "approximate";
+    protected static final String STATS_PARAMETER_NAME = "stats";
+    protected static final String LAYOUT_PARAMETER_NAME = "layout";
     
     @POST
     @Consumes("application/x-www-form-urlencoded")
     public Response getResourcePost(@FormParam("volumeIDs") String volumeIDs,
+                               @FormParam("pageIDs") String pageIDs,
                                @FormParam("level") String countLevel,
                                @FormParam("sortBy") String sortBy,
                                @FormParam("sortOrder") String sortOrder,
+                               @FormParam("compression") String compression,
+                               @FormParam("format") String format,
                                @FormParam("version") int version,
+                               @FormParam("topK") String topK,
+                               @FormParam("minCount") String minCount,
+                               @FormParam("filters") String filters,
+                               @FormParam("ngram") String ngram,
+                               @FormParam("approximate") String approximate,
+                               @FormParam("stats") String stats,
+                               @FormParam("layout") String layout,
                                @Context HttpHeaders httpHeaders,
                                @Context HttpServletRequest httpServletRequest) {
         
@@ -93,12 +130,21 @@ public class TokenCountAccessResource {
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
         
-        Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
+        // a subset of pages is counted by naming the pages, in which case only those pages are fetched
+        Parser parser = ItemCoordinatesParserFactory.getParser((volumeIDs == null && pageIDs != null) ? IDTypeEnum.PAGE_ID : IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
         parser.setRetrieveMETS(false); // should never use METS for token count, so it is good to set it explicitly to false here
         
         try {
-            if (volumeIDs != null) {
-                List<? extends RequestedItemCoordinates> volumeIDList = parser.parse(volumeIDs);
+            if (volumeIDs != null && pageIDs != null) {
+                List<String> offendingParams = new LinkedList<String>();
+                offendingParams.add("volumeIDs");
+                offendingParams.add("pageIDs");
+                
+                throw new ParameterConflictException("token count", offendingParams);
+            }
+            
+            if (volumeIDs != null || pageIDs != null) {
+                List<? extends RequestedItemCoordinates> volumeIDList = parser.parse((volumeIDs != null) ? volumeIDs : pageIDs);
                 
                 // TODO: remove this hack
                 PolicyChecker policyChecker = PolicyCheckerRegistryImpl.getInstance().getPolicyChecker(MaxVolumesPolicyChecker.POLICY_NAME);
@@ -107,47 +153,133 @@ public class TokenCountAccessResource {
                 
                 for (RequestedItemCoordinates itemCoordinates : volumeIDList) {
                     String volumeID = itemCoordinates.getVolumeID();
-                    auditor.audit("REQUESTED", volumeID);
+                    List<String> pageSequences = itemCoordinates.getPageSequences();
+                    if (pageSequences != null) {
+                        auditor.audit("REQUESTED", volumeID, pageSequences.toArray(new String[0]));
+                    } else {
+                        auditor.audit("REQUESTED", volumeID);
+                    }
                 }
             
-                ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
-                volumeRetriever.setRetrievalIDs(volumeIDList);
-                
-                TokenCountZipper tokenCountZipper = null;
-                Comparator<Entry<String, Count>> comparator = null;
-                Tokenizer tokenizer = new SimpleTokenizer(SystemResourcesContainerSingleton.getInstance().getTokenCountExecutorService(), ParameterContainerSingleton.getInstance());
+                FormatEnum outputFormat = ArchiveWriterFactory.negotiateCountFormat(format, httpHeaders.getRequestHeader(Constants.HTTP_HEADER_ACCEPT));
+                int compressionLevel = ArchiveWriterFactory.negotiateCompressionLevel(compression, outputFormat);
+                TokenCountZipTypeEnum tokenCountZipType = null;
+                TokenCountComparatorTypeEnum comparatorType = null;
                 
                 if (countLevel != null && "page".equalsIgnoreCase(countLevel)) {
-                    tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.PAGE_LEVEL, auditor);
+                    tokenCountZipType = TokenCountZipTypeEnum.PAGE_LEVEL;
+                } else if (countLevel != null && "collection".equalsIgnoreCase(countLevel)) {
+                    tokenCountZipType = TokenCountZipTypeEnum.COLLECTION_LEVEL;
                 } else {
-                    tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.VOLUME_LEVEL, auditor);
+                    tokenCountZipType = TokenCountZipTypeEnum.VOLUME_LEVEL;
                 }
                 
                 if ("token".equalsIgnoreCase(sortBy)) {
                     if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_DESC);
+                        comparatorType = TokenCountComparatorTypeEnum.TOKEN_LEX_DESC;
                     } else {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+                        comparatorType = TokenCountComparatorTypeEnum.TOKEN_LEX_ASC;
                     }
                 } else if ("count".equalsIgnoreCase(sortBy)) {
                     if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+                        comparatorType = TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC;
                     } else {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC);
+                        comparatorType = TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC;
                     }
                 } else {
-                    comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.DEFAULT);
+                    comparatorType = TokenCountComparatorTypeEnum.DEFAULT;
+                }
+                
+                int topKValue = parseCountParameter(TOPK_PARAMETER_NAME, topK, 0);
+                int minCountValue = parseCountParameter(MIN_COUNT_PARAMETER_NAME, minCount, 1);
+                FusedTokenFilter fusedTokenFilter = parseFiltersParameter(FILTERS_PARAMETER_NAME, filters);
+                int ngramValue = parseCountParameter(NGRAM_PARAMETER_NAME, ngram, 1);
+                // n-grams are counted per volume only
+                if (ngramValue < 1 || ngramValue > NgramCountMap.MAX_N || (ngramValue > 1 && tokenCountZipType != TokenCountZipTypeEnum.VOLUME_LEVEL)) {
+                    throw new InvalidParameterValueException(NGRAM_PARAMETER_NAME, ngram);
+                }
+                if (approximate != null && Boolean.parseBoolean(approximate.trim())) {
+                    // approximate counts are summed over the collection, which is what sketches are for
+                    if (tokenCountZipType != TokenCountZipTypeEnum.COLLECTION_LEVEL) {
+                        throw new InvalidParameterValueException(APPROXIMATE_PARAMETER_NAME, approximate);
+                    }
+                    tokenCountZipType = TokenCountZipTypeEnum.APPROXIMATE_COLLECTION_LEVEL;
+                }
+                if (stats != null && stats.trim().length() > 0) {
+                    // the documents of the statistics are the volumes, so they replace volume level counts only
+                    if (tokenCountZipType != TokenCountZipTypeEnum.VOLUME_LEVEL || ngramValue > 1) {
+                        throw new InvalidParameterValueException(STATS_PARAMETER_NAME, stats);
+                    }
+                    if ("df".equalsIgnoreCase(stats.trim())) {
+                        tokenCountZipType = TokenCountZipTypeEnum.DOCUMENT_FREQUENCY;
+                    } else if ("tfidf".equalsIgnoreCase(stats.trim())) {
+                        // the scores are not counts, so they have no place in the int count column of the Arrow output
+                        if (outputFormat == FormatEnum.ARROW) {
+                            throw new InvalidParameterValueException(ArchiveWriterFactory.FORMAT_PARAMETER_NAME, format);
+                        }
+                        tokenCountZipType = TokenCountZipTypeEnum.TFIDF;
+                    } else {
+                        throw new InvalidParameterValueException(STATS_PARAMETER_NAME, stats);
+                    }
                 }
                 
-                TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
-                tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+                if (layout != null && layout.trim().length() > 0 && !"page".equalsIgnoreCase(layout.trim())) {
+                    // only page level counts can be gathered into an entry per volume, and the rows of the Arrow output already name their pages
+                    if (!"volume".equalsIgnoreCase(layout.trim()) || tokenCountZipType != TokenCountZipTypeEnum.PAGE_LEVEL || outputFormat == FormatEnum.ARROW) {
+                        throw new InvalidParameterValueException(LAYOUT_PARAMETER_NAME, layout);
+                    }
+                    tokenCountZipType = TokenCountZipTypeEnum.CONSOLIDATED_PAGE_LEVEL;
+                }
                 
-                StreamingOutput streamingOutput = new TokenCountZipStreamingOutput(volumeRetriever, tokenCountZipper, tokenizer, tokenFilterChain, comparator);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_TOKENCOUNT_ZIP).build();
+                ResultCache resultCache = ResultCache.getInstance();
+                String requestKey = null;
+                CachedResult cachedResult = null;
+                if (resultCache != null) {
+                    requestKey = ResultCache.computeKey(Constants.FILENAME_TOKENCOUNT + ";" + tokenCountZipType + ";" + comparatorType + ";" + topKValue + ";" + minCountValue + ";" + ngramValue + ";" + ((fusedTokenFilter != null) ? fusedTokenFilter.getName() : "") + ";" + outputFormat + ";" + compressionLevel, volumeIDList);
+                    cachedResult = resultCache.lookup(requestKey);
+                }
+                
+                StreamingOutput streamingOutput = null;
+                ResponseBuilder responseBuilder = null;
+                if (cachedResult != null) {
+                    if (log.isDebugEnabled()) log.debug("serving cached result " + requestKey);
+                    streamingOutput = new CachedResultStreamingOutput(cachedResult, volumeIDList, TOKEN_COUNT_ACCESSED_ACTION, auditor);
+                    responseBuilder = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_LENGTH, cachedResult.getLength());
+                } else {
+                    Tokenizer tokenizer = new SimpleTokenizer(SystemResourcesContainerSingleton.getInstance().getTokenCountExecutorService(), ParameterContainerSingleton.getInstance());
+                    TokenCountZipper tokenCountZipper = TokenCountZipperFactory.newInstance(tokenCountZipType, auditor, outputFormat, compressionLevel, minCountValue, topKValue, ngramValue);
+                    Comparator<Entry<String, Count>> comparator = TokenCountComparatorFactory.getComparator(comparatorType);
+                    
+                    TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
+                    tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+                    if (fusedTokenFilter != null) {
+                        tokenFilterChain.addFilter(fusedTokenFilter);
+                    }
+                    
+                    ThrottledVolumeRetrieverImpl throttledVolumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
+                    VolumeRetriever volumeRetriever = throttledVolumeRetriever;
+                    PageCountStore pageCountStore = PageCountStore.getInstance();
+                    if (pageCountStore != null && ngramValue == 1) {
+                        // volumes whose page counts are stored are not fetched at all, except for n-grams, which need the text
+                        StoredPageCountVolumeRetriever storedPageCountVolumeRetriever = new StoredPageCountVolumeRetriever(throttledVolumeRetriever, volumeIDList, pageCountStore, PageCountStore.fingerprint(tokenizer, tokenFilterChain));
+                        throttledVolumeRetriever.setRetrievalIDs(storedPageCountVolumeRetriever.getUnstoredIdentifiers());
+                        volumeRetriever = storedPageCountVolumeRetriever;
+                    } else {
+                        throttledVolumeRetriever.setRetrievalIDs(volumeIDList);
+                    }
+                    
+                    streamingOutput = new TokenCountZipStreamingOutput(volumeRetriever, tokenCountZipper, tokenizer, tokenFilterChain, comparator);
+                    ResultWriter resultWriter = (resultCache != null) ? resultCache.newResultWriter(requestKey) : null;
+                    if (resultWriter != null) {
+                        streamingOutput = new CachingStreamingOutput(streamingOutput, volumeRetriever, resultWriter);
+                    }
+                    responseBuilder = Response.ok(streamingOutput);
+                }
+                response = responseBuilder.header(Constants.HTTP_HEADER_CONTENT_TYPE, outputFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, outputFormat.getContentDisposition(Constants.FILENAME_TOKENCOUNT)).header(Constants.HTTP_HEADER_COMPRESSION_LEVEL, compressionLevel).build();
             } else {
-                log.error("Required parameter volumeIDs is null");
-                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Missing required parameter volumeIDs").build();
-                auditor.error("Missing Parameter", "Parameter volumeIDs required", "");
+                log.error("Required parameters volumeIDs and pageIDs are both null");
+                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Missing required parameter volumeIDs or pageIDs").build();
+                auditor.error("Missing Parameter", "Parameter volumeIDs or pageIDs required", "");
             }
             
         } catch (ParseException e) {
@@ -158,6 +290,14 @@ public class TokenCountAccessResource {
             log.error("PolicyViolationException", e);
             response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Request too greedy. " + e.getMessage()).build();
             auditor.error("PolicyViolationException", "Request Too Greedy", e.getMessage());
+        } catch (ParameterConflictException e) {
+            log.error("ParameterConflictException", e);
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
+            auditor.error("ParameterConflictException", "Conflicting Parameters", e.getMessage());
+        } catch (InvalidParameterValueException e) {
+            log.error("InvalidParameterValueException", e);
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
+            auditor.error("InvalidParameterValueException", "Invalid Parameter Value", e.getMessage());
         }
         
         
@@ -165,5 +305,51 @@ public class TokenCountAccessResource {
         
     }
 
+    /**
+     * Method to parse a parameter whose value is a non-negative count
+     * @param parameterName name of the parameter
+     * @param value value of the parameter, may be <code>null</code>
+     * @param defaultValue the value used if the parameter is absent
+     * @return the parsed value
+     * @throws InvalidParameterValueException thrown if the value is not a non-negative integer
+     */
+    protected static int parseCountParameter(String parameterName, String value, int defaultValue) throws InvalidParameterValueException {
+        int count = defaultValue;
+        if (value != null && value.trim().length() > 0) {
+            try {
+                count = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterValueException(parameterName, value);
+            }
+            if (count < 0) {
+                throw new InvalidParameterValueException(parameterName, value);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method to parse a parameter whose value is a comma separated list of TokenSliceFilter names
+     * @param parameterName name of the parameter
+     * @param value value of the parameter, may be <code>null</code>
+     * @return a FusedTokenFilter applying the named filters in order, or <code>null</code> if no filter is named
+     * @throws InvalidParameterValueException thrown if a name is not the name of a filter
+     */
+    protected static FusedTokenFilter parseFiltersParameter(String parameterName, String value) throws InvalidParameterValueException {
+        FusedTokenFilter fusedTokenFilter = null;
+        if (value != null && value.trim().length() > 0) {
+            List<TokenSliceFilter> filterList = new ArrayList<TokenSliceFilter>();
+            for (String name : value.split(",")) {
+                TokenSliceFilter filter = TokenSliceFilterFactory.getFilter(name.trim());
+                if (filter == null) {
+                    throw new InvalidParameterValueException(parameterName, value);
+                }
+                filterList.add(filter);
+            }
+            fusedTokenFilter = new FusedTokenFilter(filterList);
+        }
+        return fusedTokenFilter;
+    }
+
 }
 
@@ -33,6 +33,7 @@ package edu.indiana.d2i.htrc.access;
 
 import java.text.ParseException;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
@@ -44,18 +45,24 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
-import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
-import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.CachedResult;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.ResultWriter;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
-import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
-import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
+import edu.indiana.d2i.htrc.access.response.CachedResultStreamingOutput;
+import edu.indiana.d2i.htrc.access.response.CachingStreamingOutput;
 import edu.indiana.d2i.htrc.access.response.VolumeZipStreamingOutput;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.DownloadManifest;
+import edu.indiana.d2i.htrc.access.zip.FramedEntryCache;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
@@ -73,12 +80,17 @@ public class VolumeAccessResource {
     
     private static Logger log = Logger.getLogger(VolumeAccessResource.class);
 
+    protected static final String ACCESSED_ACTION = "ACCESSED";
+
     /**
      * Wrapper method to allow requests made via HTTP Get
      * 
      * @param volumeIDs a single String container raw IDs of requested pages
      * @param concatenate parameter to specify whether the pages of each request volume to be concatenated into a single file or as separate text files.
      * @param retrieveMETS parameter to specify if METS metadata should also be returned.
+     * @param layout parameter to specify the layout of the pages of each volume, either pages for the layout chosen by concat or indexed for a single entry per volume followed by a page offset table. Defaults to pages.
+     * @param compression parameter to specify the compression level of the zip entries, either 0 to 9 or one of none, fast, default and best. Defaults to none.
+     * @param format parameter to specify the output format, one of zip, tar, tar.gz, ndjson and ndjson.gz. Defaults to the format named in the Accept header, or zip.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
@@ -88,11 +100,14 @@ public class VolumeAccessResource {
     public Response getResourceGet(@QueryParam("volumeIDs") String volumeIDs,
                                    @QueryParam("concat") boolean concatenate,
                                    @QueryParam("mets") boolean retrieveMETS,
+                                   @QueryParam("layout") String layout,
+                                   @QueryParam("compression") String compression,
+                                   @QueryParam("format") String format,
                                    @QueryParam("version") int version,
                                    @Context HttpHeaders httpHeaders,
                                    @Context HttpServletRequest httpServletRequest) {
         
-        return getResourcePost(volumeIDs, concatenate, retrieveMETS, version, httpHeaders, httpServletRequest);
+        return getResourcePost(volumeIDs, concatenate, retrieveMETS, layout, compression, format, version, httpHeaders, httpServletRequest);
     }
         
     /**
@@ -101,6 +116,9 @@ public class VolumeAccessResource {
      * @param volumeIDs a single String containing raw IDs of the requested volumes
      * @param concatenate parameter to specify whether the pages of each request volume to be concatenated into a single file or as spearate text files.
      * @param retrieveMETS parameter to specify if METS metadata should also be returned.
+     * @param layout parameter to specify the layout of the pages of each volume, either pages for the layout chosen by concat or indexed for a single entry per volume followed by a page offset table. Defaults to pages.
+     * @param compression parameter to specify the compression level of the zip entries, either 0 to 9 or one of none, fast, default and best. Defaults to none.
+     * @param format parameter to specify the output format, one of zip, tar, tar.gz, ndjson and ndjson.gz. Defaults to the format named in the Accept header, or zip.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
@@ -111,6 +129,9 @@ public class VolumeAccessResource {
     public Response getResourcePost(@FormParam("volumeIDs") String volumeIDs, 
                                 @FormParam("concat") boolean concatenate,
                                 @FormParam("mets") boolean retrieveMETS,
+                                @FormParam("layout") String layout,
+                                @FormParam("compression") String compression,
+                                @FormParam("format") String format,
                                 @FormParam("version") int version,
                                 @Context HttpHeaders httpHeaders,
                                 @Context HttpServletRequest httpServletRequest) {
@@ -119,6 +140,9 @@ public class VolumeAccessResource {
             log.debug("volumeIDs = " + volumeIDs);
             log.debug("concatenate = " + concatenate);
             log.debug("mets = " + retrieveMETS);
+            log.debug("layout = " + layout);
+            log.debug("compression = " + compression);
+            log.debug("format = " + format);
             log.debug("version = " + version);
         }
                 
@@ -127,41 +151,92 @@ public class VolumeAccessResource {
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
         
-        Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
-        parser.setRetrieveMETS(retrieveMETS);
-        
         try {
-            if (volumeIDs != null) {
-                List<? extends RequestedItemCoordinates> volumeIDList = parser.parse(volumeIDs);
-                
-                for (RequestedItemCoordinates volumeIdentifier : volumeIDList) {
-                    String volumeID = volumeIdentifier.getVolumeID();
-                    auditor.audit("REQUESTED", volumeID);
+            DownloadRequest downloadRequest = DownloadRequest.newVolumeRequest(volumeIDs, concatenate, retrieveMETS, layout, compression, format, httpHeaders.getRequestHeader(Constants.HTTP_HEADER_ACCEPT), auditor);
+            List<? extends RequestedItemCoordinates> volumeIDList = downloadRequest.getIdentifiers();
+            FormatEnum outputFormat = downloadRequest.getOutputFormat();
+            ZipTypeEnum zipMakerType = downloadRequest.getZipMakerType();
+            int compressionLevel = downloadRequest.getCompressionLevel();
+
+            // uncompressed zip downloads are written deterministically so that an interrupted one can be resumed with a Range request
+            boolean resumable = DownloadManifest.isResumable(outputFormat, compressionLevel);
+
+            // the same key names the cached response and the manifest of the download
+            ResultCache resultCache = ResultCache.getInstance();
+            String requestKey = null;
+            if (resumable || resultCache != null) {
+                requestKey = downloadRequest.computeRequestKey();
+            }
+
+            // a Range request is always answered through the manifest of the download
+            CachedResult cachedResult = null;
+            if (resultCache != null && httpHeaders.getRequestHeader(Constants.HTTP_HEADER_RANGE) == null) {
+                cachedResult = resultCache.lookup(requestKey);
+            }
+
+            DownloadManifest downloadManifest = null;
+            if (cachedResult == null && resumable) {
+                List<String> rangeHeaders = httpHeaders.getRequestHeader(Constants.HTTP_HEADER_RANGE);
+                List<String> ifRangeHeaders = httpHeaders.getRequestHeader(Constants.HTTP_HEADER_IF_RANGE);
+                // a resuming client comes back while the service may still be recording the rest of its earlier attempt, which it waits for
+                downloadManifest = DownloadManifest.open(requestKey, rangeHeaders != null || ifRangeHeaders != null);
+                if (downloadManifest != null) {
+                    downloadManifest.resolveStartOffset(rangeHeaders, ifRangeHeaders);
+                }
+            }
+
+            if (cachedResult != null) {
+                if (log.isDebugEnabled()) log.debug("serving cached result " + requestKey);
+                StreamingOutput streamingOutput = new CachedResultStreamingOutput(cachedResult, volumeIDList, ACCESSED_ACTION, auditor);
+                ResponseBuilder responseBuilder = Response.ok(streamingOutput);
+                if (resumable) {
+                    responseBuilder.header(Constants.HTTP_HEADER_ACCEPT_RANGES, DownloadManifest.RANGE_UNIT).header(Constants.HTTP_HEADER_ETAG, "\"" + requestKey + "\"");
+                }
+                response = responseBuilder.header(Constants.HTTP_HEADER_CONTENT_TYPE, outputFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, outputFormat.getContentDisposition(Constants.FILENAME_VOLUMES)).header(Constants.HTTP_HEADER_COMPRESSION_LEVEL, compressionLevel).header(Constants.HTTP_HEADER_CONTENT_LENGTH, cachedResult.getLength()).build();
+            } else if (downloadManifest != null && !downloadManifest.isStartOffsetSatisfiable()) {
+                log.error("Requested range not satisfiable: " + downloadManifest.getStartOffset());
+                response = Response.status(Constants.HTTP_STATUS_REQUESTED_RANGE_NOT_SATISFIABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).header(Constants.HTTP_HEADER_CONTENT_RANGE, downloadManifest.getContentRange()).entity("Requested range not satisfiable").build();
+                auditor.error("Range Not Satisfiable", "Requested Range Beyond End Of Download", String.valueOf(downloadManifest.getStartOffset()));
+                downloadManifest.close();
+            } else {
+                if (downloadManifest != null) {
+                    downloadManifest.skipSentVolumes(volumeIDList);
                 }
 
                 ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
-                volumeRetriever.setRetrievalIDs(volumeIDList);
 
-                ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.COMBINE_PAGE : ZipTypeEnum.SEPARATE_PAGE;
-                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor);
-                StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_VOLUMES_ZIP).build();
+                // volumes whose combined text entry is already framed are spliced in as they are, without fetching their pages
+                Map<String, FramedEntryCache.FramedEntry> framedEntries = null;
+                if (zipMakerType == ZipTypeEnum.COMBINE_PAGE && FramedEntryCache.isApplicable(outputFormat, compressionLevel, downloadManifest != null)) {
+                    framedEntries = FramedEntryCache.getInstance().lookup(volumeIDList, compressionLevel);
+                    volumeRetriever.setFramedVolumeIDs(framedEntries.keySet());
+                }
+                volumeRetriever.setRetrievalIDs(volumeIDList);
 
-            } else {
-                log.error("Required parameter volumeIDs is null");
-                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Missing required parameter volumeIDs").build();
-                auditor.error("Missing Parameter", "Parameter volumeIDs required", "");
+                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor, outputFormat, compressionLevel, downloadManifest, framedEntries);
+                StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor, downloadManifest);
+                if (resultCache != null && (downloadManifest == null || downloadManifest.getStartOffset() == 0L)) {
+                    ResultWriter resultWriter = resultCache.newResultWriter(requestKey);
+                    if (resultWriter != null) {
+                        streamingOutput = new CachingStreamingOutput(streamingOutput, volumeRetriever, resultWriter);
+                    }
+                }
+                ResponseBuilder responseBuilder = null;
+                if (downloadManifest != null && downloadManifest.getStartOffset() > 0L) {
+                    responseBuilder = Response.status(Constants.HTTP_STATUS_PARTIAL_CONTENT).entity(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_RANGE, downloadManifest.getContentRange());
+                } else {
+                    responseBuilder = Response.ok(streamingOutput);
+                }
+                if (downloadManifest != null) {
+                    responseBuilder.header(Constants.HTTP_HEADER_ACCEPT_RANGES, DownloadManifest.RANGE_UNIT).header(Constants.HTTP_HEADER_ETAG, downloadManifest.getETag());
+                }
+                response = responseBuilder.header(Constants.HTTP_HEADER_CONTENT_TYPE, outputFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, outputFormat.getContentDisposition(Constants.FILENAME_VOLUMES)).header(Constants.HTTP_HEADER_COMPRESSION_LEVEL, compressionLevel).build();
             }
             
         } catch (ParseException e) {
-            log.error("ParseException", e);
-            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Malformed Volume ID list. Offending token: " + e.getMessage()).build();
-            auditor.error("ParseException", "Malformed Volume ID List", e.getMessage());
-            
-        } catch (PolicyViolationException e) {
-            log.error("PolicyViolationException", e);
-            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Request too greedy. " + e.getMessage()).build();
-            auditor.error("PolicyViolationException", "Request Too Greedy", e.getMessage());
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(DownloadRequest.reportBadRequest(IDTypeEnum.VOLUME_ID, e, auditor)).build();
+        } catch (DataAPIException e) {
+            response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(DownloadRequest.reportBadRequest(IDTypeEnum.VOLUME_ID, e, auditor)).build();
         }
         
         return response;
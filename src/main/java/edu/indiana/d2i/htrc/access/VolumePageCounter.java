@@ -0,0 +1,54 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumePageCounter.java
+# Description:  Interface definition for reporting the number of pages retrieved for a whole volume
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+/**
+ * Interface definition for reporting the number of pages retrieved for a whole volume
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface VolumePageCounter {
+
+    /**
+     * Method to get the number of pages retrieved for a volume requested as a whole, which is known once the page count of the volume has been
+     * looked up
+     * @param volumeID the ID of the volume
+     * @return the number of pages retrieved for the volume, or <code>-1</code> if it is not known
+     */
+    public int getVolumePageCount(String volumeID);
+    
+}
+
@@ -59,5 +59,11 @@ public interface VolumeRetriever {
      */
     public VolumeReader nextVolume() throws KeyNotFoundException, PolicyViolationException, RepositoryException;
     
+    /**
+     * Method for checking if any volume has failed to be retrieved so far
+     * @return <code>true</code> if any volume has failed to be retrieved, <code>false</code> otherwise
+     */
+    public boolean hasErrors();
+    
 }
 
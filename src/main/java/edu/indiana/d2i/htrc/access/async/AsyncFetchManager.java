@@ -31,12 +31,15 @@
  */
 package edu.indiana.d2i.htrc.access.async;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeInfo;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.read.HectorResource;
 
@@ -95,6 +98,49 @@ public class AsyncFetchManager {
         return future;
     }
     
+    /**
+     * Method to submit an HTRCItemIdentifier for async fetch, and to be notified once the fetch has completed, whether or not it succeeded
+     * @param itemIdentifier an HTRCItemIdentifier to be fetched asynchronously
+     * @param completionListener a Runnable object run by the fetching thread once the Future is done
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemIdentifier, final Runnable completionListener) {
+        CallableVolumeFetcher callableVolumeFetcher = new CallableVolumeFetcher(itemIdentifier, hectorResource);
+        FutureTask<VolumeReader> future = new FutureTask<VolumeReader>(callableVolumeFetcher) {
+            @Override
+            protected void done() {
+                completionListener.run();
+            }
+        };
+        executorService.execute(future);
+        return future;
+    }
+    
+    /**
+     * Method to submit the lookup of the VolumeInfo of a volume, so that the calling thread does not wait on Cassandra for it
+     * @param volumeID the volumeID of the volume
+     * @param completionListener a Runnable object run by the fetching thread once the Future is done, or <code>null</code>
+     * @return a Future of VolumeInfo object
+     */
+    public Future<VolumeInfo> submitVolumeInfo(final String volumeID, final Runnable completionListener) {
+        Callable<VolumeInfo> callable = new Callable<VolumeInfo>() {
+            @Override
+            public VolumeInfo call() throws Exception {
+                return hectorResource.getVolumeInfo(volumeID);
+            }
+        };
+        FutureTask<VolumeInfo> future = new FutureTask<VolumeInfo>(callable) {
+            @Override
+            protected void done() {
+                if (completionListener != null) {
+                    completionListener.run();
+                }
+            }
+        };
+        executorService.execute(future);
+        return future;
+    }
+    
     /**
      * Method to dispose of resources such as the ExecutorService object
      */
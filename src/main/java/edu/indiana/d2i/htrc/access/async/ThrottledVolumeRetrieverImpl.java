@@ -46,6 +46,7 @@ import org.apache.log4j.Logger;
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
 import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumePageCounter;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.async.ExceptionContainer.ExceptionType;
@@ -63,7 +64,7 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  * @author Yiming Sun
  *
  */
-public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
+public class ThrottledVolumeRetrieverImpl implements VolumeRetriever, VolumePageCounter {
 
     private static Logger log = Logger.getLogger(ThrottledVolumeRetrieverImpl.class);
     
@@ -83,6 +84,7 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     
     protected List<? extends RequestedItemCoordinates> identifierList = null;
     protected List<ItemCoordinatesImpl> workingList = null;
+    protected List<PendingIdentifier> pendingList = null;
     protected List<Future<VolumeReader>> resultList = null;
     protected List<ExceptionContainer> exceptionList = null;
     protected final Auditor auditor;
@@ -96,6 +98,39 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     protected Map<Future<VolumeReader>, ItemCoordinatesImpl> resultToIDMap = null;
     
     protected Set<String> exceptionSet = new HashSet<String>();
+
+    // set once any volume failed to be fetched, whether or not its exception is reported to the client
+    protected boolean errorOccurred = false;
+
+    // volumes whose combined text is already framed, so only their metadata is fetched
+    protected Set<String> framedVolumeIDs = null;
+
+    // notified by the fetching threads whenever a dispatched job completes
+    protected Runnable volumeReadyListener = null;
+    
+    // the number of pages to be retrieved for each volume requested as a whole, as generated from its page count
+    protected Map<String, Integer> volumePageCountMap = null;
+    
+    /**
+     * This class holds a requested item that is waiting to be broken down into jobs, together with the lookup of the page count of its volume if the
+     * whole volume is requested
+     * 
+     * @author Yiming Sun
+     *
+     */
+    protected static class PendingIdentifier {
+        protected final RequestedItemCoordinates identifier;
+        protected final Future<VolumeInfo> volumeInfoFuture;
+        
+        PendingIdentifier(RequestedItemCoordinates identifier, Future<VolumeInfo> volumeInfoFuture) {
+            this.identifier = identifier;
+            this.volumeInfoFuture = volumeInfoFuture;
+        }
+        
+        boolean isReady() {
+            return volumeInfoFuture == null || volumeInfoFuture.isDone();
+        }
+    }
     
     /**
      * Method to initialize this class
@@ -130,70 +165,82 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     protected ThrottledVolumeRetrieverImpl(Auditor auditor) {
         this.auditor = auditor;
         this.workingList = new LinkedList<ItemCoordinatesImpl>();
+        this.pendingList = new LinkedList<PendingIdentifier>();
         this.resultList = new LinkedList<Future<VolumeReader>>();
         this.exceptionList = new LinkedList<ExceptionContainer>();
         this.resultToIDMap = new HashMap<Future<VolumeReader>, ItemCoordinatesImpl>();
+        this.volumePageCountMap = new HashMap<String, Integer>();
     }
     
+    /**
+     * Method for setting the volumeIDs of volumes whose pages are not to be fetched because their text is available already.  Such a volume still yields
+     * a VolumeReader, without pages, in its place in the retrieval order.  Must be called before setRetrievalIDs()
+     * @param framedVolumeIDs a Set of volumeIDs
+     */
+    public void setFramedVolumeIDs(Set<String> framedVolumeIDs) {
+        this.framedVolumeIDs = framedVolumeIDs;
+    }
+
+    /**
+     * Method for setting a Runnable object to be run whenever a dispatched job or the lookup of the page count of a volume completes, which is when
+     * isNextVolumeReady() may have become <code>true</code>.  The Runnable is run by the fetching threads so it should return quickly.  Must be called
+     * before setRetrievalIDs()
+     * @param volumeReadyListener a Runnable object
+     */
+    public void setVolumeReadyListener(Runnable volumeReadyListener) {
+        this.volumeReadyListener = volumeReadyListener;
+    }
+
     /**
      * Method for setting a List of HTRCItemIdentifier objects for retrieval
      * @param identifiers a List of HTRCItemIdentifier objects for retrieval
      */
     public void setRetrievalIDs(List<? extends RequestedItemCoordinates> identifiers) {
         this.identifierList = identifiers;
-        dispatchWork();
+        dispatchWork(false);
     }
     
     /**
-     * Method that breaks down the workload into a number of jobs and dispatches them to the asynchronous fetch mechanism
+     * Method that breaks down the workload into a number of jobs and dispatches them to the asynchronous fetch mechanism.  The page count of a volume
+     * requested as a whole is looked up by the fetching threads as well, so the calling thread never waits on Cassandra unless told to.  Requested items
+     * are broken down in the order they were requested, so the jobs of an item wait until the page count of every volume before it is known
      * 
+     * @param wait <code>true</code> to wait for the lookup of a page count if nothing else can be dispatched and no job is in progress
      * @return the number of jobs dispatched
      */
-    protected int dispatchWork() {
-        int availableSlots = MAX_ASYNC_FETCH_ENTRY_COUNT - resultList.size();
+    protected int dispatchWork(boolean wait) {
         int jobDispatched = 0;
         
-        if (log.isDebugEnabled()) log.debug("availableSlots: " + availableSlots);
-        
         boolean done = false;
-        while (availableSlots > 0 && !done) {
+        while (!done) {
+            // items waiting for their page count hold their slots, so the lookups run ahead of the fetching by no more than the fetch jobs would
+            int availableSlots = MAX_ASYNC_FETCH_ENTRY_COUNT - resultList.size() - pendingList.size();
             if (!workingList.isEmpty()) {
-                ItemCoordinatesImpl identifierImpl = workingList.remove(0);
-                Future<VolumeReader> future = asyncFetchManager.submit(identifierImpl);
-                resultList.add(future);
-                resultToIDMap.put(future, identifierImpl);
-                availableSlots--;
-                jobDispatched++;
-                if (log.isDebugEnabled()) log.debug("workingList not empty, availableSlots: " + availableSlots + " jobDispatched: " + jobDispatched);
-            } else if (!identifierList.isEmpty()){
-                if (log.isDebugEnabled()) log.debug("workingList empty, breakdown identifierList");
+                if (availableSlots > 0) {
+                    ItemCoordinatesImpl identifierImpl = workingList.remove(0);
+                    Future<VolumeReader> future = (volumeReadyListener != null) ? asyncFetchManager.submit(identifierImpl, volumeReadyListener) : asyncFetchManager.submit(identifierImpl);
+                    resultList.add(future);
+                    resultToIDMap.put(future, identifierImpl);
+                    jobDispatched++;
+                    if (log.isDebugEnabled()) log.debug("workingList not empty, availableSlots: " + (availableSlots - 1) + " jobDispatched: " + jobDispatched);
+                } else {
+                    done = true;
+                }
+            } else if (!pendingList.isEmpty() && pendingList.get(0).isReady()) {
+                breakdownIdentifier(pendingList.remove(0));
+            } else if (!identifierList.isEmpty() && availableSlots > 0) {
+                if (log.isDebugEnabled()) log.debug("workingList empty, take the next item from identifierList");
                 RequestedItemCoordinates identifier = identifierList.remove(0);
                 String volumeID = identifier.getVolumeID();
-                List<String> pageSequences = identifier.getPageSequences();
-                if (pageSequences == null) {
-                    try {
-                        VolumeInfo volumeInfo = hectorResource.getVolumeInfo(volumeID);
-                        int pageCount = volumeInfo.getPageCount();
-                        pageSequences = generatePageSequenceList(pageCount);
-                    } catch (RepositoryException re) {
-                        log.error("RepositoryException while getVolumeInfo", re);
-                        enlistException(re, auditor);
-                    } catch (KeyNotFoundException knfe) {
-                        log.error("KeyNotFoundException while getVolumeInfo", knfe);
-                        enlistException(knfe, auditor);
-                    }
-                }
-                
-                if (pageSequences != null) {
-                    List<ItemCoordinatesImpl> workingIDList = breakdownPageSequences(volumeID, pageSequences);
-                    workingList.addAll(workingIDList);
-                }
-                
-                List<String> metadataNames = identifier.getMetadataNames();
-                if (metadataNames != null) {
-                    List<ItemCoordinatesImpl> metadataList = breakdownMetadataNames(volumeID, metadataNames);
-                    workingList.addAll(metadataList);
+                Future<VolumeInfo> volumeInfoFuture = null;
+                // an identifier without pages or metadata makes the fetcher return an empty VolumeReader without touching Cassandra, so a framed volume needs no page count
+                if (identifier.getPageSequences() == null && (framedVolumeIDs == null || !framedVolumeIDs.contains(volumeID))) {
+                    volumeInfoFuture = asyncFetchManager.submitVolumeInfo(volumeID, volumeReadyListener);
                 }
+                pendingList.add(new PendingIdentifier(identifier, volumeInfoFuture));
+            } else if (!pendingList.isEmpty() && wait && resultList.isEmpty()) {
+                if (log.isDebugEnabled()) log.debug("waiting for the page count of " + pendingList.get(0).identifier.getVolumeID());
+                breakdownIdentifier(pendingList.remove(0));
             } else {
                 if (log.isDebugEnabled()) log.debug("no more work to dispatch");
                 done = true;
@@ -203,6 +250,48 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         return jobDispatched;
     }
     
+    /**
+     * Method that breaks down a requested item into jobs and adds them to the working list, waiting for the page count of its volume if it is not known yet
+     * @param pendingIdentifier a PendingIdentifier object
+     */
+    protected void breakdownIdentifier(PendingIdentifier pendingIdentifier) {
+        RequestedItemCoordinates identifier = pendingIdentifier.identifier;
+        String volumeID = identifier.getVolumeID();
+        List<String> pageSequences = identifier.getPageSequences();
+        if (pendingIdentifier.volumeInfoFuture == null && pageSequences == null) {
+            workingList.add(new ItemCoordinatesImpl(volumeID));
+        } else if (pendingIdentifier.volumeInfoFuture != null) {
+            try {
+                VolumeInfo volumeInfo = pendingIdentifier.volumeInfoFuture.get();
+                int pageCount = volumeInfo.getPageCount();
+                pageSequences = generatePageSequenceList(pageCount);
+                volumePageCountMap.put(volumeID, Integer.valueOf(pageSequences.size()));
+            } catch (InterruptedException ie) {
+                log.error("Interrupted while waiting for getVolumeInfo", ie);
+                errorOccurred = true;
+            } catch (ExecutionException ee) {
+                log.error("Exception while getVolumeInfo", ee);
+                Throwable throwable = ee.getCause();
+                if (throwable instanceof Exception) {
+                    enlistException((Exception)throwable, auditor);
+                } else {
+                    errorOccurred = true;
+                }
+            }
+        }
+        
+        if (pageSequences != null) {
+            List<ItemCoordinatesImpl> workingIDList = breakdownPageSequences(volumeID, pageSequences);
+            workingList.addAll(workingIDList);
+        }
+        
+        List<String> metadataNames = identifier.getMetadataNames();
+        if (metadataNames != null) {
+            List<ItemCoordinatesImpl> metadataList = breakdownMetadataNames(volumeID, metadataNames);
+            workingList.addAll(metadataList);
+        }
+    }
+    
     /**
      * Method that breaks down the total number of pages to be retrieved for a given volumeID into a number of smaller batches
      * @param volumeID volumeID of the volume or pages to be retrieved
@@ -258,10 +347,83 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
      */
     @Override
     public boolean hasMoreVolumes() {
-        boolean moreVolumes = !resultList.isEmpty() || !workingList.isEmpty() || !identifierList.isEmpty() || !exceptionList.isEmpty();
+        boolean moreVolumes = !resultList.isEmpty() || !workingList.isEmpty() || !pendingList.isEmpty() || !identifierList.isEmpty() || !exceptionList.isEmpty();
         return moreVolumes;
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasErrors()
+     */
+    @Override
+    public boolean hasErrors() {
+        return errorOccurred;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumePageCounter#getVolumePageCount(java.lang.String)
+     */
+    @Override
+    public int getVolumePageCount(String volumeID) {
+        Integer pageCount = volumePageCountMap.get(volumeID);
+        return pageCount != null ? pageCount.intValue() : -1;
+    }
+
+    /**
+     * Method to check if nextVolume() can return without waiting for an asynchronous fetch or the lookup of a page count.  Jobs found to have failed
+     * are taken off the result list on the way, the same as nextVolume() would do
+     * @return <code>true</code> if the next job has completed, or if no jobs are left, <code>false</code> otherwise
+     */
+    public boolean isNextVolumeReady() {
+        boolean ready = false;
+        boolean done = false;
+        
+        while (!done) {
+            if (!resultList.isEmpty()) {
+                Future<VolumeReader> future = resultList.get(0);
+                if (future.isDone()) {
+                    boolean failed = true;
+                    try {
+                        future.get();
+                        failed = false;
+                        ready = true;
+                        done = true;
+                    } catch (InterruptedException ie) {
+                        log.error("Async Fetch Interrupted: ", ie);
+                        errorOccurred = true;
+                    } catch (ExecutionException ee) {
+                        log.error("future.get() caused exception", ee);
+                        Throwable throwable = ee.getCause();
+                        if (throwable instanceof Exception) {
+                            enlistException((Exception)throwable, auditor);
+                        }
+                    }
+                    
+                    if (failed) {
+                        resultList.remove(0);
+                        resultToIDMap.remove(future);
+                        if (resultList.size() <= MIN_ENTRY_COUNT_TRIGGER_DISPATCH) {
+                            if (log.isDebugEnabled()) log.debug("trigger threshold reached");
+                            dispatchWork(false);
+                        }
+                    }
+                } else {
+                    done = true;
+                }
+            } else if (!workingList.isEmpty() || !pendingList.isEmpty() || !identifierList.isEmpty()) {
+                if (log.isDebugEnabled()) log.debug("resultList empty, dispatch more work");
+                dispatchWork(false);
+                if (resultList.isEmpty() && (!workingList.isEmpty() || !pendingList.isEmpty() || !identifierList.isEmpty())) {
+                    // the page count of the next volume is still being looked up, and the listener is run once it is known
+                    done = true;
+                }
+            } else {
+                ready = true;
+                done = true;
+            }
+        }
+        return ready;
+    }
+
     /**
      * @see edu.indiana.d2i.htrc.access.VolumeRetriever#nextVolume()
      */
@@ -280,6 +442,7 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
                     done = true;
                 } catch (InterruptedException ie) {
                     log.error("Async Fetch Interrupted: ", ie);
+                    errorOccurred = true;
                 } catch (ExecutionException ee) {
                     log.error("future.get() caused exception", ee);
                     Throwable throwable = ee.getCause();
@@ -292,12 +455,12 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
                 
                 if (resultList.size() <= MIN_ENTRY_COUNT_TRIGGER_DISPATCH) {
                     if (log.isDebugEnabled()) log.debug("trigger threshold reached");
-                    dispatchWork();
+                    dispatchWork(false);
                 }
                 
-            } else if (!workingList.isEmpty() || !identifierList.isEmpty()) {
+            } else if (!workingList.isEmpty() || !pendingList.isEmpty() || !identifierList.isEmpty()) {
                 if (log.isDebugEnabled()) log.debug("resultList empty, dispatch more work");
-                dispatchWork();
+                dispatchWork(true);
             } else if (!exceptionList.isEmpty()) {
                 if (log.isDebugEnabled()) log.debug("only exceptions are left");
                 ExceptionContainer exceptionContainer = exceptionList.remove(0);
@@ -340,6 +503,7 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
      * @param auditor an Auditor object
      */
     protected void enlistException(Exception exception, Auditor auditor) {
+        errorOccurred = true;
         if (exceptionList.size() < MAX_EXCEPTIONS_TO_REPORT) {
             if (!exceptionSet.contains(exception.getMessage())) {
                 exceptionSet.add(exception.getLocalizedMessage());
@@ -0,0 +1,406 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ResultCache.java
+# Description:  This class is a size bounded disk cache of finished responses keyed by a hash of the request
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+
+/**
+ * This class is a disk cache of finished responses, so that a request identical to an earlier one is answered by copying a file instead of fetching the
+ * volumes from Cassandra and zipping or tokenizing them again.  Responses are keyed by a SHA-256 hash of the endpoint, the options that affect the output
+ * and the parsed item coordinates.  A response is written to a temporary file while it is streamed to the client and only enters the cache once it has been
+ * generated completely and without errors.  The least recently used responses are evicted when the total size of the cache exceeds its bound.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ResultCache {
+
+    private static Logger log = Logger.getLogger(ResultCache.class);
+
+    public static final String PN_RESULT_CACHE_DIR = "result.cache.dir";
+    public static final String PN_RESULT_CACHE_MAX_BYTES = "result.cache.max.bytes";
+    public static final String PN_RESULT_CACHE_MAX_ENTRY_BYTES = "result.cache.max.entry.bytes";
+
+    protected static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+    protected static final String RESULT_SUFFIX = ".result";
+    protected static final String TEMP_SUFFIX = ".tmp";
+    protected static final String UTF_8 = "utf-8";
+
+    private static ResultCache instance = null;
+
+    /**
+     * This class is an open cached response
+     * @author Yiming Sun
+     *
+     */
+    public static class CachedResult {
+        protected final FileChannel fileChannel;
+        protected final long length;
+
+        protected CachedResult(FileChannel fileChannel, long length) {
+            this.fileChannel = fileChannel;
+            this.length = length;
+        }
+
+        /**
+         * Method to get the length of the cached response
+         * @return the length of the cached response in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Method to copy the cached response to an OutputStream with FileChannel.transferTo(), and close it
+         * @param outputStream the OutputStream to which the response is written
+         * @throws IOException thrown if reading the cached response or writing to the OutputStream failed
+         */
+        public void transferTo(OutputStream outputStream) throws IOException {
+            try {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                long position = 0L;
+                while (position < length) {
+                    long transferred = fileChannel.transferTo(position, length - position, target);
+                    if (transferred <= 0L) {
+                        throw new IOException("Cached result ended at " + position + " of " + length + " bytes");
+                    }
+                    position += transferred;
+                }
+                outputStream.flush();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Method to release the cached response without reading it
+         */
+        public void close() {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                log.error("Failed to close cached result", e);
+            }
+        }
+    }
+
+    /**
+     * This class is an OutputStream that collects a response on its way to the client.  The response is added to the cache by commit(), and dropped by
+     * abandon() or if it grows beyond the largest size the cache accepts.  Failures to write the temporary file never affect the response itself
+     * @author Yiming Sun
+     *
+     */
+    public class ResultWriter extends OutputStream {
+        protected final String key;
+        protected final File tempFile;
+        protected OutputStream fileOutputStream;
+        protected long length = 0L;
+
+        protected ResultWriter(String key, File tempFile) throws IOException {
+            this.key = key;
+            this.tempFile = tempFile;
+            this.fileOutputStream = new FileOutputStream(tempFile);
+        }
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            if (fileOutputStream != null) {
+                length += count;
+                if (length > maxEntryBytes) {
+                    if (log.isDebugEnabled()) log.debug("result " + key + " is too large to cache");
+                    abandon();
+                    return;
+                }
+                try {
+                    fileOutputStream.write(bytes, offset, count);
+                } catch (IOException e) {
+                    log.error("Failed to write cache file " + tempFile.getAbsolutePath(), e);
+                    abandon();
+                }
+            }
+        }
+
+        /**
+         * Method to add the collected response to the cache
+         */
+        public void commit() {
+            if (fileOutputStream != null) {
+                try {
+                    fileOutputStream.close();
+                    fileOutputStream = null;
+                    add(key, tempFile);
+                } catch (IOException e) {
+                    log.error("Failed to close cache file " + tempFile.getAbsolutePath(), e);
+                    abandon();
+                }
+            }
+        }
+
+        /**
+         * Method to drop the collected response
+         */
+        public void abandon() {
+            if (fileOutputStream != null) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                    log.error("Failed to close cache file " + tempFile.getAbsolutePath(), e);
+                }
+                fileOutputStream = null;
+            }
+            tempFile.delete();
+        }
+    }
+
+    protected final File cacheDir;
+    protected final long maxBytes;
+    protected final long maxEntryBytes;
+    // sizes of the cached responses by key, in least recently used first order
+    protected final LinkedHashMap<String, Long> index;
+    protected long totalBytes = 0L;
+    private long tempFileCounter = 0L;
+
+    /**
+     * Method to initialize the cache.  The cache is disabled if no cache directory is configured
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static synchronized void init(ParameterContainer parameterContainer) {
+        instance = null;
+        String cacheDirPath = parameterContainer.getParameter(PN_RESULT_CACHE_DIR);
+        if (cacheDirPath != null && cacheDirPath.trim().length() > 0) {
+            File dir = new File(cacheDirPath.trim());
+            if (dir.isDirectory() || dir.mkdirs()) {
+                String maxBytesString = parameterContainer.getParameter(PN_RESULT_CACHE_MAX_BYTES);
+                long maxBytes = (maxBytesString != null) ? Long.parseLong(maxBytesString.trim()) : DEFAULT_MAX_BYTES;
+                String maxEntryBytesString = parameterContainer.getParameter(PN_RESULT_CACHE_MAX_ENTRY_BYTES);
+                long maxEntryBytes = (maxEntryBytesString != null) ? Long.parseLong(maxEntryBytesString.trim()) : maxBytes;
+                instance = new ResultCache(dir, maxBytes, maxEntryBytes);
+            } else {
+                log.error("Cannot create result cache directory " + dir.getAbsolutePath() + ", result cache is disabled");
+            }
+        }
+    }
+
+    /**
+     * Method to get the cache
+     * @return the ResultCache object, or <code>null</code> if the cache is disabled
+     */
+    public static synchronized ResultCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to compute the key of a request
+     * @param requestDescriptor a String describing the endpoint and the options of the request that affect the output
+     * @param identifiers the requested items, in the order they are written in
+     * @return the hex encoded SHA-256 hash of the request
+     */
+    public static String computeKey(String requestDescriptor, List<? extends RequestedItemCoordinates> identifiers) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(requestDescriptor.getBytes(UTF_8));
+            for (RequestedItemCoordinates identifier : identifiers) {
+                StringBuilder builder = new StringBuilder();
+                builder.append('\n').append(identifier.getVolumeID());
+                List<String> pageSequences = identifier.getPageSequences();
+                if (pageSequences != null) {
+                    builder.append(pageSequences);
+                }
+                List<String> metadataNames = identifier.getMetadataNames();
+                if (metadataNames != null) {
+                    builder.append(metadataNames);
+                }
+                messageDigest.update(builder.toString().getBytes(UTF_8));
+            }
+            byte[] digest = messageDigest.digest();
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Constructor.  Responses already in the cache directory are indexed again, oldest first, and unfinished temporary files are removed
+     * @param cacheDir the directory holding the cached responses
+     * @param maxBytes the bound on the total size of the cached responses
+     * @param maxEntryBytes the size of the largest response to cache
+     */
+    protected ResultCache(File cacheDir, long maxBytes, long maxEntryBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+        this.index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    long difference = o1.lastModified() - o2.lastModified();
+                    return difference < 0L ? -1 : (difference > 0L ? 1 : 0);
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(RESULT_SUFFIX)) {
+                    index.put(name.substring(0, name.length() - RESULT_SUFFIX.length()), Long.valueOf(file.length()));
+                    totalBytes += file.length();
+                } else if (name.endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Method to look up the response to a request
+     * @param key the key of the request returned by computeKey()
+     * @return the open cached response, or <code>null</code> if the response is not in the cache
+     */
+    public synchronized CachedResult lookup(String key) {
+        Long length = index.get(key);
+        if (length == null) {
+            return null;
+        }
+        try {
+            FileChannel fileChannel = new FileInputStream(getResultFile(key)).getChannel();
+            return new CachedResult(fileChannel, length.longValue());
+        } catch (IOException e) {
+            log.error("Failed to open cached result " + key, e);
+            index.remove(key);
+            totalBytes -= length.longValue();
+            return null;
+        }
+    }
+
+    /**
+     * Method to start collecting the response to a request
+     * @param key the key of the request returned by computeKey()
+     * @return a ResultWriter object, or <code>null</code> if the temporary file cannot be created
+     */
+    public ResultWriter newResultWriter(String key) {
+        long counter = 0L;
+        synchronized (this) {
+            counter = ++tempFileCounter;
+        }
+        File tempFile = new File(cacheDir, key + "." + counter + TEMP_SUFFIX);
+        try {
+            return new ResultWriter(key, tempFile);
+        } catch (IOException e) {
+            log.error("Failed to create cache file " + tempFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Method to get the total size of the cached responses
+     * @return the total size of the cached responses in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    protected synchronized void add(String key, File tempFile) throws IOException {
+        File resultFile = getResultFile(key);
+        Long previousLength = index.remove(key);
+        if (previousLength != null) {
+            totalBytes -= previousLength.longValue();
+        }
+        // an open CachedResult keeps reading the file it opened even if the file is replaced or deleted here
+        resultFile.delete();
+        if (!tempFile.renameTo(resultFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile.getAbsolutePath() + " to " + resultFile.getAbsolutePath());
+        }
+        long length = resultFile.length();
+        index.put(key, Long.valueOf(length));
+        totalBytes += length;
+        evict();
+    }
+
+    protected synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.getValue().longValue();
+            if (!getResultFile(entry.getKey()).delete()) {
+                log.error("Failed to delete cached result " + entry.getKey());
+            }
+            if (log.isDebugEnabled()) log.debug("evicted cached result " + entry.getKey());
+        }
+    }
+
+    protected File getResultFile(String key) {
+        return new File(cacheDir, key + RESULT_SUFFIX);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  InvalidParameterValueException.java
+# Description:  This class is the Exception to be thrown when a client supplies a value a parameter does not accept
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.exception;
+
+/**
+ * This class is the Exception to be thrown when a client supplies a value a parameter does not accept
+ *
+ * @author Yiming Sun
+ *
+ */
+public class InvalidParameterValueException extends DataAPIException {
+
+    protected final String parameterName;
+    protected final String parameterValue;
+
+    /**
+     * Constructor
+     * @param parameterName name of the offending parameter
+     * @param parameterValue the offending value
+     */
+    public InvalidParameterValueException(String parameterName, String parameterValue) {
+        super("Invalid value for parameter " + parameterName + ": " + parameterValue);
+        this.parameterName = parameterName;
+        this.parameterValue = parameterValue;
+    }
+
+    /**
+     * Method to get the name of the offending parameter
+     * @return name of the offending parameter
+     */
+    public String getParameterName() {
+        return parameterName;
+    }
+
+    /**
+     * Method to get the offending value
+     * @return the offending value
+     */
+    public String getParameterValue() {
+        return parameterValue;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  MissingParameterException.java
+# Description:  This class is the Exception to be thrown when a client leaves out a required parameter
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.exception;
+
+/**
+ * This class is the Exception to be thrown when a client leaves out a required parameter
+ *
+ * @author Yiming Sun
+ *
+ */
+public class MissingParameterException extends DataAPIException {
+
+    protected final String parameterName;
+
+    /**
+     * Constructor
+     * @param parameterName name of the missing parameter
+     */
+    public MissingParameterException(String parameterName) {
+        super("Missing required parameter " + parameterName);
+        this.parameterName = parameterName;
+    }
+
+    /**
+     * Method to get the name of the missing parameter
+     * @return name of the missing parameter
+     */
+    public String getParameterName() {
+        return parameterName;
+    }
+
+}
+
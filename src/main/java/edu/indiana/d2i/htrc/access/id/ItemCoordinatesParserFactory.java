@@ -32,13 +32,10 @@
 package edu.indiana.d2i.htrc.access.id;
 
 import java.text.ParseException;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -65,8 +62,8 @@ public class ItemCoordinatesParserFactory {
      */
     public static abstract class Parser {
         
-        protected static final String VOLUME_ID_PATTERN_STRING = ".+\\..+";
-        protected static final Pattern VOLUME_ID_PATTERN = Pattern.compile(VOLUME_ID_PATTERN_STRING);
+        protected static final char ID_SEPARATOR_CHAR = Constants.ID_SEPARATOR.charAt(0);
+        protected static final char PAGE_SEQ_SEPARATOR_CHAR = Constants.PAGE_SEQ_SEPARATOR.charAt(0);
         
         public static final int PAGE_SEQUENCE_LENGTH = 8;
         
@@ -117,13 +114,74 @@ public class ItemCoordinatesParserFactory {
          */
         public static String generatePageSequenceString(int pageSequence) {
             if (pageSequence > 0) {
-                String sequenceString = String.format("%08d", pageSequence);
-                return sequenceString;
+                int digitCount = 1;
+                for (int rest = pageSequence / 10; rest > 0; rest /= 10) {
+                    digitCount++;
+                }
+                char[] chars = new char[Math.max(digitCount, PAGE_SEQUENCE_LENGTH)];
+                int rest = pageSequence;
+                for (int i = chars.length - 1; i >= 0; i--) {
+                    chars[i] = (rest > 0) ? (char)('0' + rest % 10) : Constants.PAGE_SEQ_PADDING_CHAR;
+                    rest /= 10;
+                }
+                return new String(chars);
             } else {
                 throw new IllegalArgumentException("Page sequence must be positive");
             }
         }
         
+        /**
+         * Utility method for checking if part of a String is a volume ID, that is, some characters, a dot and some more characters, none of which is a
+         * line terminator.  It is the check the pattern ".+\\..+" made, without creating a Matcher for every ID
+         * @param string the String
+         * @param start the index of the first character of the part
+         * @param end the index after the last character of the part
+         * @return <code>true</code> if the part is a volume ID, <code>false</code> otherwise
+         */
+        protected static boolean isVolumeID(String string, int start, int end) {
+            boolean hasDot = false;
+            boolean hasLineTerminator = false;
+            for (int i = start; i < end && !hasLineTerminator; i++) {
+                char c = string.charAt(i);
+                if (c == '.') {
+                    hasDot |= (i > start && i < end - 1);
+                } else {
+                    hasLineTerminator = (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029');
+                }
+            }
+            return hasDot && !hasLineTerminator;
+        }
+        
+        /**
+         * Utility method for skipping the leading whitespace of part of a String the same way String.trim() does
+         * @param string the String
+         * @param start the index of the first character of the part
+         * @param end the index after the last character of the part
+         * @return the index of the first character of the part that is not whitespace, or end if there is none
+         */
+        protected static int trimStart(String string, int start, int end) {
+            int index = start;
+            while (index < end && string.charAt(index) <= ' ') {
+                index++;
+            }
+            return index;
+        }
+        
+        /**
+         * Utility method for skipping the trailing whitespace of part of a String the same way String.trim() does
+         * @param string the String
+         * @param start the index of the first character of the part
+         * @param end the index after the last character of the part
+         * @return the index after the last character of the part that is not whitespace, or start if there is none
+         */
+        protected static int trimEnd(String string, int start, int end) {
+            int index = end;
+            while (index > start && string.charAt(index - 1) <= ' ') {
+                index--;
+            }
+            return index;
+        }
+        
     }
     
 
@@ -141,15 +199,23 @@ public class ItemCoordinatesParserFactory {
         @Override
         public List<ItemCoordinatesImpl> parse(String identifiersString) throws ParseException, PolicyViolationException {
             
-            Map<String, ItemCoordinatesImpl> volumeIDMap = new HashMap<String, ItemCoordinatesImpl>();
+            // the IDs are kept in the order they are first requested
+            Map<String, ItemCoordinatesImpl> volumeIDMap = new LinkedHashMap<String, ItemCoordinatesImpl>();
 
-            StringTokenizer tokenizer = new StringTokenizer(identifiersString, Constants.ID_SEPARATOR);
-            while (tokenizer.hasMoreTokens()) {
-                String token = tokenizer.nextToken().trim();
-                if (!"".equals(token)) {
+            // a single pass over the String, which for a request of many IDs is much cheaper than a StringTokenizer and a Matcher for every ID
+            int length = identifiersString.length();
+            int unitStart = 0;
+            while (unitStart <= length) {
+                int unitEnd = identifiersString.indexOf(ID_SEPARATOR_CHAR, unitStart);
+                if (unitEnd < 0) {
+                    unitEnd = length;
+                }
+                int tokenStart = trimStart(identifiersString, unitStart, unitEnd);
+                int tokenEnd = trimEnd(identifiersString, tokenStart, unitEnd);
+                if (tokenStart < tokenEnd) {
+                    String token = identifiersString.substring(tokenStart, tokenEnd);
                     if (log.isDebugEnabled()) log.debug("unverified volume ID: " + token);
-                    Matcher matcher = VOLUME_ID_PATTERN.matcher(token);
-                    if (matcher.matches()) {
+                    if (isVolumeID(identifiersString, tokenStart, tokenEnd)) {
                         if (log.isDebugEnabled()) log.debug("volume ID: " + token);
                         ItemCoordinatesImpl identifierImpl = volumeIDMap.get(token);
                         if (identifierImpl == null) {
@@ -163,6 +229,7 @@ public class ItemCoordinatesParserFactory {
                         throw new ParseException(token, 0);
                     }
                 }
+                unitStart = unitEnd + 1;
             }
 
             if (volumeIDMap.isEmpty()) {
@@ -191,24 +258,32 @@ public class ItemCoordinatesParserFactory {
         @Override
         public List<ItemCoordinatesImpl> parse(String identifiersString) throws ParseException, PolicyViolationException {
 
-            Map<String, ItemCoordinatesImpl> pageIDMap = new HashMap<String, ItemCoordinatesImpl>();
-            StringTokenizer tokenizer = new StringTokenizer(identifiersString, Constants.ID_SEPARATOR);
-            while (tokenizer.hasMoreTokens()) {
-                String rawUnit = tokenizer.nextToken().trim();
+            // the IDs are kept in the order they are first requested
+            Map<String, ItemCoordinatesImpl> pageIDMap = new LinkedHashMap<String, ItemCoordinatesImpl>();
+            
+            // a single pass over the String, in which the page sequences are read digit by digit rather than cut out and parsed one by one
+            int length = identifiersString.length();
+            int unitStart = 0;
+            while (unitStart <= length) {
+                int unitEnd = identifiersString.indexOf(ID_SEPARATOR_CHAR, unitStart);
+                if (unitEnd < 0) {
+                    unitEnd = length;
+                }
+                int rawStart = trimStart(identifiersString, unitStart, unitEnd);
+                int rawEnd = trimEnd(identifiersString, rawStart, unitEnd);
                 
-                if (!"".equals(rawUnit)) {
-                    int length = rawUnit.length();
-                    
-                    if (rawUnit.charAt(length - 1) == Constants.PAGE_SEQ_END_MARK) {
-                        int lastIndex = rawUnit.lastIndexOf(Constants.PAGE_SEQ_START_MARK);
+                if (rawStart < rawEnd) {
+                    if (identifiersString.charAt(rawEnd - 1) == Constants.PAGE_SEQ_END_MARK) {
+                        int lastIndex = identifiersString.lastIndexOf(Constants.PAGE_SEQ_START_MARK, rawEnd - 1) - rawStart;
                         if (lastIndex > MIN_VOLUME_ID_LENGTH) {
                             boolean hasPageSequence = false;
                             
-                            String volumeID = rawUnit.substring(0, lastIndex).trim();
+                            int volumeIDStart = rawStart;
+                            int volumeIDEnd = trimEnd(identifiersString, volumeIDStart, rawStart + lastIndex);
+                            String volumeID = identifiersString.substring(volumeIDStart, volumeIDEnd);
                             if (log.isDebugEnabled()) log.debug("unverified volumeID: " + volumeID);
                             
-                            Matcher matcher = VOLUME_ID_PATTERN.matcher(volumeID);
-                            if (matcher.matches()) {
+                            if (isVolumeID(identifiersString, volumeIDStart, volumeIDEnd)) {
                                 if (log.isDebugEnabled()) log.debug("volume ID: " + volumeID);
                                 ItemCoordinatesImpl identifierImpl = pageIDMap.get(volumeID);
                                 if (identifierImpl == null) {
@@ -219,42 +294,44 @@ public class ItemCoordinatesParserFactory {
                                     pageIDMap.put(volumeID, identifierImpl);
                                 }
     
-                                String pageSeqRaw = rawUnit.substring(lastIndex + 1, length - 1).trim();
-                                
-                                StringTokenizer pageTokenizer = new StringTokenizer(pageSeqRaw, Constants.PAGE_SEQ_SEPARATOR);
-                                while (pageTokenizer.hasMoreTokens()) {
-                                    String pageSeqStr = pageTokenizer.nextToken().trim();
-                                    if (!"".equals(pageSeqStr)) {
-                                        try {
-                                            int pageSeqInt = Integer.valueOf(pageSeqStr);
-                                            String pageSequence = generatePageSequenceString(pageSeqInt);
-                                            identifierImpl.addPageSequence(pageSequence);
-                                            hasPageSequence = true;
-                                        } catch (NumberFormatException e) {
-                                            log.error("NumberFormatException while parsing page sequence", e);
-                                            throw new ParseException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSeqStr + Constants.PAGE_SEQ_END_MARK, 0);
-                                        } catch (IllegalArgumentException e) {
-                                            log.error("IllegalArgumentException while parsing page sequence", e);
+                                int pageListEnd = rawEnd - 1;
+                                int pageStart = rawStart + lastIndex + 1;
+                                while (pageStart <= pageListEnd) {
+                                    // the search stops at the end of the list, since a later unit may hold no separator at all
+                                    int pageEnd = pageStart;
+                                    while (pageEnd < pageListEnd && identifiersString.charAt(pageEnd) != PAGE_SEQ_SEPARATOR_CHAR) {
+                                        pageEnd++;
+                                    }
+                                    int pageSeqStart = trimStart(identifiersString, pageStart, pageEnd);
+                                    int pageSeqEnd = trimEnd(identifiersString, pageSeqStart, pageEnd);
+                                    if (pageSeqStart < pageSeqEnd) {
+                                        int pageSeqInt = parsePageSequence(identifiersString, pageSeqStart, pageSeqEnd);
+                                        if (pageSeqInt <= 0) {
+                                            String pageSeqStr = identifiersString.substring(pageSeqStart, pageSeqEnd);
+                                            log.error("Malformed page sequence " + pageSeqStr);
                                             throw new ParseException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSeqStr + Constants.PAGE_SEQ_END_MARK, 0);
                                         }
-                                        
+                                        identifierImpl.addPageSequence(generatePageSequenceString(pageSeqInt));
+                                        hasPageSequence = true;
                                     }
+                                    pageStart = pageEnd + 1;
                                 }
     
                                 if (!hasPageSequence) {
-                                    throw new ParseException(rawUnit, lastIndex);
+                                    throw new ParseException(identifiersString.substring(rawStart, rawEnd), lastIndex);
                                 }
                             } else {
-                                throw new ParseException(rawUnit, 0);
+                                throw new ParseException(identifiersString.substring(rawStart, rawEnd), 0);
                             }
                         } else {
-                            throw new ParseException(rawUnit, 0);
+                            throw new ParseException(identifiersString.substring(rawStart, rawEnd), 0);
                         }
                         
                     } else {
-                        throw new ParseException(rawUnit, rawUnit.length() - 1);
+                        throw new ParseException(identifiersString.substring(rawStart, rawEnd), rawEnd - rawStart - 1);
                     }
                 }
+                unitStart = unitEnd + 1;
             }
             if (pageIDMap.isEmpty()) {
                 throw new ParseException(identifiersString, 0);
@@ -264,6 +341,26 @@ public class ItemCoordinatesParserFactory {
             return list;
         }
         
+        /**
+         * Method to read a page sequence number from part of a String, which is some decimal digits optionally preceded by a plus sign
+         * @param string the String
+         * @param start the index of the first character of the page sequence
+         * @param end the index after the last character of the page sequence
+         * @return the page sequence number, or -1 if the part is not a positive number that fits in an int
+         */
+        protected static int parsePageSequence(String string, int start, int end) {
+            int index = (string.charAt(start) == '+') ? start + 1 : start;
+            long value = (index < end) ? 0L : -1L;
+            for (; index < end && value >= 0L; index++) {
+                char c = string.charAt(index);
+                value = (c >= '0' && c <= '9') ? value * 10L + (c - '0') : -1L;
+                if (value > Integer.MAX_VALUE) {
+                    value = -1L;
+                }
+            }
+            return (int)value;
+        }
+        
     }
     
     /**
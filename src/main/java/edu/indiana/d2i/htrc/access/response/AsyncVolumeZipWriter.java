@@ -0,0 +1,315 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AsyncVolumeZipWriter.java
+# Description:  This class writes a zip file to a Servlet 3.1 non-blocking ServletOutputStream
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.IncrementalZipMaker;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class writes a zip file to the non-blocking ServletOutputStream of an asynchronous request.  Instead of a container thread being held for the
+ * whole download, the zip file is made on a shared ExecutorService one volume at a time, and only when the next volume has been fetched and less than
+ * HIGH_WATER_MARK bytes are waiting to be sent.  The bytes made are sent whenever the ServletOutputStream is ready, so a slow client holds memory up to
+ * HIGH_WATER_MARK but no thread
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class AsyncVolumeZipWriter implements WriteListener, Runnable {
+
+    private static Logger log = Logger.getLogger(AsyncVolumeZipWriter.class);
+    
+    protected static final int CHUNK_SIZE = 64 * 1024;
+    protected static final int HIGH_WATER_MARK = 1024 * 1024;
+    
+    /**
+     * This class is an OutputStream holding the bytes written to it in fixed size chunks until they are sent
+     * @author Yiming Sun
+     *
+     */
+    static class ChunkBuffer extends OutputStream {
+        private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+        private byte[] tail = null;
+        private int tailLength = 0;
+        private long size = 0L;
+        
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+        
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (tail == null) {
+                    tail = new byte[CHUNK_SIZE];
+                    tailLength = 0;
+                }
+                int length = Math.min(len, CHUNK_SIZE - tailLength);
+                System.arraycopy(b, off, tail, tailLength, length);
+                tailLength += length;
+                size += length;
+                off += length;
+                len -= length;
+                if (tailLength == CHUNK_SIZE) {
+                    chunks.add(tail);
+                    tail = null;
+                }
+            }
+        }
+        
+        /**
+         * Method to get the number of bytes not sent yet
+         * @return the number of bytes not sent yet
+         */
+        long size() {
+            return size;
+        }
+        
+        /**
+         * Method to send the oldest chunk, which may be a partly filled one
+         * @param outputStream the OutputStream the chunk is sent to
+         * @throws IOException thrown if writing to the OutputStream failed
+         */
+        void sendChunk(OutputStream outputStream) throws IOException {
+            if (!chunks.isEmpty()) {
+                byte[] chunk = chunks.removeFirst();
+                size -= chunk.length;
+                outputStream.write(chunk);
+            } else if (tailLength > 0) {
+                byte[] chunk = tail;
+                int length = tailLength;
+                tail = null;
+                tailLength = 0;
+                size -= length;
+                outputStream.write(chunk, 0, length);
+            }
+        }
+    }
+    
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream servletOutputStream;
+    private final ThrottledVolumeRetrieverImpl volumeRetriever;
+    private final IncrementalZipMaker zipMaker;
+    private final Auditor auditor;
+    private final ExecutorService executorService;
+    private final ChunkBuffer chunkBuffer = new ChunkBuffer();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private List<? extends RequestedItemCoordinates> identifiers = null;
+    private boolean opened = false;
+    private boolean closed = false;
+    // read without the lock by schedule(), so that the fetching threads stop scheduling runs once the download is over
+    private volatile boolean finished = false;
+    
+    /**
+     * Constructor
+     * @param asyncContext the AsyncContext of the request
+     * @param servletOutputStream the ServletOutputStream of the response
+     * @param volumeRetriever a ThrottledVolumeRetrieverImpl object, whose retrieval IDs are not set yet
+     * @param zipMaker an IncrementalZipMaker object
+     * @param auditor an Auditor object
+     * @param executorService the ExecutorService on which the zip file is made and sent
+     */
+    public AsyncVolumeZipWriter(AsyncContext asyncContext, ServletOutputStream servletOutputStream, ThrottledVolumeRetrieverImpl volumeRetriever, IncrementalZipMaker zipMaker, Auditor auditor, ExecutorService executorService) {
+        this.asyncContext = asyncContext;
+        this.servletOutputStream = servletOutputStream;
+        this.volumeRetriever = volumeRetriever;
+        this.zipMaker = zipMaker;
+        this.auditor = auditor;
+        this.executorService = executorService;
+        
+        volumeRetriever.setVolumeReadyListener(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        });
+    }
+    
+    /**
+     * Method to start the download.  The volumes are only dispatched for retrieval once the writer runs, so that they are not fetched for a
+     * request that has already failed
+     * @param identifiers a List of RequestedItemCoordinates objects to be retrieved
+     */
+    public void start(List<? extends RequestedItemCoordinates> identifiers) {
+        this.identifiers = identifiers;
+        servletOutputStream.setWriteListener(this);
+    }
+    
+    /**
+     * @see javax.servlet.WriteListener#onWritePossible()
+     */
+    @Override
+    public void onWritePossible() throws IOException {
+        schedule();
+    }
+    
+    /**
+     * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+     */
+    @Override
+    public void onError(Throwable throwable) {
+        log.error("Asynchronous write failed", throwable);
+        synchronized (this) {
+            abort(throwable);
+        }
+    }
+    
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        // cleared before running, so that an event arriving while this run is in progress schedules another run
+        scheduled.set(false);
+        synchronized (this) {
+            if (!finished) {
+                try {
+                    writeAvailable();
+                } catch (IOException e) {
+                    log.error("IOException", e);
+                    abort(e);
+                } catch (RuntimeException e) {
+                    log.error("RuntimeException", e);
+                    abort(e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method to have run() called on the ExecutorService, unless it is already waiting to be called or the download is over
+     */
+    protected void schedule() {
+        if (!finished && scheduled.compareAndSet(false, true)) {
+            executorService.execute(this);
+        }
+    }
+    
+    /**
+     * Method to make and send as much of the zip file as can be done without waiting
+     * @throws IOException thrown if making or sending the zip file failed
+     */
+    protected void writeAvailable() throws IOException {
+        boolean progressed = true;
+        while (progressed && !finished) {
+            progressed = false;
+            
+            if (!opened) {
+                zipMaker.open(chunkBuffer, volumeRetriever);
+                volumeRetriever.setRetrievalIDs(identifiers);
+                opened = true;
+            }
+            
+            while (!closed && chunkBuffer.size() < HIGH_WATER_MARK && volumeRetriever.isNextVolumeReady()) {
+                appendNextVolume();
+                progressed = true;
+            }
+            
+            while (chunkBuffer.size() > 0L && servletOutputStream.isReady()) {
+                chunkBuffer.sendChunk(servletOutputStream);
+                progressed = true;
+            }
+            
+            if (closed && chunkBuffer.size() == 0L) {
+                finished = true;
+                asyncContext.complete();
+            }
+        }
+    }
+    
+    /**
+     * Method to add the next volume to the zip file, or to close the zip file if no volumes are left.  Must only be called when
+     * isNextVolumeReady() is <code>true</code>
+     * @throws IOException thrown if making the zip file failed
+     */
+    protected void appendNextVolume() throws IOException {
+        if (volumeRetriever.hasMoreVolumes()) {
+            try {
+                VolumeReader volumeReader = volumeRetriever.nextVolume();
+                if (volumeReader != null) {
+                    zipMaker.append(volumeReader);
+                }
+            } catch (KeyNotFoundException e) {
+                log.error("KeyNotFoundException", e);
+                zipMaker.appendException(e);
+            } catch (PolicyViolationException e) {
+                log.error("PolicyViolationException", e);
+                zipMaker.appendException(e);
+            } catch (RepositoryException e) {
+                log.error("RepositoryException", e);
+                zipMaker.appendException(e);
+            }
+        } else {
+            zipMaker.close();
+            closed = true;
+        }
+    }
+    
+    /**
+     * Method to give up on the download, e.g. after the client has gone away
+     * @param throwable the cause
+     */
+    protected void abort(Throwable throwable) {
+        if (!finished) {
+            finished = true;
+            auditor.error("AsyncWriteException", "Download Aborted", String.valueOf(throwable.getMessage()));
+            asyncContext.complete();
+        }
+    }
+
+}
+
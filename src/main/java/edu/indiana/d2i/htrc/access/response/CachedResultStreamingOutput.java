@@ -0,0 +1,89 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CachedResultStreamingOutput.java
+# Description:  This class is an implementation of the StreamingOutput class that sends a response from the result cache
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.CachedResult;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class is an implementation of the StreamingOutput class that sends a response found in the result cache, so that neither the volumes are fetched nor
+ * the output generated again.  The requested items are audited as accessed once the response has been sent.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CachedResultStreamingOutput implements StreamingOutput {
+
+    protected final CachedResult cachedResult;
+    protected final List<? extends RequestedItemCoordinates> identifiers;
+    protected final String accessedAction;
+    protected final Auditor auditor;
+
+    /**
+     * Constructor
+     * @param cachedResult the CachedResult object holding the response
+     * @param identifiers the requested items
+     * @param accessedAction the action under which the requested items are audited
+     * @param auditor an Auditor object
+     */
+    public CachedResultStreamingOutput(CachedResult cachedResult, List<? extends RequestedItemCoordinates> identifiers, String accessedAction, Auditor auditor) {
+        this.cachedResult = cachedResult;
+        this.identifiers = identifiers;
+        this.accessedAction = accessedAction;
+        this.auditor = auditor;
+    }
+
+    /**
+     * @see javax.ws.rs.core.StreamingOutput#write(java.io.OutputStream)
+     */
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        cachedResult.transferTo(output);
+        for (RequestedItemCoordinates identifier : identifiers) {
+            List<String> pageSequences = identifier.getPageSequences();
+            if (pageSequences != null) {
+                auditor.audit(accessedAction, identifier.getVolumeID(), pageSequences.toArray(new String[0]));
+            } else {
+                auditor.audit(accessedAction, identifier.getVolumeID());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CachingStreamingOutput.java
+# Description:  This class is an implementation of the StreamingOutput class that adds the output of another StreamingOutput to the result cache
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.cache.ResultCache.ResultWriter;
+
+/**
+ * This class is an implementation of the StreamingOutput class that passes the output of another StreamingOutput on to the client and collects a copy of it
+ * with a ResultWriter.  The copy is added to the result cache only if the output was written completely and none of the volumes failed to be fetched, so a
+ * response carrying an ERROR.err entry or cut short by the client is never served again from the cache.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CachingStreamingOutput implements StreamingOutput {
+
+    /**
+     * This class is an OutputStream writing to the client first and then to the ResultWriter
+     * @author Yiming Sun
+     *
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private final ResultWriter resultWriter;
+
+        TeeOutputStream(OutputStream outputStream, ResultWriter resultWriter) {
+            this.outputStream = outputStream;
+            this.resultWriter = resultWriter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+            resultWriter.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            outputStream.write(bytes, offset, length);
+            resultWriter.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.close();
+        }
+    }
+
+    protected final StreamingOutput streamingOutput;
+    protected final VolumeRetriever volumeRetriever;
+    protected final ResultWriter resultWriter;
+
+    /**
+     * Constructor
+     * @param streamingOutput the StreamingOutput generating the response
+     * @param volumeRetriever the VolumeRetriever object used by the StreamingOutput
+     * @param resultWriter a ResultWriter object for the key of the request
+     */
+    public CachingStreamingOutput(StreamingOutput streamingOutput, VolumeRetriever volumeRetriever, ResultWriter resultWriter) {
+        this.streamingOutput = streamingOutput;
+        this.volumeRetriever = volumeRetriever;
+        this.resultWriter = resultWriter;
+    }
+
+    /**
+     * @see javax.ws.rs.core.StreamingOutput#write(java.io.OutputStream)
+     */
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        boolean completed = false;
+        try {
+            streamingOutput.write(new TeeOutputStream(output, resultWriter));
+            completed = !volumeRetriever.hasErrors();
+        } finally {
+            if (completed) {
+                resultWriter.commit();
+            } else {
+                resultWriter.abandon();
+            }
+        }
+    }
+
+}
@@ -45,6 +45,7 @@ import edu.indiana.d2i.htrc.access.exception.DataAPIException;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.zip.DownloadManifest;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -60,6 +61,7 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
     private VolumeRetriever volumeRetriever = null;
     private ZipMaker zipMaker = null;
     private Auditor auditor = null;
+    private DownloadManifest downloadManifest = null;
    
     /**
      * Constructor
@@ -68,9 +70,21 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
      * @param auditor an Auditor object
      */
     public VolumeZipStreamingOutput(VolumeRetriever volumeRetriever, ZipMaker zipMaker, Auditor auditor) {
+        this(volumeRetriever, zipMaker, auditor, null);
+    }
+
+    /**
+     * Constructor
+     * @param volumeRetriever a VolumeRetriever object holding the volume content to be output to the stream
+     * @param zipMaker a ZipMaker object
+     * @param auditor an Auditor object
+     * @param downloadManifest the DownloadManifest used by the ZipMaker, released when the output ends, or <code>null</code>
+     */
+    public VolumeZipStreamingOutput(VolumeRetriever volumeRetriever, ZipMaker zipMaker, Auditor auditor, DownloadManifest downloadManifest) {
         this.volumeRetriever = volumeRetriever;
         this.zipMaker = zipMaker;
         this.auditor = auditor;
+        this.downloadManifest = downloadManifest;
     }
     
     
@@ -93,6 +107,10 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
         } catch (DataAPIException e) {
             log.error("DataAPIException", e);
             auditor.error("DataAPIException", "Unspecified Error", e.getMessage());
+        } finally {
+            if (downloadManifest != null) {
+                downloadManifest.close();
+            }
         }
     }
 
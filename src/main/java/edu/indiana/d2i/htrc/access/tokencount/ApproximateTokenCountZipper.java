@@ -0,0 +1,120 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ApproximateTokenCountZipper.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class sends approximate token counts summed over all requested volumes.  The volumes are counted the same way as by
+ * PartialCountVolumeTokenCountZipper, and the counts of each volume are added to a TokenCountSketch, whose memory is fixed however large the
+ * vocabulary of the collection grows.  The heavy hitters are sent with their estimated counts, followed by an entry with the totals and the error
+ * bounds of the estimates.  The minCount and topK limits apply to the heavy hitters
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ApproximateTokenCountZipper extends PartialCountVolumeTokenCountZipper {
+    
+    protected static final String COLLECTION_ENTRY_NAME = "collection.count";
+    protected static final String SUMMARY_ENTRY_NAME = "collection.approximate";
+    
+    protected final double epsilon;
+    protected final double delta;
+    protected final int heavyHitterCount;
+    protected final int precision;
+    protected TokenCountSketch sketch = null;
+    protected int volumeCount = 0;
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest estimated count of the tokens sent
+     * @param topK the largest number of tokens sent, chosen by descending estimated count, or 0 for all heavy hitters
+     * @param epsilon the error of an estimated count relative to the total of all counts
+     * @param delta the probability of an estimated count exceeding the error
+     * @param heavyHitterCount the number of heavy hitters tracked
+     * @param precision the precision of the HyperLogLog estimating the vocabulary size
+     */
+    public ApproximateTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, double epsilon, double delta, int heavyHitterCount, int precision) {
+        super(auditor, format, compressionLevel, minCount, topK);
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.heavyHitterCount = heavyHitterCount;
+        this.precision = precision;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.PartialCountVolumeTokenCountZipper#countAndZip(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.Tokenizer, edu.indiana.d2i.htrc.access.tokencount.TokenFilter, java.util.Comparator)
+     */
+    @Override
+    public void countAndZip(OutputStream outputStream, VolumeRetriever volumeRetriever, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        sketch = new TokenCountSketch(epsilon, delta, heavyHitterCount, precision);
+        volumeCount = 0;
+        try {
+            super.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } finally {
+            sketch = null;
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#sendVolumeEntry(edu.indiana.d2i.htrc.access.tokencount.TokenCountMap, java.lang.String, edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void sendVolumeEntry(TokenCountMap map, String entryName, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        sketch.add(map);
+        volumeCount++;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#finishEntries(edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void finishEntries(ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        if (volumeCount > 0) {
+            sketch.sendEntry(archiveWriter, COLLECTION_ENTRY_NAME, comparator, minCount, topK);
+            sketch.sendSummaryEntry(archiveWriter, SUMMARY_ENTRY_NAME);
+        }
+    }
+
+}
+
@@ -0,0 +1,116 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CollectionTokenCountZipper.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class sends one entry holding the token counts summed over all requested volumes.  The volumes are counted the same way as by
+ * PartialCountVolumeTokenCountZipper, but instead of being sent, the counts of each volume are added to a SpillingTokenCountAggregator, which keeps the
+ * heap it uses bounded however large the vocabulary of the collection grows.  The minCount and topK limits apply to the summed counts
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CollectionTokenCountZipper extends PartialCountVolumeTokenCountZipper {
+    
+    protected static final String COLLECTION_ENTRY_NAME = "collection.count";
+    
+    protected final File spillDir;
+    protected final long maxHeapBytes;
+    protected SpillingTokenCountAggregator aggregator = null;
+    protected int volumeCount = 0;
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest summed count of the tokens sent
+     * @param topK the largest number of tokens sent, chosen by descending summed count, or 0 for no limit
+     * @param spillDir the directory the summed counts are spilled to
+     * @param maxHeapBytes the bound on the heap used by the summed counts held in memory
+     */
+    public CollectionTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, File spillDir, long maxHeapBytes) {
+        super(auditor, format, compressionLevel, minCount, topK);
+        this.spillDir = spillDir;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.PartialCountVolumeTokenCountZipper#countAndZip(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.Tokenizer, edu.indiana.d2i.htrc.access.tokencount.TokenFilter, java.util.Comparator)
+     */
+    @Override
+    public void countAndZip(OutputStream outputStream, VolumeRetriever volumeRetriever, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        // descending runs let TOKEN_LEX_DESC stream from the merged runs as well
+        boolean descending = TokenCountComparatorFactory.getComparatorType(comparator) == TokenCountComparatorTypeEnum.TOKEN_LEX_DESC;
+        aggregator = new SpillingTokenCountAggregator(spillDir, maxHeapBytes, descending);
+        volumeCount = 0;
+        try {
+            super.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } finally {
+            aggregator.close();
+            aggregator = null;
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#sendVolumeEntry(edu.indiana.d2i.htrc.access.tokencount.TokenCountMap, java.lang.String, edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void sendVolumeEntry(TokenCountMap map, String entryName, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        aggregator.add(map);
+        volumeCount++;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#finishEntries(edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void finishEntries(ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        if (volumeCount > 0) {
+            aggregator.sendEntry(archiveWriter, COLLECTION_ENTRY_NAME, comparator, minCount, topK);
+        }
+    }
+
+}
+
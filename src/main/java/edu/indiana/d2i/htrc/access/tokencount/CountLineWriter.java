@@ -0,0 +1,204 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CountLineWriter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * This class writes the lines of token count entries, a token, a space and a number, without creating any objects per line.  Tokens are copied as
+ * the UTF-8 bytes they are already held as, numbers are formatted digit by digit, and the lines are collected in a buffer that is written to the
+ * OutputStream in large chunks instead of in four small writes per line.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CountLineWriter {
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    // a long takes at most 20 characters with its sign
+    protected static final int MAX_NUMBER_LENGTH = 20;
+
+    // below this a scaled value keeps enough fraction bits to tell which side of a tie it is on
+    protected static final double MAX_EXACT_SCALED = 1e15;
+    // the scaling is off by at most half an ulp, so a fraction further than this from one half cannot have crossed it
+    protected static final int TIE_MARGIN_ULPS = 4;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+
+    private final OutputStream outputStream;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream the lines are written to
+     */
+    public CountLineWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+    }
+
+    /**
+     * Method to write a line of a token, a space and a count
+     * @param bytes the array holding the UTF-8 bytes of the token
+     * @param offset the offset of the token in the array
+     * @param length the length of the token
+     * @param count the count
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void writeLine(byte[] bytes, int offset, int length, long count) throws IOException {
+        writeToken(bytes, offset, length);
+        ensureCapacity(MAX_NUMBER_LENGTH + 1);
+        position = writeDigits(count, buffer, position);
+        buffer[position++] = '\n';
+    }
+
+    /**
+     * Method to write a line of a token, a space and a decimal number with a fixed number of fraction digits, rounded half up
+     * @param bytes the array holding the UTF-8 bytes of the token
+     * @param offset the offset of the token in the array
+     * @param length the length of the token
+     * @param value the number
+     * @param fractionDigits the number of fraction digits, between 0 and 9
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void writeLine(byte[] bytes, int offset, int length, double value, int fractionDigits) throws IOException {
+        writeToken(bytes, offset, length);
+        long scale = POWERS_OF_TEN[fractionDigits];
+        double scaled = Math.abs(value) * scale;
+        double fraction = scaled - Math.floor(scaled);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(Double.toString(value).getBytes(TokenCountMap.UTF_8));
+        } else if (scaled >= MAX_EXACT_SCALED || Math.abs(fraction - 0.5) <= TIE_MARGIN_ULPS * Math.ulp(scaled)) {
+            // the product may have been rounded across a tie, so near one the shortest decimal form of the value is rounded, as String.format() does
+            write(BigDecimal.valueOf(value).setScale(fractionDigits, RoundingMode.HALF_UP).toPlainString().getBytes(TokenCountMap.UTF_8));
+        } else {
+            ensureCapacity(MAX_NUMBER_LENGTH + 2);
+            long rounded = (long)(scaled + 0.5);
+            if (value < 0) {
+                buffer[position++] = '-';
+            }
+            position = writeDigits(rounded / scale, buffer, position);
+            if (fractionDigits > 0) {
+                buffer[position++] = '.';
+                long rest = rounded % scale;
+                for (int i = fractionDigits - 1; i >= 0; i--) {
+                    buffer[position + i] = (byte)('0' + rest % 10);
+                    rest /= 10;
+                }
+                position += fractionDigits;
+            }
+        }
+        ensureCapacity(1);
+        buffer[position++] = '\n';
+    }
+
+    /**
+     * Method to write bytes as they are
+     * @param bytes the bytes
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Method to write bytes as they are
+     * @param bytes the array holding the bytes
+     * @param offset the offset of the bytes in the array
+     * @param length the number of bytes
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flush();
+        }
+        if (length > buffer.length) {
+            // a token larger than the buffer is rare enough to write directly
+            outputStream.write(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Method to write the buffered lines to the OutputStream.  It does not flush the OutputStream itself.
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void flush() throws IOException {
+        if (position > 0) {
+            outputStream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Method to write the decimal digits of a non-negative long into an array
+     * @param value the value
+     * @param bytes the array to write to
+     * @param offset the position to write at
+     * @return the position after the last digit
+     */
+    public static int writeDigits(long value, byte[] bytes, int offset) {
+        int digitCount = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digitCount++;
+        }
+        int end = offset + digitCount;
+        long rest = value;
+        for (int i = end - 1; i >= offset; i--) {
+            bytes[i] = (byte)('0' + rest % 10);
+            rest /= 10;
+        }
+        return end;
+    }
+
+    protected void writeToken(byte[] bytes, int offset, int length) throws IOException {
+        write(bytes, offset, length);
+        ensureCapacity(1);
+        buffer[position++] = ' ';
+    }
+
+    protected void ensureCapacity(int length) throws IOException {
+        if (length > buffer.length - position) {
+            flush();
+        }
+    }
+
+}
+
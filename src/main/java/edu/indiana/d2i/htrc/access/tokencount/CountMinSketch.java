@@ -0,0 +1,148 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CountMinSketch.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * This class is a count-min sketch.  It overestimates the count of an item by at most epsilon times the total of all counts, with a probability of
+ * at least 1 - delta, in a table of ceil(e / epsilon) by ceil(ln(1 / delta)) counters whose size does not depend on the number of distinct items.
+ * Items are given by a 64 bit hash, from which the counter of each row is derived.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CountMinSketch {
+    
+    protected final double epsilon;
+    protected final double delta;
+    protected final int width;
+    protected final int depth;
+    protected final long[] table;
+    protected long total = 0L;
+    
+    /**
+     * Constructor
+     * @param epsilon the error of an estimate relative to the total of all counts
+     * @param delta the probability of an estimate exceeding the error
+     */
+    public CountMinSketch(double epsilon, double delta) {
+        if (epsilon <= 0.0 || epsilon >= 1.0 || delta <= 0.0 || delta >= 1.0) {
+            throw new IllegalArgumentException("epsilon and delta must be between 0 and 1: " + epsilon + ", " + delta);
+        }
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.width = (int)Math.ceil(Math.E / epsilon);
+        this.depth = (int)Math.ceil(Math.log(1.0 / delta));
+        this.table = new long[width * depth];
+    }
+    
+    /**
+     * Method to add to the count of an item
+     * @param hash the 64 bit hash of the item
+     * @param count the number to add
+     */
+    public void add(long hash, long count) {
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            table[row * width + column(hash1, hash2, row)] += count;
+        }
+        total += count;
+    }
+    
+    /**
+     * Method to estimate the count of an item
+     * @param hash the 64 bit hash of the item
+     * @return the estimated count, which is never less than the actual count
+     */
+    public long estimate(long hash) {
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, table[row * width + column(hash1, hash2, row)]);
+        }
+        return estimate;
+    }
+    
+    /**
+     * Method to add the counts of another sketch of the same epsilon and delta to this sketch
+     * @param other the other sketch
+     */
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge count-min sketches of different sizes");
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        total += other.total;
+    }
+    
+    /**
+     * Method to get the total of all counts
+     * @return the total of all counts
+     */
+    public long getTotal() {
+        return total;
+    }
+    
+    /**
+     * Method to get the bound on the overestimate of a count
+     * @return the bound, i.e. epsilon times the total of all counts
+     */
+    public long getErrorBound() {
+        return (long)Math.ceil(epsilon * total);
+    }
+    
+    /**
+     * Method to get the epsilon of this sketch
+     * @return the epsilon
+     */
+    public double getEpsilon() {
+        return epsilon;
+    }
+    
+    /**
+     * Method to get the delta of this sketch
+     * @return the delta
+     */
+    public double getDelta() {
+        return delta;
+    }
+    
+    protected int column(int hash1, int hash2, int row) {
+        int combined = hash1 + row * hash2;
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+
+}
+
@@ -0,0 +1,226 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DocumentFrequencyTokenCountZipper.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This class computes the document frequency of each token over the requested volumes, each volume being a document, in one pass over the volumes
+ * counted the same way as by PartialCountVolumeTokenCountZipper.  Without tfidf, one entry of the document frequencies is sent, limited by minCount
+ * and topK like token counts.  With tfidf, the counts of each volume are written to a temporary file as they are counted, and once the document
+ * frequencies are complete, each volume is read back and sent as an entry of its tokens ranked by TF-IDF, i.e. the count of the token in the volume
+ * times the natural log of the number of volumes over its document frequency.  minCount then applies to the count of a token in the volume, and
+ * topK to the number of tokens sent per volume.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class DocumentFrequencyTokenCountZipper extends PartialCountVolumeTokenCountZipper {
+    
+    private static Logger log = Logger.getLogger(DocumentFrequencyTokenCountZipper.class);
+    
+    protected static final String DF_ENTRY_NAME = "collection.df";
+    protected static final String COUNT_SUFFIX = ".count";
+    protected static final String TFIDF_SUFFIX = ".tfidf";
+    protected static final String TEMP_PREFIX = "tfidf";
+    protected static final String TEMP_SUFFIX = ".counts";
+    protected static final int TFIDF_FRACTION_DIGITS = 6;
+    protected static final int BUFFER_SIZE = 64 * 1024;
+    
+    protected final boolean tfidf;
+    protected final File tempDir;
+    protected TokenCountMap documentFrequencies = null;
+    protected int volumeCount = 0;
+    protected File countsFile = null;
+    protected DataOutputStream countsOutputStream = null;
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest document frequency, or with tfidf the smallest count in a volume, of the tokens sent
+     * @param topK the largest number of tokens sent per entry, or 0 for no limit
+     * @param tfidf <code>true</code> to send the TF-IDF of the tokens of each volume, <code>false</code> to send the document frequencies
+     * @param tempDir the directory the counts of the volumes are written to for TF-IDF
+     */
+    public DocumentFrequencyTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, boolean tfidf, File tempDir) {
+        super(auditor, format, compressionLevel, minCount, topK);
+        this.tfidf = tfidf;
+        this.tempDir = tempDir;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.PartialCountVolumeTokenCountZipper#countAndZip(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.Tokenizer, edu.indiana.d2i.htrc.access.tokencount.TokenFilter, java.util.Comparator)
+     */
+    @Override
+    public void countAndZip(OutputStream outputStream, VolumeRetriever volumeRetriever, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        documentFrequencies = new TokenCountMap();
+        volumeCount = 0;
+        if (tfidf) {
+            countsFile = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, tempDir);
+            countsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(countsFile), BUFFER_SIZE));
+        }
+        try {
+            super.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } finally {
+            if (countsOutputStream != null) {
+                countsOutputStream.close();
+                countsOutputStream = null;
+            }
+            if (countsFile != null) {
+                if (!countsFile.delete()) {
+                    log.error("Failed to delete " + countsFile.getAbsolutePath());
+                }
+                countsFile = null;
+            }
+            documentFrequencies = null;
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#sendVolumeEntry(edu.indiana.d2i.htrc.access.tokencount.TokenCountMap, java.lang.String, edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void sendVolumeEntry(TokenCountMap map, String entryName, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        for (int id = 0; id < map.size; id++) {
+            documentFrequencies.add(map.arena, map.offsets[id], map.lengths[id], map.hashes[id], 1);
+        }
+        volumeCount++;
+        if (tfidf) {
+            countsOutputStream.writeUTF(entryName);
+            PageCountStore.writeVarInt(countsOutputStream, map.size);
+            for (int id = 0; id < map.size; id++) {
+                PageCountStore.writeVarInt(countsOutputStream, map.lengths[id]);
+                countsOutputStream.write(map.arena, map.offsets[id], map.lengths[id]);
+                PageCountStore.writeVarLong(countsOutputStream, map.counts[id]);
+            }
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#finishEntries(edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void finishEntries(ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        if (volumeCount > 0) {
+            if (tfidf) {
+                countsOutputStream.close();
+                countsOutputStream = null;
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(countsFile), BUFFER_SIZE));
+                try {
+                    byte[] token = new byte[64];
+                    for (int i = 0; i < volumeCount; i++) {
+                        String entryName = inputStream.readUTF();
+                        int size = PageCountStore.readVarInt(inputStream);
+                        TokenCountMap map = new TokenCountMap(size);
+                        for (int j = 0; j < size; j++) {
+                            int length = PageCountStore.readVarInt(inputStream);
+                            if (length > token.length) {
+                                token = new byte[length * 2];
+                            }
+                            inputStream.readFully(token, 0, length);
+                            map.add(token, 0, length, PageCountStore.readVarLong(inputStream));
+                        }
+                        if (entryName.endsWith(COUNT_SUFFIX)) {
+                            entryName = entryName.substring(0, entryName.length() - COUNT_SUFFIX.length());
+                        }
+                        sendTfidfEntry(map, entryName + TFIDF_SUFFIX, archiveWriter);
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            } else {
+                TokenCountZipperFactory.Helper.sendEntry(documentFrequencies, DF_ENTRY_NAME, archiveWriter, comparator, minCount, topK);
+            }
+        }
+    }
+    
+    /**
+     * Method to send the tokens of a volume ranked by descending TF-IDF, with ties in lexical order, as lines of the token, a space and the TF-IDF
+     * @param map the token counts of the volume
+     * @param entryName the name of the entry
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @throws IOException thrown if the entry cannot be written
+     */
+    protected void sendTfidfEntry(final TokenCountMap map, String entryName, ArchiveWriter archiveWriter) throws IOException {
+        final double[] scores = new double[map.size];
+        Integer[] ids = new Integer[map.size];
+        int selected = 0;
+        for (int id = 0; id < map.size; id++) {
+            if (map.counts[id] >= minCount) {
+                long documentFrequency = documentFrequencies.counts[documentFrequencies.find(map.arena, map.offsets[id], map.lengths[id])];
+                scores[id] = map.counts[id] * Math.log((double)volumeCount / documentFrequency);
+                ids[selected++] = id;
+            }
+        }
+        Arrays.sort(ids, 0, selected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = Double.compare(scores[o2], scores[o1]);
+                return (result != 0) ? result : map.compareKeys(o1, o2, 0);
+            }
+        });
+        int sent = (topK > 0) ? Math.min(topK, selected) : selected;
+        try {
+            archiveWriter.putNextEntry(entryName);
+            CountLineWriter countLineWriter = new CountLineWriter(archiveWriter);
+            for (int i = 0; i < sent; i++) {
+                int id = ids[i];
+                countLineWriter.writeLine(map.arena, map.offsets[id], map.lengths[id], scores[id], TFIDF_FRACTION_DIGITS);
+            }
+            countLineWriter.flush();
+        } finally {
+            archiveWriter.closeEntry();
+        }
+    }
+
+}
+
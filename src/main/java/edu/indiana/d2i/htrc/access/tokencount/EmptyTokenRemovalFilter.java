@@ -55,6 +55,10 @@ public class EmptyTokenRemovalFilter implements TokenFilter {
         if (tokenPackage instanceof ExceptionTokenPackage) {
             if (log.isDebugEnabled()) log.debug("encountered ExceptionTokenPackage");
             returnTokenPackage = tokenPackage;
+        } else if (tokenPackage instanceof SliceTokenPackageImpl) {
+            // the slices belong to this page alone, so the empty ones are dropped in place
+            ((SliceTokenPackageImpl)tokenPackage).tokenSlices.removeEmpty();
+            returnTokenPackage = tokenPackage;
         } else {
             if (log.isDebugEnabled()) log.debug("traversing token list");
             try {
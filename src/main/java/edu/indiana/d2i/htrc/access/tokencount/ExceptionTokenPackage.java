@@ -61,5 +61,13 @@ public class ExceptionTokenPackage implements TokenPackage {
     public List<String> getTokenList() throws DataAPIException {
         throw exception;
     }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenPackage#getTokenSlices()
+     */
+    @Override
+    public TokenSlices getTokenSlices() throws DataAPIException {
+        throw exception;
+    }
 }
 
@@ -0,0 +1,167 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FusedTokenFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+
+/**
+ * This TokenFilter applies a list of TokenSliceFilters to each token in turn, so that all of them are done in one pass over the tokens of a
+ * page, and drops the tokens filtered out or left empty by compacting the TokenSlices in place.  A rewritten token is copied back into the
+ * TokenSlices, so apart from the copy of the page content made by the first rewrite, nothing is allocated per token.  Tokenizers that scan the
+ * page content themselves apply the filters to each token as it is scanned instead, through filter(TokenSlice), so the tokens are not gone over again.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class FusedTokenFilter implements TokenFilter {
+    
+    private static final Logger log = Logger.getLogger(FusedTokenFilter.class);
+    
+    protected final TokenSliceFilter[] filters;
+    
+    /**
+     * Constructor
+     * @param filters the TokenSliceFilters, in the order they are applied
+     */
+    public FusedTokenFilter(List<TokenSliceFilter> filters) {
+        this.filters = filters.toArray(new TokenSliceFilter[filters.size()]);
+    }
+    
+    /**
+     * Method to get the names of the TokenSliceFilters in the order they are applied
+     * @return the names separated by commas
+     */
+    public String getName() {
+        StringBuilder builder = new StringBuilder();
+        for (TokenSliceFilter filter : filters) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(filter.getName());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenFilter#filter(edu.indiana.d2i.htrc.access.tokencount.TokenPackage)
+     */
+    @Override
+    public TokenPackage filter(TokenPackage tokenPackage) {
+        TokenPackage returnTokenPackage = null;
+        if (tokenPackage instanceof ExceptionTokenPackage) {
+            if (log.isDebugEnabled()) log.debug("encountered ExceptionTokenPackage");
+            returnTokenPackage = tokenPackage;
+        } else if (tokenPackage instanceof SliceTokenPackageImpl) {
+            filter(((SliceTokenPackageImpl)tokenPackage).tokenSlices);
+            returnTokenPackage = tokenPackage;
+        } else {
+            try {
+                TokenSlices tokenSlices = TokenSlices.fromTokenList(tokenPackage.getTokenList());
+                filter(tokenSlices);
+                returnTokenPackage = new SliceTokenPackageImpl(tokenPackage.getContentIdentifier(), tokenSlices);
+            } catch (DataAPIException e) {
+                returnTokenPackage = new ExceptionTokenPackage(e);
+                log.error("non ExceptionTokenPackage threw DataAPIException", e);
+            }
+        }
+        return returnTokenPackage;
+    }
+    
+    /**
+     * Method to get a FusedTokenFilter that filters tokens the same way as a TokenFilter, if the TokenFilter does nothing but remove empty tokens and
+     * apply TokenSliceFilters, i.e. if it is made only of EmptyTokenRemovalFilters and FusedTokenFilters, chained in a SimpleTokenFilterChain or not
+     * @param tokenFilter the TokenFilter
+     * @return a FusedTokenFilter applying all the TokenSliceFilters of the TokenFilter in order, or <code>null</code> if the TokenFilter does anything else
+     */
+    public static FusedTokenFilter fuse(TokenFilter tokenFilter) {
+        List<TokenSliceFilter> sliceFilters = new ArrayList<TokenSliceFilter>();
+        return collectSliceFilters(tokenFilter, sliceFilters) ? new FusedTokenFilter(sliceFilters) : null;
+    }
+    
+    // every FusedTokenFilter removes empty tokens, so an EmptyTokenRemovalFilter adds no TokenSliceFilter
+    protected static boolean collectSliceFilters(TokenFilter tokenFilter, List<TokenSliceFilter> sliceFilters) {
+        boolean fusable = true;
+        if (tokenFilter instanceof FusedTokenFilter) {
+            sliceFilters.addAll(Arrays.asList(((FusedTokenFilter)tokenFilter).filters));
+        } else if (tokenFilter instanceof SimpleTokenFilterChain) {
+            for (TokenFilter filter : ((SimpleTokenFilterChain)tokenFilter).chain) {
+                fusable = fusable && collectSliceFilters(filter, sliceFilters);
+            }
+        } else {
+            fusable = tokenFilter instanceof EmptyTokenRemovalFilter;
+        }
+        return fusable;
+    }
+    
+    /**
+     * Method to apply the TokenSliceFilters to a token in turn, stopping at the first one that drops it or leaves it empty
+     * @param token the token
+     * @return <code>true</code> to keep the token, <code>false</code> if it is filtered out or empty
+     */
+    public boolean filter(TokenSlice token) {
+        boolean keep = token.getLength() > 0;
+        for (int i = 0; i < filters.length && keep; i++) {
+            keep = filters[i].filter(token) && token.getLength() > 0;
+        }
+        return keep;
+    }
+    
+    protected void filter(TokenSlices tokenSlices) {
+        TokenSlice token = new TokenSlice();
+        int size = tokenSlices.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int offset = tokenSlices.getOffset(i);
+            int length = tokenSlices.getLength(i);
+            token.reset(tokenSlices.getBytes(), offset, length);
+            if (filter(token)) {
+                // the token moves down to the slot of the first dropped token before its bytes are replaced
+                tokenSlices.set(kept, offset, length);
+                if (token.isRewritten()) {
+                    tokenSlices.replace(kept, token.getBytes(), token.getOffset(), token.getLength());
+                } else {
+                    tokenSlices.set(kept, token.getOffset(), token.getLength());
+                }
+                kept++;
+            }
+        }
+        tokenSlices.truncate(kept);
+    }
+
+}
+
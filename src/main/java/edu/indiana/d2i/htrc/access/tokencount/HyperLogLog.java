@@ -0,0 +1,133 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  HyperLogLog.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * This class estimates the number of distinct items with HyperLogLog, in 2^precision one-byte registers.  The relative standard error of the
+ * estimate is 1.04 / sqrt(2^precision), and small numbers are estimated by linear counting of the empty registers.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class HyperLogLog {
+    
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    
+    protected final int precision;
+    protected final byte[] registers;
+    
+    /**
+     * Constructor
+     * @param precision the number of hash bits selecting a register, from MIN_PRECISION to MAX_PRECISION
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be from " + MIN_PRECISION + " to " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+    
+    /**
+     * Method to add an item
+     * @param hash the 64 bit hash of the item
+     */
+    public void add(long hash) {
+        int index = (int)(hash >>> (64 - precision));
+        // the rank is the position of the first 1 bit in the rest of the hash, which a sentinel bit bounds
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte)rank;
+        }
+    }
+    
+    /**
+     * Method to add the items of another HyperLogLog of the same precision to this one
+     * @param other the other HyperLogLog
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLogs of different precisions");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+    
+    /**
+     * Method to estimate the number of distinct items
+     * @return the estimated number of distinct items
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double)m / zeros);
+        }
+        return Math.round(estimate);
+    }
+    
+    /**
+     * Method to get the relative standard error of the estimate
+     * @return the relative standard error
+     */
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+    
+    protected static double alpha(int m) {
+        double alpha = 0.0;
+        if (m == 16) {
+            alpha = 0.673;
+        } else if (m == 32) {
+            alpha = 0.697;
+        } else if (m == 64) {
+            alpha = 0.709;
+        } else {
+            alpha = 0.7213 / (1.0 + 1.079 / m);
+        }
+        return alpha;
+    }
+
+}
+
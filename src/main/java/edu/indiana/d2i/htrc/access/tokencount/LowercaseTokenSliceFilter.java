@@ -0,0 +1,95 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  LowercaseTokenSliceFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * This TokenSliceFilter lowercases a token.  A token of ASCII letters is lowercased byte by byte, and other characters are decoded one code
+ * point at a time and lowercased with Character.toLowerCase(), which never needs more than one code point.  Tokens without uppercase ASCII
+ * letters or non-ASCII bytes are left where they are.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class LowercaseTokenSliceFilter implements TokenSliceFilter {
+    
+    public static final String NAME = "lowercase";
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#filter(edu.indiana.d2i.htrc.access.tokencount.TokenSlice)
+     */
+    @Override
+    public boolean filter(TokenSlice token) {
+        byte[] bytes = token.getBytes();
+        int offset = token.getOffset();
+        int length = token.getLength();
+        int end = offset + length;
+        int index = offset;
+        while (index < end && bytes[index] >= 0 && (bytes[index] < 'A' || bytes[index] > 'Z')) {
+            index++;
+        }
+        if (index < end) {
+            // a lowercase code point takes at most one byte more than its uppercase, which needs at least two
+            byte[] output = token.getOutputBuffer(length + length / 2 + 4);
+            int position = index - offset;
+            System.arraycopy(bytes, offset, output, 0, position);
+            while (index < end) {
+                byte b = bytes[index];
+                if (b >= 0) {
+                    output[position++] = (b >= 'A' && b <= 'Z') ? (byte)(b + ('a' - 'A')) : b;
+                    index++;
+                } else {
+                    int sequenceLength = TokenSlice.sequenceLength(b);
+                    if (sequenceLength > 1 && index + sequenceLength <= end) {
+                        position = TokenSlice.encode(Character.toLowerCase(TokenSlice.decode(bytes, index, sequenceLength)), output, position);
+                        index += sequenceLength;
+                    } else {
+                        // not valid UTF-8, so the byte is kept as it is
+                        output[position++] = b;
+                        index++;
+                    }
+                }
+            }
+            token.setOutput(position);
+        }
+        return true;
+    }
+
+}
+
@@ -0,0 +1,107 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NFCTokenSliceFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+
+/**
+ * This TokenSliceFilter brings a token to Unicode Normalization Form C.  Text without a code point from U+0300 up, i.e. without a byte from
+ * 0xCC up, is always in NFC, so most tokens are passed after a scan of their bytes.  Other tokens are decoded into the char buffer of the
+ * TokenSlice and checked, and only a token that is not in NFC is normalized through a String.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class NFCTokenSliceFilter implements TokenSliceFilter {
+    
+    public static final String NAME = "nfc";
+    
+    protected static final int FIRST_NON_NFC_SAFE_BYTE = 0xCC;
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#filter(edu.indiana.d2i.htrc.access.tokencount.TokenSlice)
+     */
+    @Override
+    public boolean filter(TokenSlice token) {
+        byte[] bytes = token.getBytes();
+        int offset = token.getOffset();
+        int end = offset + token.getLength();
+        int index = offset;
+        while (index < end && (bytes[index] & 0xFF) < FIRST_NON_NFC_SAFE_BYTE) {
+            index++;
+        }
+        if (index < end) {
+            char[] chars = token.getCharBuffer(token.getLength());
+            int charCount = 0;
+            boolean valid = true;
+            index = offset;
+            while (index < end && valid) {
+                int sequenceLength = TokenSlice.sequenceLength(bytes[index]);
+                int codePoint = (index + sequenceLength <= end) ? TokenSlice.decode(bytes, index, sequenceLength) : -1;
+                if ((sequenceLength > 1 || bytes[index] >= 0) && Character.isValidCodePoint(codePoint)) {
+                    charCount += Character.toChars(codePoint, chars, charCount);
+                    index += sequenceLength;
+                } else {
+                    valid = false;
+                }
+            }
+            // a token that is not valid UTF-8 is left alone rather than garbled
+            if (valid) {
+                CharBuffer charView = token.getCharView(charCount);
+                if (!Normalizer.isNormalized(charView, Normalizer.Form.NFC)) {
+                    String normalized = Normalizer.normalize(charView, Normalizer.Form.NFC);
+                    byte[] output = token.getOutputBuffer(normalized.length() * 3);
+                    int position = 0;
+                    int charIndex = 0;
+                    while (charIndex < normalized.length()) {
+                        int codePoint = normalized.codePointAt(charIndex);
+                        position = TokenSlice.encode(codePoint, output, position);
+                        charIndex += Character.charCount(codePoint);
+                    }
+                    token.setOutput(position);
+                }
+            }
+        }
+        return true;
+    }
+
+}
+
@@ -0,0 +1,312 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NgramCountMap.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.Arrays;
+
+/**
+ * This class counts n-grams as tuples of token ids.  The token ids come from a TokenCountMap used as the dictionary of a request, so an n-gram
+ * takes n ints however long its tokens are, and the text of an n-gram is only put together for the n-grams sent.  The tuples are kept in a single
+ * int array indexed by entry id, in the same way TokenCountMap keeps its keys, with a hash table of entry ids probed linearly.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class NgramCountMap {
+    
+    public static final int MAX_N = 5;
+    
+    protected static final int DEFAULT_EXPECTED_SIZE = 1024;
+    protected static final byte SEPARATOR_BYTE = ' ';
+    
+    protected final int n;
+    protected final TokenCountMap dictionary;
+    protected int[] keys;
+    protected int[] hashes;
+    protected int[] counts;
+    protected int size = 0;
+    
+    // entry id + 1 of the entry in each slot, 0 for an empty slot
+    protected int[] slots;
+    protected int mask;
+    
+    /**
+     * Constructor
+     * @param n the number of tokens in an n-gram, from 2 to MAX_N
+     * @param dictionary the TokenCountMap whose entry ids are the token ids
+     */
+    public NgramCountMap(int n, TokenCountMap dictionary) {
+        if (n < 2 || n > MAX_N) {
+            throw new IllegalArgumentException("n must be from 2 to " + MAX_N + ": " + n);
+        }
+        this.n = n;
+        this.dictionary = dictionary;
+        clear();
+    }
+    
+    /**
+     * Method to get the number of distinct n-grams
+     * @return the number of distinct n-grams
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Method to remove all n-grams, keeping the dictionary
+     */
+    public void clear() {
+        keys = new int[DEFAULT_EXPECTED_SIZE * n];
+        hashes = new int[DEFAULT_EXPECTED_SIZE];
+        counts = new int[DEFAULT_EXPECTED_SIZE];
+        slots = new int[DEFAULT_EXPECTED_SIZE * 2];
+        mask = slots.length - 1;
+        size = 0;
+    }
+    
+    /**
+     * Method to count an n-gram
+     * @param tokenIds the array holding the token ids of the n-gram
+     * @param offset offset of the first token id in the array
+     */
+    public void increment(int[] tokenIds, int offset) {
+        int hash = hash(tokenIds, offset, n);
+        int slot = hash & mask;
+        boolean found = false;
+        int id = slots[slot] - 1;
+        while (id >= 0 && !found) {
+            if (hashes[id] == hash && keyEquals(id, tokenIds, offset)) {
+                counts[id]++;
+                found = true;
+            } else {
+                slot = (slot + 1) & mask;
+                id = slots[slot] - 1;
+            }
+        }
+        if (!found) {
+            if (size == counts.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity * n);
+                hashes = Arrays.copyOf(hashes, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            id = size++;
+            System.arraycopy(tokenIds, offset, keys, id * n, n);
+            hashes[id] = hash;
+            counts[id] = 1;
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+        }
+    }
+    
+    /**
+     * Method to get the count of an n-gram
+     * @param tokenIds the array holding the token ids of the n-gram
+     * @param offset offset of the first token id in the array
+     * @return the count of the n-gram, 0 if it has not been counted
+     */
+    public int get(int[] tokenIds, int offset) {
+        int hash = hash(tokenIds, offset, n);
+        int slot = hash & mask;
+        int count = 0;
+        int id = slots[slot] - 1;
+        while (id >= 0 && count == 0) {
+            if (hashes[id] == hash && keyEquals(id, tokenIds, offset)) {
+                count = counts[id];
+            } else {
+                slot = (slot + 1) & mask;
+                id = slots[slot] - 1;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Method to select the n-grams to send, in the same way as TokenCountMap.select(), and put their text together.  The tokens of an n-gram are
+     * separated by a space
+     * @param minCount the smallest count of the selected n-grams
+     * @param topK the largest number of n-grams selected, or 0 for no limit
+     * @return a TokenCountMap holding the text and the counts of the selected n-grams
+     */
+    public TokenCountMap render(int minCount, int topK) {
+        int[] ids = select(minCount, topK);
+        TokenCountMap rendered = new TokenCountMap(ids.length);
+        byte[] buffer = new byte[256];
+        for (int id : ids) {
+            int length = 0;
+            for (int k = 0; k < n; k++) {
+                int tokenId = keys[id * n + k];
+                int tokenLength = dictionary.lengths[tokenId];
+                if (length + tokenLength + 1 > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (length + tokenLength + 1) * 2);
+                }
+                if (k > 0) {
+                    buffer[length++] = SEPARATOR_BYTE;
+                }
+                System.arraycopy(dictionary.arena, dictionary.offsets[tokenId], buffer, length, tokenLength);
+                length += tokenLength;
+            }
+            rendered.add(buffer, 0, length, counts[id]);
+        }
+        return rendered;
+    }
+    
+    /**
+     * Method to select n-grams by count.  With a topK, the n-grams are ranked by descending count, with ties in descending order of their tokens
+     * @param minCount the smallest count of the selected n-grams
+     * @param topK the largest number of n-grams selected, or 0 for no limit
+     * @return the ids of the selected n-grams in ascending order
+     */
+    protected int[] select(int minCount, int topK) {
+        int[] ids = null;
+        if (topK <= 0) {
+            int selected = 0;
+            ids = new int[size];
+            for (int id = 0; id < size; id++) {
+                if (counts[id] >= minCount) {
+                    ids[selected++] = id;
+                }
+            }
+            ids = Arrays.copyOf(ids, selected);
+        } else {
+            // a heap whose root is the selected n-gram ranked last, as in TokenCountMap.select()
+            int[] heap = new int[Math.min(topK, size)];
+            int heapSize = 0;
+            for (int id = 0; id < size; id++) {
+                if (counts[id] >= minCount) {
+                    if (heapSize < heap.length) {
+                        heap[heapSize] = id;
+                        siftUp(heap, heapSize);
+                        heapSize++;
+                    } else if (ranksBefore(id, heap[0])) {
+                        heap[0] = id;
+                        siftDown(heap, 0, heapSize);
+                    }
+                }
+            }
+            ids = Arrays.copyOf(heap, heapSize);
+            Arrays.sort(ids);
+        }
+        return ids;
+    }
+    
+    protected boolean ranksBefore(int id1, int id2) {
+        boolean before = counts[id1] > counts[id2];
+        if (counts[id1] == counts[id2]) {
+            int comparison = 0;
+            for (int k = 0; k < n && comparison == 0; k++) {
+                comparison = dictionary.compareKeys(keys[id1 * n + k], keys[id2 * n + k], 0);
+            }
+            before = comparison > 0;
+        }
+        return before;
+    }
+    
+    protected void siftUp(int[] heap, int index) {
+        int child = index;
+        boolean done = false;
+        while (child > 0 && !done) {
+            int parent = (child - 1) >>> 1;
+            if (ranksBefore(heap[parent], heap[child])) {
+                swap(heap, parent, child);
+                child = parent;
+            } else {
+                done = true;
+            }
+        }
+    }
+    
+    protected void siftDown(int[] heap, int index, int heapSize) {
+        int parent = index;
+        boolean done = false;
+        while (!done) {
+            int last = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize && ranksBefore(heap[last], heap[left])) {
+                last = left;
+            }
+            if (right < heapSize && ranksBefore(heap[last], heap[right])) {
+                last = right;
+            }
+            if (last != parent) {
+                swap(heap, parent, last);
+                parent = last;
+            } else {
+                done = true;
+            }
+        }
+    }
+    
+    protected void rehash(int slotCount) {
+        slots = new int[slotCount];
+        mask = slotCount - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+    
+    protected boolean keyEquals(int id, int[] tokenIds, int offset) {
+        boolean equal = true;
+        int keyOffset = id * n;
+        for (int k = 0; k < n && equal; k++) {
+            equal = (keys[keyOffset + k] == tokenIds[offset + k]);
+        }
+        return equal;
+    }
+    
+    protected static int hash(int[] tokenIds, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ tokenIds[i]) * 0x01000193;
+        }
+        // spread the bits the linear probing masks with
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+    
+    private static void swap(int[] ids, int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+}
+
@@ -0,0 +1,104 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NgramTokenCountZipper.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This TokenCountZipper counts the n-grams of each volume instead of its tokens.  The tokens come in order from VolumeTokenCountZipper, with the words
+ * hyphenated across pages already joined, so n-grams span page breaks but not volumes.  Each token is given an id from a dictionary kept for the
+ * whole request, and the n-grams are counted by the ids of their last n tokens in a NgramCountMap.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class NgramTokenCountZipper extends VolumeTokenCountZipper {
+    
+    protected final int n;
+    protected final TokenCountMap dictionary;
+    protected final NgramCountMap ngramCountMap;
+    protected final int[] window;
+    protected int windowSize = 0;
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest count of the n-grams sent
+     * @param topK the largest number of n-grams sent per volume, chosen by descending count, or 0 for no limit
+     * @param n the number of tokens in an n-gram, from 2 to NgramCountMap.MAX_N
+     */
+    public NgramTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, int n) {
+        super(auditor, format, compressionLevel, minCount, topK);
+        this.n = n;
+        this.dictionary = new TokenCountMap();
+        this.ngramCountMap = new NgramCountMap(n, dictionary);
+        this.window = new int[n];
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#countToken(byte[], int, int, edu.indiana.d2i.htrc.access.tokencount.TokenCountMap)
+     */
+    @Override
+    protected void countToken(byte[] bytes, int offset, int length, TokenCountMap map) {
+        int tokenId = dictionary.add(bytes, offset, length, TokenCountMap.hash(bytes, offset, length), 1);
+        if (windowSize == n) {
+            System.arraycopy(window, 1, window, 0, n - 1);
+            windowSize--;
+        }
+        window[windowSize++] = tokenId;
+        if (windowSize == n) {
+            ngramCountMap.increment(window, 0);
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#sendVolumeEntry(edu.indiana.d2i.htrc.access.tokencount.TokenCountMap, java.lang.String, edu.indiana.d2i.htrc.access.zip.ArchiveWriter, java.util.Comparator)
+     */
+    @Override
+    protected void sendVolumeEntry(TokenCountMap map, String entryName, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        // the n-grams are selected before their text is put together, so only the ones sent are turned into text
+        TokenCountMap rendered = ngramCountMap.render(minCount, topK);
+        ngramCountMap.clear();
+        windowSize = 0;
+        TokenCountZipperFactory.Helper.sendEntry(rendered, entryName, archiveWriter, comparator, 1, 0);
+    }
+
+}
+
@@ -0,0 +1,115 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageCountSections.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+
+/**
+ * This class collects the page level token counts of a volume and sends them as a single entry instead of one entry per page, so that the archive
+ * carries no per-page headers and a client reads all the pages of a volume in one sequential read.  The entry starts with an index of the pages
+ * <pre>
+ * number of pages
+ * page sequence ID, a space, the offset of its section, a space, the length of its section
+ * ...
+ * </pre>
+ * followed by the sections of the pages in the order of the index, each a section of lines of a token, a space and a count, the same as the entry of
+ * the page would have held.  The offsets are counted in bytes from the first byte after the index.
+ * 
+ * @author Yiming Sun
+ *
+ */
+class PageCountSections {
+
+    protected static final String ENTRY_SUFFIX = ".pages.count";
+
+    private final ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    private String[] pageSequenceIDs = new String[64];
+    private int[] offsets = new int[64];
+    private int pageCount = 0;
+
+    /**
+     * Method to add the section of a page
+     * @param pageSequenceID the page sequence ID of the page
+     * @param map the token counts of the page
+     * @param ids the entry ids of the map in the order to be written
+     * @throws IOException thrown if the counts cannot be written
+     */
+    void addPage(String pageSequenceID, TokenCountMap map, int[] ids) throws IOException {
+        if (pageCount == pageSequenceIDs.length) {
+            pageSequenceIDs = Arrays.copyOf(pageSequenceIDs, pageCount * 2);
+            offsets = Arrays.copyOf(offsets, pageCount * 2);
+        }
+        pageSequenceIDs[pageCount] = pageSequenceID;
+        offsets[pageCount] = sections.size();
+        pageCount++;
+        map.writeTo(sections, ids);
+    }
+
+    boolean isEmpty() {
+        return pageCount == 0;
+    }
+
+    /**
+     * Method to send the pages added so far as an entry, after which no page is held
+     * @param entryName the name of the entry
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @throws IOException thrown if the entry cannot be written
+     */
+    void sendEntry(String entryName, ArchiveWriter archiveWriter) throws IOException {
+        StringBuilder index = new StringBuilder();
+        index.append(pageCount).append('\n');
+        for (int i = 0; i < pageCount; i++) {
+            int end = (i + 1 < pageCount) ? offsets[i + 1] : sections.size();
+            index.append(pageSequenceIDs[i]).append(' ').append(offsets[i]).append(' ').append(end - offsets[i]).append('\n');
+        }
+        try {
+            archiveWriter.putNextEntry(entryName);
+            archiveWriter.write(index.toString().getBytes(TokenCountMap.UTF_8));
+            sections.writeTo(archiveWriter);
+        } finally {
+            archiveWriter.closeEntry();
+            clear();
+        }
+    }
+
+    void clear() {
+        sections.reset();
+        Arrays.fill(pageSequenceIDs, 0, pageCount, null);
+        pageCount = 0;
+    }
+
+}
+
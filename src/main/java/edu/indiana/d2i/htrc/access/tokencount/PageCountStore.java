@@ -0,0 +1,353 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageCountStore.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+
+/**
+ * This class is a disk store of page level token counts, so that a volume counted once is not fetched from Cassandra and tokenized again.  The corpus
+ * does not change, so the counts of a volume are only keyed by the volumeID and a fingerprint of the Tokenizer and the TokenFilter that produced them,
+ * and are never evicted.  The counts of each page are stored the way a PartialTokenCount of a single page holds them, i.e. the first token and a
+ * hyphenated last word are kept apart from the rest of the counts, so that both page level and volume level counts can be merged from them.  The
+ * counts of all pages of a volume are held in one file, which is written to a temporary file first and renamed once complete.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class PageCountStore {
+
+    private static Logger log = Logger.getLogger(PageCountStore.class);
+
+    public static final String PN_PAGE_COUNT_STORE_DIR = "page.count.store.dir";
+
+    // bump FORMAT_VERSION whenever the tokenization changes in a way the class names in the fingerprint do not show
+    protected static final String FORMAT_VERSION = "1";
+    protected static final int MAGIC = 0x48504331;
+    protected static final String COUNTS_SUFFIX = ".counts";
+    protected static final String TEMP_SUFFIX = ".tmp";
+    protected static final String UTF_8 = "utf-8";
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    private static PageCountStore instance = null;
+
+    protected final File storeDir;
+    private long tempFileCounter = 0L;
+
+    /**
+     * Method to initialize the store.  The store is disabled if no store directory is configured
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static synchronized void init(ParameterContainer parameterContainer) {
+        instance = null;
+        String storeDirPath = parameterContainer.getParameter(PN_PAGE_COUNT_STORE_DIR);
+        if (storeDirPath != null && storeDirPath.trim().length() > 0) {
+            File dir = new File(storeDirPath.trim());
+            if (dir.isDirectory() || dir.mkdirs()) {
+                instance = new PageCountStore(dir);
+            } else {
+                log.error("Cannot create page count store directory " + dir.getAbsolutePath() + ", page count store is disabled");
+            }
+        }
+    }
+
+    /**
+     * Method to get the store
+     * @return the PageCountStore object, or <code>null</code> if the store is disabled
+     */
+    public static synchronized PageCountStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to compute the fingerprint of the tokenization the stored counts come from
+     * @param tokenizer the Tokenizer object
+     * @param tokenFilter the TokenFilter object applied to the tokens
+     * @return a String naming the Tokenizer, the filters and the format of the store
+     */
+    public static String fingerprint(Tokenizer tokenizer, TokenFilter tokenFilter) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(FORMAT_VERSION).append(';').append(tokenizer.getClass().getName());
+        if (tokenFilter instanceof SimpleTokenFilterChain) {
+            for (TokenFilter filter : ((SimpleTokenFilterChain)tokenFilter).chain) {
+                builder.append(';').append(filter.getClass().getName());
+                if (filter instanceof FusedTokenFilter) {
+                    builder.append('(').append(((FusedTokenFilter)filter).getName()).append(')');
+                }
+            }
+        } else {
+            builder.append(';').append(tokenFilter.getClass().getName());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Constructor.  Unfinished temporary files left in the store directory are removed
+     * @param storeDir the directory holding the stored counts
+     */
+    protected PageCountStore(File storeDir) {
+        this.storeDir = storeDir;
+        File[] files = storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to check if the counts of a volume are stored
+     * @param fingerprint the fingerprint returned by fingerprint()
+     * @param volumeID the volumeID
+     * @return <code>true</code> if the counts of the volume are stored, <code>false</code> otherwise
+     */
+    public boolean contains(String fingerprint, String volumeID) {
+        return getCountsFile(fingerprint, volumeID).isFile();
+    }
+
+    /**
+     * Method to read the counts of the pages of a volume.  A file that cannot be read is removed so that the volume is counted again the next time
+     * @param fingerprint the fingerprint returned by fingerprint()
+     * @param volumeID the volumeID
+     * @return a List of PartialTokenCount objects, one for each page in order
+     * @throws IOException thrown if the counts of the volume are not stored or cannot be read
+     */
+    public List<PartialTokenCount> load(String fingerprint, String volumeID) throws IOException {
+        File countsFile = getCountsFile(fingerprint, volumeID);
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(countsFile), BUFFER_SIZE));
+        try {
+            if (inputStream.readInt() != MAGIC || !fingerprint.equals(inputStream.readUTF()) || !volumeID.equals(inputStream.readUTF())) {
+                throw new IOException("Unexpected content in " + countsFile.getAbsolutePath());
+            }
+            int pageCount = readVarInt(inputStream);
+            List<PartialTokenCount> pageCounts = new ArrayList<PartialTokenCount>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                String pageSequenceID = inputStream.readUTF();
+                byte[] leadingToken = readToken(inputStream);
+                byte[] trailingHyphenatedWord = readToken(inputStream);
+                int size = readVarInt(inputStream);
+                TokenCountMap map = new TokenCountMap(size);
+                byte[] buffer = new byte[64];
+                for (int j = 0; j < size; j++) {
+                    int length = readVarInt(inputStream);
+                    if (length > buffer.length) {
+                        buffer = new byte[length * 2];
+                    }
+                    inputStream.readFully(buffer, 0, length);
+                    map.add(buffer, 0, length, readVarLong(inputStream));
+                }
+                pageCounts.add(new PartialTokenCount(new ContentIdentifierImpl(volumeID, pageSequenceID), map, leadingToken, trailingHyphenatedWord));
+            }
+            return pageCounts;
+        } catch (IOException e) {
+            inputStream.close();
+            inputStream = null;
+            if (!countsFile.delete()) {
+                log.error("Failed to delete unreadable page counts " + countsFile.getAbsolutePath());
+            }
+            throw e;
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * Method to store the counts of the pages of a volume.  Nothing is stored unless each PartialTokenCount holds exactly one page counted from its content
+     * @param fingerprint the fingerprint returned by fingerprint()
+     * @param pageCounts a List of PartialTokenCount objects, one for each page of the volume in order
+     * @return <code>true</code> if the counts are stored, <code>false</code> otherwise
+     */
+    public boolean fill(String fingerprint, List<PartialTokenCount> pageCounts) {
+        if (pageCounts.isEmpty()) {
+            return false;
+        }
+        for (PartialTokenCount pageCount : pageCounts) {
+            if (pageCount.isStored() || pageCount.map == null || pageCount.getPageSequenceIDs().size() != 1) {
+                return false;
+            }
+        }
+        String volumeID = pageCounts.get(0).getContentIdentifier().getVolumeID();
+        long counter = 0L;
+        synchronized (this) {
+            counter = ++tempFileCounter;
+        }
+        File countsFile = getCountsFile(fingerprint, volumeID);
+        File tempFile = new File(storeDir, countsFile.getName() + "." + counter + TEMP_SUFFIX);
+        try {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+            try {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeUTF(fingerprint);
+                outputStream.writeUTF(volumeID);
+                writeVarInt(outputStream, pageCounts.size());
+                for (PartialTokenCount pageCount : pageCounts) {
+                    TokenCountMap map = pageCount.map;
+                    outputStream.writeUTF(pageCount.getPageSequenceIDs().get(0));
+                    writeToken(outputStream, pageCount.getLeadingToken());
+                    writeToken(outputStream, pageCount.getTrailingHyphenatedWord());
+                    writeVarInt(outputStream, map.size);
+                    for (int id = 0; id < map.size; id++) {
+                        writeVarInt(outputStream, map.lengths[id]);
+                        outputStream.write(map.arena, map.offsets[id], map.lengths[id]);
+                        writeVarLong(outputStream, map.counts[id]);
+                    }
+                }
+            } finally {
+                outputStream.close();
+            }
+            // a volume filled by two requests at once is written twice with the same content, and either rename leaves a complete file
+            countsFile.delete();
+            if (!tempFile.renameTo(countsFile)) {
+                throw new IOException("Failed to rename " + tempFile.getAbsolutePath() + " to " + countsFile.getAbsolutePath());
+            }
+            if (log.isDebugEnabled()) log.debug("stored page counts of " + volumeID);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to store page counts of " + volumeID, e);
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    protected File getCountsFile(String fingerprint, String volumeID) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(fingerprint.getBytes(UTF_8));
+            messageDigest.update((byte)'\n');
+            messageDigest.update(volumeID.getBytes(UTF_8));
+            byte[] digest = messageDigest.digest();
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(storeDir, hex.append(COUNTS_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // a token is written as its length plus one followed by its bytes, so that 0 stands for no token
+    protected static void writeToken(OutputStream outputStream, byte[] token) throws IOException {
+        if (token == null) {
+            writeVarInt(outputStream, 0);
+        } else {
+            writeVarInt(outputStream, token.length + 1);
+            outputStream.write(token);
+        }
+    }
+
+    protected static byte[] readToken(DataInputStream inputStream) throws IOException {
+        int length = readVarInt(inputStream) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] token = new byte[length];
+        inputStream.readFully(token);
+        return token;
+    }
+
+    // non-negative ints are written 7 bits at a time, low bits first, so that the short lengths and small counts that dominate take a single byte
+    protected static void writeVarInt(OutputStream outputStream, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            outputStream.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        outputStream.write(remaining);
+    }
+
+    protected static int readVarInt(InputStream inputStream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    // longs are written the same way as ints, so a count written as either is read back by readVarLong()
+    protected static void writeVarLong(OutputStream outputStream, long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0L) {
+            outputStream.write((int)(remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        outputStream.write((int)remaining);
+    }
+
+    protected static long readVarLong(InputStream inputStream) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+}
+
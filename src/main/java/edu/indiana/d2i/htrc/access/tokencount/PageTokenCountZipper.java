@@ -34,19 +34,19 @@ package edu.indiana.d2i.htrc.access.tokencount;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.zip.Deflater;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import gov.loc.repository.pairtree.Pairtree;
@@ -59,10 +59,50 @@ public class PageTokenCountZipper implements TokenCountZipper {
     
     private static Logger log = Logger.getLogger(PageTokenCountZipper.class);
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final FormatEnum format;
+    protected final int minCount;
+    protected final int topK;
+    protected final boolean consolidated;
     protected static final String TOKEN_COUNT_ACCESSED_ACTION = "TOKEN_COUNT_ACCESSED";
 
     public PageTokenCountZipper(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+    
+    public PageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel) {
+        this(auditor, format, compressionLevel, 1, 0);
+    }
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest count of the tokens sent
+     * @param topK the largest number of tokens sent per entry, chosen by descending count, or 0 for no limit
+     */
+    public PageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK) {
+        this(auditor, format, compressionLevel, minCount, topK, false);
+    }
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest count of the tokens sent
+     * @param topK the largest number of tokens sent per page, chosen by descending count, or 0 for no limit
+     * @param consolidated <code>true</code> to send the pages of a volume as the sections of one entry, as described in PageCountSections, or
+     * <code>false</code> to send every page as an entry of its own
+     */
+    public PageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, boolean consolidated) {
         this.auditor = auditor;
+        this.format = format;
+        this.compressionLevel = compressionLevel;
+        this.minCount = minCount;
+        this.topK = topK;
+        this.consolidated = consolidated;
     }
     
     /**
@@ -73,18 +113,19 @@ public class PageTokenCountZipper implements TokenCountZipper {
         Pairtree pairtree = new Pairtree();
         ContentIdentifier identifier = null;
         String currentVolumeID = null;
+        String currentVolumeEntryName = null;
         List<String> currentPageSequences = null;
-        Map<String, Count> map = null;
+        PageCountSections pageCountSections = consolidated ? new PageCountSections() : null;
+        TokenCountMap map = new TokenCountMap();
         List<Exception> exceptionList = new LinkedList<Exception>();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
         
-        Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever);
+        Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever, tokenFilter);
         
         while (iterator.hasNext()) {
-            TokenPackage tokenPackage = tokenFilter.filter(iterator.next());
+            TokenPackage tokenPackage = iterator.next();
             identifier = tokenPackage.getContentIdentifier();
-            map = new HashMap<String, Count>();
+            map.clear();
             
             try {
                 
@@ -95,19 +136,28 @@ public class PageTokenCountZipper implements TokenCountZipper {
                     if (currentVolumeID != null) {
                         auditor.audit(TOKEN_COUNT_ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
                     }
+                    if (pageCountSections != null && !pageCountSections.isEmpty()) {
+                        pageCountSections.sendEntry(currentVolumeEntryName, archiveWriter);
+                    }
                     currentVolumeID = identifier.getVolumeID();
+                    currentVolumeEntryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + PageCountSections.ENTRY_SUFFIX;
                     currentPageSequences = new LinkedList<String>();
                 }
                 
                 currentPageSequences.add(identifier.getPageSequenceID());
                 
-                List<String> tokenList = tokenPackage.getTokenList();
-                for (String token : tokenList) {
-                    TokenCountZipperFactory.Helper.countToken(token, map);
+                TokenSlices tokenSlices = tokenPackage.getTokenSlices();
+                int size = tokenSlices.size();
+                for (int i = 0; i < size; i++) {
+                    TokenCountZipperFactory.Helper.countToken(tokenSlices, i, map);
+                }
+                if (pageCountSections != null) {
+                    pageCountSections.addPage(identifier.getPageSequenceID(), map, TokenCountZipperFactory.Helper.selectAndSort(map, comparator, minCount, topK));
+                } else {
+                    String entryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + "/" + identifier.getPageSequenceID() + ".count";
+                    if (log.isDebugEnabled()) log.debug("zipping entry for " + currentVolumeID + " " + identifier.getPageSequenceID());
+                    TokenCountZipperFactory.Helper.sendEntry(map, entryName, archiveWriter, comparator, minCount, topK);
                 }
-                String entryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + "/" + identifier.getPageSequenceID() + ".count";
-                if (log.isDebugEnabled()) log.debug("zipping entry for " + currentVolumeID + " " + identifier.getPageSequenceID());
-                TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
             } catch (Exception e) {
                 exceptionList.add(e);
             }
@@ -117,11 +167,19 @@ public class PageTokenCountZipper implements TokenCountZipper {
             auditor.audit(TOKEN_COUNT_ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
         }
         
+        if (pageCountSections != null && !pageCountSections.isEmpty()) {
+            try {
+                pageCountSections.sendEntry(currentVolumeEntryName, archiveWriter);
+            } catch (IOException e) {
+                exceptionList.add(e);
+            }
+        }
+        
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, false, exceptionList);
         }
         
-        zipOutputStream.close();
+        archiveWriter.close();
     }
 
 }
@@ -0,0 +1,196 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PartialCountPageTokenCountZipper.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.audit.Auditor;
+import gov.loc.repository.pairtree.Pairtree;
+
+/**
+ * This class produces the same page level token counts as PageTokenCountZipper from the counts of single pages returned by a PartialTokenCounter, which
+ * are either read from the PageCountStore or counted on the worker threads and stored once the volume is sent.  The pages of a volume are sent in order
+ * once all of them are counted, and volumes are sent in the order they were requested.  If the Tokenizer is not a PartialTokenCounter or no
+ * PageCountStore is configured, the tokens are counted by PageTokenCountZipper
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PartialCountPageTokenCountZipper extends PageTokenCountZipper {
+    
+    static class VolumePageCounts {
+        protected PartialTokenCount[] pageCounts = new PartialTokenCount[8];
+        protected int receivedCount = 0;
+        protected int pageCount = -1;
+        
+        void add(PartialTokenCount partialTokenCount) {
+            int batchIndex = partialTokenCount.getBatchIndex();
+            if (batchIndex >= pageCounts.length) {
+                pageCounts = Arrays.copyOf(pageCounts, Math.max(batchIndex + 1, pageCounts.length * 2));
+            }
+            pageCounts[batchIndex] = partialTokenCount;
+            receivedCount++;
+            if (partialTokenCount.isLastBatch()) {
+                pageCount = batchIndex + 1;
+            }
+        }
+        
+        boolean isComplete() {
+            return pageCount >= 0 && receivedCount == pageCount;
+        }
+        
+        List<PartialTokenCount> getPageCounts() {
+            return Arrays.asList(pageCounts).subList(0, pageCount);
+        }
+    }
+    
+    public PartialCountPageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel) {
+        super(auditor, format, compressionLevel);
+    }
+    
+    public PartialCountPageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK) {
+        super(auditor, format, compressionLevel, minCount, topK);
+    }
+    
+    public PartialCountPageTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, boolean consolidated) {
+        super(auditor, format, compressionLevel, minCount, topK, consolidated);
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.PageTokenCountZipper#countAndZip(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.Tokenizer, edu.indiana.d2i.htrc.access.tokencount.TokenFilter, java.util.Comparator)
+     */
+    @Override
+    public void countAndZip(OutputStream outputStream, VolumeRetriever volumeRetriever, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        if (!(tokenizer instanceof PartialTokenCounter) || pageCountStore == null) {
+            super.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } else {
+            Pairtree pairtree = new Pairtree();
+            String fingerprint = PageCountStore.fingerprint(tokenizer, tokenFilter);
+            TokenCountMap map = new TokenCountMap();
+            Map<Integer, VolumePageCounts> volumeMap = new HashMap<Integer, VolumePageCounts>();
+            int nextVolumeIndex = 0;
+            List<Exception> exceptionList = new LinkedList<Exception>();
+            ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
+            
+            Iterator<PartialTokenCount> iterator = ((PartialTokenCounter)tokenizer).countPartially(volumeRetriever, tokenFilter);
+            
+            while (iterator.hasNext()) {
+                try {
+                    PartialTokenCount partialTokenCount = iterator.next();
+                    
+                    // TODO need to return more error info
+                    if (partialTokenCount.getContentIdentifier() == null) throw new Exception("Cannot find some volumes");
+                    
+                    Integer volumeIndex = Integer.valueOf(partialTokenCount.getVolumeIndex());
+                    VolumePageCounts volumePageCounts = volumeMap.get(volumeIndex);
+                    if (volumePageCounts == null) {
+                        volumePageCounts = new VolumePageCounts();
+                        volumeMap.put(volumeIndex, volumePageCounts);
+                    }
+                    volumePageCounts.add(partialTokenCount);
+                    
+                    volumePageCounts = volumeMap.get(Integer.valueOf(nextVolumeIndex));
+                    while (volumePageCounts != null && volumePageCounts.isComplete()) {
+                        volumeMap.remove(Integer.valueOf(nextVolumeIndex));
+                        sendVolume(volumePageCounts.getPageCounts(), map, pairtree, archiveWriter, comparator);
+                        // the counts of some pages of a volume must not be stored as the counts of the volume
+                        List<PartialTokenCount> pageCounts = volumePageCounts.getPageCounts();
+                        if (StoredPageCountVolumeRetriever.isCompleteVolume(volumeRetriever, pageCounts)) {
+                            pageCountStore.fill(fingerprint, pageCounts);
+                        }
+                        nextVolumeIndex++;
+                        volumePageCounts = volumeMap.get(Integer.valueOf(nextVolumeIndex));
+                    }
+                } catch (Exception e) {
+                    exceptionList.add(e);
+                }
+            }
+            
+            if (!exceptionList.isEmpty()) {
+                ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, false, exceptionList);
+            }
+            
+            archiveWriter.close();
+        }
+    }
+    
+    protected void sendVolume(List<PartialTokenCount> pageCounts, TokenCountMap map, Pairtree pairtree, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        List<String> pageSequences = new LinkedList<String>();
+        PageCountSections pageCountSections = consolidated ? new PageCountSections() : null;
+        for (PartialTokenCount pageCount : pageCounts) {
+            // a page that failed to be counted is left out, the same way PageTokenCountZipper leaves it out
+            if (!pageCount.getPageSequenceIDs().isEmpty()) {
+                ContentIdentifier identifier = pageCount.getContentIdentifier();
+                // the first and the last token are put back in the order they are read, so that the DEFAULT order matches PageTokenCountZipper
+                map.clear();
+                byte[] leadingToken = pageCount.getLeadingToken();
+                if (leadingToken != null) {
+                    map.increment(leadingToken, 0, leadingToken.length);
+                }
+                map.addAll(pageCount.map);
+                byte[] trailingHyphenatedWord = pageCount.getTrailingHyphenatedWord();
+                if (trailingHyphenatedWord != null) {
+                    map.increment(trailingHyphenatedWord, 0, trailingHyphenatedWord.length);
+                }
+                pageSequences.add(identifier.getPageSequenceID());
+                if (pageCountSections != null) {
+                    pageCountSections.addPage(identifier.getPageSequenceID(), map, TokenCountZipperFactory.Helper.selectAndSort(map, comparator, minCount, topK));
+                } else {
+                    String entryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + "/" + identifier.getPageSequenceID() + ".count";
+                    TokenCountZipperFactory.Helper.sendEntry(map, entryName, archiveWriter, comparator, minCount, topK);
+                }
+            }
+        }
+        ContentIdentifier identifier = pageCounts.get(0).getContentIdentifier();
+        if (pageCountSections != null && !pageCountSections.isEmpty()) {
+            pageCountSections.sendEntry(identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + PageCountSections.ENTRY_SUFFIX, archiveWriter);
+        }
+        auditor.audit(TOKEN_COUNT_ACCESSED_ACTION, identifier.getVolumeID(), pageSequences.toArray(new String[0]));
+    }
+
+}
+
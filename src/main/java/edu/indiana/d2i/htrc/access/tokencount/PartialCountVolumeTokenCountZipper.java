@@ -0,0 +1,144 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PartialCountVolumeTokenCountZipper.java
+# Description:  Volume level token count zipper merging partial counts of page batches
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.audit.Auditor;
+import gov.loc.repository.pairtree.Pairtree;
+
+/**
+ * This class produces the same volume level token counts as VolumeTokenCountZipper, but the pages are tokenized and counted in batches on the worker
+ * threads of a PartialTokenCounter, and the thread writing the response only merges the partial counts and joins the words hyphenated across the
+ * boundaries of the batches.  Batches are merged in the order they complete, and volumes are sent in the order they were requested.  If a PageCountStore
+ * is configured, the page counts of each volume counted from its pages are stored once the volume is sent.  If the Tokenizer is not a
+ * PartialTokenCounter, the tokens are counted by VolumeTokenCountZipper
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PartialCountVolumeTokenCountZipper extends VolumeTokenCountZipper {
+    
+    public PartialCountVolumeTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel) {
+        super(auditor, format, compressionLevel);
+    }
+    
+    public PartialCountVolumeTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK) {
+        super(auditor, format, compressionLevel, minCount, topK);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.VolumeTokenCountZipper#countAndZip(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.Tokenizer, edu.indiana.d2i.htrc.access.tokencount.TokenFilter, java.util.Comparator)
+     */
+    @Override
+    public void countAndZip(OutputStream outputStream, VolumeRetriever volumeRetriever, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        if (!(tokenizer instanceof PartialTokenCounter)) {
+            super.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } else {
+            Pairtree pairtree = new Pairtree();
+            // the DEFAULT order is the order tokens are read in, so it needs the batches merged in order; the other orders do not depend on it
+            TokenCountComparatorTypeEnum comparatorType = TokenCountComparatorFactory.getComparatorType(comparator);
+            boolean ordered = (comparatorType == null || comparatorType == TokenCountComparatorTypeEnum.DEFAULT);
+            PageCountStore pageCountStore = PageCountStore.getInstance();
+            String fingerprint = (pageCountStore != null) ? PageCountStore.fingerprint(tokenizer, tokenFilter) : null;
+            Map<Integer, VolumeCountMerger> mergerMap = new HashMap<Integer, VolumeCountMerger>();
+            int nextVolumeIndex = 0;
+            List<Exception> exceptionList = new LinkedList<Exception>();
+            ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
+            
+            Iterator<PartialTokenCount> iterator = ((PartialTokenCounter)tokenizer).countPartially(volumeRetriever, tokenFilter);
+            
+            while (iterator.hasNext()) {
+                try {
+                    PartialTokenCount partialTokenCount = iterator.next();
+                    
+                    // TODO need to return more error info
+                    if (partialTokenCount.getContentIdentifier() == null) throw new Exception("Cannot find some volumes");
+                    
+                    Integer volumeIndex = Integer.valueOf(partialTokenCount.getVolumeIndex());
+                    VolumeCountMerger volumeCountMerger = mergerMap.get(volumeIndex);
+                    if (volumeCountMerger == null) {
+                        volumeCountMerger = new VolumeCountMerger(ordered, pageCountStore != null);
+                        mergerMap.put(volumeIndex, volumeCountMerger);
+                    }
+                    volumeCountMerger.add(partialTokenCount);
+                    
+                    // volumes are sent in the order they were requested, so a complete volume waits for the volumes before it
+                    volumeCountMerger = mergerMap.get(Integer.valueOf(nextVolumeIndex));
+                    while (volumeCountMerger != null && volumeCountMerger.isComplete()) {
+                        mergerMap.remove(Integer.valueOf(nextVolumeIndex));
+                        sendVolume(volumeCountMerger, pairtree, archiveWriter, comparator);
+                        // the counts of some pages of a volume must not be stored as the counts of the volume
+                        if (pageCountStore != null && StoredPageCountVolumeRetriever.isCompleteVolume(volumeRetriever, volumeCountMerger.getBatches())) {
+                            pageCountStore.fill(fingerprint, volumeCountMerger.getBatches());
+                        }
+                        nextVolumeIndex++;
+                        volumeCountMerger = mergerMap.get(Integer.valueOf(nextVolumeIndex));
+                    }
+                } catch (Exception e) {
+                    exceptionList.add(e);
+                }
+            }
+            
+            finishEntries(archiveWriter, comparator);
+            
+            if (!exceptionList.isEmpty()) {
+                ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, false, exceptionList);
+            }
+            
+            archiveWriter.close();
+        }
+    }
+    
+    protected void sendVolume(VolumeCountMerger volumeCountMerger, Pairtree pairtree, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        ContentIdentifier identifier = volumeCountMerger.getContentIdentifier();
+        auditor.audit(TOKEN_COUNT_ACCESSED_ACTION, identifier.getVolumeID(), volumeCountMerger.getPageSequenceIDs());
+        String entryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + ".count";
+        sendVolumeEntry(volumeCountMerger.getMap(), entryName, archiveWriter, comparator);
+    }
+
+}
+
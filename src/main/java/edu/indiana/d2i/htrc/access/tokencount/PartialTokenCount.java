@@ -0,0 +1,271 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PartialTokenCount.java
+# Description:  Token counts of a batch of consecutive pages of a volume
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+
+/**
+ * This class holds the token counts of a batch of consecutive pages of a volume.  The first token of the batch and a hyphenated last word left over at the
+ * end of the batch are kept out of the counts, because they may have to be joined with the last word of the previous batch or the first token of the next
+ * batch; the rest of the tokens are counted the same way VolumeTokenCountZipper counts them.  Batches may complete in any order, so each one carries
+ * its position within the volume
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PartialTokenCount {
+    
+    protected final ContentIdentifier contentIdentifier;
+    protected final List<String> pageSequenceIDs;
+    protected final TokenCountMap map;
+    protected final DataAPIException exception;
+    protected final int volumeIndex;
+    protected final int batchIndex;
+    protected final boolean lastBatch;
+    protected final boolean stored;
+    protected byte[] leadingToken = null;
+    protected byte[] trailingHyphenatedWord = null;
+    
+    private boolean hasLeadingToken = false;
+    private byte[] hyphenedLastWord = null;
+    private int hyphenedLastWordLength = -1;
+    
+    /**
+     * Constructor
+     * @param contentIdentifier the ContentIdentifier of the first page of the batch
+     * @param pageCount the number of pages in the batch
+     * @param volumeIndex the position of the volume among the volumes counted
+     * @param batchIndex the position of the batch among the batches of the volume
+     * @param lastBatch whether this is the last batch of the volume
+     */
+    PartialTokenCount(ContentIdentifier contentIdentifier, int pageCount, int volumeIndex, int batchIndex, boolean lastBatch) {
+        this.contentIdentifier = contentIdentifier;
+        this.pageSequenceIDs = new ArrayList<String>(pageCount);
+        this.map = new TokenCountMap();
+        this.exception = null;
+        this.volumeIndex = volumeIndex;
+        this.batchIndex = batchIndex;
+        this.lastBatch = lastBatch;
+        this.stored = false;
+    }
+    
+    /**
+     * Constructor for the counts of a single page read from a PageCountStore
+     * @param contentIdentifier the ContentIdentifier of the page
+     * @param map the token counts of the page, not including the leading token and the trailing hyphenated word
+     * @param leadingToken the first token of the page, or <code>null</code> if the page has no tokens
+     * @param trailingHyphenatedWord the hyphenated last word of the page, or <code>null</code> if there is none
+     */
+    PartialTokenCount(ContentIdentifier contentIdentifier, TokenCountMap map, byte[] leadingToken, byte[] trailingHyphenatedWord) {
+        this.contentIdentifier = contentIdentifier;
+        this.pageSequenceIDs = Collections.singletonList(contentIdentifier.getPageSequenceID());
+        this.map = map;
+        this.exception = null;
+        this.volumeIndex = -1;
+        this.batchIndex = -1;
+        this.lastBatch = false;
+        this.stored = true;
+        this.leadingToken = leadingToken;
+        this.trailingHyphenatedWord = trailingHyphenatedWord;
+    }
+    
+    /**
+     * Constructor for the same counts placed at a position within the volumes counted.  The counts are shared, not copied
+     * @param partialTokenCount the PartialTokenCount holding the counts
+     * @param volumeIndex the position of the volume among the volumes counted
+     * @param batchIndex the position of the batch among the batches of the volume
+     * @param lastBatch whether this is the last batch of the volume
+     */
+    PartialTokenCount(PartialTokenCount partialTokenCount, int volumeIndex, int batchIndex, boolean lastBatch) {
+        this.contentIdentifier = partialTokenCount.contentIdentifier;
+        this.pageSequenceIDs = partialTokenCount.pageSequenceIDs;
+        this.map = partialTokenCount.map;
+        this.exception = partialTokenCount.exception;
+        this.volumeIndex = volumeIndex;
+        this.batchIndex = batchIndex;
+        this.lastBatch = lastBatch;
+        this.stored = partialTokenCount.stored;
+        this.leadingToken = partialTokenCount.leadingToken;
+        this.trailingHyphenatedWord = partialTokenCount.trailingHyphenatedWord;
+    }
+    
+    /**
+     * Constructor for a batch that could not be counted
+     * @param dataAPIException the DataAPIException explaining why
+     */
+    PartialTokenCount(DataAPIException dataAPIException) {
+        this.contentIdentifier = null;
+        this.pageSequenceIDs = null;
+        this.map = null;
+        this.exception = dataAPIException;
+        this.volumeIndex = -1;
+        this.batchIndex = -1;
+        this.lastBatch = false;
+        this.stored = false;
+    }
+    
+    /**
+     * Method to get the ContentIdentifier of the first page of the batch
+     * @return the ContentIdentifier of the first page, or <code>null</code> if the batch could not be counted
+     */
+    public ContentIdentifier getContentIdentifier() {
+        return contentIdentifier;
+    }
+    
+    /**
+     * Method to get the position of the volume among the volumes counted
+     * @return the position of the volume, starting from 0
+     */
+    public int getVolumeIndex() {
+        return volumeIndex;
+    }
+    
+    /**
+     * Method to get the position of the batch among the batches of its volume
+     * @return the position of the batch, starting from 0
+     */
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+    
+    /**
+     * Method to check if this is the last batch of its volume
+     * @return <code>true</code> if this is the last batch of its volume, <code>false</code> otherwise
+     */
+    public boolean isLastBatch() {
+        return lastBatch;
+    }
+    
+    /**
+     * Method to check if the counts were read from a PageCountStore rather than counted from the pages
+     * @return <code>true</code> if the counts were read from a PageCountStore, <code>false</code> otherwise
+     */
+    public boolean isStored() {
+        return stored;
+    }
+    
+    /**
+     * Method to get the page sequence IDs of the pages in the batch
+     * @return a List of page sequence IDs
+     */
+    public List<String> getPageSequenceIDs() {
+        return pageSequenceIDs;
+    }
+    
+    /**
+     * Method to get the token counts of the batch, not including the leading token and the trailing hyphenated word
+     * @return a TokenCountMap object
+     * @throws DataAPIException thrown if the batch could not be counted
+     */
+    public TokenCountMap getMap() throws DataAPIException {
+        if (exception != null) {
+            throw exception;
+        }
+        return map;
+    }
+    
+    /**
+     * Method to get the first token of the batch as UTF-8 bytes
+     * @return the first token, or <code>null</code> if there are no tokens in the batch
+     */
+    public byte[] getLeadingToken() {
+        return leadingToken;
+    }
+    
+    /**
+     * Method to get the hyphenated last word left over at the end of the batch as UTF-8 bytes
+     * @return the hyphenated last word, or <code>null</code> if there is none
+     */
+    public byte[] getTrailingHyphenatedWord() {
+        return trailingHyphenatedWord;
+    }
+    
+    /**
+     * Method to count the tokens of the next page of the batch
+     * @param pageSequenceID the page sequence ID of the page
+     * @param tokenSlices the tokens of the page
+     */
+    void countPage(String pageSequenceID, TokenSlices tokenSlices) {
+        pageSequenceIDs.add(pageSequenceID);
+        byte[] bytes = tokenSlices.getBytes();
+        int size = tokenSlices.size();
+        if (size > 0) {
+            if (!hasLeadingToken) {
+                leadingToken = Arrays.copyOfRange(bytes, tokenSlices.getOffset(0), tokenSlices.getOffset(0) + tokenSlices.getLength(0));
+                hasLeadingToken = true;
+            } else if (hyphenedLastWordLength >= 0) {
+                int pendingFullWordLength = hyphenedLastWordLength + tokenSlices.getLength(0);
+                if (pendingFullWordLength > hyphenedLastWord.length) {
+                    hyphenedLastWord = Arrays.copyOf(hyphenedLastWord, pendingFullWordLength);
+                }
+                System.arraycopy(bytes, tokenSlices.getOffset(0), hyphenedLastWord, hyphenedLastWordLength, tokenSlices.getLength(0));
+                map.increment(hyphenedLastWord, 0, pendingFullWordLength);
+                hyphenedLastWordLength = -1;
+            } else {
+                map.increment(bytes, tokenSlices.getOffset(0), tokenSlices.getLength(0));
+            }
+        }
+        
+        for (int i = 1; i < size - 1; i++) {
+            map.increment(bytes, tokenSlices.getOffset(i), tokenSlices.getLength(i));
+        }
+        
+        if (size > 1) {
+            if (tokenSlices.endsWithHyphen(size - 1)) {
+                hyphenedLastWordLength = tokenSlices.getLength(size - 1);
+                if (hyphenedLastWord == null || hyphenedLastWordLength > hyphenedLastWord.length) {
+                    hyphenedLastWord = new byte[Math.max(64, hyphenedLastWordLength * 2)];
+                }
+                System.arraycopy(bytes, tokenSlices.getOffset(size - 1), hyphenedLastWord, 0, hyphenedLastWordLength);
+            } else {
+                map.increment(bytes, tokenSlices.getOffset(size - 1), tokenSlices.getLength(size - 1));
+            }
+        }
+    }
+    
+    /**
+     * Method to conclude the batch after its last page is counted
+     */
+    void finish() {
+        if (hyphenedLastWordLength >= 0) {
+            trailingHyphenatedWord = Arrays.copyOf(hyphenedLastWord, hyphenedLastWordLength);
+        }
+        hyphenedLastWord = null;
+    }
+
+}
+
@@ -0,0 +1,48 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PartialTokenCounter.java
+# Description:  Counts the tokens of batches of pages on worker threads
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.Iterator;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+
+/**
+ * This interface is implemented by tokenizers that can also count the tokens of batches of pages on their worker threads, so that only the partial
+ * counts have to be merged by the thread writing the response
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface PartialTokenCounter {
+    public Iterator<PartialTokenCount> countPartially(VolumeRetriever volumeRetriever, TokenFilter tokenFilter);
+}
+
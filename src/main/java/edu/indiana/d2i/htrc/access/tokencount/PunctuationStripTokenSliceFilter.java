@@ -0,0 +1,125 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PunctuationStripTokenSliceFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * This TokenSliceFilter strips punctuation from both ends of a token by narrowing it, and drops a token that is all punctuation.  Punctuation
+ * inside a token, as in "don't" or "e-mail", is kept.  A token ending with a hyphen keeps its end, because it may be the first half of a word
+ * hyphenated across pages that is joined after filtering.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PunctuationStripTokenSliceFilter implements TokenSliceFilter {
+    
+    public static final String NAME = "punctuation";
+    
+    protected static final byte HYPHEN_BYTE = '-';
+    protected static final boolean[] ASCII_PUNCTUATION = new boolean[128];
+    
+    static {
+        for (int i = 0; i < ASCII_PUNCTUATION.length; i++) {
+            ASCII_PUNCTUATION[i] = isUnicodePunctuation(i);
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#filter(edu.indiana.d2i.htrc.access.tokencount.TokenSlice)
+     */
+    @Override
+    public boolean filter(TokenSlice token) {
+        byte[] bytes = token.getBytes();
+        int start = token.getOffset();
+        int end = start + token.getLength();
+        boolean stripping = true;
+        while (start < end && stripping) {
+            int sequenceLength = TokenSlice.sequenceLength(bytes[start]);
+            if (start + sequenceLength <= end && isPunctuation(bytes, start, sequenceLength)) {
+                start += sequenceLength;
+            } else {
+                stripping = false;
+            }
+        }
+        stripping = start < end && bytes[end - 1] != HYPHEN_BYTE;
+        while (start < end && stripping) {
+            int sequenceStart = end - 1;
+            while (sequenceStart > start && (bytes[sequenceStart] & 0xC0) == 0x80) {
+                sequenceStart--;
+            }
+            if (isPunctuation(bytes, sequenceStart, end - sequenceStart)) {
+                end = sequenceStart;
+            } else {
+                stripping = false;
+            }
+        }
+        token.narrow(start, end - start);
+        return start < end;
+    }
+    
+    protected static boolean isPunctuation(byte[] bytes, int offset, int sequenceLength) {
+        boolean punctuation = false;
+        if (bytes[offset] >= 0) {
+            punctuation = ASCII_PUNCTUATION[bytes[offset]];
+        } else if (sequenceLength > 1 && sequenceLength == TokenSlice.sequenceLength(bytes[offset])) {
+            punctuation = isUnicodePunctuation(TokenSlice.decode(bytes, offset, sequenceLength));
+        }
+        return punctuation;
+    }
+    
+    protected static boolean isUnicodePunctuation(int codePoint) {
+        boolean punctuation = false;
+        switch (Character.getType(codePoint)) {
+        case Character.CONNECTOR_PUNCTUATION:
+        case Character.DASH_PUNCTUATION:
+        case Character.START_PUNCTUATION:
+        case Character.END_PUNCTUATION:
+        case Character.INITIAL_QUOTE_PUNCTUATION:
+        case Character.FINAL_QUOTE_PUNCTUATION:
+        case Character.OTHER_PUNCTUATION:
+            punctuation = true;
+            break;
+        default:
+            punctuation = false;
+        }
+        return punctuation;
+    }
+
+}
+
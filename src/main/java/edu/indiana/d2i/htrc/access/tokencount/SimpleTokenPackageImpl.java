@@ -67,5 +67,13 @@ public class SimpleTokenPackageImpl implements TokenPackage{
         return this.tokenList;
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenPackage#getTokenSlices()
+     */
+    @Override
+    public TokenSlices getTokenSlices() throws DataAPIException {
+        return TokenSlices.fromTokenList(tokenList);
+    }
+
 }
 
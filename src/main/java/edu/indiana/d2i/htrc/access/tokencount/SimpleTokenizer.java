@@ -33,14 +33,18 @@ package edu.indiana.d2i.htrc.access.tokencount;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -51,12 +55,14 @@ import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.tokencount.StoredPageCountVolumeRetriever.StoredPageReader;
+import edu.indiana.d2i.htrc.access.tokencount.StoredPageCountVolumeRetriever.StoredVolumeReader;
 
 /**
  * @author Yiming Sun
  *
  */
-public class SimpleTokenizer implements Tokenizer {
+public class SimpleTokenizer implements Tokenizer, PartialTokenCounter {
     
     
     private static Logger log = Logger.getLogger(SimpleTokenizer.class);
@@ -64,10 +70,18 @@ public class SimpleTokenizer implements Tokenizer {
     static class TokenizationCallable implements Callable<TokenPackage> {
         protected final String volumeID;
         protected final ContentReader contentReader;
+        protected final TokenFilter tokenFilter;
+        protected final FusedTokenFilter fusedTokenFilter;
         
         TokenizationCallable(String volumeID, ContentReader contentReader) {
+            this(volumeID, contentReader, null, null);
+        }
+        
+        TokenizationCallable(String volumeID, ContentReader contentReader, TokenFilter tokenFilter, FusedTokenFilter fusedTokenFilter) {
             this.volumeID = volumeID;
             this.contentReader = contentReader;
+            this.tokenFilter = tokenFilter;
+            this.fusedTokenFilter = fusedTokenFilter;
         }
 
         /**
@@ -75,13 +89,82 @@ public class SimpleTokenizer implements Tokenizer {
          */
         @Override
         public TokenPackage call() throws Exception {
+            return tokenize(volumeID, contentReader, tokenFilter, fusedTokenFilter);
+        }
+        
+        /**
+         * Method to tokenize and filter a page, applying the FusedTokenFilter to the tokens as they are scanned if there is one, or else the TokenFilter
+         * to the tokens of the page
+         * @param volumeID the volumeID of the page
+         * @param contentReader the ContentReader of the page
+         * @param tokenFilter the TokenFilter, or <code>null</code> to leave the tokens unfiltered
+         * @param fusedTokenFilter the FusedTokenFilter equivalent to the TokenFilter, or <code>null</code> if the TokenFilter cannot be fused
+         * @return a TokenPackage holding the filtered tokens of the page
+         * @throws IOException if reading the decoded content fails
+         */
+        static TokenPackage tokenize(String volumeID, ContentReader contentReader, TokenFilter tokenFilter, FusedTokenFilter fusedTokenFilter) throws IOException {
+            TokenPackage tokenPackage = null;
+            if (fusedTokenFilter != null) {
+                tokenPackage = tokenize(volumeID, contentReader, fusedTokenFilter);
+            } else if (tokenFilter != null) {
+                tokenPackage = tokenFilter.filter(tokenize(volumeID, contentReader));
+            } else {
+                tokenPackage = tokenize(volumeID, contentReader);
+            }
+            return tokenPackage;
+        }
+        
+        /**
+         * Method to tokenize a page
+         * @param volumeID the volumeID of the page
+         * @param contentReader the ContentReader of the page
+         * @return a TokenPackage holding the tokens of the page
+         * @throws IOException if reading the decoded content fails
+         */
+        static TokenPackage tokenize(String volumeID, ContentReader contentReader) throws IOException {
+            return tokenize(volumeID, contentReader, null);
+        }
+        
+        /**
+         * Method to tokenize a page, filtering each token as it is scanned
+         * @param volumeID the volumeID of the page
+         * @param contentReader the ContentReader of the page
+         * @param fusedTokenFilter the FusedTokenFilter to apply to the tokens, or <code>null</code> to leave the tokens unfiltered
+         * @return a TokenPackage holding the tokens of the page
+         * @throws IOException if reading the decoded content fails
+         */
+        static TokenPackage tokenize(String volumeID, ContentReader contentReader, FusedTokenFilter fusedTokenFilter) throws IOException {
             byte[] content = contentReader.getContent();
+            ContentIdentifier contentIdentifier = new ContentIdentifierImpl(volumeID, contentReader.getContentName());
+            if (log.isDebugEnabled()) log.debug("tokenizing page content");
+            TokenSlices tokenSlices = Utf8TokenScanner.scan(content, fusedTokenFilter);
+            TokenPackage tokenPackage = null;
+            if (tokenSlices != null) {
+                tokenPackage = new SliceTokenPackageImpl(contentIdentifier, tokenSlices);
+            } else {
+                if (log.isDebugEnabled()) log.debug("page content is not well-formed UTF-8, tokenizing decoded lines");
+                tokenPackage = new SimpleTokenPackageImpl(contentIdentifier, tokenizeLines(content));
+                if (fusedTokenFilter != null) {
+                    // the decoded lines are not scanned, so their tokens are filtered afterwards
+                    tokenPackage = fusedTokenFilter.filter(tokenPackage);
+                }
+            }
+            if (log.isDebugEnabled()) log.debug("built TokenPackage for " + volumeID + " " + contentReader.getContentName());
+            return tokenPackage;
+        }
+        
+        /**
+         * Method to tokenize page content line by line after decoding it
+         * @param content the page content
+         * @return a List of tokens
+         * @throws IOException if reading the decoded content fails
+         */
+        static List<String> tokenizeLines(byte[] content) throws IOException {
             InputStream inputStream = new ByteArrayInputStream(content);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, TokenSlices.UTF_8));
             String line = null;
             String hangingWord = null;
             List<String> tokenList = new LinkedList<String>();
-            if (log.isDebugEnabled()) log.debug("tokenizing page content");
             do {
                 line = reader.readLine();
                 if (line != null) {
@@ -117,33 +200,44 @@ public class SimpleTokenizer implements Tokenizer {
             if (hangingWord != null) {
                 tokenList.add(hangingWord);
             }
-            
-            ContentIdentifier contentIdentifier = new ContentIdentifierImpl(volumeID, contentReader.getContentName());
-            TokenPackage tokenPackage = new SimpleTokenPackageImpl(contentIdentifier, tokenList);
-            if (log.isDebugEnabled()) log.debug("built TokenPackage for " + volumeID + " " + contentReader.getContentName());
-            return tokenPackage;
+            return tokenList;
         }
         
     }
 
-    static class ThrottledTokenPackageIterator implements Iterator<TokenPackage> {
+    /**
+     * Method to tokenize the content of a page the same way pages are tokenized for counting, leaving out the empty tokens EmptyTokenRemovalFilter removes
+     * @param content the content of the page
+     * @return a TokenSlices object holding the tokens
+     * @throws IOException if reading the decoded content fails
+     */
+    public static TokenSlices tokenizePage(byte[] content) throws IOException {
+        TokenSlices tokenSlices = Utf8TokenScanner.scan(content);
+        if (tokenSlices == null) {
+            tokenSlices = TokenSlices.fromTokenList(TokenizationCallable.tokenizeLines(content));
+        }
+        tokenSlices.removeEmpty();
+        return tokenSlices;
+    }
+    
+    abstract static class ThrottledTaskIterator<T> implements Iterator<T> {
     
-        private static final Logger log = Logger.getLogger(ThrottledTokenPackageIterator.class);
+        private static final Logger log = Logger.getLogger(ThrottledTaskIterator.class);
         static final String PN_MAX_TOKENIZATION_TASKS = "max.tokenization.tasks";
         static final String PN_MIN_TOKENIZATION_TASKS = "min.tokenization.tasks";
         
         protected final VolumeRetriever volumeRetriever;
         protected final ExecutorService executorService;
-        protected final List<Future<TokenPackage>> tokenPackageList;
+        protected final List<Future<T>> tokenPackageList;
         protected final List<DataAPIException> exceptionList;
         protected final int maxTokenizationTasks;
         protected final int minTokenizationTasks;
         protected VolumeReader currentVolumeReader;
         
-        ThrottledTokenPackageIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService) {
+        ThrottledTaskIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService) {
             this.volumeRetriever = volumeRetriever;
             this.executorService = executorService;
-            this.tokenPackageList = new LinkedList<Future<TokenPackage>>();
+            this.tokenPackageList = new LinkedList<Future<T>>();
             this.exceptionList = new LinkedList<DataAPIException>();
             this.maxTokenizationTasks = Integer.parseInt(parameterContainer.getParameter(PN_MAX_TOKENIZATION_TASKS));
             this.minTokenizationTasks = Integer.parseInt(parameterContainer.getParameter(PN_MIN_TOKENIZATION_TASKS));
@@ -156,7 +250,7 @@ public class SimpleTokenizer implements Tokenizer {
          */
         @Override
         public boolean hasNext() {
-            boolean hasNext = (currentVolumeReader != null && currentVolumeReader.hasMorePages()) || volumeRetriever.hasMoreVolumes() || !tokenPackageList.isEmpty() || !exceptionList.isEmpty();
+            boolean hasNext = (currentVolumeReader != null && currentVolumeReader.hasMorePages()) || hasMoreVolumeReaders() || !tokenPackageList.isEmpty() || !exceptionList.isEmpty();
             
             return hasNext;
         }
@@ -164,15 +258,14 @@ public class SimpleTokenizer implements Tokenizer {
          * @see java.util.Iterator#next()
          */
         @Override
-        public TokenPackage next() {
-            TokenPackage tokenPackage = null;
+        public T next() {
+            T tokenPackage = null;
             boolean done = false;
             
             while (!done) {
                 if (!tokenPackageList.isEmpty()) {
-                    Future<TokenPackage> future = tokenPackageList.remove(0);
                     try {
-                        
+                        Future<T> future = takeNextFuture();
                         tokenPackage = future.get();
                         done = true;
                     } catch (InterruptedException e) {
@@ -192,13 +285,13 @@ public class SimpleTokenizer implements Tokenizer {
                 } else if (currentVolumeReader != null && currentVolumeReader.hasMorePages()) {
                     if (log.isDebugEnabled()) log.debug("tokenPackageList empty, dispatch more work using half-eaten volumeReader");
                     dispatchWork();
-                } else if (volumeRetriever.hasMoreVolumes()) {
+                } else if (hasMoreVolumeReaders()) {
                     if (log.isDebugEnabled()) log.debug("tokenPackageList empty, dispatch more work from VolumeRetriever");
                     dispatchWork();
                 } else if (!exceptionList.isEmpty()) {
                     if (log.isDebugEnabled()) log.debug("only exceptions are left");
                     DataAPIException dataAPIException = exceptionList.remove(0);
-                    tokenPackage = new ExceptionTokenPackage(dataAPIException);
+                    tokenPackage = exceptionResult(dataAPIException);
                     done = true;
                 } else {
                     if (log.isDebugEnabled()) log.debug("nothing more to tokenize. all done");
@@ -215,14 +308,12 @@ public class SimpleTokenizer implements Tokenizer {
             boolean done = false;
             while (availableSlots > 0 && !done) {
                 if (currentVolumeReader != null && currentVolumeReader.hasMorePages()) {
-                    ContentReader nextPage = currentVolumeReader.nextPage();
-                    TokenizationCallable tokenizationCallable = new TokenizationCallable(currentVolumeReader.getVolumeID(), nextPage);
-                    Future<TokenPackage> future = executorService.submit(tokenizationCallable);
+                    Future<T> future = submitTask(nextTask());
                     tokenPackageList.add(future);
                     availableSlots--;
-                } else if (volumeRetriever.hasMoreVolumes()) {
+                } else if (hasMoreVolumeReaders()) {
                     try {
-                        currentVolumeReader = volumeRetriever.nextVolume();
+                        currentVolumeReader = nextVolumeReader();
                     } catch (DataAPIException e) {
                         exceptionList.add(e);
                     }
@@ -234,6 +325,54 @@ public class SimpleTokenizer implements Tokenizer {
             }
             
         }
+        /**
+         * Method to check if there are more VolumeReaders to take tasks from
+         * @return <code>true</code> if there are more VolumeReaders, <code>false</code> otherwise
+         */
+        protected boolean hasMoreVolumeReaders() {
+            return volumeRetriever.hasMoreVolumes();
+        }
+        
+        /**
+         * Method to get the next VolumeReader to take tasks from
+         * @return the next VolumeReader, which may be <code>null</code>
+         * @throws DataAPIException thrown if the VolumeRetriever failed to retrieve the next volume
+         */
+        protected VolumeReader nextVolumeReader() throws DataAPIException {
+            return volumeRetriever.nextVolume();
+        }
+        
+        /**
+         * Method to submit a task to the ExecutorService
+         * @param task the task
+         * @return the Future of the task
+         */
+        protected Future<T> submitTask(Callable<T> task) {
+            return executorService.submit(task);
+        }
+        
+        /**
+         * Method to remove the Future whose result is returned next from tokenPackageList.  Results are returned in the order the tasks were submitted
+         * @return the Future whose result is returned next
+         * @throws InterruptedException if interrupted while waiting for a task to complete
+         */
+        protected Future<T> takeNextFuture() throws InterruptedException {
+            return tokenPackageList.remove(0);
+        }
+        
+        /**
+         * Method to create the task for the next pages of currentVolumeReader, which is only called if currentVolumeReader has more pages
+         * @return a Callable that processes the next pages of currentVolumeReader
+         */
+        protected abstract Callable<T> nextTask();
+        
+        /**
+         * Method to wrap a DataAPIException into the result returned by next()
+         * @param dataAPIException a DataAPIException
+         * @return the result carrying the DataAPIException
+         */
+        protected abstract T exceptionResult(DataAPIException dataAPIException);
+        
         /**
          * @see java.util.Iterator#remove()
          */
@@ -246,6 +385,233 @@ public class SimpleTokenizer implements Tokenizer {
         
     }
     
+    static class ThrottledTokenPackageIterator extends ThrottledTaskIterator<TokenPackage> {
+        
+        protected final TokenFilter tokenFilter;
+        protected final FusedTokenFilter fusedTokenFilter;
+        
+        ThrottledTokenPackageIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService, TokenFilter tokenFilter) {
+            super(volumeRetriever, parameterContainer, executorService);
+            this.tokenFilter = tokenFilter;
+            this.fusedTokenFilter = (tokenFilter != null) ? FusedTokenFilter.fuse(tokenFilter) : null;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#nextTask()
+         */
+        @Override
+        protected Callable<TokenPackage> nextTask() {
+            ContentReader nextPage = currentVolumeReader.nextPage();
+            return new TokenizationCallable(currentVolumeReader.getVolumeID(), nextPage, tokenFilter, fusedTokenFilter);
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#exceptionResult(edu.indiana.d2i.htrc.access.exception.DataAPIException)
+         */
+        @Override
+        protected TokenPackage exceptionResult(DataAPIException dataAPIException) {
+            return new ExceptionTokenPackage(dataAPIException);
+        }
+    }
+    
+    static class PartialCountingCallable implements Callable<PartialTokenCount> {
+        protected final String volumeID;
+        protected final List<ContentReader> contentReaders;
+        protected final TokenFilter tokenFilter;
+        protected final FusedTokenFilter fusedTokenFilter;
+        protected final int volumeIndex;
+        protected final int batchIndex;
+        protected final boolean lastBatch;
+        
+        PartialCountingCallable(String volumeID, List<ContentReader> contentReaders, TokenFilter tokenFilter, FusedTokenFilter fusedTokenFilter, int volumeIndex, int batchIndex, boolean lastBatch) {
+            this.volumeID = volumeID;
+            this.contentReaders = contentReaders;
+            this.tokenFilter = tokenFilter;
+            this.fusedTokenFilter = fusedTokenFilter;
+            this.volumeIndex = volumeIndex;
+            this.batchIndex = batchIndex;
+            this.lastBatch = lastBatch;
+        }
+        
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public PartialTokenCount call() throws Exception {
+            PartialTokenCount partialTokenCount = new PartialTokenCount(new ContentIdentifierImpl(volumeID, contentReaders.get(0).getContentName()), contentReaders.size(), volumeIndex, batchIndex, lastBatch);
+            for (ContentReader contentReader : contentReaders) {
+                try {
+                    TokenPackage tokenPackage = TokenizationCallable.tokenize(volumeID, contentReader, tokenFilter, fusedTokenFilter);
+                    partialTokenCount.countPage(tokenPackage.getContentIdentifier().getPageSequenceID(), tokenPackage.getTokenSlices());
+                } catch (Exception e) {
+                    // the page is left out the same way a page whose TokenizationCallable fails is, without losing the rest of the batch
+                    log.error("failed to count " + volumeID + " " + contentReader.getContentName(), e);
+                }
+            }
+            partialTokenCount.finish();
+            if (log.isDebugEnabled()) log.debug("counted " + contentReaders.size() + " pages of " + volumeID);
+            return partialTokenCount;
+        }
+    }
+    
+    static class ThrottledPartialTokenCountIterator extends ThrottledTaskIterator<PartialTokenCount> {
+        
+        static final String PN_TOKEN_COUNT_BATCH_PAGES = "token.count.batch.pages";
+        protected static final int DEFAULT_TOKEN_COUNT_BATCH_PAGES = 16;
+        
+        protected final TokenFilter tokenFilter;
+        protected final FusedTokenFilter fusedTokenFilter;
+        protected final int batchPages;
+        protected final CompletionService<PartialTokenCount> completionService;
+        protected VolumeReader countedVolumeReader = null;
+        protected VolumeReader peekedVolumeReader = null;
+        protected int volumeIndex = -1;
+        protected int batchIndex = 0;
+        
+        ThrottledPartialTokenCountIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService, TokenFilter tokenFilter) {
+            super(volumeRetriever, parameterContainer, executorService);
+            this.tokenFilter = tokenFilter;
+            this.fusedTokenFilter = FusedTokenFilter.fuse(tokenFilter);
+            this.completionService = new ExecutorCompletionService<PartialTokenCount>(executorService);
+            String batchPagesValue = parameterContainer.getParameter(PN_TOKEN_COUNT_BATCH_PAGES);
+            if (PageCountStore.getInstance() != null) {
+                // the PageCountStore is filled with the counts of single pages, so the pages are not batched while it is enabled
+                this.batchPages = 1;
+            } else {
+                this.batchPages = (batchPagesValue != null) ? Math.max(1, Integer.parseInt(batchPagesValue.trim())) : DEFAULT_TOKEN_COUNT_BATCH_PAGES;
+            }
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#nextTask()
+         */
+        @Override
+        protected Callable<PartialTokenCount> nextTask() {
+            if (currentVolumeReader != countedVolumeReader) {
+                // the VolumeRetriever splits a large volume over several VolumeReaders, whose batches carry on from those of the first one.  A
+                // volumeID is never requested twice, so a VolumeReader of the same volume as the one before it is always a part of the same volume
+                if (countedVolumeReader == null || !countedVolumeReader.getVolumeID().equals(currentVolumeReader.getVolumeID())) {
+                    volumeIndex++;
+                    batchIndex = 0;
+                }
+                countedVolumeReader = currentVolumeReader;
+            }
+            if (currentVolumeReader instanceof StoredVolumeReader) {
+                // the counts of a stored page only need to be placed within the volumes counted
+                StoredPageReader storedPageReader = (StoredPageReader)currentVolumeReader.nextPage();
+                boolean lastBatch = !currentVolumeReader.hasMorePages() && !isVolumeContinued();
+                final PartialTokenCount partialTokenCount = new PartialTokenCount(storedPageReader.getPageCount(), volumeIndex, batchIndex++, lastBatch);
+                return new Callable<PartialTokenCount>() {
+                    @Override
+                    public PartialTokenCount call() {
+                        return partialTokenCount;
+                    }
+                };
+            }
+            List<ContentReader> contentReaders = new ArrayList<ContentReader>(batchPages);
+            boolean lastBatch = false;
+            while (contentReaders.size() < batchPages && !lastBatch) {
+                contentReaders.add(currentVolumeReader.nextPage());
+                if (!currentVolumeReader.hasMorePages()) {
+                    if (isVolumeContinued()) {
+                        // a batch may take pages from more than one VolumeReader of the volume
+                        currentVolumeReader = peekedVolumeReader;
+                        countedVolumeReader = currentVolumeReader;
+                        peekedVolumeReader = null;
+                    } else {
+                        lastBatch = true;
+                    }
+                }
+            }
+            return new PartialCountingCallable(currentVolumeReader.getVolumeID(), contentReaders, tokenFilter, fusedTokenFilter, volumeIndex, batchIndex++, lastBatch);
+        }
+        
+        /**
+         * Method to check if the volume of currentVolumeReader, whose pages have all been taken, carries on in the next VolumeReader.  The next
+         * VolumeReader is taken from the VolumeRetriever to find out, and kept until nextVolumeReader() is called.  VolumeReaders of the volume
+         * without any pages are skipped
+         * @return <code>true</code> if the next VolumeReader has more pages of the same volume, <code>false</code> otherwise
+         */
+        protected boolean isVolumeContinued() {
+            String volumeID = currentVolumeReader.getVolumeID();
+            boolean continued = false;
+            boolean done = false;
+            while (!done) {
+                if (peekedVolumeReader == null) {
+                    if (super.hasMoreVolumeReaders()) {
+                        try {
+                            peekedVolumeReader = super.nextVolumeReader();
+                        } catch (DataAPIException e) {
+                            exceptionList.add(e);
+                        }
+                    } else {
+                        done = true;
+                    }
+                } else if (volumeID.equals(peekedVolumeReader.getVolumeID())) {
+                    if (peekedVolumeReader.hasMorePages()) {
+                        continued = true;
+                        done = true;
+                    } else {
+                        peekedVolumeReader = null;
+                    }
+                } else {
+                    done = true;
+                }
+            }
+            return continued;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#hasMoreVolumeReaders()
+         */
+        @Override
+        protected boolean hasMoreVolumeReaders() {
+            return peekedVolumeReader != null || super.hasMoreVolumeReaders();
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#nextVolumeReader()
+         */
+        @Override
+        protected VolumeReader nextVolumeReader() throws DataAPIException {
+            VolumeReader volumeReader = null;
+            if (peekedVolumeReader != null) {
+                volumeReader = peekedVolumeReader;
+                peekedVolumeReader = null;
+            } else {
+                volumeReader = super.nextVolumeReader();
+            }
+            return volumeReader;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#submitTask(java.util.concurrent.Callable)
+         */
+        @Override
+        protected Future<PartialTokenCount> submitTask(Callable<PartialTokenCount> task) {
+            return completionService.submit(task);
+        }
+        
+        /**
+         * Batches are returned in the order they complete, so a slow batch does not hold up the ones after it
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#takeNextFuture()
+         */
+        @Override
+        protected Future<PartialTokenCount> takeNextFuture() throws InterruptedException {
+            Future<PartialTokenCount> future = completionService.take();
+            tokenPackageList.remove(future);
+            return future;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer.ThrottledTaskIterator#exceptionResult(edu.indiana.d2i.htrc.access.exception.DataAPIException)
+         */
+        @Override
+        protected PartialTokenCount exceptionResult(DataAPIException dataAPIException) {
+            return new PartialTokenCount(dataAPIException);
+        }
+    }
+    
     
 //    static class TokenPackageIterator implements Iterator<TokenPackage> {
 //
@@ -310,10 +676,18 @@ public class SimpleTokenizer implements Tokenizer {
      */
     @Override
     public Iterator<TokenPackage> tokenize(VolumeRetriever volumeRetriever) {
+        return tokenize(volumeRetriever, null);
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.Tokenizer#tokenize(edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.TokenFilter)
+     */
+    @Override
+    public Iterator<TokenPackage> tokenize(VolumeRetriever volumeRetriever, TokenFilter tokenFilter) {
 //        List<Future<TokenPackage>> futureList = new LinkedList<Future<TokenPackage>>();
 //        List<DataAPIException> exceptionList = new LinkedList<DataAPIException>();
 
-        Iterator<TokenPackage> iterator = new ThrottledTokenPackageIterator(volumeRetriever, parameterContainer, executorService);
+        Iterator<TokenPackage> iterator = new ThrottledTokenPackageIterator(volumeRetriever, parameterContainer, executorService, tokenFilter);
 //        while (volumeRetriever.hasMoreVolumes()) {
 //            try {
 //                VolumeReader volumeReader = volumeRetriever.nextVolume();
@@ -337,4 +711,12 @@ public class SimpleTokenizer implements Tokenizer {
         return iterator;
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.PartialTokenCounter#countPartially(edu.indiana.d2i.htrc.access.VolumeRetriever, edu.indiana.d2i.htrc.access.tokencount.TokenFilter)
+     */
+    @Override
+    public Iterator<PartialTokenCount> countPartially(VolumeRetriever volumeRetriever, TokenFilter tokenFilter) {
+        return new ThrottledPartialTokenCountIterator(volumeRetriever, parameterContainer, executorService, tokenFilter);
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  SliceTokenPackageImpl.java
+# Description:  TokenPackage holding the tokens of a page as TokenSlices
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.List;
+
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+
+/**
+ * This implementation of the TokenPackage interface holds the tokens of a page as TokenSlices.  The token list is only decoded if asked for
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class SliceTokenPackageImpl implements TokenPackage {
+    
+    protected final ContentIdentifier contentIdentifier;
+    protected final TokenSlices tokenSlices;
+    protected List<String> tokenList = null;
+    
+    public SliceTokenPackageImpl(ContentIdentifier contentIdentifier, TokenSlices tokenSlices) {
+        this.contentIdentifier = contentIdentifier;
+        this.tokenSlices = tokenSlices;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenPackage#getContentIdentifier()
+     */
+    @Override
+    public ContentIdentifier getContentIdentifier() {
+        return this.contentIdentifier;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenPackage#getTokenList()
+     */
+    @Override
+    public List<String> getTokenList() throws DataAPIException {
+        if (tokenList == null) {
+            tokenList = tokenSlices.toTokenList();
+        }
+        return this.tokenList;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenPackage#getTokenSlices()
+     */
+    @Override
+    public TokenSlices getTokenSlices() throws DataAPIException {
+        return this.tokenSlices;
+    }
+
+}
+
@@ -0,0 +1,396 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  SpillingTokenCountAggregator.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+
+/**
+ * This class sums the token counts of any number of volumes within a bound on the heap it uses.  The counts are summed in a TokenCountMap, and whenever
+ * the tokens it holds exceed the bound, they are written to a temporary file as a run sorted by token and the map is cleared.  At the end the runs are
+ * merged k ways, summing the counts of the same token, and the combined counts are streamed out in the requested order; counts sorted by count are put
+ * in order by a second round of sorted runs.  If nothing was spilled, the counts are sent the same way as the counts of a single volume.
+ * 
+ * The counts are summed as longs, in memory and in the runs, so the count of a token over a large collection does not overflow an int.
+ * 
+ * Once spilled, the order tokens were first counted in is lost, so the DEFAULT order falls back to ascending lexical order.  Comparators other than the
+ * TokenCountComparatorTypeEnum comparators, and topK, need the selected counts to fit in memory
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class SpillingTokenCountAggregator {
+    
+    private static Logger log = Logger.getLogger(SpillingTokenCountAggregator.class);
+    
+    protected static final int BUFFER_SIZE = 64 * 1024;
+    // besides its bytes, an entry takes three ints and a long in the entry arrays and about two ints of hash slots
+    protected static final int ENTRY_OVERHEAD_BYTES = 28;
+    protected static final String RUN_PREFIX = "tokencount";
+    protected static final String RUN_SUFFIX = ".run";
+    
+    /**
+     * This class reads a run of token counts back from its file, one token at a time
+     * 
+     * @author Yiming Sun
+     *
+     */
+    static class TokenCountRun {
+        protected final DataInputStream inputStream;
+        protected int remaining;
+        protected byte[] token = null;
+        protected long count = 0L;
+        
+        TokenCountRun(File runFile) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), BUFFER_SIZE));
+            this.remaining = PageCountStore.readVarInt(inputStream);
+        }
+        
+        boolean advance() throws IOException {
+            boolean advanced = false;
+            if (remaining > 0) {
+                token = new byte[PageCountStore.readVarInt(inputStream)];
+                inputStream.readFully(token);
+                count = PageCountStore.readVarLong(inputStream);
+                remaining--;
+                advanced = true;
+            }
+            return advanced;
+        }
+        
+        void close() throws IOException {
+            inputStream.close();
+        }
+    }
+    
+    /**
+     * This class merges runs sorted in the same order into one sequence in that order, optionally summing the counts of the same token
+     * 
+     * @author Yiming Sun
+     *
+     */
+    static class RunMerger {
+        protected final List<TokenCountRun> runs;
+        protected final PriorityQueue<TokenCountRun> queue;
+        protected final boolean combine;
+        protected byte[] token = null;
+        protected long count = 0L;
+        
+        RunMerger(List<File> runFiles, final TokenCountComparatorTypeEnum order, boolean combine) throws IOException {
+            this.runs = new ArrayList<TokenCountRun>(runFiles.size());
+            this.queue = new PriorityQueue<TokenCountRun>(Math.max(1, runFiles.size()), new Comparator<TokenCountRun>() {
+                @Override
+                public int compare(TokenCountRun o1, TokenCountRun o2) {
+                    return compareCounts(order, o1.token, o1.count, o2.token, o2.count);
+                }
+            });
+            this.combine = combine;
+            for (File runFile : runFiles) {
+                TokenCountRun run = new TokenCountRun(runFile);
+                runs.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+        }
+        
+        boolean next() throws IOException {
+            boolean hasNext = false;
+            if (!queue.isEmpty()) {
+                TokenCountRun run = queue.poll();
+                token = run.token;
+                count = run.count;
+                if (run.advance()) {
+                    queue.add(run);
+                }
+                while (combine && !queue.isEmpty() && Arrays.equals(queue.peek().token, token)) {
+                    run = queue.poll();
+                    count += run.count;
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+                hasNext = true;
+            }
+            return hasNext;
+        }
+        
+        void close() throws IOException {
+            for (TokenCountRun run : runs) {
+                run.close();
+            }
+        }
+    }
+    
+    static class SelectedCount {
+        protected final byte[] token;
+        protected final long count;
+        
+        SelectedCount(byte[] token, long count) {
+            this.token = token;
+            this.count = count;
+        }
+    }
+    
+    protected final File spillDir;
+    protected final long maxHeapBytes;
+    protected final TokenCountComparatorTypeEnum runOrder;
+    protected final TokenCountMap map;
+    protected final List<File> runFiles;
+    protected final List<File> tempFiles;
+    
+    /**
+     * Constructor
+     * @param spillDir the directory the runs are written to
+     * @param maxHeapBytes the bound on the heap used by the tokens held in memory
+     * @param descending if <code>true</code>, runs are sorted in descending lexical order, which lets TOKEN_LEX_DESC be streamed from the merged runs
+     */
+    public SpillingTokenCountAggregator(File spillDir, long maxHeapBytes, boolean descending) {
+        this.spillDir = spillDir;
+        this.maxHeapBytes = maxHeapBytes;
+        this.runOrder = descending ? TokenCountComparatorTypeEnum.TOKEN_LEX_DESC : TokenCountComparatorTypeEnum.TOKEN_LEX_ASC;
+        this.map = new TokenCountMap();
+        this.runFiles = new ArrayList<File>();
+        this.tempFiles = new LinkedList<File>();
+    }
+    
+    /**
+     * Method to add token counts to the sums
+     * @param counts a TokenCountMap object, which is not changed
+     * @throws IOException thrown if the counts held in memory cannot be spilled
+     */
+    public void add(TokenCountMap counts) throws IOException {
+        map.addAll(counts);
+        if (getHeapBytes(map) > maxHeapBytes) {
+            runFiles.add(writeRun(map, map.sort(runOrder)));
+            map.clear();
+        }
+    }
+    
+    /**
+     * Method to get the number of runs spilled to disk so far
+     * @return the number of runs
+     */
+    public int getRunCount() {
+        return runFiles.size();
+    }
+    
+    /**
+     * Method to send the summed counts as one entry.  The runs are removed afterwards
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @param entryName the name of the entry
+     * @param comparator the Comparator giving the order of the tokens
+     * @param minCount the smallest count of the tokens sent
+     * @param topK the largest number of tokens sent, chosen by descending count, or 0 for no limit
+     * @throws IOException thrown if the runs cannot be read or the entry cannot be written
+     */
+    public void sendEntry(ArchiveWriter archiveWriter, String entryName, Comparator<Entry<String, Count>> comparator, int minCount, int topK) throws IOException {
+        try {
+            if (runFiles.isEmpty()) {
+                TokenCountZipperFactory.Helper.sendEntry(map, entryName, archiveWriter, comparator, minCount, topK);
+            } else {
+                if (map.size() > 0) {
+                    runFiles.add(writeRun(map, map.sort(runOrder)));
+                    map.clear();
+                }
+                if (log.isDebugEnabled()) log.debug("merging " + runFiles.size() + " runs of token counts");
+                TokenCountComparatorTypeEnum type = TokenCountComparatorFactory.getComparatorType(comparator);
+                RunMerger runMerger = new RunMerger(runFiles, runOrder, true);
+                try {
+                    if (topK > 0 || type == null) {
+                        TokenCountMap selected = (topK > 0) ? selectTop(runMerger, minCount, topK) : select(runMerger, minCount);
+                        Comparator<Entry<String, Count>> selectedComparator = comparator;
+                        if (type == TokenCountComparatorTypeEnum.DEFAULT) {
+                            selectedComparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+                        }
+                        TokenCountZipperFactory.Helper.sendEntry(selected, entryName, archiveWriter, selectedComparator, 1, 0);
+                    } else if (type == TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC || type == TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC) {
+                        List<File> sortedRunFiles = sortRuns(runMerger, minCount, type);
+                        RunMerger sortedRunMerger = new RunMerger(sortedRunFiles, type, false);
+                        try {
+                            stream(sortedRunMerger, archiveWriter, entryName, 1);
+                        } finally {
+                            sortedRunMerger.close();
+                        }
+                    } else {
+                        stream(runMerger, archiveWriter, entryName, minCount);
+                    }
+                } finally {
+                    runMerger.close();
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+    
+    /**
+     * Method to remove the runs written so far
+     */
+    public void close() {
+        for (File tempFile : tempFiles) {
+            if (!tempFile.delete()) {
+                log.error("Failed to delete run " + tempFile.getAbsolutePath());
+            }
+        }
+        tempFiles.clear();
+        runFiles.clear();
+    }
+    
+    protected static long getHeapBytes(TokenCountMap tokenCountMap) {
+        return tokenCountMap.arenaLength + (long)tokenCountMap.size * ENTRY_OVERHEAD_BYTES;
+    }
+    
+    protected static int compareCounts(TokenCountComparatorTypeEnum order, byte[] token1, long count1, byte[] token2, long count2) {
+        int result = 0;
+        switch (order) {
+        case TOKEN_LEX_DESC:
+            result = TokenCountMap.compareTokens(token2, token1);
+            break;
+        case TOKEN_COUNT_ASC:
+            result = (count1 != count2) ? (count1 < count2 ? -1 : 1) : TokenCountMap.compareTokens(token1, token2);
+            break;
+        case TOKEN_COUNT_DESC:
+            result = (count1 != count2) ? (count1 > count2 ? -1 : 1) : TokenCountMap.compareTokens(token2, token1);
+            break;
+        default:
+            result = TokenCountMap.compareTokens(token1, token2);
+            break;
+        }
+        return result;
+    }
+    
+    protected File writeRun(TokenCountMap tokenCountMap, int[] ids) throws IOException {
+        File runFile = File.createTempFile(RUN_PREFIX, RUN_SUFFIX, spillDir);
+        tempFiles.add(runFile);
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+        try {
+            PageCountStore.writeVarInt(outputStream, ids.length);
+            for (int id : ids) {
+                PageCountStore.writeVarInt(outputStream, tokenCountMap.lengths[id]);
+                outputStream.write(tokenCountMap.arena, tokenCountMap.offsets[id], tokenCountMap.lengths[id]);
+                PageCountStore.writeVarLong(outputStream, tokenCountMap.counts[id]);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (log.isDebugEnabled()) log.debug("spilled " + ids.length + " token counts to " + runFile.getAbsolutePath());
+        return runFile;
+    }
+    
+    // the summed counts are sorted by count in runs of their own, so that they never have to be held in memory at once
+    protected List<File> sortRuns(RunMerger runMerger, int minCount, TokenCountComparatorTypeEnum type) throws IOException {
+        List<File> sortedRunFiles = new ArrayList<File>();
+        while (runMerger.next()) {
+            if (runMerger.count >= minCount) {
+                map.add(runMerger.token, 0, runMerger.token.length, runMerger.count);
+                if (getHeapBytes(map) > maxHeapBytes) {
+                    sortedRunFiles.add(writeRun(map, map.sort(type)));
+                    map.clear();
+                }
+            }
+        }
+        if (map.size() > 0) {
+            sortedRunFiles.add(writeRun(map, map.sort(type)));
+            map.clear();
+        }
+        return sortedRunFiles;
+    }
+    
+    protected TokenCountMap select(RunMerger runMerger, int minCount) throws IOException {
+        while (runMerger.next()) {
+            if (runMerger.count >= minCount) {
+                map.add(runMerger.token, 0, runMerger.token.length, runMerger.count);
+            }
+        }
+        return map;
+    }
+    
+    // a heap whose root is the selected token ranked last by descending count, with ties in descending lexical order as in TokenCountMap.select()
+    protected TokenCountMap selectTop(RunMerger runMerger, int minCount, int topK) throws IOException {
+        PriorityQueue<SelectedCount> heap = new PriorityQueue<SelectedCount>(Math.min(topK, 1024), new Comparator<SelectedCount>() {
+            @Override
+            public int compare(SelectedCount o1, SelectedCount o2) {
+                return compareCounts(TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC, o1.token, o1.count, o2.token, o2.count);
+            }
+        });
+        while (runMerger.next()) {
+            if (runMerger.count >= minCount) {
+                if (heap.size() < topK) {
+                    heap.add(new SelectedCount(runMerger.token, runMerger.count));
+                } else if (compareCounts(TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC, runMerger.token, runMerger.count, heap.peek().token, heap.peek().count) > 0) {
+                    heap.poll();
+                    heap.add(new SelectedCount(runMerger.token, runMerger.count));
+                }
+            }
+        }
+        for (SelectedCount selected : heap) {
+            map.add(selected.token, 0, selected.token.length, selected.count);
+        }
+        return map;
+    }
+    
+    protected void stream(RunMerger runMerger, ArchiveWriter archiveWriter, String entryName, int minCount) throws IOException {
+        archiveWriter.putNextEntry(entryName);
+        try {
+            CountLineWriter countLineWriter = new CountLineWriter(archiveWriter);
+            while (runMerger.next()) {
+                if (runMerger.count >= minCount) {
+                    countLineWriter.writeLine(runMerger.token, 0, runMerger.token.length, runMerger.count);
+                }
+            }
+            countLineWriter.flush();
+        } finally {
+            archiveWriter.closeEntry();
+        }
+    }
+    
+}
+
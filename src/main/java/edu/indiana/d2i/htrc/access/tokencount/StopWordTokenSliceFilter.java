@@ -0,0 +1,86 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StopWordTokenSliceFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This TokenSliceFilter drops the tokens on a list of stop words.  The stop words are matched byte for byte against the token, so the filter
+ * should come after the lowercase filter to match tokens regardless of case.  The stop words are held in a TokenCountMap, which is only read
+ * once built and can be shared by all threads.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class StopWordTokenSliceFilter implements TokenSliceFilter {
+    
+    public static final String NAME = "stopwords";
+    
+    protected final TokenCountMap stopWords;
+    protected final String name;
+    
+    /**
+     * Constructor
+     * @param stopWords the stop words
+     */
+    public StopWordTokenSliceFilter(Collection<String> stopWords) {
+        this.stopWords = new TokenCountMap(stopWords.size());
+        List<String> sortedStopWords = new ArrayList<String>(stopWords);
+        Collections.sort(sortedStopWords);
+        for (String stopWord : sortedStopWords) {
+            this.stopWords.increment(stopWord);
+        }
+        // the name changes with the list, so that counts filtered with another list are not taken for these
+        this.name = NAME + ":" + Integer.toHexString(sortedStopWords.hashCode());
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#getName()
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.tokencount.TokenSliceFilter#filter(edu.indiana.d2i.htrc.access.tokencount.TokenSlice)
+     */
+    @Override
+    public boolean filter(TokenSlice token) {
+        return stopWords.find(token.getBytes(), token.getOffset(), token.getLength()) < 0;
+    }
+
+}
+
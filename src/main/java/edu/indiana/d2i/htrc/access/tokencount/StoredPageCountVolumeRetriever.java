@@ -0,0 +1,315 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StoredPageCountVolumeRetriever.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.VolumePageCounter;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+
+/**
+ * This class returns the requested volumes in order, reading the ones whose page counts are in a PageCountStore from the store and taking the rest from
+ * the VolumeRetriever it wraps, which should only be asked for the volumes returned by getUnstoredIdentifiers().  The pages of a volume read from the
+ * store carry their counts instead of their content, so the volumes can only be counted by a PartialTokenCounter.  A request for some pages of a stored
+ * volume is served from the stored counts of those pages, but the pages of a volume requested only in part are never put into the store, and neither
+ * are the pages of a volume unless all the pages the wrapped VolumeRetriever reports for it have been counted
+ *
+ * @author Yiming Sun
+ *
+ */
+public class StoredPageCountVolumeRetriever implements VolumeRetriever, VolumePageCounter {
+
+    private static Logger log = Logger.getLogger(StoredPageCountVolumeRetriever.class);
+
+    /**
+     * This class is a VolumeReader for a volume whose page counts are read from a PageCountStore
+     *
+     * @author Yiming Sun
+     *
+     */
+    static class StoredVolumeReader extends VolumeReaderImpl {
+        StoredVolumeReader(String volumeID, List<PartialTokenCount> pageCounts) {
+            super(new ItemCoordinatesImpl(volumeID));
+            List<ContentReader> pages = new LinkedList<ContentReader>();
+            for (PartialTokenCount pageCount : pageCounts) {
+                pages.add(new StoredPageReader(pageCount));
+            }
+            setPages(pages);
+        }
+    }
+
+    /**
+     * This class is a ContentReader holding the stored counts of a page instead of its content
+     *
+     * @author Yiming Sun
+     *
+     */
+    static class StoredPageReader implements ContentReader {
+        protected final PartialTokenCount pageCount;
+
+        StoredPageReader(PartialTokenCount pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        /**
+         * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContentName()
+         */
+        @Override
+        public String getContentName() {
+            return pageCount.getContentIdentifier().getPageSequenceID();
+        }
+
+        /**
+         * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContent()
+         */
+        @Override
+        public byte[] getContent() {
+            return null;
+        }
+
+        PartialTokenCount getPageCount() {
+            return pageCount;
+        }
+    }
+
+    protected final VolumeRetriever volumeRetriever;
+    protected final PageCountStore pageCountStore;
+    protected final String fingerprint;
+    protected final List<String> volumeIDs;
+    protected final List<Boolean> storedFlags;
+    protected final List<List<String>> pageSequenceLists;
+    protected final Set<String> partialVolumeIDs;
+    protected final List<RequestedItemCoordinates> unstoredIdentifiers;
+    protected String unstoredVolumeID = null;
+    protected VolumeReader pendingVolumeReader = null;
+    protected boolean storeErrorOccurred = false;
+
+    /**
+     * Constructor
+     * @param volumeRetriever the VolumeRetriever for the volumes whose counts are not stored
+     * @param identifiers the requested volumes, in the order they are returned
+     * @param pageCountStore the PageCountStore object
+     * @param fingerprint the fingerprint of the Tokenizer and the TokenFilter, as returned by PageCountStore.fingerprint()
+     */
+    public StoredPageCountVolumeRetriever(VolumeRetriever volumeRetriever, List<? extends RequestedItemCoordinates> identifiers, PageCountStore pageCountStore, String fingerprint) {
+        this.volumeRetriever = volumeRetriever;
+        this.pageCountStore = pageCountStore;
+        this.fingerprint = fingerprint;
+        this.volumeIDs = new LinkedList<String>();
+        this.storedFlags = new LinkedList<Boolean>();
+        this.pageSequenceLists = new LinkedList<List<String>>();
+        this.partialVolumeIDs = new HashSet<String>();
+        this.unstoredIdentifiers = new LinkedList<RequestedItemCoordinates>();
+        for (RequestedItemCoordinates identifier : identifiers) {
+            // only whole volumes are stored, but the pages of a stored volume can be picked from it
+            boolean stored = pageCountStore.contains(fingerprint, identifier.getVolumeID());
+            List<String> pageSequences = identifier.getPageSequences();
+            volumeIDs.add(identifier.getVolumeID());
+            storedFlags.add(Boolean.valueOf(stored));
+            // the page sequences are copied because the wrapped VolumeRetriever takes them out of the identifier when it dispatches its work
+            pageSequenceLists.add((pageSequences != null) ? new ArrayList<String>(pageSequences) : null);
+            if (pageSequences != null) {
+                partialVolumeIDs.add(identifier.getVolumeID());
+            }
+            if (!stored) {
+                unstoredIdentifiers.add(identifier);
+            }
+        }
+        if (log.isDebugEnabled()) log.debug((volumeIDs.size() - unstoredIdentifiers.size()) + " of " + volumeIDs.size() + " volumes have stored page counts");
+    }
+
+    /**
+     * Method to get the requested volumes whose counts are not stored, which are the ones the wrapped VolumeRetriever should retrieve
+     * @return a List of RequestedItemCoordinates objects, in the order they were requested
+     */
+    public List<RequestedItemCoordinates> getUnstoredIdentifiers() {
+        return unstoredIdentifiers;
+    }
+
+    /**
+     * Method to check if the counts of a volume returned by this object may be put into the PageCountStore
+     * @param volumeID the ID of the volume
+     * @return <code>true</code> if the volume is only requested as a whole, <code>false</code> if some of its pages are requested
+     */
+    public boolean isWholeVolume(String volumeID) {
+        return !partialVolumeIDs.contains(volumeID);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumePageCounter#getVolumePageCount(java.lang.String)
+     */
+    @Override
+    public int getVolumePageCount(String volumeID) {
+        return (volumeRetriever instanceof VolumePageCounter) ? ((VolumePageCounter)volumeRetriever).getVolumePageCount(volumeID) : -1;
+    }
+
+    /**
+     * Method to check if the counts of a volume returned by a VolumeRetriever may be put into the PageCountStore.  A volume is only complete if it is
+     * requested as a whole and the counts cover as many pages as the VolumeRetriever reports for it, so a volume some of whose pages failed to be
+     * retrieved, or whose page count is not known, is never stored
+     * @param volumeRetriever the VolumeRetriever the volume is returned by
+     * @param partialTokenCounts the counts of the volume
+     * @return <code>true</code> if the volume is complete, <code>false</code> otherwise
+     */
+    static boolean isCompleteVolume(VolumeRetriever volumeRetriever, List<PartialTokenCount> partialTokenCounts) {
+        boolean complete = false;
+        if (!partialTokenCounts.isEmpty() && volumeRetriever instanceof VolumePageCounter) {
+            String volumeID = partialTokenCounts.get(0).getContentIdentifier().getVolumeID();
+            int pageCount = 0;
+            for (PartialTokenCount partialTokenCount : partialTokenCounts) {
+                pageCount += partialTokenCount.getPageSequenceIDs().size();
+            }
+            boolean wholeVolume = !(volumeRetriever instanceof StoredPageCountVolumeRetriever) || ((StoredPageCountVolumeRetriever)volumeRetriever).isWholeVolume(volumeID);
+            complete = wholeVolume && pageCount == ((VolumePageCounter)volumeRetriever).getVolumePageCount(volumeID);
+            if (!complete && log.isDebugEnabled()) log.debug("counts of " + pageCount + " pages of " + volumeID + " are not stored");
+        }
+        return complete;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasMoreVolumes()
+     */
+    @Override
+    public boolean hasMoreVolumes() {
+        return !volumeIDs.isEmpty() || pendingVolumeReader != null || volumeRetriever.hasMoreVolumes();
+    }
+
+    /**
+     * Volumes that fail to be retrieved are only reported by the wrapped VolumeRetriever after the rest, so the volumes it returns may come earlier
+     * than they were requested.  The wrapped VolumeRetriever may split a large volume over several VolumeReaders, which are all returned before the
+     * next requested volume, so that no stored volume comes between them
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#nextVolume()
+     */
+    @Override
+    public VolumeReader nextVolume() throws KeyNotFoundException, PolicyViolationException, RepositoryException {
+        VolumeReader volumeReader = null;
+        if (unstoredVolumeID != null && pendingVolumeReader == null && volumeRetriever.hasMoreVolumes()) {
+            // the next VolumeReader of the wrapped VolumeRetriever is either another part of the last volume it returned or the next unstored volume
+            pendingVolumeReader = volumeRetriever.nextVolume();
+        }
+        
+        if (pendingVolumeReader != null && pendingVolumeReader.getVolumeID().equals(unstoredVolumeID)) {
+            volumeReader = nextUnstoredVolume();
+        } else if (!volumeIDs.isEmpty()) {
+            String volumeID = volumeIDs.remove(0);
+            List<String> pageSequences = pageSequenceLists.remove(0);
+            if (storedFlags.remove(0).booleanValue()) {
+                unstoredVolumeID = null;
+                try {
+                    List<PartialTokenCount> pageCounts = pageCountStore.load(fingerprint, volumeID);
+                    if (pageSequences != null) {
+                        pageCounts = selectPages(volumeID, pageCounts, pageSequences);
+                    }
+                    volumeReader = new StoredVolumeReader(volumeID, pageCounts);
+                } catch (IOException e) {
+                    log.error("Failed to read stored page counts of " + volumeID, e);
+                    storeErrorOccurred = true;
+                    throw new RepositoryException("Failed to read stored token counts of " + volumeID, e);
+                }
+            } else {
+                volumeReader = nextUnstoredVolume();
+            }
+        } else {
+            volumeReader = nextUnstoredVolume();
+        }
+        return volumeReader;
+    }
+
+    /**
+     * Method to get the next VolumeReader of the wrapped VolumeRetriever, which may already have been taken from it by nextVolume()
+     * @return the next VolumeReader of the wrapped VolumeRetriever
+     * @throws KeyNotFoundException thrown by the wrapped VolumeRetriever
+     * @throws PolicyViolationException thrown by the wrapped VolumeRetriever
+     * @throws RepositoryException thrown by the wrapped VolumeRetriever
+     */
+    protected VolumeReader nextUnstoredVolume() throws KeyNotFoundException, PolicyViolationException, RepositoryException {
+        VolumeReader volumeReader = null;
+        if (pendingVolumeReader != null) {
+            volumeReader = pendingVolumeReader;
+            pendingVolumeReader = null;
+        } else {
+            volumeReader = volumeRetriever.nextVolume();
+        }
+        if (volumeReader != null) {
+            unstoredVolumeID = volumeReader.getVolumeID();
+        }
+        return volumeReader;
+    }
+
+    /**
+     * Method to pick the counts of the requested pages from the stored counts of a volume
+     * @param volumeID the ID of the volume
+     * @param pageCounts the stored counts of all pages of the volume, in order
+     * @param pageSequences the requested page sequences
+     * @return a List of PartialTokenCount objects of the requested pages, in the order they are in the volume
+     * @throws KeyNotFoundException thrown if a requested page is not in the volume
+     */
+    protected List<PartialTokenCount> selectPages(String volumeID, List<PartialTokenCount> pageCounts, List<String> pageSequences) throws KeyNotFoundException {
+        Set<String> remaining = new HashSet<String>(pageSequences);
+        List<PartialTokenCount> selected = new ArrayList<PartialTokenCount>(remaining.size());
+        for (PartialTokenCount pageCount : pageCounts) {
+            if (remaining.remove(pageCount.getContentIdentifier().getPageSequenceID())) {
+                selected.add(pageCount);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + remaining.iterator().next() + Constants.PAGE_SEQ_END_MARK);
+        }
+        return selected;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasErrors()
+     */
+    @Override
+    public boolean hasErrors() {
+        return storeErrorOccurred || volumeRetriever.hasErrors();
+    }
+
+}
+
@@ -136,6 +136,21 @@ public class TokenCountComparatorFactory {
     public static Comparator<Entry<String, Count>> getComparator(TokenCountComparatorTypeEnum type) {
         return type.getComparator();
     }
+    
+    /**
+     * Method to find the TokenCountComparatorTypeEnum value of a comparator returned by getComparator()
+     * @param comparator a Comparator object
+     * @return the TokenCountComparatorTypeEnum value, or <code>null</code> if the comparator is not one returned by getComparator()
+     */
+    public static TokenCountComparatorTypeEnum getComparatorType(Comparator<Entry<String, Count>> comparator) {
+        TokenCountComparatorTypeEnum comparatorType = null;
+        for (TokenCountComparatorTypeEnum type : TokenCountComparatorTypeEnum.values()) {
+            if (type.getComparator() == comparator) {
+                comparatorType = type;
+            }
+        }
+        return comparatorType;
+    }
 
 }
 
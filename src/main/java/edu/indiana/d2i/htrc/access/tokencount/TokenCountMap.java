@@ -0,0 +1,707 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenCountMap.java
+# Description:  Open-addressing hash map from UTF-8 token bytes to int counts
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArrowArchiveWriter;
+
+/**
+ * This class counts tokens without creating objects per token or per distinct token.  The UTF-8 bytes of the distinct tokens are appended to a single
+ * byte array, the key positions are kept in parallel int arrays and the counts in a long array indexed by entry id, so that the counts summed over a
+ * whole collection do not overflow, and the hash table is an int array of entry ids probed linearly.  Entry ids are assigned in insertion order, and sort() returns the entry ids in the order of one of the TokenCountComparatorTypeEnum
+ * comparators: the lexical orders by a multikey quicksort on the key bytes, and the count orders by a stable radix sort on the counts of the lexically
+ * sorted ids.  The lexical order is that of String.compareTo(), i.e. UTF-16 code unit order, not the code point order plain UTF-8 bytes would give.
+ * 
+ * Tokens are expected to be well-formed; an unpaired surrogate is counted as '?', the same as String.getBytes() would have written it.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenCountMap {
+
+    protected static final int DEFAULT_EXPECTED_SIZE = 1024;
+    protected static final int DEFAULT_ARENA_SIZE = 16 * 1024;
+    protected static final int INSERTION_SORT_THRESHOLD = 12;
+    protected static final int END_OF_KEY = -1;
+    protected static final String UTF_8 = "utf-8";
+
+    // an Entry view used only to sort with comparators that are not one of the TokenCountComparatorTypeEnum comparators
+    static class CountEntry implements Entry<String, Count> {
+        final int id;
+        final String key;
+        final Count value;
+
+        CountEntry(int id, String key, long count) {
+            if (count > Integer.MAX_VALUE) {
+                throw new ArithmeticException("count of " + key + " exceeds the range of Count: " + count);
+            }
+            this.id = id;
+            this.key = key;
+            this.value = new Count();
+            this.value.increment((int)count);
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Count getValue() {
+            return value;
+        }
+
+        @Override
+        public Count setValue(Count value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    protected byte[] arena;
+    protected int arenaLength = 0;
+    protected int[] offsets;
+    protected int[] lengths;
+    protected int[] hashes;
+    protected long[] counts;
+    protected int size = 0;
+
+    // entry id + 1 of the entry in each slot, 0 for an empty slot
+    protected int[] slots;
+    protected int mask;
+
+    private byte[] encodeBuffer = new byte[64];
+
+    /**
+     * Constructor
+     */
+    public TokenCountMap() {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param expectedSize the number of distinct tokens expected, which is only a hint
+     */
+    public TokenCountMap(int expectedSize) {
+        int entryCapacity = Math.max(expectedSize, 16);
+        offsets = new int[entryCapacity];
+        lengths = new int[entryCapacity];
+        hashes = new int[entryCapacity];
+        counts = new long[entryCapacity];
+        int slotCount = Integer.highestOneBit(entryCapacity * 2 - 1) << 1;
+        slots = new int[slotCount];
+        mask = slotCount - 1;
+        arena = new byte[DEFAULT_ARENA_SIZE];
+    }
+
+    /**
+     * Method to get the number of distinct tokens
+     * @return the number of distinct tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method to remove all tokens, keeping the memory allocated for reuse
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(slots, 0);
+            size = 0;
+            arenaLength = 0;
+        }
+    }
+
+    /**
+     * Method to count one occurrence of a token
+     * @param token the token
+     */
+    public void increment(String token) {
+        add(token, 1);
+    }
+
+    /**
+     * Method to count one occurrence of a token given as UTF-8 bytes
+     * @param bytes the array holding the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     * @return the entry id of the token
+     */
+    public int increment(byte[] bytes, int offset, int length) {
+        return add(bytes, offset, length, hash(bytes, offset, length), 1);
+    }
+
+    /**
+     * Method to add to the count of a token
+     * @param token the token
+     * @param delta the number of occurrences to add
+     */
+    public void add(String token, long delta) {
+        int length = encode(token);
+        add(encodeBuffer, 0, length, delta);
+    }
+
+    /**
+     * Method to add to the count of a token given as UTF-8 bytes
+     * @param bytes the array holding the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     * @param delta the number of occurrences to add
+     */
+    public void add(byte[] bytes, int offset, int length, long delta) {
+        add(bytes, offset, length, hash(bytes, offset, length), delta);
+    }
+
+    /**
+     * Method to add the counts of another map to this map.  Tokens new to this map are added in the order they were first counted in the other map
+     * @param other the other map
+     */
+    public void addAll(TokenCountMap other) {
+        for (int id = 0; id < other.size; id++) {
+            add(other.arena, other.offsets[id], other.lengths[id], other.hashes[id], other.counts[id]);
+        }
+    }
+
+    protected int add(byte[] bytes, int offset, int length, int hash, long delta) {
+        int slot = hash & mask;
+        boolean found = false;
+        int id = slots[slot] - 1;
+        while (id >= 0 && !found) {
+            if (hashes[id] == hash && keyEquals(id, bytes, offset, length)) {
+                counts[id] += delta;
+                found = true;
+            } else {
+                slot = (slot + 1) & mask;
+                id = slots[slot] - 1;
+            }
+        }
+        if (!found) {
+            id = appendEntry(bytes, offset, length, hash, delta);
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Method to get the count of a token
+     * @param token the token
+     * @return the count of the token, 0 if it has not been counted
+     */
+    public long get(String token) {
+        int length = encode(token);
+        int id = find(encodeBuffer, 0, length);
+        return (id >= 0) ? counts[id] : 0;
+    }
+
+    /**
+     * Method to get the token of an entry
+     * @param id the entry id
+     * @return the token
+     */
+    public String getToken(int id) {
+        String token = null;
+        try {
+            token = new String(arena, offsets[id], lengths[id], UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return token;
+    }
+
+    /**
+     * Method to get the count of an entry
+     * @param id the entry id
+     * @return the count
+     */
+    public long getCount(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Method to get the entry ids in the order of one of the TokenCountComparatorTypeEnum comparators
+     * @param type the TokenCountComparatorTypeEnum value
+     * @return an array of all entry ids in order
+     */
+    public int[] sort(TokenCountComparatorTypeEnum type) {
+        return sort(allIds(), type);
+    }
+
+    /**
+     * Method to sort some of the entry ids in the order of one of the TokenCountComparatorTypeEnum comparators
+     * @param ids the entry ids, in ascending order for the DEFAULT order to be the order tokens were first counted in
+     * @param type the TokenCountComparatorTypeEnum value
+     * @return the array of entry ids, sorted in place
+     */
+    public int[] sort(int[] ids, TokenCountComparatorTypeEnum type) {
+        switch (type) {
+        case TOKEN_LEX_ASC:
+            sortLex(ids, 0, ids.length, 0);
+            break;
+        case TOKEN_LEX_DESC:
+            sortLex(ids, 0, ids.length, 0);
+            reverse(ids);
+            break;
+        case TOKEN_COUNT_ASC:
+            sortLex(ids, 0, ids.length, 0);
+            sortCount(ids, false);
+            break;
+        case TOKEN_COUNT_DESC:
+            sortLex(ids, 0, ids.length, 0);
+            reverse(ids);
+            sortCount(ids, true);
+            break;
+        case DEFAULT:
+            break;
+        }
+        return ids;
+    }
+
+    /**
+     * Method to get the entry ids in the order of any comparator.  This creates an Entry object per token, so it is only meant for comparators other
+     * than the TokenCountComparatorTypeEnum comparators
+     * @param comparator a Comparator object
+     * @return an array of all entry ids in order
+     */
+    public int[] sort(Comparator<Entry<String, Count>> comparator) {
+        return sort(allIds(), comparator);
+    }
+
+    /**
+     * Method to sort some of the entry ids in the order of any comparator
+     * @param ids the entry ids
+     * @param comparator a Comparator object
+     * @return the array of entry ids, sorted in place
+     */
+    public int[] sort(int[] ids, Comparator<Entry<String, Count>> comparator) {
+        CountEntry[] entries = new CountEntry[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            entries[i] = new CountEntry(ids[i], getToken(ids[i]), counts[ids[i]]);
+        }
+        Arrays.sort(entries, comparator);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entries[i].id;
+        }
+        return ids;
+    }
+
+    /**
+     * Method to select the entries with a count of at least minCount and, if topK is positive, only the first topK of them in the order of descending
+     * count, with ties in descending lexical order as in TOKEN_COUNT_DESC.  The top entries are found with a heap of topK entries, so the rest of the
+     * entries are never sorted
+     * @param minCount the smallest count of the selected entries
+     * @param topK the largest number of entries selected, or 0 for no limit
+     * @return the ids of the selected entries in ascending order
+     */
+    public int[] select(int minCount, int topK) {
+        int[] ids = null;
+        if (topK <= 0) {
+            int selected = 0;
+            ids = new int[size];
+            for (int id = 0; id < size; id++) {
+                if (counts[id] >= minCount) {
+                    ids[selected++] = id;
+                }
+            }
+            ids = Arrays.copyOf(ids, selected);
+        } else {
+            // a heap whose root is the selected entry ranked last, so it is the one replaced by an entry ranked before it
+            int[] heap = new int[Math.min(topK, size)];
+            int heapSize = 0;
+            for (int id = 0; id < size; id++) {
+                if (counts[id] >= minCount) {
+                    if (heapSize < heap.length) {
+                        heap[heapSize] = id;
+                        siftUp(heap, heapSize);
+                        heapSize++;
+                    } else if (ranksBefore(id, heap[0])) {
+                        heap[0] = id;
+                        siftDown(heap, 0, heapSize);
+                    }
+                }
+            }
+            ids = Arrays.copyOf(heap, heapSize);
+            Arrays.sort(ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Method to write the entries as lines of the token, a space and the count
+     * @param outputStream the OutputStream to write to
+     * @param ids the entry ids in the order to be written
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void writeTo(OutputStream outputStream, int[] ids) throws IOException {
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        for (int id : ids) {
+            countLineWriter.writeLine(arena, offsets[id], lengths[id], counts[id]);
+        }
+        countLineWriter.flush();
+    }
+
+    /**
+     * Method to write the entries as rows of an Arrow IPC stream
+     * @param arrowArchiveWriter the ArrowArchiveWriter to write to
+     * @param ids the entry ids in the order to be written
+     * @throws IOException thrown if writing to the ArrowArchiveWriter failed
+     */
+    public void writeTo(ArrowArchiveWriter arrowArchiveWriter, int[] ids) throws IOException {
+        for (int id : ids) {
+            arrowArchiveWriter.writeCount(arena, offsets[id], lengths[id], counts[id]);
+        }
+    }
+
+    protected int[] allIds() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    protected boolean ranksBefore(int id1, int id2) {
+        return counts[id1] > counts[id2] || (counts[id1] == counts[id2] && compareKeys(id1, id2, 0) > 0);
+    }
+
+    protected void siftUp(int[] heap, int index) {
+        int child = index;
+        boolean done = false;
+        while (child > 0 && !done) {
+            int parent = (child - 1) >>> 1;
+            if (ranksBefore(heap[parent], heap[child])) {
+                swap(heap, parent, child);
+                child = parent;
+            } else {
+                done = true;
+            }
+        }
+    }
+
+    protected void siftDown(int[] heap, int index, int heapSize) {
+        int parent = index;
+        boolean done = false;
+        while (!done) {
+            int last = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize && ranksBefore(heap[last], heap[left])) {
+                last = left;
+            }
+            if (right < heapSize && ranksBefore(heap[last], heap[right])) {
+                last = right;
+            }
+            if (last != parent) {
+                swap(heap, parent, last);
+                parent = last;
+            } else {
+                done = true;
+            }
+        }
+    }
+
+    protected int find(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int slot = hash & mask;
+        int found = -1;
+        int id = slots[slot] - 1;
+        while (id >= 0 && found < 0) {
+            if (hashes[id] == hash && keyEquals(id, bytes, offset, length)) {
+                found = id;
+            } else {
+                slot = (slot + 1) & mask;
+                id = slots[slot] - 1;
+            }
+        }
+        return found;
+    }
+
+    protected int appendEntry(byte[] bytes, int offset, int length, int hash, long count) {
+        if (size == counts.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        if (arenaLength + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+        }
+        System.arraycopy(bytes, offset, arena, arenaLength, length);
+        int id = size++;
+        offsets[id] = arenaLength;
+        lengths[id] = length;
+        hashes[id] = hash;
+        counts[id] = count;
+        arenaLength += length;
+        return id;
+    }
+
+    protected void rehash(int slotCount) {
+        slots = new int[slotCount];
+        mask = slotCount - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    protected boolean keyEquals(int id, byte[] bytes, int offset, int length) {
+        boolean equal = (lengths[id] == length);
+        int keyOffset = offsets[id];
+        for (int i = 0; i < length && equal; i++) {
+            equal = (arena[keyOffset + i] == bytes[offset + i]);
+        }
+        return equal;
+    }
+
+    protected static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        // spread the bits the linear probing masks with
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+
+    /**
+     * Method to encode a token as UTF-8 into encodeBuffer
+     * @param token the token
+     * @return the number of bytes encoded
+     */
+    protected int encode(String token) {
+        int length = token.length();
+        if (encodeBuffer.length < length * 3) {
+            encodeBuffer = new byte[length * 3];
+        }
+        byte[] buffer = encodeBuffer;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte)c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte)(0xc0 | (c >> 6));
+                buffer[position++] = (byte)(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(token.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, token.charAt(++i));
+                buffer[position++] = (byte)(0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte)(0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte)(0xe0 | (c >> 12));
+                buffer[position++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Method to get the byte of a key at the given depth, mapped so that unsigned byte order is UTF-16 code unit order.  The lead bytes 0xEE and 0xEF
+     * (U+E000 to U+FFFF) sort after the lead bytes 0xF0 to 0xF4 (supplementary characters, i.e. surrogate pairs) in UTF-16, so they are moved above
+     * them; 0xFE and 0xFF never occur in UTF-8 and continuation bytes are below 0xC0, so the mapping is unambiguous
+     * @param id the entry id
+     * @param depth the position in the key
+     * @return the mapped byte, or END_OF_KEY past the end of the key
+     */
+    protected int keyByte(int id, int depth) {
+        int value = END_OF_KEY;
+        if (depth < lengths[id]) {
+            value = mapKeyByte(arena[offsets[id] + depth]);
+        }
+        return value;
+    }
+
+    protected static int mapKeyByte(byte b) {
+        int value = b & 0xff;
+        if (value == 0xee || value == 0xef) {
+            value += 0x10;
+        }
+        return value;
+    }
+
+    /**
+     * Method to compare two tokens held as UTF-8 bytes in the lexical order of TOKEN_LEX_ASC, i.e. the order the entries are sorted in
+     * @param token1 the first token
+     * @param token2 the second token
+     * @return a negative number, zero or a positive number if the first token sorts before, the same as or after the second token
+     */
+    protected static int compareTokens(byte[] token1, byte[] token2) {
+        int length = Math.min(token1.length, token2.length);
+        int result = 0;
+        for (int i = 0; i < length && result == 0; i++) {
+            result = mapKeyByte(token1[i]) - mapKeyByte(token2[i]);
+        }
+        return (result != 0) ? result : token1.length - token2.length;
+    }
+
+    protected int compareKeys(int id1, int id2, int depth) {
+        int result = 0;
+        int byte1 = 0;
+        while (result == 0 && byte1 != END_OF_KEY) {
+            byte1 = keyByte(id1, depth);
+            result = byte1 - keyByte(id2, depth);
+            depth++;
+        }
+        return result;
+    }
+
+    /**
+     * Method to sort entry ids in lexical order by a multikey quicksort, where all ids in the range share the first depth bytes
+     * @param ids the entry ids
+     * @param low first index of the range
+     * @param high index after the last index of the range
+     * @param depth the number of leading bytes shared by the keys in the range
+     */
+    protected void sortLex(int[] ids, int low, int high, int depth) {
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            int pivot = medianOfThree(keyByte(ids[low], depth), keyByte(ids[(low + high) >>> 1], depth), keyByte(ids[high - 1], depth));
+            int lessEnd = low;
+            int greaterStart = high;
+            int i = low;
+            while (i < greaterStart) {
+                int value = keyByte(ids[i], depth);
+                if (value < pivot) {
+                    swap(ids, lessEnd++, i++);
+                } else if (value > pivot) {
+                    swap(ids, i, --greaterStart);
+                } else {
+                    i++;
+                }
+            }
+            sortLex(ids, low, lessEnd, depth);
+            if (pivot != END_OF_KEY) {
+                sortLex(ids, lessEnd, greaterStart, depth + 1);
+            }
+            low = greaterStart;
+        }
+        for (int i = low + 1; i < high; i++) {
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= low && compareKeys(ids[j], id, depth) > 0) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+    }
+
+    /**
+     * Method to stable sort entry ids by count with a least significant digit radix sort, so that ids with equal counts stay in lexical order.  Only
+     * the bytes up to the highest one set in any count are sorted on, as all counts share the bytes above it
+     * @param ids the entry ids in lexical order
+     * @param descending <code>true</code> to sort by descending count
+     */
+    protected void sortCount(int[] ids, boolean descending) {
+        int[] source = ids;
+        int[] target = new int[ids.length];
+        int[] bucketStarts = new int[257];
+        long countBits = 0L;
+        for (int id : ids) {
+            countBits |= counts[id];
+        }
+        for (int shift = 0; shift < 64 && (countBits >>> shift) != 0L; shift += 8) {
+            Arrays.fill(bucketStarts, 0);
+            for (int id : source) {
+                bucketStarts[countDigit(id, shift, descending) + 1]++;
+            }
+            // a pass in which all ids fall into the same bucket would not change the order
+            boolean skip = false;
+            for (int bucket = 1; bucket <= 256 && !skip; bucket++) {
+                skip = (bucketStarts[bucket] == source.length);
+            }
+            if (!skip) {
+                for (int bucket = 1; bucket <= 256; bucket++) {
+                    bucketStarts[bucket] += bucketStarts[bucket - 1];
+                }
+                for (int id : source) {
+                    target[bucketStarts[countDigit(id, shift, descending)]++] = id;
+                }
+                int[] swap = source;
+                source = target;
+                target = swap;
+            }
+        }
+        if (source != ids) {
+            System.arraycopy(source, 0, ids, 0, ids.length);
+        }
+    }
+
+    private int countDigit(int id, int shift, boolean descending) {
+        long key = descending ? ~counts[id] : counts[id];
+        return (int)((key ^ Long.MIN_VALUE) >>> shift) & 0xff;
+    }
+
+    private static int medianOfThree(int a, int b, int c) {
+        int median = 0;
+        if (a < b) {
+            median = (b < c) ? b : ((a < c) ? c : a);
+        } else {
+            median = (a < c) ? a : ((b < c) ? c : b);
+        }
+        return median;
+    }
+
+    private static void swap(int[] ids, int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    private static void reverse(int[] ids) {
+        for (int i = 0, j = ids.length - 1; i < j; i++, j--) {
+            swap(ids, i, j);
+        }
+    }
+
+}
+
@@ -0,0 +1,275 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenCountSketch.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+
+/**
+ * This class approximates the token counts of a collection in fixed memory.  The counts go into a CountMinSketch, the vocabulary size is estimated
+ * by a HyperLogLog, and the heavy hitters are tracked as the tokens with the largest estimated counts in a min-heap of fixed capacity.  A token is
+ * only decoded into a String when its estimate is large enough to enter the heap, so most tokens are counted from their bytes alone.  Sketches of
+ * the same configuration can be merged.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenCountSketch {
+    
+    protected static final String UTF_8 = "utf-8";
+    
+    protected final CountMinSketch countMinSketch;
+    protected final HyperLogLog hyperLogLog;
+    protected final String[] heavyHitters;
+    protected final long[] estimates;
+    protected final Map<String, Integer> heapIndices;
+    protected int heapSize = 0;
+    
+    /**
+     * Constructor
+     * @param epsilon the error of an estimated count relative to the total of all counts
+     * @param delta the probability of an estimated count exceeding the error
+     * @param heavyHitterCount the number of heavy hitters tracked
+     * @param precision the precision of the HyperLogLog
+     */
+    public TokenCountSketch(double epsilon, double delta, int heavyHitterCount, int precision) {
+        if (heavyHitterCount < 1) {
+            throw new IllegalArgumentException("heavyHitterCount must be positive: " + heavyHitterCount);
+        }
+        this.countMinSketch = new CountMinSketch(epsilon, delta);
+        this.hyperLogLog = new HyperLogLog(precision);
+        this.heavyHitters = new String[heavyHitterCount];
+        this.estimates = new long[heavyHitterCount];
+        this.heapIndices = new HashMap<String, Integer>(heavyHitterCount * 2);
+    }
+    
+    /**
+     * Method to add token counts to the sketch
+     * @param counts the token counts
+     */
+    public void add(TokenCountMap counts) {
+        for (int id = 0; id < counts.size; id++) {
+            byte[] arena = counts.arena;
+            int offset = counts.offsets[id];
+            int length = counts.lengths[id];
+            long hash = hash64(arena, offset, length);
+            countMinSketch.add(hash, counts.counts[id]);
+            hyperLogLog.add(hash);
+            long estimate = countMinSketch.estimate(hash);
+            if (heapSize < heavyHitters.length || estimate > estimates[0]) {
+                offer(decode(arena, offset, length), estimate);
+            }
+        }
+    }
+    
+    /**
+     * Method to add the counts of another sketch of the same configuration to this sketch.  The heavy hitters of both sketches are ranked again
+     * by their estimates in the merged counts
+     * @param other the other sketch
+     */
+    public void merge(TokenCountSketch other) {
+        countMinSketch.merge(other.countMinSketch);
+        hyperLogLog.merge(other.hyperLogLog);
+        String[] candidates = new String[heapSize + other.heapSize];
+        System.arraycopy(heavyHitters, 0, candidates, 0, heapSize);
+        System.arraycopy(other.heavyHitters, 0, candidates, heapSize, other.heapSize);
+        heapSize = 0;
+        heapIndices.clear();
+        for (String candidate : candidates) {
+            long estimate = countMinSketch.estimate(hash64(candidate));
+            if (heapSize < heavyHitters.length || estimate > estimates[0]) {
+                offer(candidate, estimate);
+            }
+        }
+    }
+    
+    /**
+     * Method to get the estimated count of a token
+     * @param token the token
+     * @return the estimated count, which is never less than the actual count
+     */
+    public long estimate(String token) {
+        return countMinSketch.estimate(hash64(token));
+    }
+    
+    /**
+     * Method to get the estimated number of distinct tokens
+     * @return the estimated number of distinct tokens
+     */
+    public long estimateVocabularySize() {
+        return hyperLogLog.estimate();
+    }
+    
+    /**
+     * Method to send the heavy hitters with their estimated counts as an entry
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @param entryName the name of the entry
+     * @param comparator the Comparator giving the order of the tokens
+     * @param minCount the smallest estimated count of the tokens sent
+     * @param topK the largest number of tokens sent, chosen by descending estimated count, or 0 for all heavy hitters
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void sendEntry(ArchiveWriter archiveWriter, String entryName, Comparator<Entry<String, Count>> comparator, int minCount, int topK) throws IOException {
+        TokenCountMap map = new TokenCountMap(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            map.add(heavyHitters[i], estimates[i]);
+        }
+        TokenCountZipperFactory.Helper.sendEntry(map, entryName, archiveWriter, comparator, minCount, topK);
+    }
+    
+    /**
+     * Method to send the totals and the error bounds of the sketch as an entry of lines of a name, a space and a value
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @param entryName the name of the entry
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void sendSummaryEntry(ArchiveWriter archiveWriter, String entryName) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("tokens ").append(countMinSketch.getTotal()).append('\n');
+        builder.append("vocabulary ").append(hyperLogLog.estimate()).append('\n');
+        builder.append("count.error.bound ").append(countMinSketch.getErrorBound()).append('\n');
+        builder.append("count.error.epsilon ").append(countMinSketch.getEpsilon()).append('\n');
+        builder.append("count.error.probability ").append(countMinSketch.getDelta()).append('\n');
+        builder.append("vocabulary.relative.error ").append(hyperLogLog.getRelativeError()).append('\n');
+        archiveWriter.writeEntry(entryName, builder.toString().getBytes(UTF_8));
+    }
+    
+    protected void offer(String token, long estimate) {
+        Integer index = heapIndices.get(token);
+        if (index != null) {
+            // an estimate only grows, so the token moves away from the root
+            estimates[index] = estimate;
+            siftDown(index);
+        } else if (heapSize < heavyHitters.length) {
+            heavyHitters[heapSize] = token;
+            estimates[heapSize] = estimate;
+            heapIndices.put(token, heapSize);
+            siftUp(heapSize++);
+        } else {
+            heapIndices.remove(heavyHitters[0]);
+            heavyHitters[0] = token;
+            estimates[0] = estimate;
+            heapIndices.put(token, 0);
+            siftDown(0);
+        }
+    }
+    
+    protected void siftUp(int index) {
+        int child = index;
+        while (child > 0 && estimates[(child - 1) >>> 1] > estimates[child]) {
+            int parent = (child - 1) >>> 1;
+            swap(parent, child);
+            child = parent;
+        }
+    }
+    
+    protected void siftDown(int index) {
+        int parent = index;
+        boolean done = false;
+        while (!done) {
+            int smallest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize && estimates[left] < estimates[smallest]) {
+                smallest = left;
+            }
+            if (right < heapSize && estimates[right] < estimates[smallest]) {
+                smallest = right;
+            }
+            if (smallest != parent) {
+                swap(parent, smallest);
+                parent = smallest;
+            } else {
+                done = true;
+            }
+        }
+    }
+    
+    protected void swap(int i, int j) {
+        String token = heavyHitters[i];
+        long estimate = estimates[i];
+        heavyHitters[i] = heavyHitters[j];
+        estimates[i] = estimates[j];
+        heavyHitters[j] = token;
+        estimates[j] = estimate;
+        heapIndices.put(heavyHitters[i], i);
+        heapIndices.put(heavyHitters[j], j);
+    }
+    
+    protected static String decode(byte[] bytes, int offset, int length) {
+        String token = null;
+        try {
+            token = new String(bytes, offset, length, UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return token;
+    }
+    
+    protected static long hash64(String token) {
+        byte[] bytes = null;
+        try {
+            bytes = token.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return hash64(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Method to compute a 64 bit hash of a token, FNV-1a followed by the finalizer of MurmurHash3 to spread the bits
+     * @param bytes the array holding the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     * @return the hash
+     */
+    protected static long hash64(byte[] bytes, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x100000001b3L;
+        }
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+
+}
+
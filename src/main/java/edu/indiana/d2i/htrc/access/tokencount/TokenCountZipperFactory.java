@@ -31,17 +31,19 @@
  */
 package edu.indiana.d2i.htrc.access.tokencount;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ArrowArchiveWriter;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -49,37 +51,47 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  *
  */
 public class TokenCountZipperFactory {
+    private static Logger log = Logger.getLogger(TokenCountZipperFactory.class);
     
     public static class Helper {
         public static final String UTF_8 = "utf-8";
         public static final String LINE_FEED = "\n";
 
         
-        protected static void sendEntry(Map<String, Count> map, String entryName, ZipOutputStream outputStream, Comparator<Entry<String, Count>> comparator) throws IOException {
+        protected static void sendEntry(TokenCountMap map, String entryName, ArchiveWriter outputStream, Comparator<Entry<String, Count>> comparator, int minCount, int topK) throws IOException {
             try {
-                ZipEntry zipEntry = new ZipEntry(entryName);
-                outputStream.putNextEntry(zipEntry);
-                Set<Entry<String, Count>> entrySet = map.entrySet();
-                List<Entry<String, Count>> list = new ArrayList<Entry<String, Count>>(entrySet.size());
-                list.addAll(entrySet);
-                Collections.sort(list, comparator);
-                for (Entry<String, Count> entry : list) {
-                    outputStream.write(entry.getKey().getBytes(UTF_8));
-                    outputStream.write(" ".getBytes(UTF_8));
-                    outputStream.write(Integer.toString(entry.getValue().value()).getBytes(UTF_8));
-                    outputStream.write(LINE_FEED.getBytes(UTF_8));
+                outputStream.putNextEntry(entryName);
+                int[] order = selectAndSort(map, comparator, minCount, topK);
+                if (outputStream instanceof ArrowArchiveWriter) {
+                    // the counts go straight into the columns rather than being written as text and read back
+                    map.writeTo((ArrowArchiveWriter)outputStream, order);
+                } else {
+                    map.writeTo(outputStream, order);
                 }
             } finally {
                 outputStream.closeEntry();
             }
         }
-        protected static void countToken(String token, Map<String, Count> map) {
-            Count count = map.get(token);
-            if (count == null) {
-                count = new Count();
-                map.put(token, count);
-            }
-            count.increment();
+        /**
+         * Method to pick the entries of a TokenCountMap that are sent and put them in the order they are sent in
+         * @param map the TokenCountMap
+         * @param comparator the Comparator giving the order of the tokens
+         * @param minCount the smallest count of the tokens sent
+         * @param topK the largest number of tokens sent, chosen by descending count, or 0 for no limit
+         * @return the entry ids in the order they are sent in
+         */
+        protected static int[] selectAndSort(TokenCountMap map, Comparator<Entry<String, Count>> comparator, int minCount, int topK) {
+            // only the selected tokens are sorted, so a small topK avoids sorting the whole vocabulary
+            int[] ids = (minCount > 1 || topK > 0) ? map.select(minCount, topK) : map.allIds();
+            // the comparators of TokenCountComparatorTypeEnum are matched by the specialized sorts of TokenCountMap
+            TokenCountComparatorTypeEnum type = TokenCountComparatorFactory.getComparatorType(comparator);
+            return (type != null) ? map.sort(ids, type) : map.sort(ids, comparator);
+        }
+        protected static void countToken(String token, TokenCountMap map) {
+            map.increment(token);
+        }
+        protected static void countToken(TokenSlices tokenSlices, int index, TokenCountMap map) {
+            map.increment(tokenSlices.getBytes(), tokenSlices.getOffset(index), tokenSlices.getLength(index));
         }
 
 
@@ -88,18 +100,136 @@ public class TokenCountZipperFactory {
     
     public static enum TokenCountZipTypeEnum {
         VOLUME_LEVEL,
-        PAGE_LEVEL;
+        PAGE_LEVEL,
+        CONSOLIDATED_PAGE_LEVEL,
+        COLLECTION_LEVEL,
+        APPROXIMATE_COLLECTION_LEVEL,
+        DOCUMENT_FREQUENCY,
+        TFIDF;
+    }
+    
+    public static final String PN_PARTIAL_TOKEN_COUNT_ENABLED = "partial.token.count.enabled";
+    public static final String PN_COLLECTION_COUNT_SPILL_DIR = "collection.count.spill.dir";
+    public static final String PN_COLLECTION_COUNT_MAX_HEAP_BYTES = "collection.count.max.heap.bytes";
+    public static final String PN_APPROXIMATE_COUNT_EPSILON = "approximate.count.epsilon";
+    public static final String PN_APPROXIMATE_COUNT_DELTA = "approximate.count.delta";
+    public static final String PN_APPROXIMATE_COUNT_HEAVY_HITTERS = "approximate.count.heavy.hitters";
+    public static final String PN_APPROXIMATE_COUNT_HLL_PRECISION = "approximate.count.hll.precision";
+    
+    protected static final long DEFAULT_COLLECTION_COUNT_MAX_HEAP_BYTES = 256L * 1024L * 1024L;
+    protected static final double DEFAULT_APPROXIMATE_COUNT_EPSILON = 0.0001;
+    protected static final double DEFAULT_APPROXIMATE_COUNT_DELTA = 0.01;
+    protected static final int DEFAULT_APPROXIMATE_COUNT_HEAVY_HITTERS = 10000;
+    protected static final int DEFAULT_APPROXIMATE_COUNT_HLL_PRECISION = 14;
+    
+    protected static boolean partialTokenCountEnabled = false;
+    protected static File collectionCountSpillDir = new File(System.getProperty("java.io.tmpdir"));
+    protected static long collectionCountMaxHeapBytes = DEFAULT_COLLECTION_COUNT_MAX_HEAP_BYTES;
+    protected static double approximateCountEpsilon = DEFAULT_APPROXIMATE_COUNT_EPSILON;
+    protected static double approximateCountDelta = DEFAULT_APPROXIMATE_COUNT_DELTA;
+    protected static int approximateCountHeavyHitters = DEFAULT_APPROXIMATE_COUNT_HEAVY_HITTERS;
+    protected static int approximateCountHllPrecision = DEFAULT_APPROXIMATE_COUNT_HLL_PRECISION;
+    
+    /**
+     * Method to initialize this class
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static void init(ParameterContainer parameterContainer) {
+        String partialTokenCount = parameterContainer.getParameter(PN_PARTIAL_TOKEN_COUNT_ENABLED);
+        TokenCountZipperFactory.partialTokenCountEnabled = partialTokenCount != null && Boolean.parseBoolean(partialTokenCount.trim());
+        
+        String spillDirPath = parameterContainer.getParameter(PN_COLLECTION_COUNT_SPILL_DIR);
+        File spillDir = new File((spillDirPath != null && spillDirPath.trim().length() > 0) ? spillDirPath.trim() : System.getProperty("java.io.tmpdir"));
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            log.error("Cannot create collection count spill directory " + spillDir.getAbsolutePath() + ", using " + System.getProperty("java.io.tmpdir"));
+            spillDir = new File(System.getProperty("java.io.tmpdir"));
+        }
+        TokenCountZipperFactory.collectionCountSpillDir = spillDir;
+        String maxHeapBytes = parameterContainer.getParameter(PN_COLLECTION_COUNT_MAX_HEAP_BYTES);
+        TokenCountZipperFactory.collectionCountMaxHeapBytes = (maxHeapBytes != null) ? Long.parseLong(maxHeapBytes.trim()) : DEFAULT_COLLECTION_COUNT_MAX_HEAP_BYTES;
+        
+        String epsilon = parameterContainer.getParameter(PN_APPROXIMATE_COUNT_EPSILON);
+        TokenCountZipperFactory.approximateCountEpsilon = (epsilon != null) ? Double.parseDouble(epsilon.trim()) : DEFAULT_APPROXIMATE_COUNT_EPSILON;
+        String delta = parameterContainer.getParameter(PN_APPROXIMATE_COUNT_DELTA);
+        TokenCountZipperFactory.approximateCountDelta = (delta != null) ? Double.parseDouble(delta.trim()) : DEFAULT_APPROXIMATE_COUNT_DELTA;
+        String heavyHitters = parameterContainer.getParameter(PN_APPROXIMATE_COUNT_HEAVY_HITTERS);
+        TokenCountZipperFactory.approximateCountHeavyHitters = (heavyHitters != null) ? Integer.parseInt(heavyHitters.trim()) : DEFAULT_APPROXIMATE_COUNT_HEAVY_HITTERS;
+        String hllPrecision = parameterContainer.getParameter(PN_APPROXIMATE_COUNT_HLL_PRECISION);
+        TokenCountZipperFactory.approximateCountHllPrecision = (hllPrecision != null) ? Integer.parseInt(hllPrecision.trim()) : DEFAULT_APPROXIMATE_COUNT_HLL_PRECISION;
     }
     
     public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor) {
+        return newInstance(type, auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+    
+    public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel) {
+        return newInstance(type, auditor, format, compressionLevel, 1, 0);
+    }
+    
+    public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK) {
         TokenCountZipper zipper = null;
         switch (type) {
         case VOLUME_LEVEL:
-            zipper = new VolumeTokenCountZipper(auditor);
+            // the PageCountStore is only filled and read through partial counts
+            if (partialTokenCountEnabled || PageCountStore.getInstance() != null) {
+                zipper = new PartialCountVolumeTokenCountZipper(auditor, format, compressionLevel, minCount, topK);
+            } else {
+                zipper = new VolumeTokenCountZipper(auditor, format, compressionLevel, minCount, topK);
+            }
             break;
         case PAGE_LEVEL:
-            zipper = new PageTokenCountZipper(auditor);
+            if (PageCountStore.getInstance() != null) {
+                zipper = new PartialCountPageTokenCountZipper(auditor, format, compressionLevel, minCount, topK);
+            } else {
+                zipper = new PageTokenCountZipper(auditor, format, compressionLevel, minCount, topK);
+            }
+            break;
+        case CONSOLIDATED_PAGE_LEVEL:
+            // the pages of a volume are sent as sections of one entry of the volume
+            if (PageCountStore.getInstance() != null) {
+                zipper = new PartialCountPageTokenCountZipper(auditor, format, compressionLevel, minCount, topK, true);
+            } else {
+                zipper = new PageTokenCountZipper(auditor, format, compressionLevel, minCount, topK, true);
+            }
+            break;
+        case COLLECTION_LEVEL:
+            zipper = new CollectionTokenCountZipper(auditor, format, compressionLevel, minCount, topK, collectionCountSpillDir, collectionCountMaxHeapBytes);
+            break;
+        case DOCUMENT_FREQUENCY:
+            zipper = new DocumentFrequencyTokenCountZipper(auditor, format, compressionLevel, minCount, topK, false, collectionCountSpillDir);
+            break;
+        case TFIDF:
+            // the counts of the volumes wait in the spill directory of collection counts until the document frequencies are complete
+            zipper = new DocumentFrequencyTokenCountZipper(auditor, format, compressionLevel, minCount, topK, true, collectionCountSpillDir);
             break;
+        case APPROXIMATE_COLLECTION_LEVEL:
+            zipper = new ApproximateTokenCountZipper(auditor, format, compressionLevel, minCount, topK, approximateCountEpsilon, approximateCountDelta, approximateCountHeavyHitters, approximateCountHllPrecision);
+            break;
+        }
+        return zipper;
+    }
+    
+    /**
+     * Method to create a TokenCountZipper counting n-grams
+     * @param type the TokenCountZipTypeEnum value, which must be VOLUME_LEVEL for n-grams
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest count of the tokens or n-grams sent
+     * @param topK the largest number of tokens or n-grams sent per entry, or 0 for no limit
+     * @param ngram the number of tokens in an n-gram, 1 for plain token counts
+     * @return a TokenCountZipper object
+     */
+    public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK, int ngram) {
+        TokenCountZipper zipper = null;
+        if (ngram > 1) {
+            if (type != TokenCountZipTypeEnum.VOLUME_LEVEL) {
+                throw new IllegalArgumentException("n-grams are only counted at volume level");
+            }
+            // n-grams need the tokens of a volume in order, which the partial counts do not keep
+            zipper = new NgramTokenCountZipper(auditor, format, compressionLevel, minCount, topK, ngram);
+        } else {
+            zipper = newInstance(type, auditor, format, compressionLevel, minCount, topK);
         }
         return zipper;
     }
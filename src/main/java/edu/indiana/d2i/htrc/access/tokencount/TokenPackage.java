@@ -42,6 +42,7 @@ import edu.indiana.d2i.htrc.access.exception.DataAPIException;
 public interface TokenPackage {
     public ContentIdentifier getContentIdentifier();
     public List<String> getTokenList() throws DataAPIException;
+    public TokenSlices getTokenSlices() throws DataAPIException;
 
 }
 
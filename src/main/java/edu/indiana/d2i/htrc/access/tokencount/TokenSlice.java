@@ -0,0 +1,232 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenSlice.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.nio.CharBuffer;
+
+/**
+ * This class is the token a TokenSliceFilter works on.  It starts out as a slice of the byte array of a TokenSlices object, and a filter either
+ * narrows the slice or writes a new token into one of two scratch buffers of this class, so filters can be applied one after another without
+ * allocating anything per token.  One TokenSlice is used for all tokens of a page.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenSlice {
+    
+    protected static final int MIN_BUFFER_SIZE = 64;
+    
+    protected byte[] bytes;
+    protected int offset;
+    protected int length;
+    
+    protected final byte[][] scratch = new byte[2][];
+    protected int current = -1;
+    protected char[] chars = null;
+    protected CharBuffer charView = null;
+    
+    /**
+     * Method to point this object at a token
+     * @param bytes the array holding the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     */
+    public void reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.current = -1;
+    }
+    
+    /**
+     * Method to get the array holding the token
+     * @return the array holding the token
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Method to get the offset of the token in the array
+     * @return the offset of the token
+     */
+    public int getOffset() {
+        return offset;
+    }
+    
+    /**
+     * Method to get the length of the token in bytes
+     * @return the length of the token
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Method to check if the token is in one of the scratch buffers rather than where it started
+     * @return <code>true</code> if the token has been rewritten, <code>false</code> otherwise
+     */
+    public boolean isRewritten() {
+        return current >= 0;
+    }
+    
+    /**
+     * Method to narrow the token to a part of itself
+     * @param offset offset of the part in the array
+     * @param length length of the part in bytes
+     */
+    public void narrow(int offset, int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    /**
+     * Method to get the scratch buffer a filter writes a rewritten token into, which is never the array holding the token
+     * @param capacity the number of bytes needed
+     * @return the scratch buffer
+     */
+    public byte[] getOutputBuffer(int capacity) {
+        int next = (current == 0) ? 1 : 0;
+        if (scratch[next] == null || scratch[next].length < capacity) {
+            scratch[next] = new byte[Math.max(capacity, MIN_BUFFER_SIZE)];
+        }
+        return scratch[next];
+    }
+    
+    /**
+     * Method to make the bytes written into the scratch buffer returned by getOutputBuffer() the token
+     * @param length length of the rewritten token in bytes
+     */
+    public void setOutput(int length) {
+        current = (current == 0) ? 1 : 0;
+        this.bytes = scratch[current];
+        this.offset = 0;
+        this.length = length;
+    }
+    
+    /**
+     * Method to get a char array for decoding the token into
+     * @param capacity the number of chars needed
+     * @return the char array
+     */
+    public char[] getCharBuffer(int capacity) {
+        if (chars == null || chars.length < capacity) {
+            chars = new char[Math.max(capacity, MIN_BUFFER_SIZE)];
+        }
+        return chars;
+    }
+    
+    /**
+     * Method to view the start of the char array returned by getCharBuffer() as a CharSequence
+     * @param length the number of chars to view
+     * @return a CharBuffer over the chars
+     */
+    public CharBuffer getCharView(int length) {
+        if (charView == null || charView.array() != chars) {
+            charView = CharBuffer.wrap(chars);
+        }
+        charView.clear();
+        charView.limit(length);
+        return charView;
+    }
+    
+    /**
+     * Method to get the length of the UTF-8 sequence a byte starts.  A byte that cannot start a sequence is taken as a sequence by itself
+     * @param lead the first byte of the sequence
+     * @return the length of the sequence in bytes
+     */
+    public static int sequenceLength(byte lead) {
+        int value = lead & 0xFF;
+        int sequenceLength = 1;
+        if (value >= 0xF0) {
+            sequenceLength = 4;
+        } else if (value >= 0xE0) {
+            sequenceLength = 3;
+        } else if (value >= 0xC0) {
+            sequenceLength = 2;
+        }
+        return sequenceLength;
+    }
+    
+    /**
+     * Method to decode a UTF-8 sequence
+     * @param bytes the array holding the sequence
+     * @param offset offset of the sequence in the array
+     * @param sequenceLength length of the sequence, as returned by sequenceLength()
+     * @return the code point
+     */
+    public static int decode(byte[] bytes, int offset, int sequenceLength) {
+        int codePoint = 0;
+        switch (sequenceLength) {
+        case 2:
+            codePoint = ((bytes[offset] & 0x1F) << 6) | (bytes[offset + 1] & 0x3F);
+            break;
+        case 3:
+            codePoint = ((bytes[offset] & 0x0F) << 12) | ((bytes[offset + 1] & 0x3F) << 6) | (bytes[offset + 2] & 0x3F);
+            break;
+        case 4:
+            codePoint = ((bytes[offset] & 0x07) << 18) | ((bytes[offset + 1] & 0x3F) << 12) | ((bytes[offset + 2] & 0x3F) << 6) | (bytes[offset + 3] & 0x3F);
+            break;
+        default:
+            codePoint = bytes[offset] & 0xFF;
+        }
+        return codePoint;
+    }
+    
+    /**
+     * Method to encode a code point as UTF-8
+     * @param codePoint the code point
+     * @param buffer the array to write the bytes into
+     * @param position the position in the array to write the bytes at
+     * @return the position after the bytes written
+     */
+    public static int encode(int codePoint, byte[] buffer, int position) {
+        if (codePoint < 0x80) {
+            buffer[position++] = (byte)codePoint;
+        } else if (codePoint < 0x800) {
+            buffer[position++] = (byte)(0xC0 | (codePoint >> 6));
+            buffer[position++] = (byte)(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            buffer[position++] = (byte)(0xE0 | (codePoint >> 12));
+            buffer[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte)(0x80 | (codePoint & 0x3F));
+        } else {
+            buffer[position++] = (byte)(0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte)(0x80 | (codePoint & 0x3F));
+        }
+        return position;
+    }
+
+}
+
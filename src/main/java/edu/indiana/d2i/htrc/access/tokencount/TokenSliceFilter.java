@@ -0,0 +1,58 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenSliceFilter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * Interface of the filters applied to one token at a time by a FusedTokenFilter.  A filter works on the bytes of the token in place, narrowing
+ * it or rewriting it into the scratch buffers of the TokenSlice, and must not keep any state of its own because the same filter is used by
+ * all tokenization threads.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface TokenSliceFilter {
+    
+    /**
+     * Method to get the name of the filter.  The name tells apart filters that work differently, as the stored page counts are keyed by it
+     * @return the name of the filter
+     */
+    public String getName();
+    
+    /**
+     * Method to filter a token
+     * @param token the token
+     * @return <code>true</code> to keep the token, <code>false</code> to drop it
+     */
+    public boolean filter(TokenSlice token);
+
+}
+
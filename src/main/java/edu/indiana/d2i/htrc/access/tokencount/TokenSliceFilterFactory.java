@@ -0,0 +1,92 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenSliceFilterFactory.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+
+/**
+ * This class creates the TokenSliceFilters requested by name
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenSliceFilterFactory {
+    
+    public static final String PN_TOKEN_FILTER_STOP_WORDS = "token.filter.stop.words";
+    
+    protected static final String[] DEFAULT_STOP_WORDS = {"a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+        "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these", "they", "this", "to", "was", "will", "with"};
+    
+    protected static StopWordTokenSliceFilter stopWordFilter = new StopWordTokenSliceFilter(Arrays.asList(DEFAULT_STOP_WORDS));
+    
+    /**
+     * Method to initialize this class
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static void init(ParameterContainer parameterContainer) {
+        String stopWords = parameterContainer.getParameter(PN_TOKEN_FILTER_STOP_WORDS);
+        List<String> stopWordList = new ArrayList<String>();
+        if (stopWords != null) {
+            for (String stopWord : stopWords.split(",")) {
+                if (stopWord.trim().length() > 0) {
+                    stopWordList.add(stopWord.trim());
+                }
+            }
+        }
+        TokenSliceFilterFactory.stopWordFilter = new StopWordTokenSliceFilter(stopWordList.isEmpty() ? Arrays.asList(DEFAULT_STOP_WORDS) : stopWordList);
+    }
+    
+    /**
+     * Method to get a TokenSliceFilter by name.  The filters keep no state, so a filter is shared by all threads tokenizing for a request
+     * @param name name of the filter, one of "lowercase", "nfc", "punctuation" and "stopwords"
+     * @return the TokenSliceFilter, or <code>null</code> if there is no filter of the name
+     */
+    public static TokenSliceFilter getFilter(String name) {
+        TokenSliceFilter filter = null;
+        if (LowercaseTokenSliceFilter.NAME.equalsIgnoreCase(name)) {
+            filter = new LowercaseTokenSliceFilter();
+        } else if (NFCTokenSliceFilter.NAME.equalsIgnoreCase(name)) {
+            filter = new NFCTokenSliceFilter();
+        } else if (PunctuationStripTokenSliceFilter.NAME.equalsIgnoreCase(name)) {
+            filter = new PunctuationStripTokenSliceFilter();
+        } else if (StopWordTokenSliceFilter.NAME.equalsIgnoreCase(name)) {
+            filter = stopWordFilter;
+        }
+        return filter;
+    }
+
+}
+
@@ -0,0 +1,265 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenSlices.java
+# Description:  Holds the tokens of a page as slices of a byte array of UTF-8 text
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class holds the tokens of a page as slices of a byte array of UTF-8 text, so that tokens can be counted without being decoded into Strings.
+ * The slices normally point into the page content itself; a token that has to be joined from two pieces is appended to a private copy of the content
+ * made when the first join happens
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenSlices {
+    
+    protected static final String UTF_8 = "utf-8";
+    protected static final byte HYPHEN_BYTE = '-';
+    
+    protected byte[] bytes;
+    protected int byteLength;
+    protected boolean ownsBytes;
+    protected int[] offsets;
+    protected int[] lengths;
+    protected int size = 0;
+    
+    /**
+     * Constructor
+     * @param content the UTF-8 text the slices point into, which is not modified
+     * @param expectedSize the number of tokens expected, which is only a hint
+     */
+    public TokenSlices(byte[] content, int expectedSize) {
+        this.bytes = content;
+        this.byteLength = content.length;
+        this.ownsBytes = false;
+        int capacity = Math.max(expectedSize, 8);
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+    
+    /**
+     * Method to create TokenSlices from a List of tokens, encoding the tokens as UTF-8
+     * @param tokenList a List of tokens
+     * @return a TokenSlices object holding the tokens
+     */
+    public static TokenSlices fromTokenList(List<String> tokenList) {
+        List<byte[]> encodedTokens = new ArrayList<byte[]>(tokenList.size());
+        int totalLength = 0;
+        try {
+            for (String token : tokenList) {
+                byte[] encodedToken = token.getBytes(UTF_8);
+                encodedTokens.add(encodedToken);
+                totalLength += encodedToken.length;
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] content = new byte[totalLength];
+        TokenSlices tokenSlices = new TokenSlices(content, encodedTokens.size());
+        int offset = 0;
+        for (byte[] encodedToken : encodedTokens) {
+            System.arraycopy(encodedToken, 0, content, offset, encodedToken.length);
+            tokenSlices.add(offset, encodedToken.length);
+            offset += encodedToken.length;
+        }
+        return tokenSlices;
+    }
+    
+    /**
+     * Method to get the number of tokens
+     * @return the number of tokens
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Method to get the byte array the slices point into
+     * @return the byte array
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Method to get the offset of a token in the byte array
+     * @param index index of the token
+     * @return the offset of the token
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+    
+    /**
+     * Method to get the length of a token in bytes
+     * @param index index of the token
+     * @return the length of the token
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+    
+    /**
+     * Method to check if a token ends with a hyphen
+     * @param index index of the token
+     * @return <code>true</code> if the token ends with a hyphen, <code>false</code> otherwise
+     */
+    public boolean endsWithHyphen(int index) {
+        return lengths[index] > 0 && bytes[offsets[index] + lengths[index] - 1] == HYPHEN_BYTE;
+    }
+    
+    /**
+     * Method to decode a token
+     * @param index index of the token
+     * @return the token as a String
+     */
+    public String getToken(int index) {
+        String token = null;
+        try {
+            token = new String(bytes, offsets[index], lengths[index], UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return token;
+    }
+    
+    /**
+     * Method to decode all tokens
+     * @return a List of the tokens as Strings
+     */
+    public List<String> toTokenList() {
+        List<String> tokenList = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            tokenList.add(getToken(i));
+        }
+        return tokenList;
+    }
+    
+    /**
+     * Method to add a token
+     * @param offset offset of the token in the byte array
+     * @param length length of the token in bytes
+     */
+    public void add(int offset, int length) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+    
+    /**
+     * Method to add a token made of two slices of the byte array, e.g. the two halves of a word hyphenated across a line break
+     * @param offset1 offset of the first slice
+     * @param length1 length of the first slice
+     * @param offset2 offset of the second slice
+     * @param length2 length of the second slice
+     */
+    public void addJoined(int offset1, int length1, int offset2, int length2) {
+        int length = length1 + length2;
+        if (!ownsBytes || byteLength + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length + bytes.length / 8, byteLength + length) + 64);
+            ownsBytes = true;
+        }
+        System.arraycopy(bytes, offset1, bytes, byteLength, length1);
+        System.arraycopy(bytes, offset2, bytes, byteLength + length1, length2);
+        add(byteLength, length);
+        byteLength += length;
+    }
+    
+    /**
+     * Method to point a token at another slice of the byte array
+     * @param index index of the token
+     * @param offset offset of the slice
+     * @param length length of the slice in bytes
+     */
+    public void set(int index, int offset, int length) {
+        offsets[index] = offset;
+        lengths[index] = length;
+    }
+    
+    /**
+     * Method to replace a token with bytes that are not in the byte array.  The bytes are copied over the old token if they fit, and appended
+     * otherwise, into the private copy of the content
+     * @param index index of the token
+     * @param source the array holding the new token
+     * @param sourceOffset offset of the new token in the array
+     * @param length length of the new token in bytes
+     */
+    public void replace(int index, byte[] source, int sourceOffset, int length) {
+        if (!ownsBytes || (length > lengths[index] && byteLength + length > bytes.length)) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length + bytes.length / 8, byteLength + length) + 64);
+            ownsBytes = true;
+        }
+        if (length <= lengths[index]) {
+            System.arraycopy(source, sourceOffset, bytes, offsets[index], length);
+            lengths[index] = length;
+        } else {
+            System.arraycopy(source, sourceOffset, bytes, byteLength, length);
+            set(index, byteLength, length);
+            byteLength += length;
+        }
+    }
+    
+    /**
+     * Method to drop the tokens from an index on
+     * @param newSize the number of tokens to keep
+     */
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = newSize;
+        }
+    }
+    
+    /**
+     * Method to remove the empty tokens, keeping the order of the others
+     */
+    public void removeEmpty() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] > 0) {
+                offsets[kept] = offsets[i];
+                lengths[kept] = lengths[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+}
+
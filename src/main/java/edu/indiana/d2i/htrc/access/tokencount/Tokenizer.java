@@ -42,5 +42,13 @@ import edu.indiana.d2i.htrc.access.VolumeRetriever;
 public interface Tokenizer {
     public static final String HYPHEN = "-";
     public Iterator<TokenPackage> tokenize(VolumeRetriever volumeRetriever);
+    
+    /**
+     * Method to tokenize the pages of the volumes and filter the tokens of each page, both done by the tokenizer rather than by the caller
+     * @param volumeRetriever the VolumeRetriever of the volumes
+     * @param tokenFilter the TokenFilter to apply to the tokens of each page
+     * @return an Iterator over the TokenPackages of the filtered tokens
+     */
+    public Iterator<TokenPackage> tokenize(VolumeRetriever volumeRetriever, TokenFilter tokenFilter);
 }
 
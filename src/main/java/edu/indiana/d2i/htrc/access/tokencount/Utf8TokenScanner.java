@@ -0,0 +1,241 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  Utf8TokenScanner.java
+# Description:  Tokenizes the UTF-8 text of a page by scanning its bytes
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+/**
+ * This class tokenizes the UTF-8 text of a page by scanning its bytes, the same way SimpleTokenizer tokenizes the decoded lines of the page: tokens
+ * are separated by space, tab, form feed and line breaks, control characters are trimmed off both ends of a token, and the last token of a line with
+ * more than one token is joined with the first token of the next non-blank line if it ends with a hyphen.  Every delimiter is an ASCII byte, and bytes
+ * of multi-byte UTF-8 sequences are never ASCII, so scanning bytes finds the same tokens as scanning characters.  Pages that are not well-formed UTF-8
+ * are left to the character based tokenization, which replaces malformed sequences while decoding.  Given a FusedTokenFilter, the scanner filters each
+ * token as soon as it is found, so the tokens of the page are gone over once rather than once more per filter.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class Utf8TokenScanner {
+    
+    protected static final byte CLASS_TOKEN = 0;
+    // control characters other than the delimiters are not delimiters, but String.trim() removes them from both ends of a token
+    protected static final byte CLASS_TRIMMED = 1;
+    protected static final byte CLASS_DELIMITER = 2;
+    protected static final byte CLASS_LINE_END = 3;
+    
+    protected static final byte[] BYTE_CLASSES = new byte[256];
+    
+    static {
+        for (int b = 0; b <= ' '; b++) {
+            BYTE_CLASSES[b] = CLASS_TRIMMED;
+        }
+        BYTE_CLASSES[' '] = CLASS_DELIMITER;
+        BYTE_CLASSES['\t'] = CLASS_DELIMITER;
+        BYTE_CLASSES['\f'] = CLASS_DELIMITER;
+        BYTE_CLASSES['\n'] = CLASS_LINE_END;
+        BYTE_CLASSES['\r'] = CLASS_LINE_END;
+    }
+    
+    /**
+     * Method to tokenize the UTF-8 text of a page
+     * @param content the UTF-8 text of the page
+     * @return a TokenSlices object holding the tokens, or <code>null</code> if the content is not well-formed UTF-8
+     */
+    public static TokenSlices scan(byte[] content) {
+        return scan(content, null);
+    }
+    
+    /**
+     * Method to tokenize the UTF-8 text of a page, filtering each token as it is found.  Empty tokens and the tokens the FusedTokenFilter drops are not
+     * added, and the tokens it rewrites are added rewritten, so the tokens are the same as those left by filtering the tokens of scan(byte[]) with it
+     * @param content the UTF-8 text of the page
+     * @param fusedTokenFilter the FusedTokenFilter to apply to each token, or <code>null</code> to add every token as it is, empty or not
+     * @return a TokenSlices object holding the tokens, or <code>null</code> if the content is not well-formed UTF-8
+     */
+    public static TokenSlices scan(byte[] content, FusedTokenFilter fusedTokenFilter) {
+        TokenSlices tokenSlices = null;
+        if (isWellFormed(content)) {
+            // OCR text averages a little over 6 bytes per token including the delimiter
+            tokenSlices = new TokenSlices(content, content.length / 6);
+            int length = content.length;
+            int hangingOffset = -1;
+            int hangingLength = 0;
+            int pendingOffset = 0;
+            int pendingLength = 0;
+            int lineTokenCount = 0;
+            int position = 0;
+            TokenSlice token = (fusedTokenFilter != null) ? new TokenSlice() : null;
+            
+            while (position <= length) {
+                int byteClass = (position < length) ? BYTE_CLASSES[content[position] & 0xff] : CLASS_LINE_END;
+                if (byteClass == CLASS_LINE_END) {
+                    // the pending token is the last token of the line
+                    if (lineTokenCount == 1) {
+                        if (hangingOffset >= 0) {
+                            addJoined(tokenSlices, hangingOffset, hangingLength, pendingOffset, pendingLength, fusedTokenFilter, token);
+                            hangingOffset = -1;
+                        } else {
+                            add(tokenSlices, pendingOffset, pendingLength, fusedTokenFilter, token);
+                        }
+                    } else if (lineTokenCount > 1) {
+                        if (pendingLength > 0 && content[pendingOffset + pendingLength - 1] == TokenSlices.HYPHEN_BYTE) {
+                            hangingOffset = pendingOffset;
+                            hangingLength = pendingLength;
+                        } else {
+                            add(tokenSlices, pendingOffset, pendingLength, fusedTokenFilter, token);
+                        }
+                    }
+                    lineTokenCount = 0;
+                    position++;
+                } else if (byteClass == CLASS_DELIMITER) {
+                    position++;
+                } else {
+                    int start = position;
+                    position++;
+                    // token bytes and trimmed bytes both sort below the delimiters
+                    while (position < length && BYTE_CLASSES[content[position] & 0xff] < CLASS_DELIMITER) {
+                        position++;
+                    }
+                    int end = position;
+                    while (start < end && BYTE_CLASSES[content[start] & 0xff] == CLASS_TRIMMED) {
+                        start++;
+                    }
+                    while (end > start && BYTE_CLASSES[content[end - 1] & 0xff] == CLASS_TRIMMED) {
+                        end--;
+                    }
+                    
+                    // the previous token of the line is not the last one, so it can be added now
+                    if (lineTokenCount == 1) {
+                        if (hangingOffset >= 0) {
+                            addJoined(tokenSlices, hangingOffset, hangingLength, pendingOffset, pendingLength, fusedTokenFilter, token);
+                            hangingOffset = -1;
+                        } else {
+                            add(tokenSlices, pendingOffset, pendingLength, fusedTokenFilter, token);
+                        }
+                    } else if (lineTokenCount > 1) {
+                        add(tokenSlices, pendingOffset, pendingLength, fusedTokenFilter, token);
+                    }
+                    pendingOffset = start;
+                    pendingLength = end - start;
+                    lineTokenCount++;
+                }
+            }
+            
+            if (hangingOffset >= 0) {
+                add(tokenSlices, hangingOffset, hangingLength, fusedTokenFilter, token);
+            }
+        }
+        return tokenSlices;
+    }
+    
+    protected static void add(TokenSlices tokenSlices, int offset, int length, FusedTokenFilter fusedTokenFilter, TokenSlice token) {
+        if (fusedTokenFilter == null) {
+            tokenSlices.add(offset, length);
+        } else if (length > 0) {
+            tokenSlices.add(offset, length);
+            filterLast(tokenSlices, fusedTokenFilter, token);
+        }
+    }
+    
+    protected static void addJoined(TokenSlices tokenSlices, int offset1, int length1, int offset2, int length2, FusedTokenFilter fusedTokenFilter, TokenSlice token) {
+        tokenSlices.addJoined(offset1, length1, offset2, length2);
+        if (fusedTokenFilter != null) {
+            filterLast(tokenSlices, fusedTokenFilter, token);
+        }
+    }
+    
+    // the same as FusedTokenFilter does for each token of a TokenSlices object, but for the token just added, which is dropped again if filtered out.
+    // a rewritten token is copied into the private copy of the content, never over bytes the scanner has yet to read, which are in the content itself
+    // or, for the halves of a joined token, outside of the tokens added so far
+    protected static void filterLast(TokenSlices tokenSlices, FusedTokenFilter fusedTokenFilter, TokenSlice token) {
+        int index = tokenSlices.size() - 1;
+        token.reset(tokenSlices.getBytes(), tokenSlices.getOffset(index), tokenSlices.getLength(index));
+        if (!fusedTokenFilter.filter(token)) {
+            tokenSlices.truncate(index);
+        } else if (token.isRewritten()) {
+            tokenSlices.replace(index, token.getBytes(), token.getOffset(), token.getLength());
+        } else {
+            tokenSlices.set(index, token.getOffset(), token.getLength());
+        }
+    }
+    
+    /**
+     * Method to check if a byte array is well-formed UTF-8, i.e. if decoding it would not replace any sequence.  Overlong forms, surrogates and code
+     * points above U+10FFFF are malformed
+     * @param content the byte array
+     * @return <code>true</code> if the byte array is well-formed UTF-8, <code>false</code> otherwise
+     */
+    public static boolean isWellFormed(byte[] content) {
+        boolean wellFormed = true;
+        int length = content.length;
+        int position = 0;
+        while (position < length && wellFormed) {
+            int lead = content[position] & 0xff;
+            if (lead < 0x80) {
+                position++;
+            } else {
+                int sequenceLength = 0;
+                int min = 0x80;
+                int max = 0xbf;
+                if (lead >= 0xc2 && lead <= 0xdf) {
+                    sequenceLength = 2;
+                } else if (lead >= 0xe0 && lead <= 0xef) {
+                    sequenceLength = 3;
+                    if (lead == 0xe0) {
+                        min = 0xa0;
+                    } else if (lead == 0xed) {
+                        max = 0x9f;
+                    }
+                } else if (lead >= 0xf0 && lead <= 0xf4) {
+                    sequenceLength = 4;
+                    if (lead == 0xf0) {
+                        min = 0x90;
+                    } else if (lead == 0xf4) {
+                        max = 0x8f;
+                    }
+                }
+                wellFormed = sequenceLength > 0 && position + sequenceLength <= length;
+                if (wellFormed) {
+                    // only the second byte has a narrowed range
+                    int second = content[position + 1] & 0xff;
+                    wellFormed = second >= min && second <= max;
+                    for (int i = 2; i < sequenceLength && wellFormed; i++) {
+                        int next = content[position + i] & 0xff;
+                        wellFormed = next >= 0x80 && next <= 0xbf;
+                    }
+                }
+                position += sequenceLength;
+            }
+        }
+        return wellFormed;
+    }
+
+}
+
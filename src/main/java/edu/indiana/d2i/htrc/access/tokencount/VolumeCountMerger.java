@@ -0,0 +1,218 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeCountMerger.java
+# Description:  Merges the partial token counts of the batches of a volume in any order
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class merges the PartialTokenCount objects of the batches of one volume, which may arrive in any order.  The counts of a batch are merged as soon
+ * as it arrives, and the first token of a batch is counted as soon as the word it may have to be joined with is known, i.e. once the previous batch has
+ * arrived, or once all batches back to the previous one with any tokens have arrived.  The result is the same as counting the pages in order, except
+ * for the order in which tokens enter the map; if that order matters, e.g. for the DEFAULT order, the batches can be merged in order instead
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class VolumeCountMerger {
+    
+    protected final boolean ordered;
+    protected final boolean retainBatches;
+    protected final TokenCountMap map;
+    protected ContentIdentifier contentIdentifier = null;
+    protected PartialTokenCount[] batches;
+    protected final List<List<String>> pageSequenceIDs;
+    // carriedWords[i] is the hyphenated word carried into batch i, valid if carriedWordKnown[i]
+    protected byte[][] carriedWords;
+    protected boolean[] carriedWordKnown;
+    protected boolean[] stitched;
+    protected int batchCount = -1;
+    protected int stitchedCount = 0;
+    
+    /**
+     * Constructor
+     * @param ordered if <code>true</code>, batches are merged in order so that tokens enter the map in the order they are read
+     */
+    public VolumeCountMerger(boolean ordered) {
+        this(ordered, false);
+    }
+    
+    /**
+     * Constructor
+     * @param ordered if <code>true</code>, batches are merged in order so that tokens enter the map in the order they are read
+     * @param retainBatches if <code>true</code>, the PartialTokenCount objects are kept after they are merged so that they can be returned by getBatches()
+     */
+    public VolumeCountMerger(boolean ordered, boolean retainBatches) {
+        this.ordered = ordered;
+        this.retainBatches = retainBatches;
+        this.map = new TokenCountMap();
+        this.batches = new PartialTokenCount[8];
+        this.pageSequenceIDs = new ArrayList<List<String>>();
+        this.carriedWords = new byte[9][];
+        this.carriedWordKnown = new boolean[9];
+        this.stitched = new boolean[8];
+        this.carriedWordKnown[0] = true;
+    }
+    
+    /**
+     * Method to add the counts of a batch of the volume
+     * @param partialTokenCount the PartialTokenCount of the batch, which must carry a ContentIdentifier
+     */
+    public void add(PartialTokenCount partialTokenCount) {
+        int batchIndex = partialTokenCount.getBatchIndex();
+        ensureCapacity(batchIndex + 1);
+        if (contentIdentifier == null) {
+            contentIdentifier = partialTokenCount.getContentIdentifier();
+        }
+        batches[batchIndex] = partialTokenCount;
+        while (pageSequenceIDs.size() <= batchIndex) {
+            pageSequenceIDs.add(null);
+        }
+        pageSequenceIDs.set(batchIndex, partialTokenCount.getPageSequenceIDs());
+        if (partialTokenCount.isLastBatch()) {
+            batchCount = batchIndex + 1;
+        }
+        
+        if (!ordered) {
+            map.addAll(partialTokenCount.map);
+            // a batch with tokens decides the word carried into the next batch no matter what is carried into it
+            if (partialTokenCount.getLeadingToken() != null) {
+                carriedWords[batchIndex + 1] = partialTokenCount.getTrailingHyphenatedWord();
+                carriedWordKnown[batchIndex + 1] = true;
+            }
+        }
+        stitch(batchIndex);
+        stitch(batchIndex + 1);
+    }
+    
+    /**
+     * Method to check if all batches of the volume have been merged
+     * @return <code>true</code> if all batches have been merged, <code>false</code> otherwise
+     */
+    public boolean isComplete() {
+        return batchCount >= 0 && stitchedCount == batchCount;
+    }
+    
+    /**
+     * Method to get the ContentIdentifier of a page of the volume
+     * @return a ContentIdentifier object
+     */
+    public ContentIdentifier getContentIdentifier() {
+        return contentIdentifier;
+    }
+    
+    /**
+     * Method to get the page sequence IDs of the volume in order, which is only valid once the volume is complete
+     * @return an array of page sequence IDs
+     */
+    public String[] getPageSequenceIDs() {
+        List<String> volumePageSequenceIDs = new ArrayList<String>();
+        for (int i = 0; i < batchCount; i++) {
+            volumePageSequenceIDs.addAll(pageSequenceIDs.get(i));
+        }
+        return volumePageSequenceIDs.toArray(new String[0]);
+    }
+    
+    /**
+     * Method to get the token counts of the volume, which is only valid once the volume is complete.  A hyphenated word left over at the end of the volume
+     * is counted as it is
+     * @return a TokenCountMap object
+     */
+    public TokenCountMap getMap() {
+        byte[] lastWord = carriedWords[batchCount];
+        if (lastWord != null) {
+            map.increment(lastWord, 0, lastWord.length);
+            carriedWords[batchCount] = null;
+        }
+        return map;
+    }
+    
+    /**
+     * Method to get the PartialTokenCount objects of the volume in order, which is only valid once the volume is complete and if the batches are retained
+     * @return a List of PartialTokenCount objects
+     */
+    public List<PartialTokenCount> getBatches() {
+        return Arrays.asList(batches).subList(0, batchCount);
+    }
+    
+    protected void stitch(int batchIndex) {
+        int index = batchIndex;
+        boolean done = false;
+        while (!done) {
+            if (index < batches.length && !stitched[index] && batches[index] != null && carriedWordKnown[index]) {
+                PartialTokenCount partialTokenCount = batches[index];
+                byte[] leadingToken = partialTokenCount.getLeadingToken();
+                byte[] carriedWord = carriedWords[index];
+                if (leadingToken != null) {
+                    if (carriedWord != null) {
+                        byte[] pendingFullWord = Arrays.copyOf(carriedWord, carriedWord.length + leadingToken.length);
+                        System.arraycopy(leadingToken, 0, pendingFullWord, carriedWord.length, leadingToken.length);
+                        map.increment(pendingFullWord, 0, pendingFullWord.length);
+                    } else {
+                        map.increment(leadingToken, 0, leadingToken.length);
+                    }
+                }
+                if (ordered) {
+                    map.addAll(partialTokenCount.map);
+                }
+                stitched[index] = true;
+                stitchedCount++;
+                ensureCapacity(index + 2);
+                if (!carriedWordKnown[index + 1]) {
+                    // a batch without tokens passes on the word carried into it
+                    carriedWords[index + 1] = (leadingToken != null) ? partialTokenCount.getTrailingHyphenatedWord() : carriedWord;
+                    carriedWordKnown[index + 1] = true;
+                }
+                // unless the batches are retained, only the page sequence IDs of a stitched batch are kept
+                if (!retainBatches) {
+                    batches[index] = null;
+                }
+                index++;
+            } else {
+                done = true;
+            }
+        }
+    }
+    
+    protected void ensureCapacity(int batchSlots) {
+        if (batchSlots > batches.length) {
+            int capacity = Math.max(batchSlots, batches.length * 2);
+            batches = Arrays.copyOf(batches, capacity);
+            stitched = Arrays.copyOf(stitched, capacity);
+            carriedWords = Arrays.copyOf(carriedWords, capacity + 1);
+            carriedWordKnown = Arrays.copyOf(carriedWordKnown, capacity + 1);
+        }
+    }
+
+}
+
@@ -33,18 +33,19 @@ package edu.indiana.d2i.htrc.access.tokencount;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.zip.Deflater;
-import java.util.zip.ZipOutputStream;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import gov.loc.repository.pairtree.Pairtree;
@@ -56,10 +57,34 @@ import gov.loc.repository.pairtree.Pairtree;
 public class VolumeTokenCountZipper implements TokenCountZipper {
     
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final FormatEnum format;
+    protected final int minCount;
+    protected final int topK;
     protected static final String TOKEN_COUNT_ACCESSED_ACTION = "TOKEN_COUNT_ACCESSED";
     
     public VolumeTokenCountZipper(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+    
+    public VolumeTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel) {
+        this(auditor, format, compressionLevel, 1, 0);
+    }
+    
+    /**
+     * Constructor
+     * @param auditor an Auditor object
+     * @param format the output format
+     * @param compressionLevel the compression level of the output
+     * @param minCount the smallest count of the tokens sent
+     * @param topK the largest number of tokens sent per entry, chosen by descending count, or 0 for no limit
+     */
+    public VolumeTokenCountZipper(Auditor auditor, FormatEnum format, int compressionLevel, int minCount, int topK) {
         this.auditor = auditor;
+        this.format = format;
+        this.compressionLevel = compressionLevel;
+        this.minCount = minCount;
+        this.topK = topK;
     }
 
     /**
@@ -72,18 +97,19 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
         Pairtree pairtree = new Pairtree();
         ContentIdentifier currentIdentifier = null;
         List<String> currentPageSequences = null;
-        String hyphenedLastWord = null;
+        // the hyphenedLastWord is kept as UTF-8 bytes, with a length of -1 when there is none
+        byte[] hyphenedLastWord = new byte[64];
+        int hyphenedLastWordLength = -1;
         ContentIdentifier identifier = null;
-        Map<String, Count> map = null; 
+        TokenCountMap map = new TokenCountMap(); 
         List<Exception> exceptionList = new LinkedList<Exception>();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
         
-        Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever);
+        Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever, tokenFilter);
         
         while (iterator.hasNext()) {
 			try {
-				TokenPackage tokenPackage = tokenFilter.filter(iterator.next());
+				TokenPackage tokenPackage = iterator.next();
 				identifier = tokenPackage.getContentIdentifier();
 
 				// TODO need to return more error info
@@ -101,51 +127,53 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
 								currentPageSequences.toArray(new String[0]));
 						// the hyphenedLastWord is the last word on a page that ends with a hyphen. When we encounter such a word, we usually cannot token count it, because we must combine it with the
 	                    // first word from the following page to make a token, unless the following page belongs to a different volume (which is the case here)
-						if (hyphenedLastWord != null) {
-							TokenCountZipperFactory.Helper.countToken(
-									hyphenedLastWord, map);
-							hyphenedLastWord = null;
+						if (hyphenedLastWordLength >= 0) {
+							countToken(hyphenedLastWord, 0, hyphenedLastWordLength, map);
+							hyphenedLastWordLength = -1;
 						}
 						String entryName = currentIdentifier.getPrefix()
 								+ "."
 								+ pairtree.cleanId(currentIdentifier
 										.getHeadlessID()) + ".count";
-						TokenCountZipperFactory.Helper.sendEntry(map,
-								entryName, zipOutputStream, comparator);
+						sendVolumeEntry(map, entryName, archiveWriter, comparator);
 					}
-					map = new HashMap<String, Count>();
+					map.clear();
 					currentIdentifier = identifier;
 					currentPageSequences = new LinkedList<String>();
 				}
 
 				currentPageSequences.add(identifier.getPageSequenceID());
 
-				List<String> tokenList = tokenPackage.getTokenList();
-				int size = tokenList.size();
+				TokenSlices tokenSlices = tokenPackage.getTokenSlices();
+				byte[] bytes = tokenSlices.getBytes();
+				int size = tokenSlices.size();
 				if (size > 0) {
-					if (hyphenedLastWord != null) {
-						String pendingFullWord = hyphenedLastWord
-								+ tokenList.get(0);
-						TokenCountZipperFactory.Helper.countToken(
-								pendingFullWord, map);
-						hyphenedLastWord = null;
+					if (hyphenedLastWordLength >= 0) {
+						int pendingFullWordLength = hyphenedLastWordLength + tokenSlices.getLength(0);
+						if (pendingFullWordLength > hyphenedLastWord.length) {
+							hyphenedLastWord = Arrays.copyOf(hyphenedLastWord, pendingFullWordLength);
+						}
+						System.arraycopy(bytes, tokenSlices.getOffset(0), hyphenedLastWord, hyphenedLastWordLength, tokenSlices.getLength(0));
+						countToken(hyphenedLastWord, 0, pendingFullWordLength, map);
+						hyphenedLastWordLength = -1;
 					} else {
-						TokenCountZipperFactory.Helper.countToken(
-								tokenList.get(0), map);
+						countToken(bytes, tokenSlices.getOffset(0), tokenSlices.getLength(0), map);
 					}
 				}
 
 				for (int i = 1; i < size - 1; i++) {
-					TokenCountZipperFactory.Helper.countToken(tokenList.get(i),
-							map);
+					countToken(bytes, tokenSlices.getOffset(i), tokenSlices.getLength(i), map);
 				}
 
 				if (size > 1) {
-					String string = tokenList.get(size - 1);
-					if (string.endsWith(Tokenizer.HYPHEN)) {
-						hyphenedLastWord = string;
+					if (tokenSlices.endsWithHyphen(size - 1)) {
+						hyphenedLastWordLength = tokenSlices.getLength(size - 1);
+						if (hyphenedLastWordLength > hyphenedLastWord.length) {
+							hyphenedLastWord = new byte[hyphenedLastWordLength * 2];
+						}
+						System.arraycopy(bytes, tokenSlices.getOffset(size - 1), hyphenedLastWord, 0, hyphenedLastWordLength);
 					} else {
-						TokenCountZipperFactory.Helper.countToken(string, map);
+						countToken(bytes, tokenSlices.getOffset(size - 1), tokenSlices.getLength(size - 1), map);
 					}
 				}
 			} catch (Exception e) {
@@ -156,20 +184,55 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
         // wrap up what's remaining
         if (currentIdentifier != null) {
             auditor.audit(TOKEN_COUNT_ACCESSED_ACTION, currentIdentifier.getVolumeID(), currentPageSequences.toArray(new String[0]));
-            if (hyphenedLastWord != null) {  
-                TokenCountZipperFactory.Helper.countToken(hyphenedLastWord, map);
-                hyphenedLastWord = null;
+            if (hyphenedLastWordLength >= 0) {  
+                countToken(hyphenedLastWord, 0, hyphenedLastWordLength, map);
+                hyphenedLastWordLength = -1;
             }
             String entryName = currentIdentifier.getPrefix() + "." + pairtree.cleanId(currentIdentifier.getHeadlessID()) + ".count";
-            TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
+            sendVolumeEntry(map, entryName, archiveWriter, comparator);
         }
         
+        finishEntries(archiveWriter, comparator);
+        
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, false, exceptionList);
         }
 
-        zipOutputStream.close();
+        archiveWriter.close();
     }
     
+    /**
+     * Method to count a token of a volume.  The tokens of a volume are counted in the order they appear in, with words hyphenated across pages
+     * counted once joined
+     * @param bytes the array holding the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     * @param map the token counts of the volume
+     */
+    protected void countToken(byte[] bytes, int offset, int length, TokenCountMap map) {
+        map.increment(bytes, offset, length);
+    }
+    
+    /**
+     * Method to send the token counts of a volume
+     * @param map the token counts of the volume
+     * @param entryName the name of the entry for the volume
+     * @param archiveWriter the ArchiveWriter to write the entry to
+     * @param comparator the Comparator giving the order of the tokens
+     * @throws IOException thrown if the entry cannot be written
+     */
+    protected void sendVolumeEntry(TokenCountMap map, String entryName, ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+        TokenCountZipperFactory.Helper.sendEntry(map, entryName, archiveWriter, comparator, minCount, topK);
+    }
+    
+    /**
+     * Method called after the counts of all volumes are sent and before any error entry is written, which sends nothing more by default
+     * @param archiveWriter the ArchiveWriter
+     * @param comparator the Comparator giving the order of the tokens
+     * @throws IOException thrown if an entry cannot be written
+     */
+    protected void finishEntries(ArchiveWriter archiveWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+    }
+
 }
 
@@ -0,0 +1,84 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AbstractIncrementalZipMaker.java
+# Description:  Base class of the IncrementalZipMaker implementations
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.IncrementalZipMaker;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+
+/**
+ * This abstract class implements makeZipFile() of the IncrementalZipMaker implementations by pulling the volumes from the VolumeRetriever, so that a
+ * zip file made in one go is identical to one made one volume at a time
+ * 
+ * @author Yiming Sun
+ *
+ */
+public abstract class AbstractIncrementalZipMaker implements IncrementalZipMaker {
+
+    private static Logger log = Logger.getLogger(AbstractIncrementalZipMaker.class);
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
+     */
+    @Override
+    public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        open(outputStream, volumeRetriever);
+        while (volumeRetriever.hasMoreVolumes()) {
+            try {
+                VolumeReader volumeReader = volumeRetriever.nextVolume();
+                if (volumeReader != null) {
+                    append(volumeReader);
+                }
+            } catch (KeyNotFoundException e) {
+                log.error("KeyNotFoundException", e);
+                appendException(e);
+            } catch (PolicyViolationException e) {
+                log.error("PolicyViolationException", e);
+                appendException(e);
+            } catch (RepositoryException e) {
+                log.error("RepositoryException", e);
+                appendException(e);
+            }
+        }
+        close();
+    }
+
+}
+
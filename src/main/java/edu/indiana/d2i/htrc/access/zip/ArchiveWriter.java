@@ -0,0 +1,109 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArchiveWriter.java
+# Description:  This abstract class defines the entry-oriented output stream that ZipMaker and TokenCountZipper implementations write to
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This abstract class defines the entry-oriented output stream that ZipMaker and TokenCountZipper implementations write to.  Content written between a call to
+ * putNextEntry() and the matching call to closeEntry() becomes the content of that entry.  Implementations decide how the entries are framed and compressed.
+ *
+ * @author Yiming Sun
+ *
+ */
+public abstract class ArchiveWriter extends OutputStream {
+
+    /**
+     * This class is the buffer that collects the content of one entry, exposing its internal array so the content does not have to be copied again
+     * @author Yiming Sun
+     *
+     */
+    protected static class EntryBuffer extends ByteArrayOutputStream {
+        protected EntryBuffer(int size) {
+            super(size);
+        }
+        protected byte[] array() {
+            return buf;
+        }
+        protected int length() {
+            return count;
+        }
+    }
+
+    /**
+     * Method to start a new entry.  If an entry is still open it is closed first, the same way ZipOutputStream behaves
+     * @param entryName name of the new entry
+     * @throws IOException thrown if the entry cannot be started
+     */
+    public abstract void putNextEntry(String entryName) throws IOException;
+
+    /**
+     * Method to close the current entry
+     * @throws IOException thrown if the entry cannot be closed
+     */
+    public abstract void closeEntry() throws IOException;
+
+    /**
+     * Method to finish writing the archive without closing the underlying OutputStream
+     * @throws IOException thrown if the trailing archive structures cannot be written
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public abstract void write(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    /**
+     * Convenience method to write a complete entry in one call
+     * @param entryName name of the entry
+     * @param content content of the entry
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void writeEntry(String entryName, byte[] content) throws IOException {
+        putNextEntry(entryName);
+        write(content, 0, content.length);
+        closeEntry();
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArchiveWriterFactory.java
+# Description:  This class is a factory for ArchiveWriter implementations, and it also negotiates the compression level of a request
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
+
+/**
+ * This class is a factory for ArchiveWriter implementations, and it also negotiates the output format and the compression level of a request.  Zip remains
+ * the default format; tar and newline-delimited JSON, plain or framed as gzip members, can be used entry by entry while they stream.  Uncompressed zip output always goes
+ * through StandardZipArchiveWriter so it stays byte-for-byte what the service has always produced, unless StoredZipArchiveWriter is enabled, which skips the
+ * Deflater and the data descriptors and batches small entries into large writes.  Compressed output goes through
+ * ParallelDeflateZipArchiveWriter when a compression thread pool is available, and through StandardZipArchiveWriter on the calling thread otherwise.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ArchiveWriterFactory {
+
+    /**
+     * This enum is for the output formats a response can be written in
+     * @author Yiming Sun
+     *
+     */
+    public static enum FormatEnum {
+        ZIP("zip", Constants.CONTENT_TYPE_APPLICATION_ZIP, ".zip", false, false),
+        TAR("tar", Constants.CONTENT_TYPE_APPLICATION_X_TAR, ".tar", false, false),
+        TAR_GZIP("tar.gz", Constants.CONTENT_TYPE_APPLICATION_GZIP, ".tar.gz", true, false),
+        NDJSON("ndjson", Constants.CONTENT_TYPE_APPLICATION_X_NDJSON, ".ndjson", false, false),
+        NDJSON_GZIP("ndjson.gz", Constants.CONTENT_TYPE_APPLICATION_GZIP, ".ndjson.gz", true, false),
+        ARROW("arrow", Constants.CONTENT_TYPE_APPLICATION_VND_APACHE_ARROW_STREAM, ".arrows", false, true);
+
+        private final String parameterValue;
+        private final String contentType;
+        private final String fileExtension;
+        private final boolean gzipFramed;
+        private final boolean countsOnly;
+
+        private FormatEnum(String parameterValue, String contentType, String fileExtension, boolean gzipFramed, boolean countsOnly) {
+            this.parameterValue = parameterValue;
+            this.contentType = contentType;
+            this.fileExtension = fileExtension;
+            this.gzipFramed = gzipFramed;
+            this.countsOnly = countsOnly;
+        }
+
+        /**
+         * Method to get the value of the format parameter that selects this format
+         * @return the value of the format parameter that selects this format
+         */
+        public String getParameterValue() {
+            return parameterValue;
+        }
+
+        /**
+         * Method to get the value of the Content-Type header for this format
+         * @return the value of the Content-Type header for this format
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Method to get the value of the Content-Disposition header for this format
+         * @param baseName the file name without extension, e.g. "volumes"
+         * @return the value of the Content-Disposition header
+         */
+        public String getContentDisposition(String baseName) {
+            return "filename=\"" + baseName + fileExtension + "\"";
+        }
+
+        /**
+         * Method to tell if each record of this format is a separate gzip member
+         * @return <code>true</code> if each record of this format is a separate gzip member, <code>false</code> otherwise
+         */
+        public boolean isGzipFramed() {
+            return gzipFramed;
+        }
+
+        /**
+         * Method to tell if this format can only hold token counts, and not pages or metadata
+         * @return <code>true</code> if this format can only hold token counts, <code>false</code> otherwise
+         */
+        public boolean isCountsOnly() {
+            return countsOnly;
+        }
+    }
+
+    public static final String PN_MAX_COMPRESSION_LEVEL = "max.compression.level";
+    public static final String PN_MAX_PENDING_COMPRESSION_ENTRIES = "max.pending.compression.entries";
+    public static final String PN_STORED_ZIP_WRITER_ENABLED = "stored.zip.writer.enabled";
+
+    public static final String COMPRESSION_PARAMETER_NAME = "compression";
+    public static final String FORMAT_PARAMETER_NAME = "format";
+
+    protected static final int DEFAULT_MAX_PENDING_COMPRESSION_ENTRIES = 16;
+    protected static final int DEFAULT_GZIP_COMPRESSION_LEVEL = 6;
+
+    protected static int maxCompressionLevel = Deflater.BEST_COMPRESSION;
+    protected static int maxPendingCompressionEntries = DEFAULT_MAX_PENDING_COMPRESSION_ENTRIES;
+    protected static ExecutorService compressionExecutorService = null;
+    protected static boolean storedZipWriterEnabled = false;
+
+    /**
+     * Method to initialize this class
+     * @param parameterContainer a ParameterContainer object
+     * @param compressionExecutorService an ExecutorService on which entries are compressed, or <code>null</code> to compress on the calling thread
+     */
+    public static void init(ParameterContainer parameterContainer, ExecutorService compressionExecutorService) {
+        String maxLevel = parameterContainer.getParameter(PN_MAX_COMPRESSION_LEVEL);
+        if (maxLevel != null) {
+            ArchiveWriterFactory.maxCompressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, Integer.parseInt(maxLevel.trim())));
+        }
+        String maxPending = parameterContainer.getParameter(PN_MAX_PENDING_COMPRESSION_ENTRIES);
+        if (maxPending != null) {
+            ArchiveWriterFactory.maxPendingCompressionEntries = Integer.parseInt(maxPending.trim());
+        }
+        String storedZipWriter = parameterContainer.getParameter(PN_STORED_ZIP_WRITER_ENABLED);
+        ArchiveWriterFactory.storedZipWriterEnabled = storedZipWriter != null && Boolean.parseBoolean(storedZipWriter.trim());
+        ArchiveWriterFactory.compressionExecutorService = compressionExecutorService;
+    }
+
+    /**
+     * Method to turn the value of the compression parameter into the compression level used for the response.  Accepted values are the digits 0 to 9, and the
+     * names "none", "fast", "default" and "best".  The level requested by the client is lowered to the maximum level the service is configured to allow.
+     * @param requested the value of the compression parameter, may be <code>null</code>
+     * @return the negotiated compression level, Deflater.NO_COMPRESSION if the parameter is absent
+     * @throws InvalidParameterValueException thrown if the value is not recognized
+     */
+    public static int negotiateCompressionLevel(String requested) throws InvalidParameterValueException {
+        int level = Deflater.NO_COMPRESSION;
+        if (requested != null) {
+            String value = requested.trim().toLowerCase();
+            if (value.length() == 0 || "none".equals(value) || "store".equals(value)) {
+                level = Deflater.NO_COMPRESSION;
+            } else if ("fast".equals(value)) {
+                level = Deflater.BEST_SPEED;
+            } else if ("default".equals(value) || "deflate".equals(value)) {
+                level = 6;
+            } else if ("best".equals(value)) {
+                level = Deflater.BEST_COMPRESSION;
+            } else if (value.length() == 1 && value.charAt(0) >= '0' && value.charAt(0) <= '9') {
+                level = value.charAt(0) - '0';
+            } else {
+                throw new InvalidParameterValueException(COMPRESSION_PARAMETER_NAME, requested);
+            }
+        }
+        return Math.min(level, maxCompressionLevel);
+    }
+
+    /**
+     * Method to turn the value of the compression parameter into the compression level used for a response in the given format.  Zip entries are stored
+     * unless compression is requested, gzip framed formats are compressed at the default level unless a level is requested, and plain tar and
+     * newline-delimited JSON are never compressed
+     * @param requested the value of the compression parameter, may be <code>null</code>
+     * @param format the negotiated output format
+     * @return the negotiated compression level
+     * @throws InvalidParameterValueException thrown if the value is not recognized
+     */
+    public static int negotiateCompressionLevel(String requested, FormatEnum format) throws InvalidParameterValueException {
+        int level = negotiateCompressionLevel(requested);
+        if (format.isGzipFramed()) {
+            if (requested == null || requested.trim().length() == 0) {
+                level = Math.min(DEFAULT_GZIP_COMPRESSION_LEVEL, maxCompressionLevel);
+            }
+        } else if (format != FormatEnum.ZIP) {
+            level = Deflater.NO_COMPRESSION;
+        }
+        return level;
+    }
+
+    /**
+     * Method to pick the output format of a request.  The format parameter wins if present; otherwise the media type in the Accept headers with the highest
+     * quality that matches a format is used, and zip is the fallback so that clients sending no or only wildcard Accept headers keep getting zip
+     * @param requested the value of the format parameter, may be <code>null</code>
+     * @param acceptHeaders values of the Accept headers of the request, may be <code>null</code>
+     * @return the negotiated output format
+     * @throws InvalidParameterValueException thrown if the value of the format parameter is not recognized
+     */
+    public static FormatEnum negotiateFormat(String requested, List<String> acceptHeaders) throws InvalidParameterValueException {
+        return negotiateFormat(requested, acceptHeaders, false);
+    }
+
+    /**
+     * Method to pick the output format of a token count request, the same way negotiateFormat() does, except that the formats that can only hold token counts
+     * are also accepted
+     * @param requested the value of the format parameter, may be <code>null</code>
+     * @param acceptHeaders values of the Accept headers of the request, may be <code>null</code>
+     * @return the negotiated output format
+     * @throws InvalidParameterValueException thrown if the value of the format parameter is not recognized
+     */
+    public static FormatEnum negotiateCountFormat(String requested, List<String> acceptHeaders) throws InvalidParameterValueException {
+        return negotiateFormat(requested, acceptHeaders, true);
+    }
+
+    protected static FormatEnum negotiateFormat(String requested, List<String> acceptHeaders, boolean countsAllowed) throws InvalidParameterValueException {
+        if (requested != null && requested.trim().length() > 0) {
+            String value = requested.trim().toLowerCase();
+            for (FormatEnum format : FormatEnum.values()) {
+                if (format.getParameterValue().equals(value) && (countsAllowed || !format.isCountsOnly())) {
+                    return format;
+                }
+            }
+            if ("tgz".equals(value)) {
+                return FormatEnum.TAR_GZIP;
+            }
+            throw new InvalidParameterValueException(FORMAT_PARAMETER_NAME, requested);
+        }
+
+        FormatEnum bestFormat = FormatEnum.ZIP;
+        if (acceptHeaders != null) {
+            float bestQuality = 0.0f;
+            for (String acceptHeader : acceptHeaders) {
+                for (String mediaRange : acceptHeader.split(",")) {
+                    String[] parts = mediaRange.split(";");
+                    FormatEnum format = toFormat(parts[0].trim().toLowerCase());
+                    float quality = parseQuality(parts);
+                    if (format != null && (countsAllowed || !format.isCountsOnly()) && quality > bestQuality) {
+                        bestFormat = format;
+                        bestQuality = quality;
+                    }
+                }
+            }
+        }
+        return bestFormat;
+    }
+
+    /**
+     * Method to get a new instance of a zip ArchiveWriter implementation for the given compression level
+     * @param outputStream the OutputStream to which the archive is written
+     * @param compressionLevel a compression level returned by negotiateCompressionLevel()
+     * @return an ArchiveWriter implementation
+     */
+    public static ArchiveWriter newInstance(OutputStream outputStream, int compressionLevel) {
+        return newInstance(outputStream, FormatEnum.ZIP, compressionLevel);
+    }
+
+    /**
+     * Method to get a new instance of an ArchiveWriter implementation for the given output format and compression level
+     * @param outputStream the OutputStream to which the archive is written
+     * @param format the output format returned by negotiateFormat()
+     * @param compressionLevel a compression level returned by negotiateCompressionLevel()
+     * @return an ArchiveWriter implementation
+     */
+    public static ArchiveWriter newInstance(OutputStream outputStream, FormatEnum format, int compressionLevel) {
+        switch (format) {
+        case TAR:
+        case TAR_GZIP:
+            return new TarArchiveWriter(outputStream, format.isGzipFramed(), compressionLevel);
+        case NDJSON:
+        case NDJSON_GZIP:
+            return new NdjsonArchiveWriter(outputStream, format.isGzipFramed(), compressionLevel);
+        case ARROW:
+            return new ArrowArchiveWriter(outputStream);
+        default:
+            break;
+        }
+
+        ArchiveWriter archiveWriter = null;
+        if (compressionLevel <= Deflater.NO_COMPRESSION && storedZipWriterEnabled) {
+            archiveWriter = new StoredZipArchiveWriter(outputStream);
+        } else if (compressionLevel <= Deflater.NO_COMPRESSION) {
+            archiveWriter = new StandardZipArchiveWriter(outputStream, Deflater.NO_COMPRESSION);
+        } else if (compressionExecutorService != null) {
+            archiveWriter = new ParallelDeflateZipArchiveWriter(outputStream, compressionLevel, compressionExecutorService, maxPendingCompressionEntries);
+        } else {
+            archiveWriter = new StandardZipArchiveWriter(outputStream, compressionLevel);
+        }
+        return archiveWriter;
+    }
+
+    /**
+     * Method to tell if newInstance() returns a RawZipArchiveWriter for the given output format and compression level
+     * @param format the output format returned by negotiateFormat()
+     * @param compressionLevel a compression level returned by negotiateCompressionLevel()
+     * @return <code>true</code> if the archive is written by a RawZipArchiveWriter, <code>false</code> otherwise
+     */
+    public static boolean writesRawZip(FormatEnum format, int compressionLevel) {
+        if (format != FormatEnum.ZIP) {
+            return false;
+        }
+        return (compressionLevel <= Deflater.NO_COMPRESSION) ? storedZipWriterEnabled : compressionExecutorService != null;
+    }
+
+    private static FormatEnum toFormat(String mediaType) {
+        if (Constants.CONTENT_TYPE_APPLICATION_ZIP.equals(mediaType)) {
+            return FormatEnum.ZIP;
+        } else if (Constants.CONTENT_TYPE_APPLICATION_X_TAR.equals(mediaType)) {
+            return FormatEnum.TAR;
+        } else if (Constants.CONTENT_TYPE_APPLICATION_X_NDJSON.equals(mediaType)) {
+            return FormatEnum.NDJSON;
+        } else if (Constants.CONTENT_TYPE_APPLICATION_VND_APACHE_ARROW_STREAM.equals(mediaType)) {
+            return FormatEnum.ARROW;
+        }
+        return null;
+    }
+
+    private static float parseQuality(String[] mediaRangeParts) {
+        for (int i = 1; i < mediaRangeParts.length; i++) {
+            String parameter = mediaRangeParts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0.0f;
+                }
+            }
+        }
+        return 1.0f;
+    }
+
+}
@@ -0,0 +1,519 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArrowArchiveWriter.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This implementation of ArchiveWriter writes token counts as an Apache Arrow IPC stream instead of an archive, so Arrow consumers such as pandas and Spark
+ * load them without parsing any text.  The stream has a row for each token of each entry, in the columns
+ * <pre>
+ * volume: dictionary&lt;int32, utf8&gt;  the entry name without its .count suffix, up to the '/' of a page entry
+ * page:   dictionary&lt;int32, utf8&gt;  the page sequence of a page entry, null for other entries
+ * token:  dictionary&lt;int32, utf8&gt;  the token
+ * count:  int32                     the count, null for a line that does not end with a count, such as a line of an error entry
+ * </pre>
+ * Each entry becomes one record batch as soon as it is closed, preceded by delta dictionary batches holding the strings that are new to the stream, so every
+ * distinct token is sent only once.  Counts passed to writeCount() go straight into the columns; any other content of an entry is read as lines of a token,
+ * a space and a count.  A count too large for the int32 column, which only the summed counts of a collection can reach, fails the entry rather than being
+ * truncated.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ArrowArchiveWriter extends StreamingArchiveWriter {
+
+    protected static final String UTF_8 = "utf-8";
+    protected static final String COUNT_SUFFIX = ".count";
+
+    protected static final int CONTINUATION_MARKER = 0xffffffff;
+    protected static final int METADATA_VERSION_V5 = 4;
+    protected static final int HEADER_SCHEMA = 1;
+    protected static final int HEADER_DICTIONARY_BATCH = 2;
+    protected static final int HEADER_RECORD_BATCH = 3;
+    protected static final int TYPE_INT = 2;
+    protected static final int TYPE_UTF8 = 5;
+
+    protected static final int VOLUME_DICTIONARY_ID = 0;
+    protected static final int PAGE_DICTIONARY_ID = 1;
+    protected static final int TOKEN_DICTIONARY_ID = 2;
+
+    protected static final int BODY_ALIGNMENT = 8;
+    protected static final int INITIAL_ROW_CAPACITY = 1024;
+
+    private static final byte[] PADDING = new byte[BODY_ALIGNMENT];
+
+    /**
+     * This class assigns ids to the distinct strings of a dictionary column in the order they are first seen, keeping the UTF-8 bytes of the strings one after
+     * the other in a single array, which is exactly the layout of the values of an Arrow utf8 array
+     * @author Yiming Sun
+     *
+     */
+    protected static class StringDictionary {
+        protected byte[] arena = new byte[16 * 1024];
+        protected int[] ends = new int[INITIAL_ROW_CAPACITY];
+        protected int[] hashes = new int[INITIAL_ROW_CAPACITY];
+        protected int size = 0;
+        protected int sentSize = 0;
+
+        // entry id + 1 of the entry in each slot, 0 for an empty slot
+        protected int[] slots = new int[2 * INITIAL_ROW_CAPACITY];
+        protected int mask = slots.length - 1;
+
+        protected int intern(byte[] bytes, int offset, int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int slot = hash & mask;
+            int id = slots[slot] - 1;
+            while (id >= 0) {
+                if (hashes[id] == hash && keyEquals(id, bytes, offset, length)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+                id = slots[slot] - 1;
+            }
+            id = append(bytes, offset, length, hash);
+            slots[slot] = id + 1;
+            if (2 * size > slots.length) {
+                rehash(2 * slots.length);
+            }
+            return id;
+        }
+
+        protected int start(int id) {
+            return (id == 0) ? 0 : ends[id - 1];
+        }
+
+        private boolean keyEquals(int id, byte[] bytes, int offset, int length) {
+            int start = start(id);
+            boolean equal = (ends[id] - start == length);
+            for (int i = 0; i < length && equal; i++) {
+                equal = (arena[start + i] == bytes[offset + i]);
+            }
+            return equal;
+        }
+
+        private int append(byte[] bytes, int offset, int length, int hash) {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, 2 * size);
+                hashes = Arrays.copyOf(hashes, 2 * size);
+            }
+            int start = start(size);
+            if (start + length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(2 * arena.length, start + length));
+            }
+            System.arraycopy(bytes, offset, arena, start, length);
+            ends[size] = start + length;
+            hashes[size] = hash;
+            return size++;
+        }
+
+        private void rehash(int slotCount) {
+            slots = new int[slotCount];
+            mask = slotCount - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = hashes[id] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id + 1;
+            }
+        }
+    }
+
+    /**
+     * This class is the body of a message, holding its buffers one after the other, each padded to 8 bytes
+     * @author Yiming Sun
+     *
+     */
+    protected static class MessageBody {
+        protected byte[] bytes = new byte[8192];
+        protected int size = 0;
+        // the offset and the length of each buffer, as the Buffer structs of the message need them
+        protected long[] buffers = new long[16];
+        protected int bufferCount = 0;
+
+        protected void reset() {
+            size = 0;
+            bufferCount = 0;
+        }
+
+        /**
+         * Method to add a buffer filled with zeros
+         * @param length length of the buffer in bytes
+         * @return the position of the buffer in the bytes of the body
+         */
+        protected int allocate(int length) {
+            int paddedLength = (length + BODY_ALIGNMENT - 1) & ~(BODY_ALIGNMENT - 1);
+            if (size + paddedLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + paddedLength));
+            }
+            if (2 * bufferCount + 2 > buffers.length) {
+                buffers = Arrays.copyOf(buffers, 2 * buffers.length);
+            }
+            int position = size;
+            Arrays.fill(bytes, position, position + paddedLength, (byte)0);
+            buffers[2 * bufferCount] = position;
+            buffers[2 * bufferCount + 1] = length;
+            bufferCount++;
+            size += paddedLength;
+            return position;
+        }
+
+        protected void addInts(int[] values, int count) {
+            int position = allocate(4 * count);
+            for (int i = 0; i < count; i++) {
+                RawZipArchiveWriter.putInt(bytes, position + 4 * i, values[i]);
+            }
+        }
+
+        protected void addRepeatedInt(int value, int count) {
+            int position = allocate(4 * count);
+            for (int i = 0; i < count; i++) {
+                RawZipArchiveWriter.putInt(bytes, position + 4 * i, value);
+            }
+        }
+
+        protected void addBytes(byte[] values, int offset, int length) {
+            int position = allocate(length);
+            System.arraycopy(values, offset, bytes, position, length);
+        }
+
+        protected long[] getBuffers() {
+            return Arrays.copyOf(buffers, 2 * bufferCount);
+        }
+    }
+
+    protected final StringDictionary volumes = new StringDictionary();
+    protected final StringDictionary pages = new StringDictionary();
+    protected final StringDictionary tokens = new StringDictionary();
+    protected final MessageBody body = new MessageBody();
+    protected final byte[] prefix = new byte[8];
+    protected boolean started = false;
+
+    // the rows of the current entry
+    protected int[] tokenIDs = new int[INITIAL_ROW_CAPACITY];
+    protected int[] counts = new int[INITIAL_ROW_CAPACITY];
+    protected byte[] countValidity = new byte[INITIAL_ROW_CAPACITY / 8];
+    protected int rowCount = 0;
+    protected int nullCount = 0;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the Arrow IPC stream is written
+     */
+    public ArrowArchiveWriter(OutputStream outputStream) {
+        super(outputStream, false, 0);
+    }
+
+    /**
+     * Method to add a row for a token of the current entry
+     * @param bytes the array holding the UTF-8 bytes of the token
+     * @param offset offset of the token in the array
+     * @param length length of the token in bytes
+     * @param count the count of the token
+     * @throws IOException thrown if there is no current entry, or if the count does not fit in the count column
+     */
+    public void writeCount(byte[] bytes, int offset, int length, long count) throws IOException {
+        if (currentEntryName == null) {
+            throw new IOException("no current entry");
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("Count " + count + " of " + new String(bytes, offset, length, UTF_8) + " exceeds the int32 count column");
+        }
+        addRow(bytes, offset, length, (int)count, true);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StreamingArchiveWriter#writeRecord(java.lang.String, byte[], int, int)
+     */
+    @Override
+    protected void writeRecord(String entryName, byte[] content, int offset, int length) throws IOException {
+        parseLines(content, offset, length);
+        if (rowCount > 0) {
+            String name = entryName.endsWith(COUNT_SUFFIX) ? entryName.substring(0, entryName.length() - COUNT_SUFFIX.length()) : entryName;
+            // volume IDs are pairtree cleaned, so a '/' can only separate the page sequence
+            int slash = name.indexOf('/');
+            byte[] volumeBytes = ((slash >= 0) ? name.substring(0, slash) : name).getBytes(UTF_8);
+            int volumeID = volumes.intern(volumeBytes, 0, volumeBytes.length);
+            int pageID = -1;
+            if (slash >= 0) {
+                byte[] pageBytes = name.substring(slash + 1).getBytes(UTF_8);
+                pageID = pages.intern(pageBytes, 0, pageBytes.length);
+            }
+
+            writeStart();
+            beginRecord();
+            writeDictionaryDelta(VOLUME_DICTIONARY_ID, volumes);
+            writeDictionaryDelta(PAGE_DICTIONARY_ID, pages);
+            writeDictionaryDelta(TOKEN_DICTIONARY_ID, tokens);
+            writeRows(volumeID, pageID);
+            endRecord();
+        }
+        Arrays.fill(countValidity, 0, (rowCount + 7) / 8, (byte)0);
+        rowCount = 0;
+        nullCount = 0;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StreamingArchiveWriter#finishRecords()
+     */
+    @Override
+    protected void finishRecords() throws IOException {
+        writeStart();
+        beginRecord();
+        RawZipArchiveWriter.putInt(prefix, 0, CONTINUATION_MARKER);
+        RawZipArchiveWriter.putInt(prefix, 4, 0);
+        writeRecordData(prefix, 0, prefix.length);
+        endRecord();
+    }
+
+    /**
+     * Method to read content as lines of a token, a space and a count
+     * @param content a byte array holding UTF-8 text
+     * @param offset offset of the text in the array
+     * @param length length of the text
+     * @throws IOException thrown if a count does not fit in the count column
+     */
+    protected void parseLines(byte[] content, int offset, int length) throws IOException {
+        int end = offset + length;
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            int lastSpace = -1;
+            while (lineEnd < end && content[lineEnd] != '\n') {
+                if (content[lineEnd] == ' ') {
+                    lastSpace = lineEnd;
+                }
+                lineEnd++;
+            }
+            if (lineEnd > lineStart) {
+                long count = -1L;
+                if (lastSpace >= 0 && lineEnd - lastSpace > 1) {
+                    count = 0L;
+                    for (int i = lastSpace + 1; i < lineEnd && count >= 0; i++) {
+                        if (content[i] < '0' || content[i] > '9') {
+                            count = -1L;
+                        } else if (count <= Integer.MAX_VALUE) {
+                            // the digits past the range of the column are still checked, but no longer added up
+                            count = 10 * count + (content[i] - '0');
+                        }
+                    }
+                }
+                if (count > Integer.MAX_VALUE) {
+                    throw new IOException("Count of " + new String(content, lineStart, lastSpace - lineStart, UTF_8) + " exceeds the int32 count column");
+                }
+                if (count >= 0) {
+                    addRow(content, lineStart, lastSpace - lineStart, (int)count, true);
+                } else {
+                    addRow(content, lineStart, lineEnd - lineStart, 0, false);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    protected void addRow(byte[] bytes, int offset, int length, int count, boolean valid) {
+        if (rowCount == tokenIDs.length) {
+            tokenIDs = Arrays.copyOf(tokenIDs, 2 * rowCount);
+            counts = Arrays.copyOf(counts, 2 * rowCount);
+            countValidity = Arrays.copyOf(countValidity, 2 * countValidity.length);
+        }
+        tokenIDs[rowCount] = tokens.intern(bytes, offset, length);
+        counts[rowCount] = count;
+        if (valid) {
+            countValidity[rowCount >> 3] |= (byte)(1 << (rowCount & 7));
+        } else {
+            nullCount++;
+        }
+        rowCount++;
+    }
+
+    /**
+     * Method to write the schema and the first batch of each dictionary, which have to come before any record batch
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeStart() throws IOException {
+        if (!started) {
+            started = true;
+            FlatBufferTable schema = new FlatBufferTable();
+            schema.addShort(0, 0); // little endian
+            schema.addTableVector(1, newDictionaryField("volume", false, VOLUME_DICTIONARY_ID), newDictionaryField("page", true, PAGE_DICTIONARY_ID),
+                    newDictionaryField("token", false, TOKEN_DICTIONARY_ID), newCountField("count"));
+            beginRecord();
+            body.reset();
+            writeMessage(HEADER_SCHEMA, schema);
+            writeDictionaryBatch(VOLUME_DICTIONARY_ID, volumes, false);
+            writeDictionaryBatch(PAGE_DICTIONARY_ID, pages, false);
+            writeDictionaryBatch(TOKEN_DICTIONARY_ID, tokens, false);
+            endRecord();
+        }
+    }
+
+    protected void writeDictionaryDelta(int dictionaryID, StringDictionary dictionary) throws IOException {
+        if (dictionary.size > dictionary.sentSize) {
+            writeDictionaryBatch(dictionaryID, dictionary, true);
+        }
+    }
+
+    /**
+     * Method to write the strings of a dictionary that have not been sent as a dictionary batch
+     * @param dictionaryID the id of the dictionary
+     * @param dictionary the StringDictionary
+     * @param delta <code>true</code> if the strings are added to those sent before, <code>false</code> for the first batch of the dictionary
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeDictionaryBatch(int dictionaryID, StringDictionary dictionary, boolean delta) throws IOException {
+        int first = dictionary.sentSize;
+        int valueCount = dictionary.size - first;
+        int base = dictionary.start(first);
+        int end = dictionary.start(dictionary.size);
+
+        body.reset();
+        body.allocate(0);
+        int position = body.allocate(4 * (valueCount + 1));
+        for (int i = 0; i <= valueCount; i++) {
+            RawZipArchiveWriter.putInt(body.bytes, position + 4 * i, dictionary.start(first + i) - base);
+        }
+        body.addBytes(dictionary.arena, base, end - base);
+
+        FlatBufferTable dictionaryBatch = new FlatBufferTable();
+        dictionaryBatch.addLong(0, dictionaryID);
+        dictionaryBatch.addTable(1, newRecordBatch(valueCount, new long[] {valueCount, 0L}, 1));
+        dictionaryBatch.addBoolean(2, delta);
+        writeMessage(HEADER_DICTIONARY_BATCH, dictionaryBatch);
+        dictionary.sentSize = dictionary.size;
+    }
+
+    /**
+     * Method to write the rows of the current entry as a record batch
+     * @param volumeID the dictionary id of the volume of the entry
+     * @param pageID the dictionary id of the page of the entry, or -1 if the entry is not a page
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeRows(int volumeID, int pageID) throws IOException {
+        int bitmapLength = (rowCount + 7) / 8;
+        body.reset();
+        body.allocate(0);
+        body.addRepeatedInt(volumeID, rowCount);
+        if (pageID >= 0) {
+            body.allocate(0);
+            body.addRepeatedInt(pageID, rowCount);
+        } else {
+            // all pages are null, which the zero bits of the validity bitmap say
+            body.allocate(bitmapLength);
+            body.allocate(4 * rowCount);
+        }
+        body.allocate(0);
+        body.addInts(tokenIDs, rowCount);
+        if (nullCount > 0) {
+            body.addBytes(countValidity, 0, bitmapLength);
+        } else {
+            body.allocate(0);
+        }
+        body.addInts(counts, rowCount);
+
+        long[] nodes = {rowCount, 0L, rowCount, (pageID >= 0) ? 0L : rowCount, rowCount, 0L, rowCount, nullCount};
+        writeMessage(HEADER_RECORD_BATCH, newRecordBatch(rowCount, nodes, 4));
+    }
+
+    /**
+     * Method to write an encapsulated message: the continuation marker, the length of the metadata, the metadata padded to 8 bytes and the current body
+     * @param headerType the MessageHeader union type of the header
+     * @param header the header table
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeMessage(int headerType, FlatBufferTable header) throws IOException {
+        FlatBufferTable message = new FlatBufferTable();
+        message.addShort(0, METADATA_VERSION_V5);
+        message.addByte(1, headerType);
+        message.addTable(2, header);
+        message.addLong(3, body.size);
+        byte[] metadata = message.toByteArray();
+        int paddedLength = (metadata.length + BODY_ALIGNMENT - 1) & ~(BODY_ALIGNMENT - 1);
+
+        RawZipArchiveWriter.putInt(prefix, 0, CONTINUATION_MARKER);
+        RawZipArchiveWriter.putInt(prefix, 4, paddedLength);
+        writeRecordData(prefix, 0, prefix.length);
+        writeRecordData(metadata, 0, metadata.length);
+        writeRecordData(PADDING, 0, paddedLength - metadata.length);
+        writeRecordData(body.bytes, 0, body.size);
+    }
+
+    protected FlatBufferTable newRecordBatch(int length, long[] nodes, int nodeCount) {
+        FlatBufferTable recordBatch = new FlatBufferTable();
+        recordBatch.addLong(0, length);
+        recordBatch.addStructVector(1, nodes, nodeCount);
+        recordBatch.addStructVector(2, body.getBuffers(), body.bufferCount);
+        return recordBatch;
+    }
+
+    protected static FlatBufferTable newDictionaryField(String name, boolean nullable, int dictionaryID) {
+        FlatBufferTable encoding = new FlatBufferTable();
+        encoding.addLong(0, dictionaryID);
+        encoding.addTable(1, newIntType());
+        encoding.addBoolean(2, false);
+
+        FlatBufferTable field = new FlatBufferTable();
+        field.addString(0, name);
+        field.addBoolean(1, nullable);
+        // the type of a dictionary encoded field is the type of its dictionary values
+        field.addByte(2, TYPE_UTF8);
+        field.addTable(3, new FlatBufferTable());
+        field.addTable(4, encoding);
+        field.addTableVector(5);
+        return field;
+    }
+
+    protected static FlatBufferTable newCountField(String name) {
+        FlatBufferTable field = new FlatBufferTable();
+        field.addString(0, name);
+        field.addBoolean(1, true);
+        field.addByte(2, TYPE_INT);
+        field.addTable(3, newIntType());
+        field.addTableVector(5);
+        return field;
+    }
+
+    protected static FlatBufferTable newIntType() {
+        FlatBufferTable intType = new FlatBufferTable();
+        intType.addInt(0, 32);
+        intType.addBoolean(1, true);
+        return intType;
+    }
+
+}
+
@@ -35,143 +35,246 @@ package edu.indiana.d2i.htrc.access.zip;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
-import edu.indiana.d2i.htrc.access.ZipMaker;
-import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
-import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
-import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
- * This implementation of the ZipMaker interface creates one ZipEntry for each volume by concatenating all pages of a volume into a single text file in the page order.  The name of each text file is
+ * This implementation of the IncrementalZipMaker interface creates one ZipEntry for each volume by concatenating all pages of a volume into a single text file in the page order.  The name of each text file is
  * the Pairtree cleaned volumeID with ".txt" extension.  Metadata entries such as METS xml files are created as additional individual ZipEntry objects that also use the Pairtree cleaned volumeID as
  * the names but with different extensions.  It may also create a special entry ERROR.err to record any errors occurred during the asynchronous fetch process. 
  * 
  * @author Yiming Sun
  *
  */
-public class CombinePageVolumeZipMaker implements ZipMaker {
+public class CombinePageVolumeZipMaker extends AbstractIncrementalZipMaker {
     
     private static Logger log = Logger.getLogger(CombinePageVolumeZipMaker.class);
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
+    protected static final int DEFAULT_FRAMING_BUFFER_SIZE = 256 * 1024;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final FormatEnum format;
+    protected final DownloadManifest downloadManifest;
+    protected final Map<String, FramedEntryCache.FramedEntry> framedEntries;
+    protected final FramedEntryCache framedEntryCache;
+    protected VolumeRetriever volumeRetriever = null;
+    protected ArchiveWriter archiveWriter = null;
+    protected RawZipArchiveWriter rawZipArchiveWriter = null;
+    protected ArchiveWriter.EntryBuffer framingBuffer = null;
+    protected String framingEntryName = null;
+    protected boolean entryOpen = false;
+    protected String currentVolumeID = null;
+    protected List<String> currentPageSequences = null;
+    protected List<Exception> exceptionList = null;
 
     CombinePageVolumeZipMaker(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+
+    CombinePageVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel) {
+        this(auditor, format, compressionLevel, null);
+    }
+
+    CombinePageVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest) {
+        this(auditor, format, compressionLevel, downloadManifest, null);
+    }
+
+    CombinePageVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest, Map<String, FramedEntryCache.FramedEntry> framedEntries) {
         this.auditor = auditor;
+        this.format = format;
+        this.compressionLevel = compressionLevel;
+        this.downloadManifest = downloadManifest;
+        this.framedEntries = framedEntries;
+        this.framedEntryCache = (framedEntries != null) ? FramedEntryCache.getInstance() : null;
     }
 
     /**
-     * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, java.lang.String, edu.indiana.d2i.htrc.access.VolumeRetriever)
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#open(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
      */
     @Override
-    public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
-        
-        boolean entryOpen = false;
+    public void open(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        this.volumeRetriever = volumeRetriever;
+        entryOpen = false;
+        currentVolumeID = null;
+        currentPageSequences = null;
+        archiveWriter = (downloadManifest != null) ? new ResumableZipArchiveWriter(outputStream, downloadManifest) : ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
         
-        String currentVolumeID = null;
-        List<String> currentPageSequences = null;
+        // with framed entries in use, the text of each volume is collected and framed as a whole, so that it can be added to the FramedEntryCache
+        rawZipArchiveWriter = (framedEntryCache != null && archiveWriter instanceof RawZipArchiveWriter) ? (RawZipArchiveWriter)archiveWriter : null;
+        framingBuffer = null;
+        framingEntryName = null;
         
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
-        
-        ZipEntry zipEntry = null;
-        
-        List<Exception> exceptionList = new LinkedList<Exception>();
-        
-        while (volumeRetriever.hasMoreVolumes()) {
-            try {
-                VolumeReader volumeReader = volumeRetriever.nextVolume();
+        exceptionList = new LinkedList<Exception>();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#append(edu.indiana.d2i.htrc.access.VolumeReader)
+     */
+    @Override
+    public void append(VolumeReader volumeReader) throws IOException {
+        try {
+            String volumeID = volumeReader.getVolumeID();
+            
+            if (!volumeID.equals(currentVolumeID)) {
+                if (currentVolumeID != null) {
+                    auditor.audit(ACCESSED_ACTION,  currentVolumeID,  currentPageSequences.toArray(new String[0]));
+                }
+            
+                if (entryOpen) {
+                    closeVolumeEntry();
+                }
+                if (framingBuffer != null) {
+                    writeFramedEntry(rawZipArchiveWriter, volumeRetriever, currentVolumeID, framingEntryName, framingBuffer, currentPageSequences);
+                    framingBuffer = null;
+                }
                 
-                if (volumeReader != null) {
-                    String volumeID = volumeReader.getVolumeID();
-                    
-                    if (!volumeID.equals(currentVolumeID)) {
-                        if (currentVolumeID != null) {
-                            auditor.audit(ACCESSED_ACTION,  currentVolumeID,  currentPageSequences.toArray(new String[0]));
-                        }
-                    
-                        if (entryOpen) {
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                        }
-                        
-                        currentVolumeID = volumeID;
-                        currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
-                        
-                        String entryName = volumeReader.getPairtreeCleanedVolumeID() + ".txt";
-                        zipEntry = new ZipEntry(entryName);
-    
-                        zipOutputStream.putNextEntry(zipEntry);
-                        entryOpen = true;
-                    }
-                    
-                    while (volumeReader.hasMorePages()) {
-                        ContentReader pageReader = volumeReader.nextPage();
-                        byte[] pageContent = pageReader.getContent();
-    
-                        zipOutputStream.write(pageContent);
-                        
-                        currentPageSequences.add(pageReader.getContentName());
-                    }
-                    
-                    while (volumeReader.hasMoreMetadata()) {
-                        if (entryOpen) {
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                        }
-                        ContentReader metadataReader = volumeReader.nextMetadata();
-                        String suffix = ZipMakerFactory.Helper.getEntrySuffixFromMetadataName(metadataReader.getContentName());
-                        if (suffix != null) {
-                            String entryName = volumeReader.getPairtreeCleanedVolumeID() + suffix; 
-                            zipEntry = new ZipEntry(entryName);
-                            zipOutputStream.putNextEntry(zipEntry);
-                            entryOpen = true;
-                            zipOutputStream.write(metadataReader.getContent());
-                            currentPageSequences.add(metadataReader.getContentName());
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                        } else {
-                            throw new NullPointerException("Unmapped metadata to suffix: " + metadataReader.getContentName());
-                        }
-                    }
+                currentVolumeID = volumeID;
+                currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
+                if (downloadManifest != null) {
+                    downloadManifest.setCurrentVolumeID(volumeID);
+                }
+                
+                String entryName = volumeReader.getPairtreeCleanedVolumeID() + getVolumeEntrySuffix();
+                FramedEntryCache.FramedEntry framedEntry = (rawZipArchiveWriter != null) ? framedEntries.get(volumeID) : null;
+                if (framedEntry != null) {
+                    rawZipArchiveWriter.writeFramedEntry(framedEntry);
+                    currentPageSequences.addAll(Arrays.asList(framedEntry.getContentNames()));
+                } else if (rawZipArchiveWriter != null) {
+                    framingEntryName = entryName;
+                    framingBuffer = new ArchiveWriter.EntryBuffer(DEFAULT_FRAMING_BUFFER_SIZE);
+                } else {
+                    archiveWriter.putNextEntry(entryName);
+                    entryOpen = true;
                 }
-            } catch (KeyNotFoundException e) {
-                log.error("KeyNotFoundException", e);
-                exceptionList.add(e);
-            } catch (PolicyViolationException e) {
-                log.error("PolicyViolationException", e);
-                exceptionList.add(e);
-            } catch (RepositoryException e) {
-                log.error("RepositoryException", e);
-                exceptionList.add(e);
-            } catch (NullPointerException e) {
-                log.fatal("Unmapped metadata", e);
             }
+            
+            while (volumeReader.hasMorePages()) {
+                ContentReader pageReader = volumeReader.nextPage();
+                appendPage(pageReader.getContentName(), pageReader.getContent());
+                currentPageSequences.add(pageReader.getContentName());
+            }
+            
+            while (volumeReader.hasMoreMetadata()) {
+                if (entryOpen) {
+                    closeVolumeEntry();
+                }
+                if (framingBuffer != null) {
+                    writeFramedEntry(rawZipArchiveWriter, volumeRetriever, currentVolumeID, framingEntryName, framingBuffer, currentPageSequences);
+                    framingBuffer = null;
+                }
+                ContentReader metadataReader = volumeReader.nextMetadata();
+                String suffix = ZipMakerFactory.Helper.getEntrySuffixFromMetadataName(metadataReader.getContentName());
+                if (suffix != null) {
+                    String entryName = volumeReader.getPairtreeCleanedVolumeID() + suffix; 
+                    archiveWriter.putNextEntry(entryName);
+                    entryOpen = true;
+                    archiveWriter.write(metadataReader.getContent());
+                    currentPageSequences.add(metadataReader.getContentName());
+                    archiveWriter.closeEntry();
+                    entryOpen = false;
+                } else {
+                    throw new NullPointerException("Unmapped metadata to suffix: " + metadataReader.getContentName());
+                }
+            }
+        } catch (NullPointerException e) {
+            log.fatal("Unmapped metadata", e);
         }
+    }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#appendException(edu.indiana.d2i.htrc.access.exception.DataAPIException)
+     */
+    @Override
+    public void appendException(DataAPIException exception) {
+        exceptionList.add(exception);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (framingBuffer != null) {
+            writeFramedEntry(rawZipArchiveWriter, volumeRetriever, currentVolumeID, framingEntryName, framingBuffer, currentPageSequences);
+            framingBuffer = null;
+        }
         if (currentVolumeID != null) {
             auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
         }
         if (entryOpen) {
-            zipOutputStream.closeEntry();
-            entryOpen = false;
+            closeVolumeEntry();
         }
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            if (downloadManifest != null) {
+                downloadManifest.setCurrentVolumeID(null);
+            }
+            ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, entryOpen, exceptionList);
+        }
+        archiveWriter.close();
+    }
+
+    /**
+     * Method to get the extension of the name of the entry holding the pages of a volume
+     * @return the extension of the entry name
+     */
+    protected String getVolumeEntrySuffix() {
+        return ".txt";
+    }
+
+    /**
+     * Method to write the content of a page to the entry of the volume
+     * @param pageSequence the page sequence of the page
+     * @param pageContent the content of the page
+     * @throws IOException thrown if writing the page failed
+     */
+    protected void appendPage(String pageSequence, byte[] pageContent) throws IOException {
+        if (framingBuffer != null) {
+            framingBuffer.write(pageContent, 0, pageContent.length);
+        } else {
+            archiveWriter.write(pageContent);
+        }
+    }
+
+    /**
+     * Method to close the open entry holding the pages of a volume
+     * @throws IOException thrown if closing the entry failed
+     */
+    protected void closeVolumeEntry() throws IOException {
+        archiveWriter.closeEntry();
+        entryOpen = false;
+    }
+
+    /**
+     * Method to frame the collected text of a volume and write it to the zip file.  The framed entry is only added to the FramedEntryCache if no volume has
+     * failed to be fetched so far, since a failed batch of pages would otherwise leave the cached text incomplete
+     * @param rawZipArchiveWriter the RawZipArchiveWriter writing the zip file
+     * @param volumeRetriever the VolumeRetriever object the volumes come from
+     * @param volumeID the volumeID
+     * @param entryName name of the entry
+     * @param framingBuffer the collected text of the volume
+     * @param pageSequences the page sequences the text was made of
+     * @throws IOException thrown if writing the zip file failed
+     */
+    protected void writeFramedEntry(RawZipArchiveWriter rawZipArchiveWriter, VolumeRetriever volumeRetriever, String volumeID, String entryName, ArchiveWriter.EntryBuffer framingBuffer, List<String> pageSequences) throws IOException {
+        FramedEntryCache.FramedEntry framedEntry = FramedEntryCache.FramedEntry.frame(entryName, framingBuffer.array(), framingBuffer.length(), compressionLevel, pageSequences);
+        if (!volumeRetriever.hasErrors()) {
+            framedEntryCache.put(volumeID, compressionLevel, framedEntry);
         }
-        zipOutputStream.close();
+        rawZipArchiveWriter.writeFramedEntry(framedEntry);
     }
 
 }
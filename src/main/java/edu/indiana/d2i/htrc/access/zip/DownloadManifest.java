@@ -0,0 +1,722 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DownloadManifest.java
+# Description:  This class records the entries of a deterministic zip download so that an interrupted download can be resumed with an HTTP Range request
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.cache.ResultCache;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+
+/**
+ * This class records the entries of a deterministic zip download, i.e. uncompressed entries with fixed timestamps written by ResumableZipArchiveWriter for
+ * volumes in the order they were requested, in a short-lived manifest file in the spool directory.  The manifest is keyed by a hash of the request, which
+ * covers the order of the volumes, and holds the volumeID, name, CRC and size of every entry written so far, followed by the length of the download once
+ * it is complete.  Because the layout of a stored entry depends on nothing but its name and size, the byte offset of every entry can be worked out from
+ * the manifest alone.  When a client resumes a download whose length is recorded with a Range request, the volumes whose entries lie entirely before the
+ * requested offset are not fetched again; their entries are replayed from the manifest so that the central directory comes out the same, and only the
+ * bytes from the requested offset onwards are sent.
+ * <p>
+ * A client whose connection drops usually comes back with its Range request while the service is still recording the rest of the abandoned download,
+ * so a resuming request waits for that download to release the manifest rather than cutting the recording short.  The abandoned download is only
+ * produced for resume.drain.max.seconds and resume.drain.max.bytes after its client went away, which also bounds the wait; a resuming request that comes
+ * back to a download still held by another request after that is sent whole, without a manifest, and leaves the other request alone.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class DownloadManifest {
+
+    private static Logger log = Logger.getLogger(DownloadManifest.class);
+
+    public static final String PN_RESUME_SPOOL_DIR = "resume.spool.dir";
+    public static final String PN_RESUME_MANIFEST_TTL_SECONDS = "resume.manifest.ttl.seconds";
+    public static final String PN_RESUME_DRAIN_MAX_SECONDS = "resume.drain.max.seconds";
+    public static final String PN_RESUME_DRAIN_MAX_BYTES = "resume.drain.max.bytes";
+
+    public static final String RANGE_UNIT = "bytes";
+
+    protected static final long DEFAULT_MANIFEST_TTL_SECONDS = 3600L;
+    protected static final long DEFAULT_DRAIN_MAX_SECONDS = 60L;
+    protected static final long DEFAULT_DRAIN_MAX_BYTES = 1024L * 1024L * 1024L;
+    protected static final long SWEEP_INTERVAL = 60000L;
+    protected static final String MANIFEST_SUFFIX = ".manifest";
+    protected static final String MANIFEST_HEADER = "HTRC-DATA-API-MANIFEST 1";
+    protected static final char ENTRY_MARK = 'E';
+    protected static final char FINISH_MARK = 'F';
+    protected static final char FIELD_SEPARATOR = '\t';
+    protected static final char LINE_SEPARATOR = '\n';
+
+    protected static File spoolDir = null;
+    protected static long manifestTTL = DEFAULT_MANIFEST_TTL_SECONDS * 1000L;
+    protected static long lastSweepTime = 0L;
+    protected static long drainMaxTime = DEFAULT_DRAIN_MAX_SECONDS * 1000L;
+    protected static long drainMaxBytes = DEFAULT_DRAIN_MAX_BYTES;
+
+    // request keys of the downloads in progress, mapped to their manifests, so that two downloads of the same request do not write the same manifest
+    protected static final Map<String, DownloadManifest> activeRequestKeys = new HashMap<String, DownloadManifest>();
+
+    /**
+     * This class holds what the manifest records about one zip entry
+     * @author Yiming Sun
+     *
+     */
+    public static class Entry {
+        protected final String volumeID;
+        protected final String name;
+        protected final long crc;
+        protected final long size;
+
+        /**
+         * Constructor
+         * @param volumeID volumeID of the volume the entry belongs to, or <code>null</code> if it belongs to no volume, e.g. ERROR.err
+         * @param name name of the entry
+         * @param crc the CRC-32 of the entry content
+         * @param size size of the entry content
+         */
+        public Entry(String volumeID, String name, long crc, long size) {
+            this.volumeID = volumeID;
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        /**
+         * Method to get the number of bytes the entry takes up in the zip stream before the central directory
+         * @return the length of the local file header plus the length of the content
+         */
+        public long getLength() {
+            return RawZipArchiveWriter.localFileHeaderLength(RawZipArchiveWriter.encodeEntryName(name), size, size) + size;
+        }
+
+        protected boolean matches(Entry other) {
+            return crc == other.crc && size == other.size && name.equals(other.name)
+                    && (volumeID == null ? other.volumeID == null : volumeID.equals(other.volumeID));
+        }
+    }
+
+    protected final String requestKey;
+    protected final File manifestFile;
+    protected final List<Entry> entries;
+    protected final long openTime;
+    protected long completeLength = -1L;
+    protected long startOffset = 0L;
+    protected int replayEntryCount = 0;
+    protected String currentVolumeID = null;
+    private Writer writer = null;
+    private boolean discarded = false;
+    private boolean superseded = false;
+    private boolean closed = false;
+
+    /**
+     * Method to initialize this class.  Resumable downloads are disabled if no spool directory is configured
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static void init(ParameterContainer parameterContainer) {
+        String spoolDirPath = parameterContainer.getParameter(PN_RESUME_SPOOL_DIR);
+        File dir = null;
+        if (spoolDirPath != null && spoolDirPath.trim().length() > 0) {
+            dir = new File(spoolDirPath.trim());
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                log.error("Cannot create resume spool directory " + dir.getAbsolutePath() + ", resumable downloads are disabled");
+                dir = null;
+            }
+        }
+        DownloadManifest.spoolDir = dir;
+
+        String ttlSeconds = parameterContainer.getParameter(PN_RESUME_MANIFEST_TTL_SECONDS);
+        long ttl = (ttlSeconds != null) ? Long.parseLong(ttlSeconds.trim()) : DEFAULT_MANIFEST_TTL_SECONDS;
+        DownloadManifest.manifestTTL = ttl * 1000L;
+
+        String drainMaxSeconds = parameterContainer.getParameter(PN_RESUME_DRAIN_MAX_SECONDS);
+        long drainSeconds = (drainMaxSeconds != null) ? Long.parseLong(drainMaxSeconds.trim()) : DEFAULT_DRAIN_MAX_SECONDS;
+        DownloadManifest.drainMaxTime = drainSeconds * 1000L;
+
+        String drainMaxBytesValue = parameterContainer.getParameter(PN_RESUME_DRAIN_MAX_BYTES);
+        DownloadManifest.drainMaxBytes = (drainMaxBytesValue != null) ? Long.parseLong(drainMaxBytesValue.trim()) : DEFAULT_DRAIN_MAX_BYTES;
+    }
+
+    /**
+     * Method to tell if a download of the given format and compression level is written deterministically and can be resumed
+     * @param format the negotiated output format
+     * @param compressionLevel the negotiated compression level
+     * @return <code>true</code> if a spool directory is configured and the download is an uncompressed zip file, <code>false</code> otherwise
+     */
+    public static boolean isResumable(FormatEnum format, int compressionLevel) {
+        return spoolDir != null && format == FormatEnum.ZIP && compressionLevel == Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * Method to compute the key of a request, which names its manifest and serves as the ETag of the download
+     * @param requestDescriptor a String describing the endpoint and the options of the request that affect the output
+     * @param identifiers the requested items, already in the order they are written in
+     * @return the hex encoded SHA-256 hash of the request
+     */
+    public static String computeRequestKey(String requestDescriptor, List<? extends RequestedItemCoordinates> identifiers) {
+        return ResultCache.computeKey(requestDescriptor, identifiers);
+    }
+
+    /**
+     * Method to open the manifest of a request, loading what an earlier download of the same request has recorded unless it has expired
+     * @param requestKey the key of the request returned by computeRequestKey()
+     * @return a DownloadManifest object, or <code>null</code> if resumable downloads are disabled or the same request is being downloaded already
+     */
+    public static DownloadManifest open(String requestKey) {
+        return open(requestKey, false);
+    }
+
+    /**
+     * Method to open the manifest of a request, loading what an earlier download of the same request has recorded unless it has expired.  A client only
+     * resumes a download after its connection for the earlier attempt has dropped, which the service may not have noticed yet, so a resuming request
+     * waits for the download still holding the manifest to record the rest of the download and release it, for at most resume.drain.max.seconds.  Only
+     * a manifest held for longer than its time to live is taken over, since the download holding it is then assumed to be stuck
+     * @param requestKey the key of the request returned by computeRequestKey()
+     * @param resuming <code>true</code> if the request resumes a download, i.e. it carries a Range or an If-Range header
+     * @return a DownloadManifest object, or <code>null</code> if resumable downloads are disabled or the same request is being downloaded already
+     */
+    public static DownloadManifest open(String requestKey, boolean resuming) {
+        File dir = spoolDir;
+        if (dir == null) {
+            return null;
+        }
+        long now = 0L;
+        DownloadManifest downloadManifest = null;
+        synchronized (activeRequestKeys) {
+            DownloadManifest activeManifest = activeRequestKeys.get(requestKey);
+            if (resuming && activeManifest != null) {
+                activeManifest = awaitRelease(requestKey, activeManifest);
+            }
+            now = System.currentTimeMillis();
+            if (activeManifest != null) {
+                if (now - activeManifest.openTime < manifestTTL) {
+                    if (log.isDebugEnabled()) log.debug("request " + requestKey + " is being downloaded already");
+                    return null;
+                }
+                if (log.isDebugEnabled()) log.debug("taking over the expired manifest of request " + requestKey);
+                activeManifest.supersede();
+            }
+            downloadManifest = new DownloadManifest(requestKey, new File(dir, requestKey + MANIFEST_SUFFIX), now);
+            activeRequestKeys.put(requestKey, downloadManifest);
+            if (now - lastSweepTime >= SWEEP_INTERVAL) {
+                lastSweepTime = now;
+                sweep(dir, now);
+            }
+        }
+
+        try {
+            downloadManifest.load(now);
+        } catch (IOException e) {
+            log.error("Failed to load manifest " + downloadManifest.manifestFile.getAbsolutePath(), e);
+            downloadManifest.entries.clear();
+            downloadManifest.completeLength = -1L;
+            downloadManifest.manifestFile.delete();
+        }
+        return downloadManifest;
+    }
+
+    /**
+     * Method to wait, with the lock on activeRequestKeys held, for the download holding the manifest of a request to release it, which a download whose
+     * client has gone away does once it has recorded the rest of the download or has been produced for resume.drain.max.seconds without being sent
+     * @param requestKey the key of the request
+     * @param activeManifest the manifest held by the download
+     * @return the manifest held by a download of the request once the wait is over, or <code>null</code> if none holds it
+     */
+    private static DownloadManifest awaitRelease(String requestKey, DownloadManifest activeManifest) {
+        long deadline = System.currentTimeMillis() + drainMaxTime;
+        long remaining = drainMaxTime;
+        try {
+            while (activeManifest != null && remaining > 0L && System.currentTimeMillis() - activeManifest.openTime < manifestTTL) {
+                if (log.isDebugEnabled()) log.debug("waiting for request " + requestKey + " to release its manifest");
+                activeRequestKeys.wait(remaining);
+                activeManifest = activeRequestKeys.get(requestKey);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return activeManifest;
+    }
+
+    /**
+     * Method to tell if a download whose client went away has been produced for long enough without being sent, so it is given up on
+     * @param drainedBytes number of bytes produced since the client went away
+     * @param detachTime the time the client went away
+     * @return <code>true</code> if more than resume.drain.max.bytes or resume.drain.max.seconds have been spent on the download since, <code>false</code>
+     * otherwise
+     */
+    static boolean isDrainExhausted(long drainedBytes, long detachTime) {
+        return drainedBytes > drainMaxBytes || System.currentTimeMillis() - detachTime > drainMaxTime;
+    }
+
+    /**
+     * Constructor
+     * @param requestKey the key of the request
+     * @param manifestFile the file holding the manifest
+     * @param openTime the time the manifest is opened
+     */
+    protected DownloadManifest(String requestKey, File manifestFile, long openTime) {
+        this.requestKey = requestKey;
+        this.manifestFile = manifestFile;
+        this.openTime = openTime;
+        this.entries = new ArrayList<Entry>();
+    }
+
+    /**
+     * Method to get the key of the request
+     * @return the key of the request
+     */
+    public String getRequestKey() {
+        return requestKey;
+    }
+
+    /**
+     * Method to get the ETag of the download
+     * @return the request key as a quoted strong entity tag
+     */
+    public String getETag() {
+        return "\"" + requestKey + "\"";
+    }
+
+    /**
+     * Method to get the length of the complete download
+     * @return the length of the complete download, or -1 if no download of the request has been completed yet
+     */
+    public long getCompleteLength() {
+        return completeLength;
+    }
+
+    /**
+     * Method to get the offset from which the download is sent
+     * @return the offset from which the download is sent
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Method to work out where to start sending from the Range and If-Range request headers.  Only a single range of the form "bytes=N-" is honored, and
+     * only if the manifest has recorded the length of the complete download and the If-Range header, if present, carries the ETag of this download;
+     * otherwise the Range header is ignored and the whole download is sent.  A partial response must state where it ends, so a download whose length is
+     * not known yet cannot be resumed.
+     * @param rangeHeaders values of the Range request header, may be <code>null</code>
+     * @param ifRangeHeaders values of the If-Range request header, may be <code>null</code>
+     * @return the offset from which to send, 0 if the whole download is to be sent
+     */
+    public long resolveStartOffset(List<String> rangeHeaders, List<String> ifRangeHeaders) {
+        startOffset = 0L;
+        if (rangeHeaders == null || rangeHeaders.size() != 1) {
+            return startOffset;
+        }
+        if (ifRangeHeaders != null && !ifRangeHeaders.isEmpty() && !(ifRangeHeaders.size() == 1 && getETag().equals(ifRangeHeaders.get(0).trim()))) {
+            return startOffset;
+        }
+        String range = rangeHeaders.get(0).trim();
+        if (!range.startsWith(RANGE_UNIT + "=") || !range.endsWith("-")) {
+            return startOffset;
+        }
+        long requested = 0L;
+        try {
+            requested = Long.parseLong(range.substring(RANGE_UNIT.length() + 1, range.length() - 1).trim());
+        } catch (NumberFormatException e) {
+            return startOffset;
+        }
+        if (requested > 0L && completeLength >= 0L) {
+            startOffset = requested;
+        }
+        return startOffset;
+    }
+
+    /**
+     * Method to tell if the download can be sent from getStartOffset()
+     * @return <code>false</code> if the download ends at or before the start offset, <code>true</code> otherwise
+     */
+    public boolean isStartOffsetSatisfiable() {
+        return startOffset == 0L || startOffset < completeLength;
+    }
+
+    /**
+     * Method to get the value of the Content-Range response header for a download sent from getStartOffset(), which is only called if the start offset is
+     * not 0, so the length of the complete download is known
+     * @return the value of the Content-Range response header
+     */
+    public String getContentRange() {
+        if (startOffset >= completeLength) {
+            return RANGE_UNIT + " */" + completeLength;
+        }
+        return RANGE_UNIT + " " + startOffset + "-" + (completeLength - 1L) + "/" + completeLength;
+    }
+
+    /**
+     * Method to remove from the list of requested volumes those whose entries lie entirely before getStartOffset(), so they are not fetched again.  The
+     * entries of the removed volumes are replayed from the manifest by ResumableZipArchiveWriter
+     * @param identifiers the requested volumes in the order they are written in.  The list is modified
+     */
+    public void skipSentVolumes(List<? extends RequestedItemCoordinates> identifiers) {
+        int entryIndex = 0;
+        long offset = 0L;
+        Iterator<? extends RequestedItemCoordinates> iterator = identifiers.iterator();
+        while (iterator.hasNext()) {
+            String volumeID = iterator.next().getVolumeID();
+            int volumeEnd = entryIndex;
+            long volumeEndOffset = offset;
+            while (volumeEnd < entries.size() && volumeID.equals(entries.get(volumeEnd).volumeID)) {
+                volumeEndOffset += entries.get(volumeEnd).getLength();
+                volumeEnd++;
+            }
+            // a volume can only be skipped if it is known to have no more entries and all of them have been sent
+            boolean volumeClosed = volumeEnd < entries.size() || completeLength >= 0L;
+            if (volumeEnd == entryIndex || !volumeClosed || volumeEndOffset > startOffset) {
+                break;
+            }
+            iterator.remove();
+            entryIndex = volumeEnd;
+            offset = volumeEndOffset;
+        }
+        replayEntryCount = entryIndex;
+        if (log.isDebugEnabled()) log.debug("request " + requestKey + " resumes at " + startOffset + ", replaying " + replayEntryCount + " entries");
+    }
+
+    /**
+     * Method for the ZipMaker to tell which volume the entries written next belong to
+     * @param volumeID volumeID of the volume, or <code>null</code> for entries that belong to no volume
+     */
+    public void setCurrentVolumeID(String volumeID) {
+        this.currentVolumeID = volumeID;
+    }
+
+    /**
+     * Method to get the volume the entries written next belong to
+     * @return volumeID of the volume, or <code>null</code>
+     */
+    public String getCurrentVolumeID() {
+        return currentVolumeID;
+    }
+
+    /**
+     * Method to release the manifest when the download ends, whether or not it completed
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeWriter();
+        }
+        synchronized (activeRequestKeys) {
+            if (activeRequestKeys.get(requestKey) == this) {
+                activeRequestKeys.remove(requestKey);
+                // wakes up the resuming requests waiting for the manifest
+                activeRequestKeys.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method to check if the entries written are still recorded, i.e. the manifest is neither closed, discarded nor taken over by another download
+     * @return <code>true</code> if the entries written are recorded, <code>false</code> otherwise
+     */
+    public synchronized boolean isRecording() {
+        return !closed && !discarded && !superseded;
+    }
+
+    /**
+     * Method to stop recording into the manifest file because another download of the same request has taken it over after it expired
+     */
+    protected synchronized void supersede() {
+        superseded = true;
+        closeWriter();
+    }
+
+    int getReplayEntryCount() {
+        return replayEntryCount;
+    }
+
+    Entry getEntry(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Method to record an entry as it is written.  An entry that the manifest already holds at the same index is checked against it instead; if it differs,
+     * the output has changed since the manifest was recorded, which is only tolerable if none of the entry has been sent in an earlier attempt
+     * @param index index of the entry in the download
+     * @param entry the entry
+     * @param alreadySent <code>true</code> if the entry starts before the offset the download is sent from
+     * @throws IOException thrown if the entry differs from the recorded one and part of it has already been sent
+     */
+    synchronized void record(int index, Entry entry, boolean alreadySent) throws IOException {
+        if (discarded || superseded) {
+            return;
+        }
+        if (index < entries.size()) {
+            if (entries.get(index).matches(entry)) {
+                return;
+            }
+            if (alreadySent) {
+                discard();
+                throw new IOException("Download " + requestKey + " no longer matches its manifest at entry " + entry.name);
+            }
+            truncate(index);
+        } else if (completeLength >= 0L) {
+            // more entries than the completed download had
+            truncate(index);
+        }
+        if (!isRecordable(entry)) {
+            discard();
+            return;
+        }
+        entries.add(entry);
+        try {
+            appendEntry(entry);
+        } catch (IOException e) {
+            log.error("Failed to write manifest " + manifestFile.getAbsolutePath(), e);
+            discard();
+        }
+    }
+
+    /**
+     * Method to record the number of entries once all of them have been written.  If the manifest holds more entries, the output has changed since the
+     * manifest was recorded, which is only tolerable if none of the extra entries has been sent in an earlier attempt
+     * @param entryCount number of entries written
+     * @param alreadySent <code>true</code> if the end of the last entry lies before the offset the download is sent from
+     * @throws IOException thrown if the manifest holds more entries and part of them has already been sent
+     */
+    synchronized void recordEntryCount(int entryCount, boolean alreadySent) throws IOException {
+        if (discarded || superseded || entryCount >= entries.size()) {
+            return;
+        }
+        if (alreadySent) {
+            discard();
+            throw new IOException("Download " + requestKey + " no longer matches its manifest, entries are missing");
+        }
+        truncate(entryCount);
+    }
+
+    /**
+     * Method to record that the download is complete
+     * @param length length of the complete download
+     */
+    synchronized void recordFinish(long length) {
+        if (discarded || superseded) {
+            return;
+        }
+        if (completeLength != length) {
+            completeLength = length;
+            try {
+                ensureWriter();
+                writer.write(FINISH_MARK);
+                writer.write(FIELD_SEPARATOR);
+                writer.write(Long.toString(length));
+                writer.write(LINE_SEPARATOR);
+            } catch (IOException e) {
+                log.error("Failed to write manifest " + manifestFile.getAbsolutePath(), e);
+                discard();
+            }
+        }
+        closeWriter();
+    }
+
+    /**
+     * Method to get the number of bytes of the download the manifest accounts for
+     * @return the length of the complete download if it is known, or the total length of the recorded entries otherwise
+     */
+    protected long getRecordedLength() {
+        if (completeLength >= 0L) {
+            return completeLength;
+        }
+        long length = 0L;
+        for (Entry entry : entries) {
+            length += entry.getLength();
+        }
+        return length;
+    }
+
+    protected void discard() {
+        discarded = true;
+        closeWriter();
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            log.error("Failed to delete manifest " + manifestFile.getAbsolutePath());
+        }
+    }
+
+    protected void load(long now) throws IOException {
+        if (!manifestFile.exists()) {
+            return;
+        }
+        if (now - manifestFile.lastModified() >= manifestTTL) {
+            manifestFile.delete();
+            return;
+        }
+
+        StringBuilder content = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(manifestFile), ZipMakerFactory.Helper.UTF_8);
+        try {
+            char[] buffer = new char[8192];
+            int read = 0;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+
+        // a line without its line separator was cut short when the service stopped, so only complete lines count
+        int start = content.indexOf(MANIFEST_HEADER + LINE_SEPARATOR);
+        if (start != 0) {
+            throw new IOException("Unrecognized manifest");
+        }
+        start = MANIFEST_HEADER.length() + 1;
+        boolean intact = true;
+        int end = 0;
+        while (intact && (end = content.indexOf(String.valueOf(LINE_SEPARATOR), start)) >= 0) {
+            intact = parseLine(content.substring(start, end));
+            start = end + 1;
+        }
+        if (!intact || start < content.length()) {
+            rewrite();
+        }
+    }
+
+    private boolean parseLine(String line) {
+        String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), 5);
+        try {
+            if (fields.length == 5 && fields[0].length() == 1 && fields[0].charAt(0) == ENTRY_MARK && completeLength < 0L) {
+                String volumeID = fields[1].length() > 0 ? fields[1] : null;
+                entries.add(new Entry(volumeID, fields[4], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                return true;
+            } else if (fields.length == 2 && fields[0].length() == 1 && fields[0].charAt(0) == FINISH_MARK) {
+                completeLength = Long.parseLong(fields[1]);
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            log.error("Malformed manifest line in " + manifestFile.getAbsolutePath() + ": " + line);
+        }
+        return false;
+    }
+
+    private static boolean isRecordable(Entry entry) {
+        return entry.name.indexOf(LINE_SEPARATOR) < 0
+                && (entry.volumeID == null || (entry.volumeID.indexOf(LINE_SEPARATOR) < 0 && entry.volumeID.indexOf(FIELD_SEPARATOR) < 0));
+    }
+
+    private void truncate(int entryCount) throws IOException {
+        entries.subList(entryCount, entries.size()).clear();
+        completeLength = -1L;
+        rewrite();
+    }
+
+    private void rewrite() throws IOException {
+        closeWriter();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile, false), ZipMakerFactory.Helper.UTF_8));
+        writer.write(MANIFEST_HEADER);
+        writer.write(LINE_SEPARATOR);
+        for (Entry entry : entries) {
+            appendEntry(entry);
+        }
+        if (completeLength >= 0L) {
+            writer.write(FINISH_MARK);
+            writer.write(FIELD_SEPARATOR);
+            writer.write(Long.toString(completeLength));
+            writer.write(LINE_SEPARATOR);
+        }
+        writer.flush();
+    }
+
+    private void appendEntry(Entry entry) throws IOException {
+        ensureWriter();
+        writer.write(ENTRY_MARK);
+        writer.write(FIELD_SEPARATOR);
+        if (entry.volumeID != null) {
+            writer.write(entry.volumeID);
+        }
+        writer.write(FIELD_SEPARATOR);
+        writer.write(Long.toString(entry.crc));
+        writer.write(FIELD_SEPARATOR);
+        writer.write(Long.toString(entry.size));
+        writer.write(FIELD_SEPARATOR);
+        writer.write(entry.name);
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private void ensureWriter() throws IOException {
+        if (writer == null) {
+            boolean exists = manifestFile.exists();
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile, true), ZipMakerFactory.Helper.UTF_8));
+            if (!exists) {
+                writer.write(MANIFEST_HEADER);
+                writer.write(LINE_SEPARATOR);
+            }
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.error("Failed to close manifest " + manifestFile.getAbsolutePath(), e);
+            }
+            writer = null;
+        }
+    }
+
+    private static void sweep(File dir, long now) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(MANIFEST_SUFFIX) && now - file.lastModified() >= manifestTTL
+                        && !activeRequestKeys.containsKey(name.substring(0, name.length() - MANIFEST_SUFFIX.length()))) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+}
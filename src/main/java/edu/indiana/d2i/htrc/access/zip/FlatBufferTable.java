@@ -0,0 +1,350 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FlatBufferTable.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * This class describes a FlatBuffers table and lays it out, with everything it refers to, as a FlatBuffers buffer.  The builders of the FlatBuffers library
+ * write back to front; this class writes front to back instead, putting each table after its vtable and before the strings, vectors and tables it refers to,
+ * so that every offset points forward as the format requires.  It is only meant for the small metadata messages of the Arrow IPC format, and supports just the
+ * field types they use.
+ *
+ * @author Yiming Sun
+ *
+ */
+class FlatBufferTable {
+
+    protected static final String UTF_8 = "utf-8";
+    protected static final int MAX_FIELD_COUNT = 8;
+
+    protected static final int KIND_NONE = 0;
+    protected static final int KIND_BYTE = 1;
+    protected static final int KIND_SHORT = 2;
+    protected static final int KIND_INT = 3;
+    protected static final int KIND_LONG = 4;
+    protected static final int KIND_STRING = 5;
+    protected static final int KIND_TABLE = 6;
+    protected static final int KIND_TABLE_VECTOR = 7;
+    protected static final int KIND_STRUCT_VECTOR = 8;
+
+    // the inline sizes of the kinds; references to strings, vectors and tables are 4 byte offsets
+    private static final int[] INLINE_SIZES = {0, 1, 2, 4, 8, 4, 4, 4, 4};
+
+    /**
+     * This class is the buffer a FlatBufferTable is laid out into
+     * @author Yiming Sun
+     *
+     */
+    protected static class Layout {
+        protected byte[] bytes = new byte[256];
+        protected int size = 0;
+
+        protected void align(int alignment) {
+            while (size % alignment != 0) {
+                appendByte(0);
+            }
+        }
+
+        protected int reserve(int length) {
+            ensureCapacity(length);
+            int position = size;
+            size += length;
+            return position;
+        }
+
+        protected void appendByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte)value;
+        }
+
+        protected void appendBytes(byte[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+        }
+
+        protected void putShort(int position, int value) {
+            bytes[position] = (byte)value;
+            bytes[position + 1] = (byte)(value >>> 8);
+        }
+
+        protected void putInt(int position, int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[position + i] = (byte)(value >>> (8 * i));
+            }
+        }
+
+        protected void putLong(int position, long value) {
+            for (int i = 0; i < 8; i++) {
+                bytes[position + i] = (byte)(value >>> (8 * i));
+            }
+        }
+
+        protected byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+
+    protected final int[] kinds = new int[MAX_FIELD_COUNT];
+    protected final long[] scalars = new long[MAX_FIELD_COUNT];
+    protected final Object[] references = new Object[MAX_FIELD_COUNT];
+    protected final int[] structCounts = new int[MAX_FIELD_COUNT];
+    protected int fieldCount = 0;
+
+    /**
+     * Method to set a ubyte field, which is also how union type fields are stored
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addByte(int id, int value) {
+        addScalar(id, KIND_BYTE, value);
+    }
+
+    /**
+     * Method to set a bool field
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addBoolean(int id, boolean value) {
+        addScalar(id, KIND_BYTE, value ? 1 : 0);
+    }
+
+    /**
+     * Method to set a short field
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addShort(int id, int value) {
+        addScalar(id, KIND_SHORT, value);
+    }
+
+    /**
+     * Method to set an int field
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addInt(int id, int value) {
+        addScalar(id, KIND_INT, value);
+    }
+
+    /**
+     * Method to set a long field
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addLong(int id, long value) {
+        addScalar(id, KIND_LONG, value);
+    }
+
+    /**
+     * Method to set a string field
+     * @param id the id of the field in the schema
+     * @param value the value
+     */
+    void addString(int id, String value) {
+        addReference(id, KIND_STRING, value);
+    }
+
+    /**
+     * Method to set a table field, or the value of a union field
+     * @param id the id of the field in the schema
+     * @param table the table
+     */
+    void addTable(int id, FlatBufferTable table) {
+        addReference(id, KIND_TABLE, table);
+    }
+
+    /**
+     * Method to set a field that is a vector of tables
+     * @param id the id of the field in the schema
+     * @param tables the tables, which may be none
+     */
+    void addTableVector(int id, FlatBufferTable... tables) {
+        addReference(id, KIND_TABLE_VECTOR, tables);
+    }
+
+    /**
+     * Method to set a field that is a vector of structs made of longs only, such as the FieldNode and Buffer structs of Arrow
+     * @param id the id of the field in the schema
+     * @param values the longs of all structs, one struct after the other
+     * @param structCount the number of structs
+     */
+    void addStructVector(int id, long[] values, int structCount) {
+        addReference(id, KIND_STRUCT_VECTOR, values);
+        structCounts[id] = structCount;
+    }
+
+    /**
+     * Method to lay out this table as the root of a FlatBuffers buffer
+     * @return the bytes of the buffer
+     */
+    byte[] toByteArray() {
+        Layout layout = new Layout();
+        int rootPosition = layout.reserve(4);
+        int tablePosition = writeTable(layout, this);
+        layout.putInt(rootPosition, tablePosition - rootPosition);
+        return layout.toByteArray();
+    }
+
+    private void addScalar(int id, int kind, long value) {
+        kinds[id] = kind;
+        scalars[id] = value;
+        fieldCount = Math.max(fieldCount, id + 1);
+    }
+
+    private void addReference(int id, int kind, Object value) {
+        kinds[id] = kind;
+        references[id] = value;
+        fieldCount = Math.max(fieldCount, id + 1);
+    }
+
+    protected static int writeTable(Layout layout, FlatBufferTable table) {
+        layout.align(2);
+        int vtablePosition = layout.reserve(4 + 2 * table.fieldCount);
+        layout.putShort(vtablePosition, 4 + 2 * table.fieldCount);
+
+        // the table starts 8 byte aligned so that its long fields can be aligned too
+        layout.align(8);
+        int tablePosition = layout.reserve(4);
+        layout.putInt(tablePosition, tablePosition - vtablePosition);
+
+        // the fields are placed from the widest to the narrowest, which leaves the least padding
+        int[] fieldPositions = new int[table.fieldCount];
+        for (int inlineSize = 8; inlineSize >= 1; inlineSize /= 2) {
+            for (int id = 0; id < table.fieldCount; id++) {
+                int kind = table.kinds[id];
+                if (kind != KIND_NONE && INLINE_SIZES[kind] == inlineSize) {
+                    layout.align(inlineSize);
+                    int position = layout.reserve(inlineSize);
+                    switch (kind) {
+                    case KIND_BYTE:
+                        layout.bytes[position] = (byte)table.scalars[id];
+                        break;
+                    case KIND_SHORT:
+                        layout.putShort(position, (int)table.scalars[id]);
+                        break;
+                    case KIND_INT:
+                        layout.putInt(position, (int)table.scalars[id]);
+                        break;
+                    case KIND_LONG:
+                        layout.putLong(position, table.scalars[id]);
+                        break;
+                    default:
+                        // the offset is filled in once the referred object is written
+                        layout.putInt(position, 0);
+                        break;
+                    }
+                    fieldPositions[id] = position;
+                    layout.putShort(vtablePosition + 4 + 2 * id, position - tablePosition);
+                }
+            }
+        }
+        layout.putShort(vtablePosition + 2, layout.size - tablePosition);
+
+        for (int id = 0; id < table.fieldCount; id++) {
+            int kind = table.kinds[id];
+            int position = -1;
+            switch (kind) {
+            case KIND_STRING:
+                position = writeString(layout, (String)table.references[id]);
+                break;
+            case KIND_TABLE:
+                position = writeTable(layout, (FlatBufferTable)table.references[id]);
+                break;
+            case KIND_TABLE_VECTOR:
+                position = writeTableVector(layout, (FlatBufferTable[])table.references[id]);
+                break;
+            case KIND_STRUCT_VECTOR:
+                position = writeStructVector(layout, (long[])table.references[id], table.structCounts[id]);
+                break;
+            default:
+                break;
+            }
+            if (position >= 0) {
+                layout.putInt(fieldPositions[id], position - fieldPositions[id]);
+            }
+        }
+        return tablePosition;
+    }
+
+    protected static int writeString(Layout layout, String value) {
+        byte[] bytes = null;
+        try {
+            bytes = value.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        layout.align(4);
+        int position = layout.reserve(4);
+        layout.putInt(position, bytes.length);
+        layout.appendBytes(bytes);
+        layout.appendByte(0);
+        return position;
+    }
+
+    protected static int writeTableVector(Layout layout, FlatBufferTable[] tables) {
+        layout.align(4);
+        int position = layout.reserve(4 + 4 * tables.length);
+        layout.putInt(position, tables.length);
+        for (int i = 0; i < tables.length; i++) {
+            int slotPosition = position + 4 + 4 * i;
+            int tablePosition = writeTable(layout, tables[i]);
+            layout.putInt(slotPosition, tablePosition - slotPosition);
+        }
+        return position;
+    }
+
+    protected static int writeStructVector(Layout layout, long[] values, int structCount) {
+        // the length comes right before the structs, which must be 8 byte aligned
+        layout.align(4);
+        if (layout.size % 8 == 0) {
+            layout.reserve(4);
+            layout.putInt(layout.size - 4, 0);
+        }
+        int position = layout.reserve(4);
+        layout.putInt(position, structCount);
+        for (long value : values) {
+            layout.putLong(layout.reserve(8), value);
+        }
+        return position;
+    }
+
+}
+
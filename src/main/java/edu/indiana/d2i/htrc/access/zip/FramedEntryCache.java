@@ -0,0 +1,256 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FramedEntryCache.java
+# Description:  This class is an in-memory cache of fully framed volume zip entries that can be spliced into any response
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+
+/**
+ * This class is an in-memory cache of the combined text entries written by CombinePageVolumeZipMaker.  Each entry is kept fully framed, i.e. with its CRC-32
+ * and sizes computed and its content already deflated at the compression level of the response, so a RawZipArchiveWriter can splice it into any later
+ * response as raw bytes.  Entries are keyed by volumeID and compression level, and the least recently used entries are evicted when the total size of the
+ * cache exceeds its bound.  The pages of a volume whose entry is cached are not fetched again.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class FramedEntryCache {
+
+    private static Logger log = Logger.getLogger(FramedEntryCache.class);
+
+    public static final String PN_FRAMED_ENTRY_CACHE_MAX_BYTES = "framed.entry.cache.max.bytes";
+    public static final String PN_FRAMED_ENTRY_CACHE_MAX_ENTRY_BYTES = "framed.entry.cache.max.entry.bytes";
+
+    private static FramedEntryCache instance = null;
+
+    /**
+     * This class is one complete zip entry as it appears in the archive after its local file header
+     * @author Yiming Sun
+     *
+     */
+    public static class FramedEntry {
+        protected final String entryName;
+        protected final byte[] nameBytes;
+        protected final int method;
+        protected final long crc;
+        protected final long uncompressedSize;
+        protected final byte[] data;
+        protected final int length;
+        protected final String[] contentNames;
+
+        protected FramedEntry(String entryName, int method, long crc, long uncompressedSize, byte[] data, int length, String[] contentNames) {
+            this.entryName = entryName;
+            this.nameBytes = RawZipArchiveWriter.encodeEntryName(entryName);
+            this.method = method;
+            this.crc = crc;
+            this.uncompressedSize = uncompressedSize;
+            this.data = data;
+            this.length = length;
+            this.contentNames = contentNames;
+        }
+
+        /**
+         * Method to frame the content of an entry, deflating it unless the compression level is Deflater.NO_COMPRESSION.  The entry is stored instead if
+         * deflating it would not make it smaller, the same way ParallelDeflateZipArchiveWriter does
+         * @param entryName name of the entry
+         * @param content a byte array holding the content of the entry
+         * @param length length of the content
+         * @param compressionLevel the compression level
+         * @param contentNames names of the pages the content was made of, for auditing
+         * @return a FramedEntry object
+         */
+        public static FramedEntry frame(String entryName, byte[] content, int length, int compressionLevel, List<String> contentNames) {
+            String[] names = contentNames.toArray(new String[contentNames.size()]);
+            FramedEntry framedEntry = null;
+            if (compressionLevel > Deflater.NO_COMPRESSION) {
+                ParallelDeflateZipArchiveWriter.DeflatedEntry deflatedEntry = new ParallelDeflateZipArchiveWriter.DeflateTask(content, length, compressionLevel).call();
+                byte[] data = deflatedEntry.data;
+                if (data == content) {
+                    data = new byte[length];
+                    System.arraycopy(content, 0, data, 0, length);
+                }
+                framedEntry = new FramedEntry(entryName, deflatedEntry.method, deflatedEntry.crc, deflatedEntry.uncompressedSize, data, deflatedEntry.length, names);
+            } else {
+                CRC32 crc32 = new CRC32();
+                crc32.update(content, 0, length);
+                byte[] data = new byte[length];
+                System.arraycopy(content, 0, data, 0, length);
+                framedEntry = new FramedEntry(entryName, RawZipArchiveWriter.METHOD_STORED, crc32.getValue(), length, data, length, names);
+            }
+            return framedEntry;
+        }
+
+        /**
+         * Method to get the name of the entry
+         * @return the name of the entry
+         */
+        public String getEntryName() {
+            return entryName;
+        }
+
+        /**
+         * Method to get the names of the pages the entry was made of
+         * @return the names of the pages the entry was made of
+         */
+        public String[] getContentNames() {
+            return contentNames;
+        }
+
+        /**
+         * Method to get the amount of memory the entry holds on to
+         * @return the length of the entry data and name in bytes
+         */
+        public long getFootprint() {
+            return (long)data.length + nameBytes.length;
+        }
+    }
+
+    protected final long maxBytes;
+    protected final long maxEntryBytes;
+    // framed entries by volumeID and compression level, in least recently used first order
+    protected final LinkedHashMap<String, FramedEntry> entries;
+    protected long totalBytes = 0L;
+
+    /**
+     * Method to initialize the cache.  The cache is disabled unless a maximum size is configured
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static synchronized void init(ParameterContainer parameterContainer) {
+        instance = null;
+        String maxBytesString = parameterContainer.getParameter(PN_FRAMED_ENTRY_CACHE_MAX_BYTES);
+        if (maxBytesString != null && maxBytesString.trim().length() > 0) {
+            long maxBytes = Long.parseLong(maxBytesString.trim());
+            if (maxBytes > 0L) {
+                String maxEntryBytesString = parameterContainer.getParameter(PN_FRAMED_ENTRY_CACHE_MAX_ENTRY_BYTES);
+                long maxEntryBytes = (maxEntryBytesString != null) ? Long.parseLong(maxEntryBytesString.trim()) : maxBytes;
+                instance = new FramedEntryCache(maxBytes, maxEntryBytes);
+            }
+        }
+    }
+
+    /**
+     * Method to get the cache
+     * @return the FramedEntryCache object, or <code>null</code> if the cache is disabled
+     */
+    public static synchronized FramedEntryCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Method to tell if framed entries can be used for a response.  They can only be spliced into zip files written by a RawZipArchiveWriter
+     * @param format the negotiated output format
+     * @param compressionLevel the negotiated compression level
+     * @param resumable <code>true</code> if the response is written by ResumableZipArchiveWriter, <code>false</code> otherwise
+     * @return <code>true</code> if the cache is enabled and the response is written by a RawZipArchiveWriter, <code>false</code> otherwise
+     */
+    public static boolean isApplicable(FormatEnum format, int compressionLevel, boolean resumable) {
+        return getInstance() != null && (resumable || ArchiveWriterFactory.writesRawZip(format, compressionLevel));
+    }
+
+    /**
+     * Constructor
+     * @param maxBytes the bound on the total size of the cached entries
+     * @param maxEntryBytes the size of the largest entry to cache
+     */
+    protected FramedEntryCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+        this.entries = new LinkedHashMap<String, FramedEntry>(16, 0.75f, true);
+    }
+
+    /**
+     * Method to look up the framed entries of the requested volumes.  Only volumes requested in whole can be served from the cache
+     * @param identifiers the requested volumes
+     * @param compressionLevel the compression level of the response
+     * @return a Map of the cached FramedEntry objects by volumeID, which the response holds on to even if the entries are evicted meanwhile
+     */
+    public synchronized Map<String, FramedEntry> lookup(List<? extends RequestedItemCoordinates> identifiers, int compressionLevel) {
+        Map<String, FramedEntry> framedEntries = new HashMap<String, FramedEntry>();
+        for (RequestedItemCoordinates identifier : identifiers) {
+            if (identifier.getPageSequences() == null) {
+                FramedEntry framedEntry = entries.get(toKey(identifier.getVolumeID(), compressionLevel));
+                if (framedEntry != null) {
+                    framedEntries.put(identifier.getVolumeID(), framedEntry);
+                }
+            }
+        }
+        return framedEntries;
+    }
+
+    /**
+     * Method to add the framed entry of a volume to the cache
+     * @param volumeID the volumeID
+     * @param compressionLevel the compression level the entry was framed at
+     * @param framedEntry the FramedEntry object
+     */
+    public synchronized void put(String volumeID, int compressionLevel, FramedEntry framedEntry) {
+        long footprint = framedEntry.getFootprint();
+        if (footprint > maxEntryBytes) {
+            if (log.isDebugEnabled()) log.debug("framed entry of " + volumeID + " is too large to cache");
+            return;
+        }
+        FramedEntry previous = entries.put(toKey(volumeID, compressionLevel), framedEntry);
+        if (previous != null) {
+            totalBytes -= previous.getFootprint();
+        }
+        totalBytes += footprint;
+        Iterator<FramedEntry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().getFootprint();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Method to get the total size of the cached entries
+     * @return the total size of the cached entries in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    protected static String toKey(String volumeID, int compressionLevel) {
+        return volumeID + ";" + compressionLevel;
+    }
+
+}
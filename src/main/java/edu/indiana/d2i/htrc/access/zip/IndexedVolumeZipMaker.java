@@ -0,0 +1,154 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  IndexedVolumeZipMaker.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This implementation of the IncrementalZipMaker interface creates one entry for each volume, the same as CombinePageVolumeZipMaker, but keeps the page
+ * boundaries: the concatenated pages are followed by a table with a fixed-width record for each page and a fixed-width footer, so a client can map the
+ * entry into memory and go to any page directly.  All numbers are big-endian.
+ * <pre>
+ * pages   the content of the pages in page order
+ * table   for each page, 16 bytes: the page sequence as an int (-1 if it is not a number), the offset of the page as a long and its length as an int
+ * footer  16 bytes: the offset of the table as a long, the number of pages as an int and the magic number 0x48545049 ("HTPI")
+ * </pre>
+ * Offsets are counted from the start of the entry.  The name of the entry is the Pairtree cleaned volumeID with ".pages" extension.  Metadata entries
+ * are written the same way CombinePageVolumeZipMaker writes them.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class IndexedVolumeZipMaker extends CombinePageVolumeZipMaker {
+
+    public static final int RECORD_LENGTH = 16;
+    public static final int FOOTER_LENGTH = 16;
+    public static final int MAGIC = 0x48545049;
+
+    protected static final String ENTRY_SUFFIX = ".pages";
+
+    protected int[] pageSequences = new int[DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE];
+    protected long[] pageOffsets = new long[DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE];
+    protected int[] pageLengths = new int[DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE];
+    protected int pageCount = 0;
+    protected long entryLength = 0L;
+
+    IndexedVolumeZipMaker(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+
+    IndexedVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel) {
+        this(auditor, format, compressionLevel, null);
+    }
+
+    // the table makes the entry differ from the combined text, so it is never spliced from the FramedEntryCache
+    IndexedVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest) {
+        super(auditor, format, compressionLevel, downloadManifest, null);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.CombinePageVolumeZipMaker#getVolumeEntrySuffix()
+     */
+    @Override
+    protected String getVolumeEntrySuffix() {
+        return ENTRY_SUFFIX;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.CombinePageVolumeZipMaker#appendPage(java.lang.String, byte[])
+     */
+    @Override
+    protected void appendPage(String pageSequence, byte[] pageContent) throws IOException {
+        if (pageCount == pageSequences.length) {
+            pageSequences = Arrays.copyOf(pageSequences, pageCount * 2);
+            pageOffsets = Arrays.copyOf(pageOffsets, pageCount * 2);
+            pageLengths = Arrays.copyOf(pageLengths, pageCount * 2);
+        }
+        pageSequences[pageCount] = parsePageSequence(pageSequence);
+        pageOffsets[pageCount] = entryLength;
+        pageLengths[pageCount] = pageContent.length;
+        pageCount++;
+        archiveWriter.write(pageContent);
+        entryLength += pageContent.length;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.CombinePageVolumeZipMaker#closeVolumeEntry()
+     */
+    @Override
+    protected void closeVolumeEntry() throws IOException {
+        byte[] table = new byte[pageCount * RECORD_LENGTH + FOOTER_LENGTH];
+        int position = 0;
+        for (int i = 0; i < pageCount; i++) {
+            position = writeInt(pageSequences[i], table, position);
+            position = writeLong(pageOffsets[i], table, position);
+            position = writeInt(pageLengths[i], table, position);
+        }
+        position = writeLong(entryLength, table, position);
+        position = writeInt(pageCount, table, position);
+        writeInt(MAGIC, table, position);
+        archiveWriter.write(table);
+        pageCount = 0;
+        entryLength = 0L;
+        super.closeVolumeEntry();
+    }
+
+    protected static int parsePageSequence(String pageSequence) {
+        int sequence = -1;
+        try {
+            sequence = Integer.parseInt(pageSequence);
+        } catch (NumberFormatException e) {
+            // the page is still found by its position in the table
+        }
+        return sequence;
+    }
+
+    protected static int writeInt(int value, byte[] buffer, int position) {
+        buffer[position] = (byte)(value >>> 24);
+        buffer[position + 1] = (byte)(value >>> 16);
+        buffer[position + 2] = (byte)(value >>> 8);
+        buffer[position + 3] = (byte)value;
+        return position + 4;
+    }
+
+    protected static int writeLong(long value, byte[] buffer, int position) {
+        writeInt((int)(value >>> 32), buffer, position);
+        return writeInt((int)value, buffer, position + 4);
+    }
+
+}
+
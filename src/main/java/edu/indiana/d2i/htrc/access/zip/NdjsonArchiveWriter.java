@@ -0,0 +1,200 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NdjsonArchiveWriter.java
+# Description:  This implementation of ArchiveWriter writes each entry as one line of newline-delimited JSON
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This implementation of ArchiveWriter writes each entry as one line of newline-delimited JSON of the form
+ * <pre>
+ * {"name":"&lt;entry name&gt;","content":"&lt;entry content&gt;"}
+ * </pre>
+ * so line-oriented tools such as Spark's JSON reader can process the pages as they arrive.  The content of the entries is UTF-8 text, so it is escaped byte by
+ * byte: only quotes, backslashes and control characters need escaping, and every well-formed multi-byte UTF-8 sequence passes through unchanged.  Some
+ * pages are not well-formed UTF-8, and strict JSON parsers reject a line holding malformed bytes, so each maximal ill-formed subpart is written as the
+ * escaped replacement character \ufffd instead, as the Unicode Standard recommends for decoders.  With gzip framing on, each line is a separate gzip member.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class NdjsonArchiveWriter extends StreamingArchiveWriter {
+
+    private static final byte[] NAME_FIELD_START = {'{', '"', 'n', 'a', 'm', 'e', '"', ':', '"'};
+    private static final byte[] CONTENT_FIELD_START = {'"', ',', '"', 'c', 'o', 'n', 't', 'e', 'n', 't', '"', ':', '"'};
+    private static final byte[] RECORD_END = {'"', '}', '\n'};
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] ESCAPED_REPLACEMENT_CHARACTER = {'\\', 'u', 'f', 'f', 'f', 'd'};
+
+    // the longest escape sequence is a backslash, 'u' and four hex digits
+    private static final int MAX_ESCAPE_LENGTH = 6;
+
+    private final byte[] escapeBuffer;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the JSON lines are written
+     * @param gzipFramed <code>true</code> if each line is to be written as a separate gzip member
+     * @param compressionLevel the Deflater compression level of the gzip members, ignored if gzipFramed is <code>false</code>
+     */
+    public NdjsonArchiveWriter(OutputStream outputStream, boolean gzipFramed, int compressionLevel) {
+        super(outputStream, gzipFramed, compressionLevel);
+        this.escapeBuffer = new byte[INITIAL_ENTRY_BUFFER_SIZE];
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StreamingArchiveWriter#writeRecord(java.lang.String, byte[], int, int)
+     */
+    @Override
+    protected void writeRecord(String entryName, byte[] content, int offset, int length) throws IOException {
+        byte[] nameBytes = RawZipArchiveWriter.encodeEntryName(entryName);
+        beginRecord();
+        writeRecordData(NAME_FIELD_START, 0, NAME_FIELD_START.length);
+        writeEscaped(nameBytes, 0, nameBytes.length);
+        writeRecordData(CONTENT_FIELD_START, 0, CONTENT_FIELD_START.length);
+        writeEscaped(content, offset, length);
+        writeRecordData(RECORD_END, 0, RECORD_END.length);
+        endRecord();
+    }
+
+    /**
+     * Method to write bytes as the inside of a JSON string, replacing malformed UTF-8 sequences
+     * @param bytes a byte array holding UTF-8 text
+     * @param offset offset in the byte array
+     * @param length number of bytes to write
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeEscaped(byte[] bytes, int offset, int length) throws IOException {
+        int position = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (position > escapeBuffer.length - MAX_ESCAPE_LENGTH) {
+                writeRecordData(escapeBuffer, 0, position);
+                position = 0;
+            }
+            byte b = bytes[i];
+            int consumed = 1;
+            if (b == '"' || b == '\\') {
+                escapeBuffer[position++] = '\\';
+                escapeBuffer[position++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                escapeBuffer[position++] = '\\';
+                switch (b) {
+                case '\n':
+                    escapeBuffer[position++] = 'n';
+                    break;
+                case '\r':
+                    escapeBuffer[position++] = 'r';
+                    break;
+                case '\t':
+                    escapeBuffer[position++] = 't';
+                    break;
+                case '\b':
+                    escapeBuffer[position++] = 'b';
+                    break;
+                case '\f':
+                    escapeBuffer[position++] = 'f';
+                    break;
+                default:
+                    escapeBuffer[position++] = 'u';
+                    escapeBuffer[position++] = '0';
+                    escapeBuffer[position++] = '0';
+                    escapeBuffer[position++] = HEX_DIGITS[b >> 4];
+                    escapeBuffer[position++] = HEX_DIGITS[b & 0x0f];
+                    break;
+                }
+            } else if (b >= 0) {
+                escapeBuffer[position++] = b;
+            } else {
+                int sequenceLength = sequenceLength(bytes, i, end);
+                if (sequenceLength > 0) {
+                    System.arraycopy(bytes, i, escapeBuffer, position, sequenceLength);
+                    position += sequenceLength;
+                    consumed = sequenceLength;
+                } else {
+                    System.arraycopy(ESCAPED_REPLACEMENT_CHARACTER, 0, escapeBuffer, position, ESCAPED_REPLACEMENT_CHARACTER.length);
+                    position += ESCAPED_REPLACEMENT_CHARACTER.length;
+                    consumed = -sequenceLength;
+                }
+            }
+            i += consumed;
+        }
+        if (position > 0) {
+            writeRecordData(escapeBuffer, 0, position);
+        }
+    }
+
+    /**
+     * Method to check the UTF-8 sequence starting with a non-ASCII byte, following the well-formed byte sequences of the Unicode Standard
+     * @param bytes a byte array
+     * @param position position of the lead byte of the sequence
+     * @param end end of the bytes to check
+     * @return the length of the sequence if it is well-formed, or else minus the length of its maximal ill-formed subpart, i.e. of the longest prefix of a
+     * well-formed sequence it starts with, which is at least 1
+     */
+    protected static int sequenceLength(byte[] bytes, int position, int end) {
+        int lead = bytes[position] & 0xff;
+        int sequenceLength = 0;
+        int min = 0x80;
+        int max = 0xbf;
+        if (lead >= 0xc2 && lead <= 0xdf) {
+            sequenceLength = 2;
+        } else if (lead >= 0xe0 && lead <= 0xef) {
+            sequenceLength = 3;
+            if (lead == 0xe0) {
+                min = 0xa0;
+            } else if (lead == 0xed) {
+                max = 0x9f;
+            }
+        } else if (lead >= 0xf0 && lead <= 0xf4) {
+            sequenceLength = 4;
+            if (lead == 0xf0) {
+                min = 0x90;
+            } else if (lead == 0xf4) {
+                max = 0x8f;
+            }
+        }
+        int valid = 1;
+        boolean wellFormed = sequenceLength > 0;
+        while (wellFormed && valid < sequenceLength) {
+            // only the second byte has a narrowed range
+            int next = (position + valid < end) ? bytes[position + valid] & 0xff : -1;
+            wellFormed = (valid == 1) ? next >= min && next <= max : next >= 0x80 && next <= 0xbf;
+            if (wellFormed) {
+                valid++;
+            }
+        }
+        return wellFormed ? sequenceLength : -valid;
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ParallelDeflateZipArchiveWriter.java
+# Description:  This implementation of ArchiveWriter compresses entries on a shared thread pool and writes them out in their original order
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * This implementation of ArchiveWriter compresses entries on a shared thread pool, pigz-style, so that turning compression on does not make the single
+ * streaming thread the bottleneck.  The content of each entry is buffered, handed to the pool as an independent raw DEFLATE job together with its CRC-32,
+ * and the results are written out strictly in the order the entries were closed.  At most maxPendingEntries entries are in flight at any time, which bounds
+ * the memory held by one request.  Entries that do not get smaller are written as STORED instead.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ParallelDeflateZipArchiveWriter extends RawZipArchiveWriter {
+
+    /**
+     * This class holds the result of compressing one entry
+     * @author Yiming Sun
+     *
+     */
+    static class DeflatedEntry {
+        final int method;
+        final long crc;
+        final int uncompressedSize;
+        final byte[] data;
+        final int length;
+
+        DeflatedEntry(int method, long crc, int uncompressedSize, byte[] data, int length) {
+            this.method = method;
+            this.crc = crc;
+            this.uncompressedSize = uncompressedSize;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * This Callable computes the CRC-32 and the raw DEFLATE stream of one entry on a pool thread
+     * @author Yiming Sun
+     *
+     */
+    static class DeflateTask implements Callable<DeflatedEntry> {
+        // a Deflater holds native memory, so each pool thread keeps one for good instead of allocating one per entry
+        private static final ThreadLocal<Deflater> THREAD_DEFLATER = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+        };
+
+        private final byte[] content;
+        private final int length;
+        private final int compressionLevel;
+
+        DeflateTask(byte[] content, int length, int compressionLevel) {
+            this.content = content;
+            this.length = length;
+            this.compressionLevel = compressionLevel;
+        }
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public DeflatedEntry call() {
+            CRC32 crc32 = new CRC32();
+            crc32.update(content, 0, length);
+
+            Deflater deflater = THREAD_DEFLATER.get();
+            deflater.reset();
+            deflater.setLevel(compressionLevel);
+            deflater.setInput(content, 0, length);
+            deflater.finish();
+            // stop as soon as the output would not be smaller than the input; the entry is stored instead
+            byte[] output = new byte[Math.max(64, length)];
+            int outputLength = 0;
+            while (!deflater.finished() && outputLength < output.length) {
+                outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+            }
+            if (deflater.finished() && outputLength < length) {
+                return new DeflatedEntry(METHOD_DEFLATED, crc32.getValue(), length, output, outputLength);
+            }
+            return new DeflatedEntry(METHOD_STORED, crc32.getValue(), length, content, length);
+        }
+    }
+
+    /**
+     * This class pairs an entry name with the pending result of compressing its content
+     * @author Yiming Sun
+     *
+     */
+    static class PendingEntry {
+        final byte[] nameBytes;
+        final Future<DeflatedEntry> future;
+
+        PendingEntry(byte[] nameBytes, Future<DeflatedEntry> future) {
+            this.nameBytes = nameBytes;
+            this.future = future;
+        }
+    }
+
+    protected static final int INITIAL_ENTRY_BUFFER_SIZE = 8192;
+
+    protected final int compressionLevel;
+    protected final ExecutorService executorService;
+    protected final int maxPendingEntries;
+    protected final LinkedList<PendingEntry> pendingEntries;
+
+    protected String currentEntryName = null;
+    protected EntryBuffer currentEntryBuffer = null;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param compressionLevel a Deflater compression level between 1 and 9
+     * @param executorService the ExecutorService on which entries are compressed
+     * @param maxPendingEntries maximum number of entries compressed or waiting to be compressed at any time
+     */
+    public ParallelDeflateZipArchiveWriter(OutputStream outputStream, int compressionLevel, ExecutorService executorService, int maxPendingEntries) {
+        super(outputStream, DEFAULT_BATCH_SIZE);
+        this.compressionLevel = compressionLevel;
+        this.executorService = executorService;
+        this.maxPendingEntries = Math.max(1, maxPendingEntries);
+        this.pendingEntries = new LinkedList<PendingEntry>();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#putNextEntry(java.lang.String)
+     */
+    @Override
+    public void putNextEntry(String entryName) throws IOException {
+        if (currentEntryName != null) {
+            closeEntry();
+        }
+        currentEntryName = entryName;
+        currentEntryBuffer = new EntryBuffer(INITIAL_ENTRY_BUFFER_SIZE);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (currentEntryBuffer == null) {
+            throw new ZipException("no current ZIP entry");
+        }
+        currentEntryBuffer.write(bytes, offset, length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (currentEntryName != null) {
+            DeflateTask task = new DeflateTask(currentEntryBuffer.array(), currentEntryBuffer.length(), compressionLevel);
+            pendingEntries.add(new PendingEntry(encodeEntryName(currentEntryName), executorService.submit(task)));
+            currentEntryName = null;
+            currentEntryBuffer = null;
+            writeCompletedEntries(maxPendingEntries);
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#finishEntries()
+     */
+    @Override
+    protected void finishEntries() throws IOException {
+        closeEntry();
+        writeCompletedEntries(0);
+    }
+
+    /**
+     * Method to write out entries at the head of the pending queue.  Entries that are already compressed are written without blocking, and the method waits
+     * for the head entry whenever more than maxPending entries are still pending
+     * @param maxPending maximum number of entries allowed to remain pending when the method returns
+     * @throws IOException thrown if compression failed or writing to the underlying OutputStream failed
+     */
+    protected void writeCompletedEntries(int maxPending) throws IOException {
+        while (!pendingEntries.isEmpty() && (pendingEntries.size() > maxPending || pendingEntries.getFirst().future.isDone())) {
+            PendingEntry pendingEntry = pendingEntries.removeFirst();
+            DeflatedEntry deflatedEntry = null;
+            try {
+                deflatedEntry = pendingEntry.future.get();
+            } catch (InterruptedException e) {
+                cancelPendingEntries();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for compression");
+            } catch (ExecutionException e) {
+                cancelPendingEntries();
+                IOException ioException = new IOException("failed to compress zip entry");
+                ioException.initCause(e.getCause());
+                throw ioException;
+            }
+            writeRawEntry(pendingEntry.nameBytes, deflatedEntry.method, deflatedEntry.crc, deflatedEntry.uncompressedSize, deflatedEntry.data, 0, deflatedEntry.length);
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#close()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            cancelPendingEntries();
+        }
+    }
+
+    /**
+     * Method to cancel compression of entries that will never be written, e.g. after the client went away
+     */
+    protected void cancelPendingEntries() {
+        for (PendingEntry pendingEntry : pendingEntries) {
+            pendingEntry.future.cancel(false);
+        }
+        pendingEntries.clear();
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RawZipArchiveWriter.java
+# Description:  This abstract class writes zip file structures directly for ArchiveWriter implementations that know each entry's CRC and sizes before the entry is written
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * This abstract class writes zip file structures directly for ArchiveWriter implementations that know the CRC and the sizes of each entry before the entry is
+ * written.  Because the local file header already carries the final values, no data descriptors are needed and the archive can also be read by streaming readers.
+ * Zip64 extensions are written only for the entries and the archives that need them, so ordinary archives stay readable by old tools.  Optionally, small
+ * writes are collected in a batch buffer so that many tiny entries go out to the socket in a few large writes.
+ *
+ * @author Yiming Sun
+ *
+ */
+public abstract class RawZipArchiveWriter extends ArchiveWriter {
+
+    protected static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    protected static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    protected static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    protected static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    protected static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    protected static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    protected static final int CENTRAL_DIRECTORY_HEADER_LENGTH = 46;
+    protected static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    protected static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    protected static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH = 20;
+
+    protected static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    protected static final int EXTRA_FIELD_HEADER_LENGTH = 4;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    protected static final int VERSION_STORED = 10;
+    protected static final int VERSION_DEFLATED = 20;
+    protected static final int VERSION_ZIP64 = 45;
+    protected static final int FLAG_UTF8_NAME = 0x0800;
+
+    // a field holding its maximum value tells the reader that the real value is in the Zip64 extra field or record
+    protected static final long MAX_32_BIT_VALUE = 0xFFFFFFFFL;
+    protected static final int MAX_16_BIT_VALUE = 0xFFFF;
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /**
+     * This class holds what the central directory needs to know about an entry already written
+     * @author Yiming Sun
+     *
+     */
+    protected static class CentralDirectoryRecord {
+        protected final byte[] nameBytes;
+        protected final int method;
+        protected final long crc;
+        protected final long compressedSize;
+        protected final long uncompressedSize;
+        protected final long localHeaderOffset;
+
+        protected CentralDirectoryRecord(byte[] nameBytes, int method, long crc, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+            this.nameBytes = nameBytes;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    protected final OutputStream outputStream;
+    protected final int dosTime;
+    protected final List<CentralDirectoryRecord> centralDirectory;
+    protected long bytesWritten = 0L;
+    protected boolean finished = false;
+    private byte[] headerBuffer = new byte[512];
+    private final byte[] batchBuffer;
+    private int batchLength = 0;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     */
+    protected RawZipArchiveWriter(OutputStream outputStream) {
+        this(outputStream, 0);
+    }
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param batchSize size of the buffer that collects small writes, or 0 to pass every write straight through
+     */
+    protected RawZipArchiveWriter(OutputStream outputStream, int batchSize) {
+        this(outputStream, batchSize, toDosTime(System.currentTimeMillis()));
+    }
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param batchSize size of the buffer that collects small writes, or 0 to pass every write straight through
+     * @param dosTime the MS-DOS date and time stamped on every entry
+     */
+    protected RawZipArchiveWriter(OutputStream outputStream, int batchSize, int dosTime) {
+        this.outputStream = outputStream;
+        this.dosTime = dosTime;
+        this.centralDirectory = new ArrayList<CentralDirectoryRecord>();
+        this.batchBuffer = batchSize > 0 ? new byte[batchSize] : null;
+    }
+
+    /**
+     * Method to write a complete entry whose CRC and sizes are already known
+     * @param nameBytes the UTF-8 encoded entry name
+     * @param method either METHOD_STORED or METHOD_DEFLATED
+     * @param crc the CRC-32 of the uncompressed content
+     * @param uncompressedSize size of the uncompressed content
+     * @param data a byte array holding the entry data as it is to appear in the archive
+     * @param offset offset of the entry data in the byte array
+     * @param length length of the entry data, which is also the compressed size
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeRawEntry(byte[] nameBytes, int method, long crc, long uncompressedSize, byte[] data, int offset, int length) throws IOException {
+        long localHeaderOffset = bytesWritten;
+        writeLocalFileHeader(nameBytes, method, crc, length, uncompressedSize);
+        writeBytes(data, offset, length);
+        centralDirectory.add(new CentralDirectoryRecord(nameBytes, method, crc, length, uncompressedSize, localHeaderOffset));
+    }
+
+    /**
+     * Method to splice a framed entry into the archive as it is, after any entries still held back
+     * @param framedEntry a FramedEntry object
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    public void writeFramedEntry(FramedEntryCache.FramedEntry framedEntry) throws IOException {
+        finishEntries();
+        writeRawEntry(framedEntry.nameBytes, framedEntry.method, framedEntry.crc, framedEntry.uncompressedSize, framedEntry.data, 0, framedEntry.length);
+    }
+
+    /**
+     * Method to write the local file header of an entry.  If either size does not fit in 32 bits, both sizes go into a Zip64 extra field
+     * @param nameBytes the UTF-8 encoded entry name
+     * @param method either METHOD_STORED or METHOD_DEFLATED
+     * @param crc the CRC-32 of the uncompressed content
+     * @param compressedSize size of the entry data in the archive
+     * @param uncompressedSize size of the uncompressed content
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeLocalFileHeader(byte[] nameBytes, int method, long crc, long compressedSize, long uncompressedSize) throws IOException {
+        checkNameLength(nameBytes);
+        boolean zip64 = compressedSize >= MAX_32_BIT_VALUE || uncompressedSize >= MAX_32_BIT_VALUE;
+        int extraLength = zip64 ? EXTRA_FIELD_HEADER_LENGTH + 16 : 0;
+
+        byte[] header = ensureHeaderBuffer(localFileHeaderLength(nameBytes, compressedSize, uncompressedSize));
+        int position = 0;
+        position = putInt(header, position, LOCAL_FILE_HEADER_SIGNATURE);
+        position = putShort(header, position, zip64 ? VERSION_ZIP64 : versionNeeded(method));
+        position = putShort(header, position, flags(nameBytes));
+        position = putShort(header, position, method);
+        position = putInt(header, position, dosTime);
+        position = putInt(header, position, (int)crc);
+        position = putInt(header, position, zip64 ? (int)MAX_32_BIT_VALUE : (int)compressedSize);
+        position = putInt(header, position, zip64 ? (int)MAX_32_BIT_VALUE : (int)uncompressedSize);
+        position = putShort(header, position, nameBytes.length);
+        position = putShort(header, position, extraLength);
+        System.arraycopy(nameBytes, 0, header, position, nameBytes.length);
+        position += nameBytes.length;
+        if (zip64) {
+            position = putShort(header, position, ZIP64_EXTRA_FIELD_ID);
+            position = putShort(header, position, 16);
+            position = putLong(header, position, uncompressedSize);
+            position = putLong(header, position, compressedSize);
+        }
+        writeBytes(header, 0, position);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#finish()
+     */
+    @Override
+    public void finish() throws IOException {
+        if (!finished) {
+            finishEntries();
+            writeCentralDirectory();
+            flushBatch();
+            outputStream.flush();
+            finished = true;
+        }
+    }
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBatch();
+        outputStream.flush();
+    }
+
+    /**
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        outputStream.close();
+    }
+
+    /**
+     * Method for subclasses to write out any entries still held back before the central directory is written
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected abstract void finishEntries() throws IOException;
+
+    /**
+     * Method to write the central directory and the end of central directory record.  The Zip64 end of central directory record and its locator are added
+     * when the number of entries, the size or the offset of the central directory no longer fit in the classic fields
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = bytesWritten;
+        for (CentralDirectoryRecord record : centralDirectory) {
+            boolean zip64UncompressedSize = record.uncompressedSize >= MAX_32_BIT_VALUE;
+            boolean zip64CompressedSize = record.compressedSize >= MAX_32_BIT_VALUE;
+            boolean zip64Offset = record.localHeaderOffset >= MAX_32_BIT_VALUE;
+            int zip64DataLength = (zip64UncompressedSize ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+            int extraLength = zip64DataLength > 0 ? EXTRA_FIELD_HEADER_LENGTH + zip64DataLength : 0;
+
+            byte[] header = ensureHeaderBuffer(CENTRAL_DIRECTORY_HEADER_LENGTH + record.nameBytes.length + extraLength);
+            int position = 0;
+            position = putInt(header, position, CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+            position = putShort(header, position, VERSION_ZIP64);
+            position = putShort(header, position, extraLength > 0 ? VERSION_ZIP64 : versionNeeded(record.method));
+            position = putShort(header, position, flags(record.nameBytes));
+            position = putShort(header, position, record.method);
+            position = putInt(header, position, dosTime);
+            position = putInt(header, position, (int)record.crc);
+            position = putInt(header, position, zip64CompressedSize ? (int)MAX_32_BIT_VALUE : (int)record.compressedSize);
+            position = putInt(header, position, zip64UncompressedSize ? (int)MAX_32_BIT_VALUE : (int)record.uncompressedSize);
+            position = putShort(header, position, record.nameBytes.length);
+            position = putShort(header, position, extraLength);
+            position = putShort(header, position, 0);  // comment length
+            position = putShort(header, position, 0);  // disk number start
+            position = putShort(header, position, 0);  // internal file attributes
+            position = putInt(header, position, 0);    // external file attributes
+            position = putInt(header, position, zip64Offset ? (int)MAX_32_BIT_VALUE : (int)record.localHeaderOffset);
+            System.arraycopy(record.nameBytes, 0, header, position, record.nameBytes.length);
+            position += record.nameBytes.length;
+            if (extraLength > 0) {
+                // the Zip64 extra field of a central directory header only carries the values that overflowed, always in this order
+                position = putShort(header, position, ZIP64_EXTRA_FIELD_ID);
+                position = putShort(header, position, zip64DataLength);
+                if (zip64UncompressedSize) {
+                    position = putLong(header, position, record.uncompressedSize);
+                }
+                if (zip64CompressedSize) {
+                    position = putLong(header, position, record.compressedSize);
+                }
+                if (zip64Offset) {
+                    position = putLong(header, position, record.localHeaderOffset);
+                }
+            }
+            writeBytes(header, 0, position);
+        }
+        long centralDirectorySize = bytesWritten - centralDirectoryOffset;
+        int entryCount = centralDirectory.size();
+
+        if (entryCount >= MAX_16_BIT_VALUE || centralDirectorySize >= MAX_32_BIT_VALUE || centralDirectoryOffset >= MAX_32_BIT_VALUE) {
+            long zip64EndOffset = bytesWritten;
+            byte[] header = ensureHeaderBuffer(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH);
+            int position = 0;
+            position = putInt(header, position, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            position = putLong(header, position, ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH - 12);
+            position = putShort(header, position, VERSION_ZIP64);
+            position = putShort(header, position, VERSION_ZIP64);
+            position = putInt(header, position, 0);    // number of this disk
+            position = putInt(header, position, 0);    // disk where the central directory starts
+            position = putLong(header, position, entryCount);
+            position = putLong(header, position, entryCount);
+            position = putLong(header, position, centralDirectorySize);
+            position = putLong(header, position, centralDirectoryOffset);
+
+            position = putInt(header, position, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            position = putInt(header, position, 0);    // disk where the Zip64 end of central directory record is
+            position = putLong(header, position, zip64EndOffset);
+            position = putInt(header, position, 1);    // total number of disks
+            writeBytes(header, 0, position);
+        }
+
+        byte[] header = ensureHeaderBuffer(END_OF_CENTRAL_DIRECTORY_LENGTH);
+        int position = 0;
+        position = putInt(header, position, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        position = putShort(header, position, 0);
+        position = putShort(header, position, 0);
+        position = putShort(header, position, Math.min(entryCount, MAX_16_BIT_VALUE));
+        position = putShort(header, position, Math.min(entryCount, MAX_16_BIT_VALUE));
+        position = putInt(header, position, (int)Math.min(centralDirectorySize, MAX_32_BIT_VALUE));
+        position = putInt(header, position, (int)Math.min(centralDirectoryOffset, MAX_32_BIT_VALUE));
+        position = putShort(header, position, 0);
+        writeBytes(header, 0, position);
+    }
+
+    /**
+     * Method to write bytes to the underlying OutputStream while keeping track of the current offset in the archive.  Writes smaller than the batch buffer
+     * are collected in it, and larger ones go straight through once the batch buffer has been drained
+     * @param bytes a byte array
+     * @param offset offset in the byte array
+     * @param length number of bytes to write
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (batchBuffer != null && length < batchBuffer.length) {
+            if (length > batchBuffer.length - batchLength) {
+                flushBatch();
+            }
+            System.arraycopy(bytes, offset, batchBuffer, batchLength, length);
+            batchLength += length;
+        } else {
+            flushBatch();
+            outputStream.write(bytes, offset, length);
+        }
+        bytesWritten += length;
+    }
+
+    /**
+     * Method to pass whatever has been collected in the batch buffer on to the underlying OutputStream
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void flushBatch() throws IOException {
+        if (batchLength > 0) {
+            outputStream.write(batchBuffer, 0, batchLength);
+            batchLength = 0;
+        }
+    }
+
+    /**
+     * Method to work out the length of the local file header writeLocalFileHeader() writes for an entry
+     * @param nameBytes the UTF-8 encoded entry name
+     * @param compressedSize size of the entry data in the archive
+     * @param uncompressedSize size of the uncompressed content
+     * @return the length of the local file header in bytes
+     */
+    protected static int localFileHeaderLength(byte[] nameBytes, long compressedSize, long uncompressedSize) {
+        boolean zip64 = compressedSize >= MAX_32_BIT_VALUE || uncompressedSize >= MAX_32_BIT_VALUE;
+        return LOCAL_FILE_HEADER_LENGTH + nameBytes.length + (zip64 ? EXTRA_FIELD_HEADER_LENGTH + 16 : 0);
+    }
+
+    protected void checkNameLength(byte[] nameBytes) throws ZipException {
+        if (nameBytes.length > MAX_16_BIT_VALUE) {
+            throw new ZipException("name too long");
+        }
+    }
+
+    protected int versionNeeded(int method) {
+        return method == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+    }
+
+    protected byte[] ensureHeaderBuffer(int length) {
+        if (headerBuffer.length < length) {
+            headerBuffer = new byte[Math.max(length, headerBuffer.length * 2)];
+        }
+        return headerBuffer;
+    }
+
+    protected static int putShort(byte[] buffer, int position, int value) {
+        buffer[position] = (byte)value;
+        buffer[position + 1] = (byte)(value >>> 8);
+        return position + 2;
+    }
+
+    protected static int putInt(byte[] buffer, int position, int value) {
+        buffer[position] = (byte)value;
+        buffer[position + 1] = (byte)(value >>> 8);
+        buffer[position + 2] = (byte)(value >>> 16);
+        buffer[position + 3] = (byte)(value >>> 24);
+        return position + 4;
+    }
+
+    protected static int putLong(byte[] buffer, int position, long value) {
+        putInt(buffer, position, (int)value);
+        putInt(buffer, position + 4, (int)(value >>> 32));
+        return position + 8;
+    }
+
+    /**
+     * Method to encode an entry name.  Names are UTF-8 encoded, and the language encoding flag is set for names that are not plain ASCII
+     * @param entryName name of the entry
+     * @return the UTF-8 bytes of the name
+     */
+    protected static byte[] encodeEntryName(String entryName) {
+        try {
+            return entryName.getBytes(ZipMakerFactory.Helper.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static int flags(byte[] nameBytes) {
+        for (byte b : nameBytes) {
+            if (b < 0) {
+                return FLAG_UTF8_NAME;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Method to convert a Java timestamp into the MS-DOS date and time used by zip headers, with the time in the low 16 bits and the date in the high 16 bits
+     * @param time a Java timestamp in milliseconds
+     * @return the MS-DOS date and time
+     */
+    protected static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ResumableZipArchiveWriter.java
+# Description:  This implementation of ArchiveWriter writes a deterministic zip stream that can be sent from any offset
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This implementation of ArchiveWriter writes uncompressed entries stamped with a fixed time, so the same entries always produce the same bytes, and records
+ * every entry in a DownloadManifest.  When the download resumes from an offset, the entries of the volumes that were skipped are replayed from the manifest
+ * without their content: only the byte count and the central directory record of each are accounted for.  The bytes of the entries written afterwards are
+ * dropped up to the offset, so the client receives exactly the remainder of the original stream.
+ * <p>
+ * A download can only be resumed once the manifest holds its length.  If the client goes away before the download is complete, the rest of the download
+ * is still produced, without being sent, so that the length is known when the client comes back, but only for as long as the manifest records it and
+ * for no more than resume.drain.max.seconds and resume.drain.max.bytes, so a download cancelled on purpose is not produced to its end.  The write failure
+ * is then thrown from finish(), so the download still ends as a failed one.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ResumableZipArchiveWriter extends StoredZipArchiveWriter {
+
+    private static Logger log = Logger.getLogger(ResumableZipArchiveWriter.class);
+
+    /**
+     * This class passes the bytes on to the client until writing to it fails, and drops them from then on while the manifest is still recording and the
+     * download has not been produced for too long without being sent
+     * @author Yiming Sun
+     *
+     */
+    static class DetachingOutputStream extends OutputStream {
+        protected final OutputStream outputStream;
+        protected final DownloadManifest downloadManifest;
+        protected IOException failure = null;
+        protected long detachTime = 0L;
+        protected long drainedBytes = 0L;
+
+        DetachingOutputStream(OutputStream outputStream, DownloadManifest downloadManifest) {
+            this.outputStream = outputStream;
+            this.downloadManifest = downloadManifest;
+        }
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (failure == null) {
+                try {
+                    outputStream.write(bytes, offset, length);
+                } catch (IOException e) {
+                    detach(e);
+                }
+            } else {
+                drainedBytes += length;
+            }
+            checkRecording();
+        }
+
+        /**
+         * @see java.io.OutputStream#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            if (failure == null) {
+                try {
+                    outputStream.flush();
+                } catch (IOException e) {
+                    detach(e);
+                }
+            }
+            checkRecording();
+        }
+
+        /**
+         * @see java.io.OutputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            if (failure == null) {
+                outputStream.close();
+            }
+        }
+
+        /**
+         * Method to throw the failure to write to the client, if there was one
+         * @throws IOException the failure to write to the client
+         */
+        void throwFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void detach(IOException e) {
+            failure = e;
+            detachTime = System.currentTimeMillis();
+            if (downloadManifest.isRecording()) {
+                log.warn("Client of download " + downloadManifest.getRequestKey() + " went away, recording the rest of the download without sending it");
+            }
+        }
+
+        private void checkRecording() throws IOException {
+            // there is no point producing the rest of the download once nothing more is recorded
+            if (failure != null && !downloadManifest.isRecording()) {
+                throw failure;
+            }
+            if (failure != null && DownloadManifest.isDrainExhausted(drainedBytes, detachTime)) {
+                log.warn("Client of download " + downloadManifest.getRequestKey() + " went away " + drainedBytes + " bytes ago, giving up on recording the rest of the download");
+                throw failure;
+            }
+        }
+    }
+
+    // 1980-01-01 00:00:00, the earliest MS-DOS date and time
+    public static final int FIXED_DOS_TIME = (1 << 21) | (1 << 16);
+
+    protected final DownloadManifest downloadManifest;
+    protected final DetachingOutputStream detachingOutputStream;
+    protected final long startOffset;
+    protected int entryIndex = 0;
+    protected String currentEntryVolumeID = null;
+    private boolean replayed = false;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the part of the zip stream from the start offset of the manifest is written
+     * @param downloadManifest the DownloadManifest of the download
+     */
+    public ResumableZipArchiveWriter(OutputStream outputStream, DownloadManifest downloadManifest) {
+        super(new DetachingOutputStream(outputStream, downloadManifest), DEFAULT_BATCH_SIZE, FIXED_DOS_TIME);
+        this.downloadManifest = downloadManifest;
+        this.detachingOutputStream = (DetachingOutputStream)this.outputStream;
+        this.startOffset = downloadManifest.getStartOffset();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StoredZipArchiveWriter#putNextEntry(java.lang.String)
+     */
+    @Override
+    public void putNextEntry(String entryName) throws IOException {
+        super.putNextEntry(entryName);
+        currentEntryVolumeID = downloadManifest.getCurrentVolumeID();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StoredZipArchiveWriter#writeEntry(java.lang.String, byte[])
+     */
+    @Override
+    public void writeEntry(String entryName, byte[] content) throws IOException {
+        closeEntry();
+        currentEntryVolumeID = downloadManifest.getCurrentVolumeID();
+        writeStoredEntry(entryName, content, 0, content.length);
+    }
+
+    /**
+     * Method to write a framed entry through writeStoredEntry() so it is recorded in the manifest.  Only stored entries can be part of a resumable download
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#writeFramedEntry(edu.indiana.d2i.htrc.access.zip.FramedEntryCache.FramedEntry)
+     */
+    @Override
+    public void writeFramedEntry(FramedEntryCache.FramedEntry framedEntry) throws IOException {
+        if (framedEntry.method != METHOD_STORED) {
+            throw new ZipException("cannot resume deflated entry " + framedEntry.entryName);
+        }
+        closeEntry();
+        currentEntryVolumeID = downloadManifest.getCurrentVolumeID();
+        writeStoredEntry(framedEntry.entryName, framedEntry.data, 0, framedEntry.length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#finish()
+     */
+    @Override
+    public void finish() throws IOException {
+        if (!finished) {
+            finishEntries();
+            replayEntries();
+            downloadManifest.recordEntryCount(entryIndex, bytesWritten < startOffset);
+            super.finish();
+            downloadManifest.recordFinish(bytesWritten);
+            detachingOutputStream.throwFailure();
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StoredZipArchiveWriter#writeStoredEntry(java.lang.String, byte[], int, int)
+     */
+    @Override
+    protected void writeStoredEntry(String entryName, byte[] content, int offset, int length) throws IOException {
+        replayEntries();
+        crc32.reset();
+        crc32.update(content, offset, length);
+        long crc = crc32.getValue();
+        downloadManifest.record(entryIndex, new DownloadManifest.Entry(currentEntryVolumeID, entryName, crc, length), bytesWritten < startOffset);
+        writeRawEntry(encodeEntryName(entryName), METHOD_STORED, crc, length, content, offset, length);
+        entryIndex++;
+    }
+
+    /**
+     * Method to drop the bytes before the start offset, and write the rest to the underlying OutputStream
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#writeBytes(byte[], int, int)
+     */
+    @Override
+    protected void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        long skip = startOffset - bytesWritten;
+        if (skip <= 0L) {
+            super.writeBytes(bytes, offset, length);
+        } else if (skip >= length) {
+            bytesWritten += length;
+        } else {
+            bytesWritten += skip;
+            super.writeBytes(bytes, offset + (int)skip, length - (int)skip);
+        }
+    }
+
+    /**
+     * Method to account for the entries of the skipped volumes, whose content lies entirely before the start offset and is therefore never written
+     */
+    protected void replayEntries() {
+        if (!replayed) {
+            replayed = true;
+            int replayEntryCount = downloadManifest.getReplayEntryCount();
+            for (; entryIndex < replayEntryCount; entryIndex++) {
+                DownloadManifest.Entry entry = downloadManifest.getEntry(entryIndex);
+                byte[] nameBytes = encodeEntryName(entry.name);
+                centralDirectory.add(new CentralDirectoryRecord(nameBytes, METHOD_STORED, entry.crc, entry.size, entry.size, bytesWritten));
+                bytesWritten += entry.getLength();
+            }
+        }
+    }
+
+}
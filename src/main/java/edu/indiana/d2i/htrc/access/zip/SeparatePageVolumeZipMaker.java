@@ -40,22 +40,18 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
-import edu.indiana.d2i.htrc.access.ZipMaker;
-import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
-import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
-import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
- * This implementation of the ZipMaker interface creates one ZipEntry for each page from each volume as a text file, and the name of each text file starts with the Pairtree cleaned volumeID as a
+ * This implementation of the IncrementalZipMaker interface creates one ZipEntry for each page from each volume as a text file, and the name of each text file starts with the Pairtree cleaned volumeID as a
  * virtual directory, and followed by the 8-digit zero-padded page sequence number and the ".txt" extension.  Metadata entries are also created as individual ZipEntry objects with the Pairtree
  * cleaned volumeID as a virtual directory, but the filename of each metadata entry depends on the metadata type, e.g. a METS xml would become mets.xml.  It may also create a special entry ERROR.err
  * to record any errors occurred during the asynchronous fetch process.
@@ -63,108 +59,124 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  * @author Yiming Sun
  *
  */
-public class SeparatePageVolumeZipMaker implements ZipMaker {
+public class SeparatePageVolumeZipMaker extends AbstractIncrementalZipMaker {
 
     private static Logger log = Logger.getLogger(SeparatePageVolumeZipMaker.class);
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final FormatEnum format;
+    protected final DownloadManifest downloadManifest;
+    protected ArchiveWriter archiveWriter = null;
+    protected boolean entryOpen = false;
+    protected String currentVolumeID = null;
+    protected List<String> currentPageSequences = null;
+    protected List<Exception> exceptionList = null;
     
     SeparatePageVolumeZipMaker(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+
+    SeparatePageVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel) {
+        this(auditor, format, compressionLevel, null);
+    }
+
+    SeparatePageVolumeZipMaker(Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest) {
         this.auditor = auditor;
+        this.format = format;
+        this.compressionLevel = compressionLevel;
+        this.downloadManifest = downloadManifest;
     }
     /**
-     * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, java.lang.String, edu.indiana.d2i.htrc.access.VolumeReader)
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#open(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
      */
     @Override
-    public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
-        
-        boolean entryOpen = false;
-        
-        String currentVolumeID = null;
-        List<String> currentPageSequences = null;
-        
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+    public void open(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        entryOpen = false;
+        currentVolumeID = null;
+        currentPageSequences = null;
+        archiveWriter = (downloadManifest != null) ? new ResumableZipArchiveWriter(outputStream, downloadManifest) : ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
+        exceptionList = new LinkedList<Exception>();
+    }
 
-        String volumeIDDirName = null;
-        
-        List<Exception> exceptionList = new LinkedList<Exception>();
-        
-        while (volumeRetriever.hasMoreVolumes()) {
-            try {
-                VolumeReader volumeReader = volumeRetriever.nextVolume();
-                if (volumeReader != null) {
-                    String volumeID = volumeReader.getVolumeID();
-    
-                    volumeIDDirName = volumeReader.getPairtreeCleanedVolumeID() + "/";
-    
-                    if (!volumeID.equals(currentVolumeID)) {
-                        if (currentVolumeID != null) {
-                            auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
-                        }
-                        currentVolumeID = volumeID;
-                        currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
-                    }
-                    
-                    while (volumeReader.hasMorePages()) {
-                        ContentReader pageReader = volumeReader.nextPage();
-                        String pageSequence = pageReader.getContentName();
-                        ZipEntry pageContentsEntry = new ZipEntry(volumeIDDirName + pageSequence + ".txt");
-                        zipOutputStream.putNextEntry(pageContentsEntry);
-                        entryOpen = true;
-                        byte[] pageContent = pageReader.getContent();
-                        zipOutputStream.write(pageContent);
-                        zipOutputStream.closeEntry();
-                        entryOpen = false;
-                        currentPageSequences.add(pageSequence);
-                    }
-                    
-                    while (volumeReader.hasMoreMetadata()) {
-                        ContentReader metadataReader = volumeReader.nextMetadata();
-                        String metadataEntryName = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(metadataReader.getContentName());
-                        if (metadataEntryName != null) {
-                            ZipEntry metadataEntry = new ZipEntry(volumeIDDirName + metadataEntryName);
-                            zipOutputStream.putNextEntry(metadataEntry);
-                            entryOpen = true;
-                            byte[] metadataContent = metadataReader.getContent();
-                            zipOutputStream.write(metadataContent);
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                            currentPageSequences.add(metadataReader.getContentName());
-                        } else {
-                            throw new NullPointerException("Unmapped metadata to entry name: " + metadataReader.getContentName());
-                        }
-                    }
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#append(edu.indiana.d2i.htrc.access.VolumeReader)
+     */
+    @Override
+    public void append(VolumeReader volumeReader) throws IOException {
+        try {
+            String volumeID = volumeReader.getVolumeID();
+
+            String volumeIDDirName = volumeReader.getPairtreeCleanedVolumeID() + "/";
+
+            if (!volumeID.equals(currentVolumeID)) {
+                if (currentVolumeID != null) {
+                    auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
+                }
+                currentVolumeID = volumeID;
+                currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
+                if (downloadManifest != null) {
+                    downloadManifest.setCurrentVolumeID(volumeID);
                 }
-            } catch (KeyNotFoundException e) {
-                log.error("KeyNotFoundException", e);
-                exceptionList.add(e);
-            } catch (PolicyViolationException e) {
-                log.error("PolicyViolationException", e);
-                exceptionList.add(e);
-            } catch (RepositoryException e) {
-                log.error("RepositoryException", e);
-                exceptionList.add(e);
-            } catch (NullPointerException e) {
-                log.fatal("unmapped metadata", e);
             }
+            
+            while (volumeReader.hasMorePages()) {
+                ContentReader pageReader = volumeReader.nextPage();
+                String pageSequence = pageReader.getContentName();
+                byte[] pageContent = pageReader.getContent();
+                entryOpen = true;
+                archiveWriter.writeEntry(volumeIDDirName + pageSequence + ".txt", pageContent);
+                entryOpen = false;
+                currentPageSequences.add(pageSequence);
+            }
+            
+            while (volumeReader.hasMoreMetadata()) {
+                ContentReader metadataReader = volumeReader.nextMetadata();
+                String metadataEntryName = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(metadataReader.getContentName());
+                if (metadataEntryName != null) {
+                    byte[] metadataContent = metadataReader.getContent();
+                    entryOpen = true;
+                    archiveWriter.writeEntry(volumeIDDirName + metadataEntryName, metadataContent);
+                    entryOpen = false;
+                    currentPageSequences.add(metadataReader.getContentName());
+                } else {
+                    throw new NullPointerException("Unmapped metadata to entry name: " + metadataReader.getContentName());
+                }
+            }
+        } catch (NullPointerException e) {
+            log.fatal("unmapped metadata", e);
         }
-        
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#appendException(edu.indiana.d2i.htrc.access.exception.DataAPIException)
+     */
+    @Override
+    public void appendException(DataAPIException exception) {
+        exceptionList.add(exception);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#close()
+     */
+    @Override
+    public void close() throws IOException {
         if (currentVolumeID != null) {
             auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
         }
         if (entryOpen) {
-            zipOutputStream.closeEntry();
+            archiveWriter.closeEntry();
             entryOpen = false;
         }
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            if (downloadManifest != null) {
+                downloadManifest.setCurrentVolumeID(null);
+            }
+            ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, entryOpen, exceptionList);
         }
-        zipOutputStream.close();
-        
-
+        archiveWriter.close();
     }
 }
 
@@ -0,0 +1,108 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StandardZipArchiveWriter.java
+# Description:  This implementation of ArchiveWriter delegates to java.util.zip.ZipOutputStream
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This implementation of ArchiveWriter delegates to java.util.zip.ZipOutputStream on the calling thread.  With Deflater.NO_COMPRESSION it produces exactly the
+ * same bytes the zip makers have always produced.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class StandardZipArchiveWriter extends ArchiveWriter {
+
+    protected final ZipOutputStream zipOutputStream;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param compressionLevel a Deflater compression level between 0 and 9
+     */
+    public StandardZipArchiveWriter(OutputStream outputStream, int compressionLevel) {
+        this.zipOutputStream = new ZipOutputStream(outputStream);
+        this.zipOutputStream.setLevel(compressionLevel);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#putNextEntry(java.lang.String)
+     */
+    @Override
+    public void putNextEntry(String entryName) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(entryName));
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#finish()
+     */
+    @Override
+    public void finish() throws IOException {
+        zipOutputStream.finish();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        zipOutputStream.write(bytes, offset, length);
+    }
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        zipOutputStream.flush();
+    }
+
+    /**
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        zipOutputStream.close();
+    }
+
+}
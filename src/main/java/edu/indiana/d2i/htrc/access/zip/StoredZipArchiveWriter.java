@@ -0,0 +1,153 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StoredZipArchiveWriter.java
+# Description:  This implementation of ArchiveWriter writes uncompressed zip entries with precomputed CRCs and sizes
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * This implementation of ArchiveWriter writes uncompressed zip entries with the CRC and the sizes already in the local file header.  Unlike ZipOutputStream
+ * at level 0, it does not push the content through a Deflater and it does not write data descriptors.  The content of an entry is collected in a
+ * buffer that is reused from one entry to the next, entries written with writeEntry() are not copied at all, and headers and small entries are batched into
+ * large writes to the underlying OutputStream.  Archives that outgrow the classic zip limits get Zip64 records.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class StoredZipArchiveWriter extends RawZipArchiveWriter {
+
+    protected static final int INITIAL_ENTRY_BUFFER_SIZE = 8192;
+
+    protected final EntryBuffer entryBuffer;
+    protected final CRC32 crc32;
+    protected String currentEntryName = null;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     */
+    public StoredZipArchiveWriter(OutputStream outputStream) {
+        this(outputStream, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param batchSize size of the buffer that collects small writes, or 0 to pass every write straight through
+     */
+    public StoredZipArchiveWriter(OutputStream outputStream, int batchSize) {
+        super(outputStream, batchSize);
+        this.entryBuffer = new EntryBuffer(INITIAL_ENTRY_BUFFER_SIZE);
+        this.crc32 = new CRC32();
+    }
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the zip content is written
+     * @param batchSize size of the buffer that collects small writes, or 0 to pass every write straight through
+     * @param dosTime the MS-DOS date and time stamped on every entry
+     */
+    protected StoredZipArchiveWriter(OutputStream outputStream, int batchSize, int dosTime) {
+        super(outputStream, batchSize, dosTime);
+        this.entryBuffer = new EntryBuffer(INITIAL_ENTRY_BUFFER_SIZE);
+        this.crc32 = new CRC32();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#putNextEntry(java.lang.String)
+     */
+    @Override
+    public void putNextEntry(String entryName) throws IOException {
+        if (currentEntryName != null) {
+            closeEntry();
+        }
+        currentEntryName = entryName;
+        entryBuffer.reset();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (currentEntryName == null) {
+            throw new ZipException("no current ZIP entry");
+        }
+        entryBuffer.write(bytes, offset, length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (currentEntryName != null) {
+            String entryName = currentEntryName;
+            currentEntryName = null;
+            writeStoredEntry(entryName, entryBuffer.array(), 0, entryBuffer.length());
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#writeEntry(java.lang.String, byte[])
+     */
+    @Override
+    public void writeEntry(String entryName, byte[] content) throws IOException {
+        closeEntry();
+        writeStoredEntry(entryName, content, 0, content.length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.RawZipArchiveWriter#finishEntries()
+     */
+    @Override
+    protected void finishEntries() throws IOException {
+        closeEntry();
+    }
+
+    /**
+     * Method to write one complete STORED entry straight from the given byte array
+     * @param entryName name of the entry
+     * @param content a byte array holding the content of the entry
+     * @param offset offset of the content in the byte array
+     * @param length length of the content
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeStoredEntry(String entryName, byte[] content, int offset, int length) throws IOException {
+        crc32.reset();
+        crc32.update(content, offset, length);
+        writeRawEntry(encodeEntryName(entryName), METHOD_STORED, crc32.getValue(), length, content, offset, length);
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StreamingArchiveWriter.java
+# Description:  This abstract class is the base of ArchiveWriter implementations whose output can be consumed incrementally, optionally framed as gzip members
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This abstract class is the base of ArchiveWriter implementations whose output has no trailing index, so a client can use every entry as soon as it arrives.
+ * Each entry is turned into one self-contained record by the subclass.  When gzip framing is on, every record is compressed as a separate gzip member; the
+ * concatenated members form a valid gzip stream for ordinary tools, while each member can still be decompressed on its own, so a consumer can start or split
+ * the stream at any record boundary.
+ *
+ * @author Yiming Sun
+ *
+ */
+public abstract class StreamingArchiveWriter extends ArchiveWriter {
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+    protected static final int INITIAL_ENTRY_BUFFER_SIZE = 8192;
+
+    // ID1, ID2, CM = deflate, FLG = 0, MTIME = 0, XFL = 0, OS = unknown
+    private static final byte[] GZIP_MEMBER_HEADER = {0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+    protected final OutputStream outputStream;
+    protected final boolean gzipFramed;
+    protected final EntryBuffer entryBuffer;
+    protected String currentEntryName = null;
+    protected boolean finished = false;
+
+    private final Deflater deflater;
+    private final CRC32 crc32;
+    private final byte[] deflateBuffer;
+    private final byte[] memberTrailer;
+    private long memberSize = 0L;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the records are written
+     * @param gzipFramed <code>true</code> if each record is to be written as a separate gzip member, <code>false</code> if records are written as they are
+     * @param compressionLevel the Deflater compression level of the gzip members, ignored if gzipFramed is <code>false</code>
+     */
+    protected StreamingArchiveWriter(OutputStream outputStream, boolean gzipFramed, int compressionLevel) {
+        this.outputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        this.gzipFramed = gzipFramed;
+        this.entryBuffer = new EntryBuffer(INITIAL_ENTRY_BUFFER_SIZE);
+        if (gzipFramed) {
+            this.deflater = new Deflater(compressionLevel, true);
+            this.crc32 = new CRC32();
+            this.deflateBuffer = new byte[BUFFER_SIZE];
+            this.memberTrailer = new byte[8];
+        } else {
+            this.deflater = null;
+            this.crc32 = null;
+            this.deflateBuffer = null;
+            this.memberTrailer = null;
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#putNextEntry(java.lang.String)
+     */
+    @Override
+    public void putNextEntry(String entryName) throws IOException {
+        if (currentEntryName != null) {
+            closeEntry();
+        }
+        currentEntryName = entryName;
+        entryBuffer.reset();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (currentEntryName == null) {
+            throw new IOException("no current entry");
+        }
+        entryBuffer.write(bytes, offset, length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (currentEntryName != null) {
+            String entryName = currentEntryName;
+            currentEntryName = null;
+            writeRecord(entryName, entryBuffer.array(), 0, entryBuffer.length());
+        }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#writeEntry(java.lang.String, byte[])
+     */
+    @Override
+    public void writeEntry(String entryName, byte[] content) throws IOException {
+        closeEntry();
+        writeRecord(entryName, content, 0, content.length);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveWriter#finish()
+     */
+    @Override
+    public void finish() throws IOException {
+        if (!finished) {
+            closeEntry();
+            finishRecords();
+            outputStream.flush();
+            finished = true;
+        }
+    }
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    /**
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            outputStream.close();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Method for subclasses to write one entry as a record, calling beginRecord(), writeRecordData() and endRecord()
+     * @param entryName name of the entry
+     * @param content a byte array holding the content of the entry
+     * @param offset offset of the content in the byte array
+     * @param length length of the content
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected abstract void writeRecord(String entryName, byte[] content, int offset, int length) throws IOException;
+
+    /**
+     * Method for subclasses to write any trailing record the format requires.  The default implementation writes nothing
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void finishRecords() throws IOException {
+    }
+
+    /**
+     * Method to start a record, which begins a new gzip member if gzip framing is on
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void beginRecord() throws IOException {
+        if (gzipFramed) {
+            deflater.reset();
+            crc32.reset();
+            memberSize = 0L;
+            outputStream.write(GZIP_MEMBER_HEADER);
+        }
+    }
+
+    /**
+     * Method to write part of the current record
+     * @param bytes a byte array
+     * @param offset offset in the byte array
+     * @param length number of bytes to write
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeRecordData(byte[] bytes, int offset, int length) throws IOException {
+        if (gzipFramed) {
+            crc32.update(bytes, offset, length);
+            memberSize += length;
+            deflater.setInput(bytes, offset, length);
+            while (!deflater.needsInput()) {
+                int deflated = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+                if (deflated > 0) {
+                    outputStream.write(deflateBuffer, 0, deflated);
+                }
+            }
+        } else {
+            outputStream.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Method to end the current record, which completes the gzip member if gzip framing is on
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void endRecord() throws IOException {
+        if (gzipFramed) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+                if (deflated > 0) {
+                    outputStream.write(deflateBuffer, 0, deflated);
+                }
+            }
+            RawZipArchiveWriter.putInt(memberTrailer, 0, (int)crc32.getValue());
+            RawZipArchiveWriter.putInt(memberTrailer, 4, (int)memberSize);
+            outputStream.write(memberTrailer, 0, memberTrailer.length);
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TarArchiveWriter.java
+# Description:  This implementation of ArchiveWriter writes entries as a ustar stream
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * This implementation of ArchiveWriter writes entries as a POSIX ustar stream, which tar and most data processing libraries read entry by entry as it arrives.
+ * Names too long for the ustar name and prefix fields are carried in a pax extended header.  With gzip framing on, each entry together with its headers and
+ * padding is one gzip member, so the output is also an ordinary .tar.gz file.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class TarArchiveWriter extends StreamingArchiveWriter {
+
+    protected static final int BLOCK_SIZE = 512;
+    protected static final int NAME_LENGTH = 100;
+    protected static final int PREFIX_LENGTH = 155;
+
+    protected static final int NAME_OFFSET = 0;
+    protected static final int MODE_OFFSET = 100;
+    protected static final int UID_OFFSET = 108;
+    protected static final int GID_OFFSET = 116;
+    protected static final int SIZE_OFFSET = 124;
+    protected static final int MTIME_OFFSET = 136;
+    protected static final int CHECKSUM_OFFSET = 148;
+    protected static final int TYPEFLAG_OFFSET = 156;
+    protected static final int MAGIC_OFFSET = 257;
+    protected static final int PREFIX_OFFSET = 345;
+
+    protected static final byte TYPE_REGULAR_FILE = '0';
+    protected static final byte TYPE_PAX_HEADER = 'x';
+    protected static final int FILE_MODE = 0644;
+
+    protected static final String PAX_HEADER_NAME = "././@PaxHeader";
+    protected static final String PAX_PATH_KEYWORD = " path=";
+
+    private static final byte[] USTAR_MAGIC = {'u', 's', 't', 'a', 'r', 0, '0', '0'};
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    protected final long mtime;
+    private final byte[] headerBlock;
+
+    /**
+     * Constructor
+     * @param outputStream the OutputStream to which the tar stream is written
+     * @param gzipFramed <code>true</code> if each entry is to be written as a separate gzip member
+     * @param compressionLevel the Deflater compression level of the gzip members, ignored if gzipFramed is <code>false</code>
+     */
+    public TarArchiveWriter(OutputStream outputStream, boolean gzipFramed, int compressionLevel) {
+        super(outputStream, gzipFramed, compressionLevel);
+        this.mtime = System.currentTimeMillis() / 1000L;
+        this.headerBlock = new byte[BLOCK_SIZE];
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StreamingArchiveWriter#writeRecord(java.lang.String, byte[], int, int)
+     */
+    @Override
+    protected void writeRecord(String entryName, byte[] content, int offset, int length) throws IOException {
+        byte[] nameBytes = RawZipArchiveWriter.encodeEntryName(entryName);
+        beginRecord();
+        int split = findPrefixSplit(nameBytes);
+        if (split < 0) {
+            byte[] paxRecord = toPaxPathRecord(nameBytes);
+            writeHeaderBlock(encodeAscii(PAX_HEADER_NAME), -1, paxRecord.length, TYPE_PAX_HEADER);
+            writeRecordData(paxRecord, 0, paxRecord.length);
+            writePadding(paxRecord.length);
+        }
+        writeHeaderBlock(nameBytes, split, length, TYPE_REGULAR_FILE);
+        writeRecordData(content, offset, length);
+        writePadding(length);
+        endRecord();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.StreamingArchiveWriter#finishRecords()
+     */
+    @Override
+    protected void finishRecords() throws IOException {
+        // a tar stream ends with two empty blocks
+        beginRecord();
+        writeRecordData(ZERO_BLOCK, 0, BLOCK_SIZE);
+        writeRecordData(ZERO_BLOCK, 0, BLOCK_SIZE);
+        endRecord();
+    }
+
+    /**
+     * Method to work out how a name fits in the ustar header
+     * @param nameBytes the UTF-8 encoded name
+     * @return 0 if the name fits in the name field alone, the position of the '/' separating the prefix field from the name field if it needs both, or -1 if
+     * it needs a pax extended header
+     */
+    protected static int findPrefixSplit(byte[] nameBytes) {
+        if (nameBytes.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = Math.min(PREFIX_LENGTH, nameBytes.length - 1); i > 0; i--) {
+            if (nameBytes[i] == '/') {
+                return (nameBytes.length - i - 1 <= NAME_LENGTH && nameBytes.length - i - 1 > 0) ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method to build the pax extended header record carrying a long name.  The length at the start of the record counts its own digits
+     * @param nameBytes the UTF-8 encoded name
+     * @return the pax record
+     */
+    protected static byte[] toPaxPathRecord(byte[] nameBytes) {
+        int rest = PAX_PATH_KEYWORD.length() + nameBytes.length + 1;
+        int length = rest + Integer.toString(rest).length();
+        if (Integer.toString(length).length() != Integer.toString(rest).length()) {
+            length = rest + Integer.toString(length).length();
+        }
+        byte[] lengthBytes = encodeAscii(Integer.toString(length));
+        byte[] record = new byte[length];
+        int position = 0;
+        System.arraycopy(lengthBytes, 0, record, position, lengthBytes.length);
+        position += lengthBytes.length;
+        byte[] keyword = encodeAscii(PAX_PATH_KEYWORD);
+        System.arraycopy(keyword, 0, record, position, keyword.length);
+        position += keyword.length;
+        System.arraycopy(nameBytes, 0, record, position, nameBytes.length);
+        position += nameBytes.length;
+        record[position] = '\n';
+        return record;
+    }
+
+    private void writeHeaderBlock(byte[] nameBytes, int split, long size, byte typeflag) throws IOException {
+        Arrays.fill(headerBlock, (byte)0);
+        if (split > 0) {
+            System.arraycopy(nameBytes, 0, headerBlock, PREFIX_OFFSET, split);
+            System.arraycopy(nameBytes, split + 1, headerBlock, NAME_OFFSET, nameBytes.length - split - 1);
+        } else {
+            // names needing a pax header also get a truncated name here for readers that ignore pax
+            System.arraycopy(nameBytes, 0, headerBlock, NAME_OFFSET, Math.min(nameBytes.length, NAME_LENGTH));
+        }
+        putOctal(headerBlock, MODE_OFFSET, 8, FILE_MODE);
+        putOctal(headerBlock, UID_OFFSET, 8, 0);
+        putOctal(headerBlock, GID_OFFSET, 8, 0);
+        putOctal(headerBlock, SIZE_OFFSET, 12, size);
+        putOctal(headerBlock, MTIME_OFFSET, 12, mtime);
+        headerBlock[TYPEFLAG_OFFSET] = typeflag;
+        System.arraycopy(USTAR_MAGIC, 0, headerBlock, MAGIC_OFFSET, USTAR_MAGIC.length);
+
+        // the checksum is computed with the checksum field itself taken as spaces
+        Arrays.fill(headerBlock, CHECKSUM_OFFSET, CHECKSUM_OFFSET + 8, (byte)' ');
+        long checksum = 0L;
+        for (byte b : headerBlock) {
+            checksum += b & 0xff;
+        }
+        putOctal(headerBlock, CHECKSUM_OFFSET, 7, checksum);
+        writeRecordData(headerBlock, 0, BLOCK_SIZE);
+    }
+
+    private void writePadding(long length) throws IOException {
+        int remainder = (int)(length % BLOCK_SIZE);
+        if (remainder > 0) {
+            writeRecordData(ZERO_BLOCK, 0, BLOCK_SIZE - remainder);
+        }
+    }
+
+    /**
+     * Method to write a value as zero-padded octal digits followed by a NUL, filling a field of the given width
+     * @param buffer the header block
+     * @param offset offset of the field
+     * @param width width of the field including the trailing NUL
+     * @param value the value to write
+     */
+    protected static void putOctal(byte[] buffer, int offset, int width, long value) {
+        long remaining = value;
+        for (int i = offset + width - 2; i >= offset; i--) {
+            buffer[i] = (byte)('0' + (remaining & 7));
+            remaining >>>= 3;
+        }
+        buffer[offset + width - 1] = 0;
+    }
+
+    private static byte[] encodeAscii(String string) {
+        try {
+            return string.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenIDSequenceZipMaker.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.tokencount.SimpleTokenizer;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountMap;
+import edu.indiana.d2i.htrc.access.tokencount.TokenSlices;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This implementation of the IncrementalZipMaker interface writes the word sequence of the requested pages already tokenized, as token IDs instead of text,
+ * so that consumers such as embedding training do not need another tokenization pass.  The pages are tokenized the same way they are for token counts, and
+ * the entry "wordseq.bin" holds a sequence of unsigned LEB128 varints, where
+ * <pre>
+ * 0      ends a page
+ * 1      ends a volume
+ * n >= 2 is the token with ID n - 2
+ * </pre>
+ * Token IDs are assigned in the order the tokens are first seen.  After the sequence come the entry "wordseq.dict", whose line i is the token with ID i
+ * followed by a space and the number of times it occurs, and the entry "wordseq.volumes", whose line i is the ID of the volume ended by the i-th volume
+ * marker.  Hyphenated words are only joined within a page.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TokenIDSequenceZipMaker extends WordSequenceZipMaker {
+
+    public static final int END_OF_PAGE = 0;
+    public static final int END_OF_VOLUME = 1;
+    public static final int FIRST_TOKEN_CODE = 2;
+
+    protected static final String ENTRY_NAME = "wordseq.bin";
+    protected static final String DICTIONARY_ENTRY_NAME = "wordseq.dict";
+    protected static final String VOLUMES_ENTRY_NAME = "wordseq.volumes";
+
+    // a varint of an int takes at most 5 bytes
+    protected static final int MAX_VARINT_LENGTH = 5;
+
+    protected TokenCountMap dictionary = null;
+    protected List<String> volumeIDs = null;
+    protected byte[] codeBuffer = new byte[4096];
+
+    TokenIDSequenceZipMaker(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+
+    TokenIDSequenceZipMaker(Auditor auditor, FormatEnum format, int compressionLevel) {
+        super(auditor, format, compressionLevel);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.WordSequenceZipMaker#open(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
+     */
+    @Override
+    public void open(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        dictionary = new TokenCountMap();
+        volumeIDs = new ArrayList<String>();
+        super.open(outputStream, volumeRetriever);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.WordSequenceZipMaker#getEntryName()
+     */
+    @Override
+    protected String getEntryName() {
+        return ENTRY_NAME;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.WordSequenceZipMaker#appendPage(byte[])
+     */
+    @Override
+    protected void appendPage(byte[] pageContent) throws IOException {
+        TokenSlices tokenSlices = SimpleTokenizer.tokenizePage(pageContent);
+        int size = tokenSlices.size();
+        if ((size + 1) * MAX_VARINT_LENGTH > codeBuffer.length) {
+            codeBuffer = new byte[(size + 1) * MAX_VARINT_LENGTH];
+        }
+        byte[] bytes = tokenSlices.getBytes();
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            int id = dictionary.increment(bytes, tokenSlices.getOffset(i), tokenSlices.getLength(i));
+            position = writeVarInt(id + FIRST_TOKEN_CODE, codeBuffer, position);
+        }
+        position = writeVarInt(END_OF_PAGE, codeBuffer, position);
+        archiveWriter.write(codeBuffer, 0, position);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.WordSequenceZipMaker#endVolume(java.lang.String)
+     */
+    @Override
+    protected void endVolume(String volumeID) throws IOException {
+        volumeIDs.add(volumeID);
+        int position = writeVarInt(END_OF_VOLUME, codeBuffer, 0);
+        archiveWriter.write(codeBuffer, 0, position);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.WordSequenceZipMaker#finishEntries()
+     */
+    @Override
+    protected void finishEntries() throws IOException {
+        int[] ids = new int[dictionary.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        archiveWriter.putNextEntry(DICTIONARY_ENTRY_NAME);
+        dictionary.writeTo(archiveWriter, ids);
+        archiveWriter.closeEntry();
+
+        archiveWriter.putNextEntry(VOLUMES_ENTRY_NAME);
+        for (String volumeID : volumeIDs) {
+            archiveWriter.write((volumeID + ZipMakerFactory.Helper.LINE_FEED).getBytes(ZipMakerFactory.Helper.UTF_8));
+        }
+        archiveWriter.closeEntry();
+    }
+
+    /**
+     * Method to write an unsigned LEB128 varint
+     * @param value a non-negative value
+     * @param buffer the array to write to
+     * @param position the position to write at
+     * @return the position after the varint
+     */
+    protected static int writeVarInt(int value, byte[] buffer, int position) {
+        int rest = value;
+        int end = position;
+        while ((rest & ~0x7f) != 0) {
+            buffer[end++] = (byte)((rest & 0x7f) | 0x80);
+            rest >>>= 7;
+        }
+        buffer[end++] = (byte)rest;
+        return end;
+    }
+
+}
+
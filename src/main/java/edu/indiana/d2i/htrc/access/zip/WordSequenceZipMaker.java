@@ -38,101 +38,141 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
-import edu.indiana.d2i.htrc.access.ZipMaker;
-import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
-import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
-import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
- * This implementation of the ZipMaker interface concatenates all pages from all volumes into a single ZipEntry text file named "wordseq.txt".  No metadata entries will be created in the zip.  
+ * This implementation of the IncrementalZipMaker interface concatenates all pages from all volumes into a single ZipEntry text file named "wordseq.txt".  No metadata entries will be created in the zip.  
  * However, it may also create a special entry ERROR.err to record any errors occurred during the asynchronous fetch process.
  * 
  * @author Yiming Sun
  *
  */
-public class WordSequenceZipMaker implements ZipMaker {
+public class WordSequenceZipMaker extends AbstractIncrementalZipMaker {
     
     private static Logger log = Logger.getLogger(WordSequenceZipMaker.class);
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final FormatEnum format;
     protected List<Exception> exceptionList = new LinkedList<Exception>();
+    protected ArchiveWriter archiveWriter = null;
+    protected boolean entryOpen = false;
+    protected String currentVolumeID = null;
+    protected List<String> currentPageSequences = null;
     
     WordSequenceZipMaker(Auditor auditor) {
+        this(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+
+    WordSequenceZipMaker(Auditor auditor, FormatEnum format, int compressionLevel) {
         this.auditor = auditor;
+        this.format = format;
+        this.compressionLevel = compressionLevel;
     }
 
     /**
-     * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#open(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
      */
     @Override
-    public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
-        
-        boolean entryOpen = false;
+    public void open(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        currentVolumeID = null;
+        currentPageSequences = null;
         
-        String currentVolumeID = null;
-        List<String> currentPageSequences = null;
+        archiveWriter = ArchiveWriterFactory.newInstance(outputStream, format, compressionLevel);
         
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
-        
-        ZipEntry zipEntry = new ZipEntry("wordseq.txt");
-        zipOutputStream.putNextEntry(zipEntry);
+        archiveWriter.putNextEntry(getEntryName());
         entryOpen = true;
+    }
 
-        while (volumeRetriever.hasMoreVolumes()) {
-            try {
-                VolumeReader volumeReader = volumeRetriever.nextVolume();
-                if (volumeReader != null) {
-                    String volumeID = volumeReader.getVolumeID();
-                    if (!volumeID.equals(currentVolumeID)) {
-                        if (currentVolumeID != null) {
-                            auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
-                        }
-                        currentVolumeID = volumeID;
-                        currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
-                    }
-                    while(volumeReader.hasMorePages()) {
-                        ContentReader pageReader = volumeReader.nextPage();
-                        byte[] pageContent = pageReader.getContent();
-                        zipOutputStream.write(pageContent);
-                        currentPageSequences.add(pageReader.getContentName());
-                    }
-                }
-            } catch (KeyNotFoundException e) {
-                log.error("KeyNotFoundException", e);
-                exceptionList.add(e);
-            } catch (PolicyViolationException e) {
-                log.error("PolicyViolationException", e);
-                exceptionList.add(e);
-            } catch (RepositoryException e) {
-                log.error("RepositoryException", e);
-                exceptionList.add(e);
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#append(edu.indiana.d2i.htrc.access.VolumeReader)
+     */
+    @Override
+    public void append(VolumeReader volumeReader) throws IOException {
+        String volumeID = volumeReader.getVolumeID();
+        if (!volumeID.equals(currentVolumeID)) {
+            if (currentVolumeID != null) {
+                auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
+                endVolume(currentVolumeID);
             }
-            
+            currentVolumeID = volumeID;
+            currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
+        }
+        while(volumeReader.hasMorePages()) {
+            ContentReader pageReader = volumeReader.nextPage();
+            appendPage(pageReader.getContent());
+            currentPageSequences.add(pageReader.getContentName());
         }
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#appendException(edu.indiana.d2i.htrc.access.exception.DataAPIException)
+     */
+    @Override
+    public void appendException(DataAPIException exception) {
+        exceptionList.add(exception);
+    }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.IncrementalZipMaker#close()
+     */
+    @Override
+    public void close() throws IOException {
         if (currentVolumeID != null) {
             auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
+            endVolume(currentVolumeID);
         }
         if (entryOpen) {
-            zipOutputStream.closeEntry();
+            archiveWriter.closeEntry();
             entryOpen = false;
         }
+        finishEntries();
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            ZipMakerFactory.Helper.injectErrorEntry(archiveWriter, entryOpen, exceptionList);
         }
-        zipOutputStream.close();
+        archiveWriter.close();
+    }
+
+    /**
+     * Method to get the name of the entry holding the word sequence
+     * @return the name of the entry
+     */
+    protected String getEntryName() {
+        return "wordseq.txt";
+    }
+
+    /**
+     * Method to write the content of a page to the word sequence entry
+     * @param pageContent the content of the page
+     * @throws IOException thrown if writing to the archive failed
+     */
+    protected void appendPage(byte[] pageContent) throws IOException {
+        archiveWriter.write(pageContent);
+    }
+
+    /**
+     * Method called after the last page of a volume is appended.  The default implementation does nothing
+     * @param volumeID the ID of the volume
+     * @throws IOException thrown if writing to the archive failed
+     */
+    protected void endVolume(String volumeID) throws IOException {
+    }
+
+    /**
+     * Method called after the word sequence entry is closed, to write any entries that follow it.  The default implementation writes nothing
+     * @throws IOException thrown if writing to the archive failed
+     */
+    protected void finishEntries() throws IOException {
     }
 
 }
@@ -36,11 +36,12 @@ import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
 import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -58,6 +59,7 @@ public class ZipMakerFactory {
      */
     public static class Helper {
         static final String LINE_FEED = "\n";
+        static final String UTF_8 = "utf-8";
         
         protected static final String ERROR_ENTRY_HEADING = "Caught the following errors while generating the ZIP file.  This ZIP file is likely to be incomplete and missing some entries." + LINE_FEED;
         protected static final Map<String, String> metadataSuffixMap = new HashMap<String, String>();
@@ -74,18 +76,17 @@ public class ZipMakerFactory {
         /**
          * Utility method for adding exceptions into the ERROR.err entry
          * 
-         * @param outputStream a ZipOutputStream object to which the zip content is written to
-         * @param entryOpen a boolean flag indicating if ZipOutputStream has an open ZipEntry. If <code>true</code> it must close the current ZipEntry first
+         * @param outputStream an ArchiveWriter object to which the zip content is written to
+         * @param entryOpen a boolean flag indicating if the ArchiveWriter has an open entry. If <code>true</code> it must close the current entry first
          * @param exceptionList a List of Exception objects to be written to the ERROR.err entry
-         * @throws IOException thrown if output to the ZipOutputStream object failed
+         * @throws IOException thrown if output to the ArchiveWriter object failed
          */
-        public static void injectErrorEntry(ZipOutputStream outputStream, boolean entryOpen, List<Exception> exceptionList) throws IOException {
+        public static void injectErrorEntry(ArchiveWriter outputStream, boolean entryOpen, List<Exception> exceptionList) throws IOException {
             if (entryOpen) {
                 outputStream.closeEntry();
             }
 
-            ZipEntry zipEntry = new ZipEntry("ERROR.err");
-            outputStream.putNextEntry(zipEntry);
+            outputStream.putNextEntry("ERROR.err");
             outputStream.write(ERROR_ENTRY_HEADING.getBytes());
             PrintStream printStream = new PrintStream(outputStream);
             for (Exception e : exceptionList) {
@@ -129,7 +130,54 @@ public class ZipMakerFactory {
     public static enum ZipTypeEnum {
         SEPARATE_PAGE,
         COMBINE_PAGE,
-        WORD_SEQUENCE;
+        WORD_SEQUENCE,
+        TOKEN_ID_SEQUENCE,
+        INDEXED_VOLUME;
+    }
+    
+    public static final String WORD_SEQUENCE_PARAMETER_NAME = "wordseq";
+    
+    /**
+     * Method to pick the type of ZipMaker for concatenated pages from the value of the wordseq parameter, which is "text" for the text of the pages, the
+     * default, or "ids" for the token IDs written by TokenIDSequenceZipMaker
+     * @param wordSequence the value of the wordseq parameter, may be <code>null</code>
+     * @param format the output format negotiated by ArchiveWriterFactory.negotiateFormat()
+     * @return the ZipTypeEnum of the ZipMaker
+     * @throws InvalidParameterValueException thrown if the value is not recognized, or if token IDs are requested in a format that cannot hold them
+     */
+    public static ZipTypeEnum getWordSequenceType(String wordSequence, FormatEnum format) throws InvalidParameterValueException {
+        ZipTypeEnum type = ZipTypeEnum.WORD_SEQUENCE;
+        if (wordSequence != null && wordSequence.trim().length() > 0 && !"text".equalsIgnoreCase(wordSequence.trim())) {
+            // the token IDs are binary, which newline-delimited JSON cannot hold
+            if (!"ids".equalsIgnoreCase(wordSequence.trim()) || format == FormatEnum.NDJSON || format == FormatEnum.NDJSON_GZIP) {
+                throw new InvalidParameterValueException(WORD_SEQUENCE_PARAMETER_NAME, wordSequence);
+            }
+            type = ZipTypeEnum.TOKEN_ID_SEQUENCE;
+        }
+        return type;
+    }
+    
+    public static final String LAYOUT_PARAMETER_NAME = "layout";
+    
+    /**
+     * Method to pick the type of ZipMaker for volumes from the concat parameter and the value of the layout parameter, which is "pages" for the layout
+     * chosen by concat, the default, or "indexed" for the single entry per volume with a page offset table written by IndexedVolumeZipMaker
+     * @param concatenate the value of the concat parameter
+     * @param layout the value of the layout parameter, may be <code>null</code>
+     * @param format the output format negotiated by ArchiveWriterFactory.negotiateFormat()
+     * @return the ZipTypeEnum of the ZipMaker
+     * @throws InvalidParameterValueException thrown if the value is not recognized, or if the indexed layout is requested in a format that cannot hold it
+     */
+    public static ZipTypeEnum getVolumeLayoutType(boolean concatenate, String layout, FormatEnum format) throws InvalidParameterValueException {
+        ZipTypeEnum type = concatenate ? ZipTypeEnum.COMBINE_PAGE : ZipTypeEnum.SEPARATE_PAGE;
+        if (layout != null && layout.trim().length() > 0 && !"pages".equalsIgnoreCase(layout.trim())) {
+            // the page offset table is binary, which newline-delimited JSON cannot hold
+            if (!"indexed".equalsIgnoreCase(layout.trim()) || format == FormatEnum.NDJSON || format == FormatEnum.NDJSON_GZIP) {
+                throw new InvalidParameterValueException(LAYOUT_PARAMETER_NAME, layout);
+            }
+            type = ZipTypeEnum.INDEXED_VOLUME;
+        }
+        return type;
     }
     
     /**
@@ -139,16 +187,64 @@ public class ZipMakerFactory {
      * @return a ZipMaker implementation
      */
     public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor) {
+        return newInstance(type, auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+    }
+    
+    /**
+     * Method to get a new instance of a ZipMaker implementations based on the type, writing the given output format and compressing at the given level
+     * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
+     * @param auditor an Auditor object
+     * @param format the output format negotiated by ArchiveWriterFactory.negotiateFormat()
+     * @param compressionLevel the compression level negotiated by ArchiveWriterFactory.negotiateCompressionLevel()
+     * @return a ZipMaker implementation
+     */
+    public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel) {
+        return newInstance(type, auditor, format, compressionLevel, null);
+    }
+
+    /**
+     * Method to get a new instance of a ZipMaker implementations based on the type, writing the given output format and compressing at the given level.  If
+     * a DownloadManifest is given, volume zip files are written deterministically with ResumableZipArchiveWriter and recorded in the manifest
+     * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
+     * @param auditor an Auditor object
+     * @param format the output format negotiated by ArchiveWriterFactory.negotiateFormat()
+     * @param compressionLevel the compression level negotiated by ArchiveWriterFactory.negotiateCompressionLevel()
+     * @param downloadManifest the DownloadManifest of a resumable download, or <code>null</code>
+     * @return a ZipMaker implementation
+     */
+    public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest) {
+        return newInstance(type, auditor, format, compressionLevel, downloadManifest, null);
+    }
+
+    /**
+     * Method to get a new instance of a ZipMaker implementations based on the type, writing the given output format and compressing at the given level.  If
+     * a Map of framed entries is given, CombinePageVolumeZipMaker splices the entries of the volumes found in it into the zip file, and adds the entries of
+     * the other volumes to the FramedEntryCache
+     * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
+     * @param auditor an Auditor object
+     * @param format the output format negotiated by ArchiveWriterFactory.negotiateFormat()
+     * @param compressionLevel the compression level negotiated by ArchiveWriterFactory.negotiateCompressionLevel()
+     * @param downloadManifest the DownloadManifest of a resumable download, or <code>null</code>
+     * @param framedEntries the framed entries returned by FramedEntryCache.lookup(), or <code>null</code> if framed entries are not used
+     * @return a ZipMaker implementation
+     */
+    public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor, FormatEnum format, int compressionLevel, DownloadManifest downloadManifest, Map<String, FramedEntryCache.FramedEntry> framedEntries) {
         ZipMaker zipMaker = null;
         switch (type) {
         case COMBINE_PAGE:
-            zipMaker = new CombinePageVolumeZipMaker(auditor);
+            zipMaker = new CombinePageVolumeZipMaker(auditor, format, compressionLevel, downloadManifest, framedEntries);
             break;
         case SEPARATE_PAGE:
-            zipMaker = new SeparatePageVolumeZipMaker(auditor);
+            zipMaker = new SeparatePageVolumeZipMaker(auditor, format, compressionLevel, downloadManifest);
             break;
         case WORD_SEQUENCE:
-            zipMaker = new WordSequenceZipMaker(auditor);
+            zipMaker = new WordSequenceZipMaker(auditor, format, compressionLevel);
+            break;
+        case TOKEN_ID_SEQUENCE:
+            zipMaker = new TokenIDSequenceZipMaker(auditor, format, compressionLevel);
+            break;
+        case INDEXED_VOLUME:
+            zipMaker = new IndexedVolumeZipMaker(auditor, format, compressionLevel, downloadManifest);
             break;
         }
         
@@ -0,0 +1,161 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ResultCacheTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ResultCacheTest {
+
+    private File cacheDir = null;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = File.createTempFile("result", "cache");
+        cacheDir.delete();
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ResultCache.PN_RESULT_CACHE_DIR, cacheDir.getAbsolutePath());
+        parameterContainer.setParameter(ResultCache.PN_RESULT_CACHE_MAX_BYTES, "250");
+        parameterContainer.setParameter(ResultCache.PN_RESULT_CACHE_MAX_ENTRY_BYTES, "120");
+        ResultCache.init(parameterContainer);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+        ResultCache.init(new TestParameterContainer());
+    }
+
+    // this case tests that the cache is disabled unless a cache directory is configured
+    @Test
+    public void testDisabled() {
+        Assert.assertNotNull(ResultCache.getInstance());
+        ResultCache.init(new TestParameterContainer());
+        Assert.assertNull(ResultCache.getInstance());
+    }
+
+    // this case tests that a committed response is served back byte for byte, and that an abandoned one is never served
+    @Test
+    public void testCommitAndLookup() throws IOException {
+        ResultCache resultCache = ResultCache.getInstance();
+        Assert.assertNull(resultCache.lookup("a"));
+
+        byte[] content = fill(100, (byte)'a');
+        ResultCache.ResultWriter resultWriter = resultCache.newResultWriter("a");
+        resultWriter.write(content, 0, 60);
+        resultWriter.write(content, 60, 40);
+        Assert.assertNull(resultCache.lookup("a"));
+        resultWriter.commit();
+
+        ResultCache.CachedResult cachedResult = resultCache.lookup("a");
+        Assert.assertEquals(100L, cachedResult.getLength());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        cachedResult.transferTo(outputStream);
+        Assert.assertArrayEquals(content, outputStream.toByteArray());
+
+        resultWriter = resultCache.newResultWriter("b");
+        resultWriter.write(content, 0, 10);
+        resultWriter.abandon();
+        Assert.assertNull(resultCache.lookup("b"));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+    }
+
+    // this case tests that a response larger than the largest cacheable size is dropped
+    @Test
+    public void testOversize() {
+        ResultCache resultCache = ResultCache.getInstance();
+        ResultCache.ResultWriter resultWriter = resultCache.newResultWriter("a");
+        resultWriter.write(fill(121, (byte)'a'), 0, 121);
+        resultWriter.commit();
+        Assert.assertNull(resultCache.lookup("a"));
+        Assert.assertEquals(0L, resultCache.getTotalBytes());
+        Assert.assertEquals(0, cacheDir.listFiles().length);
+    }
+
+    // this case tests that the least recently used responses are evicted first, and that the cache is indexed again on restart
+    @Test
+    public void testEviction() {
+        ResultCache resultCache = ResultCache.getInstance();
+        put(resultCache, "a", 100);
+        put(resultCache, "b", 100);
+        resultCache.lookup("a").close();
+        put(resultCache, "c", 100);
+
+        Assert.assertEquals(200L, resultCache.getTotalBytes());
+        Assert.assertNull(resultCache.lookup("b"));
+        Assert.assertNotNull(resultCache.lookup("a"));
+        Assert.assertNotNull(resultCache.lookup("c"));
+
+        File[] files = cacheDir.listFiles();
+        Arrays.sort(files);
+        Assert.assertEquals(2, files.length);
+        Assert.assertEquals("a" + ResultCache.RESULT_SUFFIX, files[0].getName());
+
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ResultCache.PN_RESULT_CACHE_DIR, cacheDir.getAbsolutePath());
+        ResultCache.init(parameterContainer);
+        Assert.assertEquals(200L, ResultCache.getInstance().getTotalBytes());
+        Assert.assertNotNull(ResultCache.getInstance().lookup("c"));
+    }
+
+    private void put(ResultCache resultCache, String key, int length) {
+        ResultCache.ResultWriter resultWriter = resultCache.newResultWriter(key);
+        resultWriter.write(fill(length, (byte)key.charAt(0)), 0, length);
+        resultWriter.commit();
+    }
+
+    private byte[] fill(int length, byte value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+}
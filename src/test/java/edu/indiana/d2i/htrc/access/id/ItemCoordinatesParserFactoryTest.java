@@ -37,6 +37,7 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
+import edu.indiana.d2i.htrc.access.Constants;
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
 import edu.indiana.d2i.htrc.access.TestParameterContainer;
@@ -466,5 +467,39 @@ public class ItemCoordinatesParserFactoryTest {
         
     }
 
+    // This case tests that page sequences longer than the padded length are kept whole
+    @Test
+    public void testGeneratePageSequenceStringLong() {
+        Assert.assertEquals("00012345", Parser.generatePageSequenceString(12345));
+        Assert.assertEquals("123456789", Parser.generatePageSequenceString(123456789));
+        Assert.assertEquals(String.valueOf(Integer.MAX_VALUE), Parser.generatePageSequenceString(Integer.MAX_VALUE));
+    }
+    
+    // This case tests that a large request of pageIDs is parsed into volumes in the order they are first requested
+    @Test
+    public void testPageIDsParserParseMany() throws ParseException, PolicyViolationException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append("test.volume").append(i % 5000).append('[').append(i + 1).append(']').append(Constants.ID_SEPARATOR);
+        }
+        ItemCoordinatesParserFactory.Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.PAGE_ID, new NullPolicyCheckerRegistry());
+        List<? extends RequestedItemCoordinates> list = parser.parse(builder.toString());
+        
+        Assert.assertEquals(5000, list.size());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals("test.volume" + i, list.get(i).getVolumeID());
+            Assert.assertEquals(4, list.get(i).getPageSequences().size());
+            Assert.assertEquals(Parser.generatePageSequenceString(i + 1), list.get(i).getPageSequences().get(0));
+        }
+    }
+    
+    // This case tests that a page sequence too large for an int should raise a ParseException
+    @Test(expected = ParseException.class)
+    public void testPageIDsParserParseErrorOverflow() throws ParseException, PolicyViolationException {
+        String rawString = "loc.ark:/13960/t9q23z43f [ 1, 2147483648 ]  ";
+        ItemCoordinatesParserFactory.Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.PAGE_ID, new NullPolicyCheckerRegistry());
+        parser.parse(rawString);
+    }
+
 }
 
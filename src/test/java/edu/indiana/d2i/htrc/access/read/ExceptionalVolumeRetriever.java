@@ -59,5 +59,13 @@ public class ExceptionalVolumeRetriever implements VolumeRetriever {
         throw new KeyNotFoundException("test.offending/key");
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasErrors()
+     */
+    @Override
+    public boolean hasErrors() {
+        return !hasMoreVolumes;
+    }
+
 }
 
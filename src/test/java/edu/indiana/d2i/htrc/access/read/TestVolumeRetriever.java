@@ -115,6 +115,14 @@ public class TestVolumeRetriever implements VolumeRetriever {
         return volumeReaderIterator.next();
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasErrors()
+     */
+    @Override
+    public boolean hasErrors() {
+        return false;
+    }
+
     
 }
 
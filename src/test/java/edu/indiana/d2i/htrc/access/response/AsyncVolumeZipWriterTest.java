@@ -0,0 +1,370 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AsyncVolumeZipWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.IncrementalZipMaker;
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.async.AsyncFetchManager;
+import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.read.TestHectorResource;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class AsyncVolumeZipWriterTest {
+    
+    public static final String NON_EXISTING_VOLUME_ID = "invalid.fake:/0001/volume1";
+    
+    private static final long TIMEOUT_SECONDS = 30L;
+    
+    // large enough that the zip file is sent in many chunks and that HIGH_WATER_MARK is reached
+    private static final int PAGE_REPETITIONS = 2000;
+    
+    /**
+     * This class is a TestHectorResource whose pages are many times longer
+     * @author Yiming Sun
+     *
+     */
+    static class LargePageHectorResource extends TestHectorResource {
+        
+        LargePageHectorResource(ParameterContainer parameterContainer) throws Exception {
+            super(parameterContainer);
+        }
+        
+        @Override
+        protected ContentReader generateFakePage(String volumeID, int page) throws Exception {
+            final ContentReader pageReader = super.generateFakePage(volumeID, page);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            for (int i = 0; i < PAGE_REPETITIONS; i++) {
+                outputStream.write(pageReader.getContent());
+                outputStream.write('\n');
+            }
+            final byte[] content = outputStream.toByteArray();
+            return new ContentReader() {
+                @Override
+                public String getContentName() {
+                    return pageReader.getContentName();
+                }
+                
+                @Override
+                public byte[] getContent() {
+                    return content;
+                }
+            };
+        }
+    }
+    
+    /**
+     * This class is a ServletOutputStream that behaves like the non-blocking one of a container.  Unless it is always ready, it stops being ready
+     * after every write, and becomes ready again, calling onWritePossible(), only when the test drains it.  Writing to it while it is not ready
+     * throws an IllegalStateException, as the container does
+     * @author Yiming Sun
+     *
+     */
+    static class FakeServletOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        private final boolean alwaysReady;
+        private final int failAfterWrites;
+        private WriteListener writeListener = null;
+        private boolean ready = true;
+        private int notReadyCount = 0;
+        private int writeCount = 0;
+        
+        FakeServletOutputStream(boolean alwaysReady, int failAfterWrites) {
+            this.alwaysReady = alwaysReady;
+            this.failAfterWrites = failAfterWrites;
+        }
+        
+        @Override
+        public synchronized boolean isReady() {
+            if (!ready) {
+                notReadyCount++;
+            }
+            return ready;
+        }
+        
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            synchronized (this) {
+                this.writeListener = writeListener;
+            }
+            try {
+                writeListener.onWritePossible();
+            } catch (IOException e) {
+                writeListener.onError(e);
+            }
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+        
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (!ready) {
+                throw new IllegalStateException("written while not ready");
+            }
+            if (failAfterWrites >= 0 && writeCount >= failAfterWrites) {
+                throw new IOException("Client went away");
+            }
+            outputStream.write(b, off, len);
+            writeCount++;
+            if (!alwaysReady) {
+                ready = false;
+            }
+        }
+        
+        void drain() throws IOException {
+            WriteListener listener = null;
+            synchronized (this) {
+                if (!ready) {
+                    ready = true;
+                    listener = writeListener;
+                }
+            }
+            if (listener != null) {
+                listener.onWritePossible();
+            }
+        }
+        
+        synchronized byte[] toByteArray() {
+            return outputStream.toByteArray();
+        }
+        
+        synchronized int getNotReadyCount() {
+            return notReadyCount;
+        }
+        
+        synchronized int getWriteCount() {
+            return writeCount;
+        }
+    }
+    
+    private static AsyncFetchManager asyncFetchManager = null;
+    
+    private ExecutorService executorService = null;
+    private CountDownLatch completeLatch = null;
+    private AtomicInteger completeCount = null;
+    
+    @BeforeClass
+    public static void setup() throws Exception {
+        ParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_COUNT, "1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_NAME_ + "1", "127.0.0.1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_CLUSTER_NAME, "No such cluster");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_KEYSPACE_NAME, "NoSuchKeyspace");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_INIT_DELAY, "200");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_MAX_DELAY, "1000");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_MAX_ATTEMPTS, "4");
+        
+        parameterContainer.setParameter(AsyncFetchManager.PN_ASYNC_WORKER_COUNT, "2");
+        // small enough that volumes are split into several jobs, and that not all jobs are dispatched at once
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_PAGES_PER_RETRIEVAL, "2");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_ASYNC_FETCH_ENTRY_COUNT, "3");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_EXCEPTIONS_TO_REPORT, "10");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MIN_ENTRY_COUNT_TRIGGER_DISPATCH, "1");
+        
+        HectorResource hectorResource = new LargePageHectorResource(parameterContainer);
+        AsyncFetchManager.init(parameterContainer, hectorResource);
+        asyncFetchManager = AsyncFetchManager.getInstance();
+        ThrottledVolumeRetrieverImpl.init(parameterContainer, hectorResource, asyncFetchManager);
+    }
+    
+    @AfterClass
+    public static void teardown() {
+        asyncFetchManager.shutdown();
+    }
+    
+    @Before
+    public void setupExecutorService() {
+        executorService = Executors.newFixedThreadPool(2);
+        completeLatch = new CountDownLatch(1);
+        completeCount = new AtomicInteger(0);
+    }
+    
+    @After
+    public void shutdownExecutorService() {
+        executorService.shutdownNow();
+    }
+    
+    // this case tests that the zip file written asynchronously to an output stream that is always ready has the same entries as the one written in one go
+    @Test
+    public void testAlwaysReady() throws Exception {
+        FakeServletOutputStream servletOutputStream = new FakeServletOutputStream(true, -1);
+        AsyncVolumeZipWriter asyncVolumeZipWriter = newAsyncVolumeZipWriter(servletOutputStream);
+        asyncVolumeZipWriter.start(newIdentifiers());
+        
+        Assert.assertTrue(completeLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(1, completeCount.get());
+        Assert.assertEquals(0, servletOutputStream.getNotReadyCount());
+        Assert.assertEquals(readEntries(makeZipFile()), readEntries(servletOutputStream.toByteArray()));
+    }
+    
+    // this case tests that nothing is written while isReady() returns false, and that the download carries on from onWritePossible() to the same entries
+    @Test
+    public void testNotReady() throws Exception {
+        FakeServletOutputStream servletOutputStream = new FakeServletOutputStream(false, -1);
+        AsyncVolumeZipWriter asyncVolumeZipWriter = newAsyncVolumeZipWriter(servletOutputStream);
+        asyncVolumeZipWriter.start(newIdentifiers());
+        
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!completeLatch.await(10L, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            servletOutputStream.drain();
+        }
+        
+        Assert.assertEquals(1, completeCount.get());
+        Assert.assertTrue(servletOutputStream.getNotReadyCount() > 0);
+        Assert.assertTrue(servletOutputStream.getWriteCount() > 1);
+        Assert.assertEquals(readEntries(makeZipFile()), readEntries(servletOutputStream.toByteArray()));
+    }
+    
+    // this case tests that the request is completed exactly once when writing to the client fails, even if the container reports the failure as well
+    @Test
+    public void testClientGone() throws Exception {
+        FakeServletOutputStream servletOutputStream = new FakeServletOutputStream(true, 0);
+        AsyncVolumeZipWriter asyncVolumeZipWriter = newAsyncVolumeZipWriter(servletOutputStream);
+        asyncVolumeZipWriter.start(newIdentifiers());
+        
+        Assert.assertTrue(completeLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        asyncVolumeZipWriter.onError(new IOException("Client went away"));
+        asyncVolumeZipWriter.onWritePossible();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        
+        Assert.assertEquals(1, completeCount.get());
+        Assert.assertEquals(0, servletOutputStream.getWriteCount());
+    }
+    
+    private AsyncVolumeZipWriter newAsyncVolumeZipWriter(ServletOutputStream servletOutputStream) {
+        NullAuditor auditor = new NullAuditor(null);
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
+        IncrementalZipMaker zipMaker = (IncrementalZipMaker)ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor);
+        return new AsyncVolumeZipWriter(newAsyncContext(), servletOutputStream, volumeRetriever, zipMaker, auditor, executorService);
+    }
+    
+    private AsyncContext newAsyncContext() {
+        InvocationHandler invocationHandler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("complete".equals(method.getName())) {
+                    completeCount.incrementAndGet();
+                    completeLatch.countDown();
+                }
+                return null;
+            }
+        };
+        return (AsyncContext)Proxy.newProxyInstance(AsyncContext.class.getClassLoader(), new Class<?>[] {AsyncContext.class}, invocationHandler);
+    }
+    
+    private List<RequestedItemCoordinates> newIdentifiers() {
+        List<RequestedItemCoordinates> identifiers = new ArrayList<RequestedItemCoordinates>();
+        for (int i = 0; i < TestHectorResource.VOLUME_IDS.length - 1; i++) {
+            identifiers.add(new ItemCoordinatesImpl(TestHectorResource.VOLUME_IDS[i]));
+        }
+        identifiers.add(new ItemCoordinatesImpl(NON_EXISTING_VOLUME_ID));
+        ItemCoordinatesImpl pageID = new ItemCoordinatesImpl(TestHectorResource.VOLUME_IDS[TestHectorResource.VOLUME_IDS.length - 1]);
+        pageID.addPageSequence("00000003");
+        pageID.addPageSequence("00000001");
+        identifiers.add(pageID);
+        return identifiers;
+    }
+    
+    private byte[] makeZipFile() throws IOException, DataAPIException {
+        NullAuditor auditor = new NullAuditor(null);
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
+        volumeRetriever.setRetrievalIDs(newIdentifiers());
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(outputStream, volumeRetriever);
+        return outputStream.toByteArray();
+    }
+    
+    private Map<String, String> readEntries(byte[] zipFile) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipFile));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            entries.put(zipEntry.getName(), new String(outputStream.toByteArray(), "utf-8"));
+        }
+        zipInputStream.close();
+        return entries;
+    }
+
+}
+
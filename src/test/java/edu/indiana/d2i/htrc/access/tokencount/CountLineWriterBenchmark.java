@@ -0,0 +1,164 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CountLineWriterBenchmark.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountMapBenchmark.CountingOutputStream;
+
+/**
+ * This class measures the throughput and the memory allocated by writing token count lines with CountLineWriter against the per-line String
+ * formatting and the four small writes per line it replaced.  It is not a unit test and is not run by the build; run it by hand with
+ * <pre>
+ * java -cp target/classes:target/test-classes edu.indiana.d2i.htrc.access.tokencount.CountLineWriterBenchmark [lines]
+ * </pre>
+ * Allocation is only reported on JVMs whose ThreadMXBean supports com.sun.management.ThreadMXBean.getThreadAllocatedBytes().  Each configuration is run
+ * a few times first so the JIT has settled before the measured run.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class CountLineWriterBenchmark {
+
+    private static final String UTF_8 = "utf-8";
+
+    private static enum Mode {
+        STRING_COUNTS,
+        COUNT_LINE_WRITER_COUNTS,
+        STRING_SCORES,
+        COUNT_LINE_WRITER_SCORES;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        Random random = new Random(2013L);
+        String[] tokens = new String[lineCount];
+        int[] counts = new int[lineCount];
+        double[] scores = new double[lineCount];
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            stringBuilder.setLength(0);
+            int length = 2 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                stringBuilder.append((char)('a' + random.nextInt(26)));
+            }
+            tokens[i] = stringBuilder.toString();
+            // a Zipf-like spread of counts, most of them small
+            counts[i] = 1 + (int)(1000000 * Math.pow(random.nextDouble(), 8.0));
+            scores[i] = counts[i] * Math.log(1.0 + 1000.0 * random.nextDouble());
+        }
+        // CountLineWriter is given the bytes TokenCountMap already holds the tokens as
+        TokenCountMap map = new TokenCountMap(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            map.add(tokens[i], counts[i]);
+        }
+        System.out.println(lineCount + " lines, " + map.size() + " distinct tokens");
+
+        for (Mode mode : Mode.values()) {
+            run(mode, tokens, counts, scores, map);
+        }
+    }
+
+    private static void run(Mode mode, String[] tokens, int[] counts, double[] scores, TokenCountMap map) throws IOException {
+        long elapsed = 0L;
+        long allocated = -1L;
+        long bytes = 0L;
+        for (int round = 0; round < 4; round++) {
+            CountingOutputStream outputStream = new CountingOutputStream();
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            switch (mode) {
+            case STRING_COUNTS:
+                // the lines TokenCountZipperFactory.Helper.sendEntry wrote before TokenCountMap.writeTo()
+                for (int i = 0; i < tokens.length; i++) {
+                    outputStream.write(tokens[i].getBytes(UTF_8));
+                    outputStream.write(" ".getBytes(UTF_8));
+                    outputStream.write(Integer.toString(counts[i]).getBytes(UTF_8));
+                    outputStream.write("\n".getBytes(UTF_8));
+                }
+                break;
+            case COUNT_LINE_WRITER_COUNTS:
+                writeCounts(map, outputStream);
+                break;
+            case STRING_SCORES:
+                // the lines DocumentFrequencyTokenCountZipper wrote for tf-idf scores before CountLineWriter
+                for (int i = 0; i < tokens.length; i++) {
+                    outputStream.write(tokens[i].getBytes(UTF_8));
+                    outputStream.write(String.format(Locale.US, " %.6f\n", scores[i]).getBytes(UTF_8));
+                }
+                break;
+            case COUNT_LINE_WRITER_SCORES:
+                writeScores(map, scores, outputStream);
+                break;
+            }
+            elapsed = System.nanoTime() - start;
+            long allocatedAfter = getAllocatedBytes();
+            allocated = (allocatedBefore >= 0L) ? allocatedAfter - allocatedBefore : -1L;
+            bytes = outputStream.count;
+        }
+        double seconds = elapsed / 1e9;
+        String allocation = (allocated >= 0L) ? String.format("%8.1f bytes/line", (double)allocated / tokens.length) : "n/a";
+        System.out.println(String.format("%-30s %8.2f Mlines/s %8.1f MB/s   %s", mode, tokens.length / seconds / 1e6, bytes / seconds / 1e6, allocation));
+    }
+
+    private static void writeCounts(TokenCountMap map, OutputStream outputStream) throws IOException {
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        for (int id = 0; id < map.size; id++) {
+            countLineWriter.writeLine(map.arena, map.offsets[id], map.lengths[id], map.counts[id]);
+        }
+        countLineWriter.flush();
+    }
+
+    private static void writeScores(TokenCountMap map, double[] scores, OutputStream outputStream) throws IOException {
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        for (int id = 0; id < map.size; id++) {
+            countLineWriter.writeLine(map.arena, map.offsets[id], map.lengths[id], scores[id], 6);
+        }
+        countLineWriter.flush();
+    }
+
+    private static long getAllocatedBytes() {
+        long allocated = -1L;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            allocated = ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return allocated;
+    }
+
+}
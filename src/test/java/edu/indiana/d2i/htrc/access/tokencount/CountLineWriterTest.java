@@ -0,0 +1,100 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CountLineWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class CountLineWriterTest {
+
+    // This case tests that count lines are written as the token, a space, the count and a line feed, and only reach the OutputStream when flushed
+    @Test
+    public void testCountLines() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        byte[] bytes = "xthe caf\u00e9".getBytes("utf-8");
+        countLineWriter.writeLine(bytes, 1, 3, 0);
+        countLineWriter.writeLine(bytes, 5, bytes.length - 5, Integer.MAX_VALUE);
+        countLineWriter.writeLine(bytes, 1, 3, Long.MAX_VALUE);
+        Assert.assertEquals(0, outputStream.size());
+        countLineWriter.flush();
+        Assert.assertEquals("the 0\ncaf\u00e9 2147483647\nthe 9223372036854775807\n", outputStream.toString("utf-8"));
+    }
+
+    // This case tests that decimal lines are formatted the same way as String.format() with the same number of fraction digits
+    @Test
+    public void testDecimalLines() throws IOException {
+        double[] values = {0.0, 1.0, 0.5, 0.6931471805599453, 1.3862943611198906, 123456.7890125, 99.9999995, 1e-7};
+        Random random = new Random(2013L);
+        double[] randomValues = Arrays.copyOf(values, values.length + 1000);
+        for (int i = values.length; i < randomValues.length; i++) {
+            randomValues[i] = random.nextDouble() * Math.pow(10, random.nextInt(8));
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        StringBuilder expected = new StringBuilder();
+        byte[] token = "t".getBytes("utf-8");
+        for (double value : randomValues) {
+            countLineWriter.writeLine(token, 0, 1, value, 6);
+            expected.append(String.format(Locale.US, "t %.6f\n", value));
+        }
+        countLineWriter.writeLine(token, 0, 1, 2.5, 0);
+        expected.append("t 3\n");
+        countLineWriter.flush();
+        Assert.assertEquals(expected.toString(), outputStream.toString("utf-8"));
+    }
+
+    // This case tests that lines longer than the buffer are written whole and in order
+    @Test
+    public void testLongToken() throws IOException {
+        byte[] token = new byte[CountLineWriter.BUFFER_SIZE + 10];
+        Arrays.fill(token, (byte)'a');
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CountLineWriter countLineWriter = new CountLineWriter(outputStream);
+        countLineWriter.writeLine(token, 0, 1, 1);
+        countLineWriter.writeLine(token, 0, token.length, 2);
+        countLineWriter.writeLine(token, 0, 1, 3);
+        countLineWriter.flush();
+        Assert.assertEquals("a 1\n" + new String(token, "utf-8") + " 2\na 3\n", outputStream.toString("utf-8"));
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DocumentFrequencyTokenCountZipperTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class DocumentFrequencyTokenCountZipperTest {
+
+    // only "is" and "line" appear in both test volumes
+    @Test
+    public void testDocumentFrequency() throws IOException {
+        String actual = countAndZip(false, 2, 0);
+        Assert.assertEquals("collection.df\nis 2\nline 2\n", actual);
+    }
+
+    // a token in both volumes scores 0, and a token counted twice in one volume scores 2 ln 2
+    @Test
+    public void testTfidf() throws IOException {
+        String actual = countAndZip(true, 1, 3);
+        Assert.assertEquals("test.volume1.tfidf\nand 1.386294\ncontinues. 1.386294\nhy-phen 1.386294\n"
+                + "test.volume2.tfidf\ncom-munication 1.386294\nfirst 0.693147\nfor 0.693147\n", actual);
+    }
+
+    // a volume split over several VolumeReaders is still one document
+    @Test
+    public void testDocumentFrequencySplitVolumes() throws IOException {
+        String actual = countAndZip(false, 2, 0, new TestTokenCountVolumeRetrieverImpl(1, 2));
+        Assert.assertEquals("collection.df\nis 2\nline 2\n", actual);
+    }
+
+    private String countAndZip(boolean tfidf, int minCount, int topK) throws IOException {
+        return countAndZip(tfidf, minCount, topK, new TestTokenCountVolumeRetrieverImpl());
+    }
+
+    private String countAndZip(boolean tfidf, int minCount, int topK, VolumeRetriever volumeRetriever) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            File tempDir = new File(System.getProperty("java.io.tmpdir"));
+            TokenCountZipper tokenCountZipper = new DocumentFrequencyTokenCountZipper(new NullAuditor(new HashMap<String, List<String>>()), FormatEnum.ZIP, Deflater.NO_COMPRESSION, minCount, topK, tfidf, tempDir);
+            tokenCountZipper.countAndZip(outputStream, volumeRetriever, new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()),
+                    new SimpleTokenFilterChain(), TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC));
+            return readEntries(outputStream.toByteArray());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+}
+
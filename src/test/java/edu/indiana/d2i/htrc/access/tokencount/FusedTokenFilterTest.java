@@ -0,0 +1,115 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FusedTokenFilterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class FusedTokenFilterTest {
+
+    static FusedTokenFilter newFilter(String... names) {
+        List<TokenSliceFilter> filters = new ArrayList<TokenSliceFilter>();
+        for (String name : names) {
+            filters.add(TokenSliceFilterFactory.getFilter(name));
+        }
+        return new FusedTokenFilter(filters);
+    }
+
+    private static List<String> filter(FusedTokenFilter filter, String... tokens) throws Exception {
+        TokenPackage tokenPackage = new SimpleTokenPackageImpl(new ContentIdentifierImpl("test.volume1", "00000001"), Arrays.asList(tokens));
+        return filter.filter(tokenPackage).getTokenSlices().toTokenList();
+    }
+
+    @Test
+    public void testLowercasePunctuationStopWords() throws Exception {
+        FusedTokenFilter filter = newFilter("lowercase", "punctuation", "stopwords");
+        List<String> tokens = filter(filter, "The", "Quick,", "(BROWN)", "--", "\"Don't\"", "of.", "hy-", "");
+        Assert.assertEquals(Arrays.asList("quick", "brown", "don't", "hy-"), tokens);
+    }
+
+    @Test
+    public void testNonASCII() throws Exception {
+        FusedTokenFilter filter = newFilter("nfc", "lowercase", "punctuation");
+        // a decomposed e-acute is composed, and U+023A lowercases to U+2C65, which takes a byte more
+        List<String> tokens = filter(filter, "\u00abE\u0301TE\u0301\u00bb", "\u023a", "\u00bfQu\u00e9?");
+        Assert.assertEquals(Arrays.asList("\u00e9t\u00e9", "\u2c65", "qu\u00e9"), tokens);
+    }
+
+    @Test
+    public void testContentNotModified() throws Exception {
+        byte[] content = "Alpha BETA gamma".getBytes("utf-8");
+        TokenSlices tokenSlices = new TokenSlices(content, 3);
+        tokenSlices.add(0, 5);
+        tokenSlices.add(6, 4);
+        tokenSlices.add(11, 5);
+        TokenPackage tokenPackage = new SliceTokenPackageImpl(new ContentIdentifierImpl("test.volume1", "00000001"), tokenSlices);
+        newFilter("lowercase").filter(tokenPackage);
+        Assert.assertEquals(Arrays.asList("alpha", "beta", "gamma"), tokenSlices.toTokenList());
+        Assert.assertEquals("Alpha BETA gamma", new String(content, "utf-8"));
+    }
+
+    @Test
+    public void testUnknownFilter() {
+        Assert.assertNull(TokenSliceFilterFactory.getFilter("stemmer"));
+        Assert.assertEquals("lowercase,punctuation", newFilter("lowercase", "punctuation").getName());
+    }
+
+    @Test
+    public void testFuse() throws Exception {
+        SimpleTokenFilterChain chain = new SimpleTokenFilterChain();
+        chain.addFilter(new EmptyTokenRemovalFilter());
+        chain.addFilter(newFilter("lowercase", "punctuation"));
+        chain.addFilter(newFilter("stopwords"));
+        FusedTokenFilter fused = FusedTokenFilter.fuse(chain);
+        Assert.assertEquals(newFilter("lowercase", "punctuation", "stopwords").getName(), fused.getName());
+        Assert.assertEquals(Arrays.asList("quick", "brown"), filter(fused, "", "The", "Quick,", "(BROWN)", "--"));
+        Assert.assertEquals(Arrays.asList("a", "b"), filter(FusedTokenFilter.fuse(new EmptyTokenRemovalFilter()), "a", "", "b"));
+
+        chain.addFilter(new TokenFilter() {
+            @Override
+            public TokenPackage filter(TokenPackage tokenPackage) {
+                return tokenPackage;
+            }
+        });
+        Assert.assertNull(FusedTokenFilter.fuse(chain));
+    }
+
+}
+
@@ -0,0 +1,129 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NgramTokenCountZipperTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class NgramTokenCountZipperTest {
+
+    // the bigrams span the page break and the word hyphenated across it
+    @Test
+    public void testBigrams() throws IOException {
+        String actual = countAndZip(2, 1, 0, TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+        Assert.assertTrue(actual.endsWith("test.volume2.count\ncom-munication media 1\nfirst line 1\nfor com-munication 1\ngood for 1\nin second 1\nis good 1\nline in 1\nmedia is 1\nsecond volume 1\nvolume com-munication 1\n"));
+    }
+
+    @Test
+    public void testTrigramsMinCount() throws IOException {
+        String actual = countAndZip(3, 2, 0, TokenCountComparatorTypeEnum.DEFAULT);
+        Assert.assertEquals("test.volume1.count\nhy-phen and continues. 2\ntest.volume2.count\n", actual);
+    }
+
+    @Test
+    public void testBigramsTopK() throws IOException {
+        String actual = countAndZip(2, 1, 2, TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+        Assert.assertTrue(actual.endsWith("test.volume2.count\nvolume com-munication 1\nsecond volume 1\n"));
+    }
+
+    @Test
+    public void testNgramCountMap() {
+        TokenCountMap dictionary = new TokenCountMap();
+        NgramCountMap ngramCountMap = new NgramCountMap(2, dictionary);
+        int[] tokenIds = new int[4];
+        String[] tokens = {"a", "b", "a", "b"};
+        for (int i = 0; i < tokens.length; i++) {
+            byte[] bytes = tokens[i].getBytes();
+            tokenIds[i] = dictionary.add(bytes, 0, bytes.length, TokenCountMap.hash(bytes, 0, bytes.length), 1);
+        }
+        for (int i = 0; i + 1 < tokenIds.length; i++) {
+            ngramCountMap.increment(tokenIds, i);
+        }
+        Assert.assertEquals(2, ngramCountMap.size());
+        Assert.assertEquals(2, ngramCountMap.get(tokenIds, 0));
+        Assert.assertEquals(1, ngramCountMap.get(tokenIds, 1));
+        TokenCountMap rendered = ngramCountMap.render(2, 0);
+        Assert.assertEquals(1, rendered.size());
+        Assert.assertEquals(2, rendered.get("a b"));
+    }
+
+    private String countAndZip(int n, int minCount, int topK, TokenCountComparatorTypeEnum comparatorType) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            TokenCountZipper tokenCountZipper = new NgramTokenCountZipper(new NullAuditor(new HashMap<String, List<String>>()), FormatEnum.ZIP, Deflater.NO_COMPRESSION, minCount, topK, n);
+            tokenCountZipper.countAndZip(outputStream, new TestTokenCountVolumeRetrieverImpl(), new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()),
+                    new SimpleTokenFilterChain(), TokenCountComparatorFactory.getComparator(comparatorType));
+            return readEntries(outputStream.toByteArray());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+}
+
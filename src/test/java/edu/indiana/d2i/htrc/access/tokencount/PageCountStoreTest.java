@@ -0,0 +1,329 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageCountStoreTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class PageCountStoreTest {
+
+    private static final String[] VOLUME_IDS = {"test.volume1", "test.volume2"};
+    private static final int[] PAGE_COUNTS = {3, 2};
+
+    private File storeDir = null;
+    private ExecutorService executorService = null;
+    private Auditor auditor = null;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDir = File.createTempFile("pagecount", "store");
+        storeDir.delete();
+        TestTokenCountParameterContainerImpl parameterContainer = new TestTokenCountParameterContainerImpl();
+        parameterContainer.setParameter(PageCountStore.PN_PAGE_COUNT_STORE_DIR, storeDir.getAbsolutePath());
+        PageCountStore.init(parameterContainer);
+        executorService = Executors.newFixedThreadPool(4);
+        auditor = new NullAuditor(new HashMap<String, List<String>>());
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdown();
+        clearStore();
+        storeDir.delete();
+        PageCountStore.init(new TestTokenCountParameterContainerImpl());
+    }
+
+    // this case tests that the first request fills the store, and that later requests are served from the store without fetching, with the same output as counting the pages
+    @Test
+    public void testFillAndServe() throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        String fingerprint = PageCountStore.fingerprint(new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), newTokenFilterChain());
+        for (boolean pageLevel : new boolean[] {false, true}) {
+            clearStore();
+            StoredPageCountVolumeRetriever volumeRetriever = new StoredPageCountVolumeRetriever(new TestTokenCountVolumeRetrieverImpl(), toIdentifiers(), pageCountStore, fingerprint);
+            Assert.assertEquals(VOLUME_IDS.length, volumeRetriever.getUnstoredIdentifiers().size());
+            Assert.assertEquals(count(pageLevel, false, TokenCountComparatorTypeEnum.DEFAULT, new TestTokenCountVolumeRetrieverImpl()), count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, volumeRetriever));
+            for (int i = 0; i < VOLUME_IDS.length; i++) {
+                Assert.assertTrue(pageCountStore.contains(fingerprint, VOLUME_IDS[i]));
+                Assert.assertEquals(PAGE_COUNTS[i], pageCountStore.load(fingerprint, VOLUME_IDS[i]).size());
+            }
+
+            for (TokenCountComparatorTypeEnum comparatorType : TokenCountComparatorTypeEnum.values()) {
+                volumeRetriever = new StoredPageCountVolumeRetriever(new EmptyVolumeRetriever(), toIdentifiers(), pageCountStore, fingerprint);
+                Assert.assertTrue(volumeRetriever.getUnstoredIdentifiers().isEmpty());
+                Assert.assertEquals(pageLevel + " " + comparatorType, count(pageLevel, false, comparatorType, new TestTokenCountVolumeRetrieverImpl()), count(pageLevel, true, comparatorType, volumeRetriever));
+            }
+        }
+        Assert.assertFalse(pageCountStore.contains("other fingerprint", VOLUME_IDS[0]));
+    }
+
+    // this case tests that the pages of a volume requested in part are not stored, and that they are picked from the stored counts once the whole volume is
+    @Test
+    public void testPageSubset() throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        String fingerprint = PageCountStore.fingerprint(new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), newTokenFilterChain());
+        List<String> pageSequences = Arrays.asList("00000002", "00000003");
+        for (boolean pageLevel : new boolean[] {false, true}) {
+            clearStore();
+            StoredPageCountVolumeRetriever volumeRetriever = new StoredPageCountVolumeRetriever(new PageSubsetVolumeRetriever(pageSequences), toIdentifiers(pageSequences), pageCountStore, fingerprint);
+            Assert.assertFalse(volumeRetriever.isWholeVolume(VOLUME_IDS[0]));
+            Assert.assertTrue(volumeRetriever.isWholeVolume(VOLUME_IDS[1]));
+            String expected = count(pageLevel, false, TokenCountComparatorTypeEnum.DEFAULT, new PageSubsetVolumeRetriever(pageSequences));
+            Assert.assertEquals(expected, count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, volumeRetriever));
+            Assert.assertFalse(pageCountStore.contains(fingerprint, VOLUME_IDS[0]));
+            Assert.assertTrue(pageCountStore.contains(fingerprint, VOLUME_IDS[1]));
+
+            count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, new StoredPageCountVolumeRetriever(new TestTokenCountVolumeRetrieverImpl(), toIdentifiers(), pageCountStore, fingerprint));
+            Assert.assertTrue(pageCountStore.contains(fingerprint, VOLUME_IDS[0]));
+            volumeRetriever = new StoredPageCountVolumeRetriever(new EmptyVolumeRetriever(), toIdentifiers(pageSequences), pageCountStore, fingerprint);
+            Assert.assertTrue(volumeRetriever.getUnstoredIdentifiers().isEmpty());
+            Assert.assertEquals(expected, count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, volumeRetriever));
+            Assert.assertEquals(PAGE_COUNTS[0], pageCountStore.load(fingerprint, VOLUME_IDS[0]).size());
+        }
+    }
+
+    // this case tests that a volume split over several VolumeReaders is returned whole before a stored volume requested after it
+    @Test
+    public void testSplitVolumeBeforeStoredVolume() throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        String fingerprint = PageCountStore.fingerprint(new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), newTokenFilterChain());
+        List<String> pageSequences = Arrays.asList("00000002", "00000003");
+        for (boolean pageLevel : new boolean[] {false, true}) {
+            clearStore();
+            // only the second volume is stored, as the first is requested in part
+            count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, new StoredPageCountVolumeRetriever(new PageSubsetVolumeRetriever(pageSequences), toIdentifiers(pageSequences), pageCountStore, fingerprint));
+            Assert.assertFalse(pageCountStore.contains(fingerprint, VOLUME_IDS[0]));
+            Assert.assertTrue(pageCountStore.contains(fingerprint, VOLUME_IDS[1]));
+
+            StoredPageCountVolumeRetriever volumeRetriever = new StoredPageCountVolumeRetriever(new TestTokenCountVolumeRetrieverImpl(1, 1), toIdentifiers(), pageCountStore, fingerprint);
+            Assert.assertEquals(1, volumeRetriever.getUnstoredIdentifiers().size());
+            Assert.assertEquals(pageLevel + "", count(pageLevel, false, TokenCountComparatorTypeEnum.DEFAULT, new TestTokenCountVolumeRetrieverImpl()), count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, volumeRetriever));
+            Assert.assertEquals(PAGE_COUNTS[0], pageCountStore.load(fingerprint, VOLUME_IDS[0]).size());
+        }
+    }
+
+    // this case tests that a volume is not stored when fewer of its pages are counted than the VolumeRetriever reports for it, as when a page fails to be fetched
+    @Test
+    public void testMissingPages() throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        String fingerprint = PageCountStore.fingerprint(new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), newTokenFilterChain());
+        for (boolean pageLevel : new boolean[] {false, true}) {
+            clearStore();
+            StoredPageCountVolumeRetriever volumeRetriever = new StoredPageCountVolumeRetriever(new MissingPageVolumeRetriever(), toIdentifiers(), pageCountStore, fingerprint);
+            Assert.assertEquals(PAGE_COUNTS[0] + 1, volumeRetriever.getVolumePageCount(VOLUME_IDS[0]));
+            Assert.assertEquals(count(pageLevel, false, TokenCountComparatorTypeEnum.DEFAULT, new TestTokenCountVolumeRetrieverImpl()), count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, volumeRetriever));
+            Assert.assertFalse(pageCountStore.contains(fingerprint, VOLUME_IDS[0]));
+            Assert.assertTrue(pageCountStore.contains(fingerprint, VOLUME_IDS[1]));
+
+            // a VolumeRetriever that cannot tell the page counts of the volumes stores none of them
+            count(pageLevel, true, TokenCountComparatorTypeEnum.DEFAULT, new StoredPageCountVolumeRetriever(new UncountedVolumeRetriever(), toIdentifiers(), pageCountStore, fingerprint));
+            Assert.assertFalse(pageCountStore.contains(fingerprint, VOLUME_IDS[0]));
+        }
+    }
+
+    // this case tests that a stored file that cannot be read is removed, so that the volume is counted again
+    @Test
+    public void testLoadCorrupt() throws IOException {
+        PageCountStore pageCountStore = PageCountStore.getInstance();
+        File countsFile = pageCountStore.getCountsFile("fingerprint", VOLUME_IDS[0]);
+        OutputStream outputStream = new FileOutputStream(countsFile);
+        outputStream.write(new byte[] {0x48, 0x50, 0x43});
+        outputStream.close();
+        Assert.assertTrue(pageCountStore.contains("fingerprint", VOLUME_IDS[0]));
+        try {
+            pageCountStore.load("fingerprint", VOLUME_IDS[0]);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            Assert.assertFalse(pageCountStore.contains("fingerprint", VOLUME_IDS[0]));
+        }
+    }
+
+    private String count(boolean pageLevel, boolean stored, TokenCountComparatorTypeEnum comparatorType, VolumeRetriever volumeRetriever) throws IOException {
+        TokenCountZipper tokenCountZipper = null;
+        if (pageLevel) {
+            tokenCountZipper = stored ? new PartialCountPageTokenCountZipper(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION) : new PageTokenCountZipper(auditor);
+        } else {
+            tokenCountZipper = stored ? new PartialCountVolumeTokenCountZipper(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION) : new VolumeTokenCountZipper(auditor);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        tokenCountZipper.countAndZip(outputStream, volumeRetriever, new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), newTokenFilterChain(), TokenCountComparatorFactory.getComparator(comparatorType));
+        return readEntries(outputStream.toByteArray());
+    }
+
+    private TokenFilterChain newTokenFilterChain() {
+        TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
+        tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+        return tokenFilterChain;
+    }
+
+    private List<ItemCoordinatesImpl> toIdentifiers() {
+        List<ItemCoordinatesImpl> identifiers = new LinkedList<ItemCoordinatesImpl>();
+        for (String volumeID : VOLUME_IDS) {
+            identifiers.add(new ItemCoordinatesImpl(volumeID));
+        }
+        return identifiers;
+    }
+
+    // the first volume is requested in part and the rest as a whole
+    private List<ItemCoordinatesImpl> toIdentifiers(List<String> pageSequences) {
+        List<ItemCoordinatesImpl> identifiers = toIdentifiers();
+        for (String pageSequence : pageSequences) {
+            identifiers.get(0).addPageSequence(pageSequence);
+        }
+        return identifiers;
+    }
+
+    private void clearStore() {
+        File[] files = storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+    // a VolumeRetriever returning only some pages of the first volume, as fetching a subset of its pages would
+    private static class PageSubsetVolumeRetriever extends TestTokenCountVolumeRetrieverImpl {
+        private final List<String> pageSequences;
+
+        PageSubsetVolumeRetriever(List<String> pageSequences) {
+            this.pageSequences = pageSequences;
+        }
+
+        @Override
+        public VolumeReader nextVolume() throws KeyNotFoundException, PolicyViolationException, RepositoryException {
+            VolumeReader volumeReader = super.nextVolume();
+            if (!VOLUME_IDS[0].equals(volumeReader.getVolumeID())) {
+                return volumeReader;
+            }
+            List<ContentReader> pages = new LinkedList<ContentReader>();
+            while (volumeReader.hasMorePages()) {
+                ContentReader page = volumeReader.nextPage();
+                if (pageSequences.contains(page.getContentName())) {
+                    pages.add(page);
+                }
+            }
+            VolumeReader subsetReader = new VolumeReaderImpl(new ItemCoordinatesImpl(volumeReader.getVolumeID()));
+            subsetReader.setPages(pages);
+            return subsetReader;
+        }
+    }
+
+    // a VolumeRetriever reporting one more page for the first volume than it returns, as when the last page of the volume fails to be fetched
+    private static class MissingPageVolumeRetriever extends TestTokenCountVolumeRetrieverImpl {
+        @Override
+        public int getVolumePageCount(String volumeID) {
+            int pageCount = super.getVolumePageCount(volumeID);
+            return VOLUME_IDS[0].equals(volumeID) ? pageCount + 1 : pageCount;
+        }
+    }
+
+    // a VolumeRetriever that does not know the page counts of the volumes it returns
+    private static class UncountedVolumeRetriever extends TestTokenCountVolumeRetrieverImpl {
+        @Override
+        public int getVolumePageCount(String volumeID) {
+            return -1;
+        }
+    }
+
+    // a VolumeRetriever with nothing to retrieve, standing in for the one that would fetch the volumes whose counts are not stored
+    private static class EmptyVolumeRetriever implements VolumeRetriever {
+        @Override
+        public boolean hasMoreVolumes() {
+            return false;
+        }
+
+        @Override
+        public VolumeReader nextVolume() {
+            throw new IllegalStateException("no volume should be fetched");
+        }
+
+        @Override
+        public boolean hasErrors() {
+            return false;
+        }
+    }
+
+}
+
@@ -48,6 +48,7 @@ import org.junit.Test;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.NullAuditor;
 
@@ -309,6 +310,66 @@ public class PageTokenCountZipperTest {
     // it would be difficult to test the NullTokenCountComparator because the order of the token placement in a Map is indeterministic 
     
     
+    // this case tests that with the pages consolidated, each volume is a single entry of an index of its pages followed by the sections of the pages
+    @Test
+    public void testCountAndZipConsolidated() throws IOException {
+        Auditor auditor = new NullAuditor(new HashMap<String, List<String>>());
+        VolumeRetriever volumeRetriever = new TestTokenCountVolumeRetrieverImpl();
+        ByteArrayOutputStream actualOutputStream = new ByteArrayOutputStream();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        Tokenizer tokenizer = new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl());
+        TokenFilter tokenFilter = new SimpleTokenFilterChain();
+        Comparator<Entry<String, Count>> comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+        
+        TokenCountZipper tokenCountZipper = new PageTokenCountZipper(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION, 1, 0, true);
+        
+        try {
+            tokenCountZipper.countAndZip(actualOutputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+            
+            ByteArrayOutputStream expectedOutputStream = new ByteArrayOutputStream();
+            ZipOutputStream zipOutputStream = new ZipOutputStream(expectedOutputStream);
+            zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+            
+            ZipEntry zipEntry = new ZipEntry("test.volume1.pages.count");
+            zipOutputStream.putNextEntry(zipEntry);
+            writeConsolidatedContent(zipOutputStream, new String[] {"00000001", "00000002", "00000003"}, new String[][] {
+                    {"and 1", "continues. 1", "ends 1", "hy-phen 1", "hyphen. 1", "line 2", "with 1", "without 1"},
+                    {"about 1", "as 1", "at 1", "end 1", "hy- 1", "hyphen 1", "is 1", "of 1", "page 2", "such 1", "this 1"},
+                    {"and 1", "continues. 1", "phen 1"}});
+            zipOutputStream.closeEntry();
+            
+            zipEntry = new ZipEntry("test.volume2.pages.count");
+            zipOutputStream.putNextEntry(zipEntry);
+            writeConsolidatedContent(zipOutputStream, new String[] {"00000001", "00000002"}, new String[][] {
+                    {"com- 1", "first 1", "in 1", "line 1", "second 1", "volume 1"},
+                    {"com-munication 1", "for 1", "good 1", "is 1", "media 1", "munication 1"}});
+            zipOutputStream.closeEntry();
+            
+            zipOutputStream.close();
+            
+            Assert.assertArrayEquals(expectedOutputStream.toByteArray(), actualOutputStream.toByteArray());
+            
+        } finally {
+            executorService.shutdown();
+        }
+    }
+    
+    private void writeConsolidatedContent(ZipOutputStream zipOutputStream, String[] pageSequenceIDs, String[][] pageTokenCounts) throws IOException {
+        StringBuilder index = new StringBuilder();
+        StringBuilder sections = new StringBuilder();
+        index.append(pageSequenceIDs.length).append('\n');
+        for (int i = 0; i < pageSequenceIDs.length; i++) {
+            int offset = sections.toString().getBytes(TokenCountZipperFactory.Helper.UTF_8).length;
+            for (String tokenCount : pageTokenCounts[i]) {
+                sections.append(tokenCount).append(TokenCountZipperFactory.Helper.LINE_FEED);
+            }
+            int length = sections.toString().getBytes(TokenCountZipperFactory.Helper.UTF_8).length - offset;
+            index.append(pageSequenceIDs[i]).append(' ').append(offset).append(' ').append(length).append('\n');
+        }
+        zipOutputStream.write(index.toString().getBytes(TokenCountZipperFactory.Helper.UTF_8));
+        zipOutputStream.write(sections.toString().getBytes(TokenCountZipperFactory.Helper.UTF_8));
+    }
+    
     private void writeZipContent(ZipOutputStream zipOutputStream, String[] tokenCounts) throws IOException {
         for (String tokenCount : tokenCounts) {
             zipOutputStream.write(tokenCount.getBytes(TokenCountZipperFactory.Helper.UTF_8));
@@ -0,0 +1,129 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PartialCountVolumeTokenCountZipperTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.Auditor;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class PartialCountVolumeTokenCountZipperTest {
+
+    // this case tests that merging the partial counts of page batches of any size gives the same output as counting page by page, for every order
+    @Test
+    public void testSameAsVolumeTokenCountZipper() throws IOException {
+        Auditor auditor = new NullAuditor(new HashMap<String, List<String>>());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            for (TokenCountComparatorTypeEnum comparatorType : TokenCountComparatorTypeEnum.values()) {
+                ByteArrayOutputStream expectedOutputStream = new ByteArrayOutputStream();
+                TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
+                tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+                new VolumeTokenCountZipper(auditor).countAndZip(expectedOutputStream, new TestTokenCountVolumeRetrieverImpl(), new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), tokenFilterChain, TokenCountComparatorFactory.getComparator(comparatorType));
+                
+                for (int batchPages = 1; batchPages <= 4; batchPages++) {
+                    TestTokenCountParameterContainerImpl parameterContainer = new TestTokenCountParameterContainerImpl();
+                    parameterContainer.setParameter(SimpleTokenizer.ThrottledPartialTokenCountIterator.PN_TOKEN_COUNT_BATCH_PAGES, Integer.toString(batchPages));
+                    ByteArrayOutputStream actualOutputStream = new ByteArrayOutputStream();
+                    TokenCountZipper tokenCountZipper = new PartialCountVolumeTokenCountZipper(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+                    tokenCountZipper.countAndZip(actualOutputStream, new TestTokenCountVolumeRetrieverImpl(), new SimpleTokenizer(executorService, parameterContainer), tokenFilterChain, TokenCountComparatorFactory.getComparator(comparatorType));
+                    Assert.assertEquals(comparatorType + " " + batchPages, readEntries(expectedOutputStream.toByteArray()), readEntries(actualOutputStream.toByteArray()));
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+    
+    // this case tests that a volume split over several VolumeReaders, which may end in the middle of a batch or of a hyphenated word, is counted as one volume
+    @Test
+    public void testVolumeSplitOverReaders() throws IOException {
+        Auditor auditor = new NullAuditor(new HashMap<String, List<String>>());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
+            tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+            ByteArrayOutputStream expectedOutputStream = new ByteArrayOutputStream();
+            new VolumeTokenCountZipper(auditor).countAndZip(expectedOutputStream, new TestTokenCountVolumeRetrieverImpl(), new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()), tokenFilterChain, TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.DEFAULT));
+            
+            for (int maxPagesPerReader = 1; maxPagesPerReader <= 2; maxPagesPerReader++) {
+                for (int batchPages = 1; batchPages <= 4; batchPages++) {
+                    TestTokenCountParameterContainerImpl parameterContainer = new TestTokenCountParameterContainerImpl();
+                    parameterContainer.setParameter(SimpleTokenizer.ThrottledPartialTokenCountIterator.PN_TOKEN_COUNT_BATCH_PAGES, Integer.toString(batchPages));
+                    ByteArrayOutputStream actualOutputStream = new ByteArrayOutputStream();
+                    TokenCountZipper tokenCountZipper = new PartialCountVolumeTokenCountZipper(auditor, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+                    tokenCountZipper.countAndZip(actualOutputStream, new TestTokenCountVolumeRetrieverImpl(maxPagesPerReader, 2), new SimpleTokenizer(executorService, parameterContainer), tokenFilterChain, TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.DEFAULT));
+                    Assert.assertEquals(maxPagesPerReader + " " + batchPages, readEntries(expectedOutputStream.toByteArray()), readEntries(actualOutputStream.toByteArray()));
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+    
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+}
+
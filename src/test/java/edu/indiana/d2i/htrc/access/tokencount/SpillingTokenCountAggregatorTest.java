@@ -0,0 +1,182 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  SpillingTokenCountAggregatorTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriter;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class SpillingTokenCountAggregatorTest {
+
+    // tokens whose UTF-8 lead bytes cover the range where byte order and UTF-16 order differ
+    private static final String[] SYLLABLES = {"a", "b", "ab", "\u00e9", "\u4e2d", "\uff21", "\ud83d\ude00", "-"};
+    private static final int[][] LIMITS = {{1, 0}, {3, 0}, {1, 5}, {2, 7}};
+
+    private File spillDir = null;
+    private List<TokenCountMap> volumeMaps = null;
+
+    @Before
+    public void setUp() throws IOException {
+        spillDir = File.createTempFile("tokencount", "spill");
+        spillDir.delete();
+        spillDir.mkdirs();
+        Random random = new Random(42L);
+        volumeMaps = new ArrayList<TokenCountMap>();
+        for (int i = 0; i < 20; i++) {
+            TokenCountMap map = new TokenCountMap();
+            for (int j = 0; j < 300; j++) {
+                StringBuilder token = new StringBuilder();
+                int length = 1 + random.nextInt(3);
+                for (int k = 0; k < length; k++) {
+                    token.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+                map.add(token.toString(), 1 + random.nextInt(4));
+            }
+            volumeMaps.add(map);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = spillDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spillDir.delete();
+    }
+
+    // this case tests that the summed counts are the same whether or not they are spilled, for every order and limit, and that the runs are removed afterwards
+    @Test
+    public void testSameAsInMemory() throws IOException {
+        for (TokenCountComparatorTypeEnum comparatorType : TokenCountComparatorTypeEnum.values()) {
+            for (int[] limits : LIMITS) {
+                String message = comparatorType + " " + limits[0] + " " + limits[1];
+                TokenCountMap summed = new TokenCountMap();
+                for (TokenCountMap map : volumeMaps) {
+                    summed.addAll(map);
+                }
+                String expected = send(summed, comparatorType, limits);
+                Assert.assertEquals(message, expected, aggregate(Long.MAX_VALUE, comparatorType, limits, 0));
+
+                // once spilled, the DEFAULT order is ascending lexical order
+                if (comparatorType == TokenCountComparatorTypeEnum.DEFAULT) {
+                    expected = send(summed, TokenCountComparatorTypeEnum.TOKEN_LEX_ASC, limits);
+                }
+                Assert.assertEquals(message, expected, aggregate(2000L, comparatorType, limits, 2));
+                Assert.assertEquals(0, spillDir.listFiles().length);
+            }
+        }
+    }
+
+    // this case tests that counts summed past the range of an int are neither wrapped in memory nor in the runs
+    @Test
+    public void testCountsBeyondInt() throws IOException {
+        volumeMaps = new ArrayList<TokenCountMap>();
+        for (int i = 0; i < 3; i++) {
+            TokenCountMap map = new TokenCountMap();
+            map.add("the", Integer.MAX_VALUE);
+            map.add("a", 1);
+            volumeMaps.add(map);
+        }
+        volumeMaps.get(0).add("b", 3000000000L);
+        for (long maxHeapBytes : new long[] {Long.MAX_VALUE, 0L}) {
+            int minRunCount = (maxHeapBytes == 0L) ? 3 : 0;
+            Assert.assertEquals(maxHeapBytes + "", "collection.count\nthe 6442450941\nb 3000000000\na 3\n", aggregate(maxHeapBytes, TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC, new int[] {1, 0}, minRunCount));
+            Assert.assertEquals(maxHeapBytes + "", "collection.count\na 3\nb 3000000000\nthe 6442450941\n", aggregate(maxHeapBytes, TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC, new int[] {1, 0}, minRunCount));
+            Assert.assertEquals(maxHeapBytes + "", "collection.count\nthe 6442450941\nb 3000000000\n", aggregate(maxHeapBytes, TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC, new int[] {4, 2}, minRunCount));
+            Assert.assertEquals(maxHeapBytes + "", "collection.count\na 3\nb 3000000000\nthe 6442450941\n", aggregate(maxHeapBytes, TokenCountComparatorTypeEnum.TOKEN_LEX_ASC, new int[] {1, 0}, minRunCount));
+        }
+    }
+
+    private String aggregate(long maxHeapBytes, TokenCountComparatorTypeEnum comparatorType, int[] limits, int minRunCount) throws IOException {
+        SpillingTokenCountAggregator aggregator = new SpillingTokenCountAggregator(spillDir, maxHeapBytes, comparatorType == TokenCountComparatorTypeEnum.TOKEN_LEX_DESC);
+        for (TokenCountMap map : volumeMaps) {
+            aggregator.add(map);
+        }
+        Assert.assertTrue(aggregator.getRunCount() >= minRunCount);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+        aggregator.sendEntry(archiveWriter, "collection.count", TokenCountComparatorFactory.getComparator(comparatorType), limits[0], limits[1]);
+        archiveWriter.close();
+        return readEntries(outputStream.toByteArray());
+    }
+
+    private String send(TokenCountMap map, TokenCountComparatorTypeEnum comparatorType, int[] limits) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = ArchiveWriterFactory.newInstance(outputStream, FormatEnum.ZIP, Deflater.NO_COMPRESSION);
+        TokenCountZipperFactory.Helper.sendEntry(map, "collection.count", archiveWriter, TokenCountComparatorFactory.getComparator(comparatorType), limits[0], limits[1]);
+        archiveWriter.close();
+        return readEntries(outputStream.toByteArray());
+    }
+
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+}
+
@@ -31,10 +31,13 @@
  */
 package edu.indiana.d2i.htrc.access.tokencount;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import edu.indiana.d2i.htrc.access.VolumePageCounter;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
@@ -47,7 +50,7 @@ import gov.loc.repository.pairtree.Pairtree;
  * @author Yiming Sun
  *
  */
-public class TestTokenCountVolumeRetrieverImpl implements VolumeRetriever {
+public class TestTokenCountVolumeRetrieverImpl implements VolumeRetriever, VolumePageCounter {
     
     private static class TestVolumeReaderImpl implements VolumeReader {
 
@@ -160,12 +163,49 @@ public class TestTokenCountVolumeRetrieverImpl implements VolumeRetriever {
     
     private List<VolumeReader> volumeReaders = null;
     private Iterator<VolumeReader> volumeReaderIterator = null;
+    private Map<String, Integer> volumePageCountMap = null;
     
     TestTokenCountVolumeRetrieverImpl() {
         volumeReaders = new LinkedList<VolumeReader>();
         volumeReaders.add(createVolumeReader1());
         volumeReaders.add(createVolumeReader2());
         this.volumeReaderIterator = volumeReaders.iterator();
+        countVolumePages();
+    }
+    
+    // splits the first volumeCount volumes over VolumeReaders of at most maxPagesPerReader pages each, as ThrottledVolumeRetrieverImpl does with large volumes
+    TestTokenCountVolumeRetrieverImpl(int maxPagesPerReader, int volumeCount) {
+        volumeReaders = new LinkedList<VolumeReader>();
+        List<VolumeReader> wholeVolumeReaders = new LinkedList<VolumeReader>();
+        wholeVolumeReaders.add(createVolumeReader1());
+        wholeVolumeReaders.add(createVolumeReader2());
+        for (VolumeReader wholeVolumeReader : wholeVolumeReaders.subList(0, volumeCount)) {
+            while (wholeVolumeReader.hasMorePages()) {
+                List<ContentReader> contentReaders = new LinkedList<ContentReader>();
+                while (contentReaders.size() < maxPagesPerReader && wholeVolumeReader.hasMorePages()) {
+                    contentReaders.add(wholeVolumeReader.nextPage());
+                }
+                VolumeReader volumeReader = new TestVolumeReaderImpl(wholeVolumeReader.getVolumeID());
+                volumeReader.setPages(contentReaders);
+                volumeReaders.add(volumeReader);
+            }
+        }
+        this.volumeReaderIterator = volumeReaders.iterator();
+        countVolumePages();
+    }
+    
+    // the page count of each volume is taken from a fresh copy of it, as ThrottledVolumeRetrieverImpl takes it from the volume info
+    private void countVolumePages() {
+        volumePageCountMap = new HashMap<String, Integer>();
+        VolumeReader[] wholeVolumeReaders = {createVolumeReader1(), createVolumeReader2()};
+        for (VolumeReader wholeVolumeReader : wholeVolumeReaders) {
+            int pageCount = 0;
+            while (wholeVolumeReader.hasMorePages()) {
+                wholeVolumeReader.nextPage();
+                pageCount++;
+            }
+            volumePageCountMap.put(wholeVolumeReader.getVolumeID(), Integer.valueOf(pageCount));
+        }
     }
 
     /**
@@ -184,6 +224,23 @@ public class TestTokenCountVolumeRetrieverImpl implements VolumeRetriever {
         return this.volumeReaderIterator.next();
     }
 
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasErrors()
+     */
+    @Override
+    public boolean hasErrors() {
+        return false;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumePageCounter#getVolumePageCount(java.lang.String)
+     */
+    @Override
+    public int getVolumePageCount(String volumeID) {
+        Integer pageCount = volumePageCountMap.get(volumeID);
+        return pageCount != null ? pageCount.intValue() : -1;
+    }
+
     protected VolumeReader createVolumeReader1() {
         List<ContentReader> contentReaders = new LinkedList<ContentReader>();
         ContentReader contentReader = new TestContentReaderImpl("00000001", "line without hyphen.\nline ends with hy-\nphen and continues.".getBytes());
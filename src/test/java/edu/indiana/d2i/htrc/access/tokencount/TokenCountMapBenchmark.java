@@ -0,0 +1,183 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenCountMapBenchmark.java
+# Description:  This class measures the throughput and allocation of TokenCountMap against the HashMap of Count objects
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+
+/**
+ * This class measures the throughput and the memory allocated by counting and sorting tokens with TokenCountMap against the HashMap of Count objects
+ * it replaced.  It is not a unit test and is not run by the build; run it by hand with
+ * <pre>
+ * java -cp target/classes:target/test-classes edu.indiana.d2i.htrc.access.tokencount.TokenCountMapBenchmark [volumes] [tokens per volume]
+ * </pre>
+ * Allocation is only reported on JVMs whose ThreadMXBean supports com.sun.management.ThreadMXBean.getThreadAllocatedBytes().  Each configuration is run
+ * a few times first so the JIT has settled before the measured run.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class TokenCountMapBenchmark {
+
+    /**
+     * This OutputStream only counts the bytes written to it, so the benchmark measures the counting rather than a sink
+     * @author Yiming Sun
+     *
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count = 0L;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int volumeCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int tokensPerVolume = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        String[][] volumes = generateVolumes(volumeCount, tokensPerVolume);
+        System.out.println(volumeCount + " volumes, " + tokensPerVolume + " tokens per volume");
+
+        for (TokenCountComparatorTypeEnum type : TokenCountComparatorTypeEnum.values()) {
+            run("HashMap<String, Count>, " + type, volumes, type, false);
+            run("TokenCountMap, " + type, volumes, type, true);
+        }
+    }
+
+    private static void run(String label, String[][] volumes, TokenCountComparatorTypeEnum type, boolean tokenCountMap) throws IOException {
+        Comparator<Entry<String, Count>> comparator = TokenCountComparatorFactory.getComparator(type);
+        long elapsed = 0L;
+        long allocated = -1L;
+        long tokens = 0L;
+        for (int round = 0; round < 4; round++) {
+            CountingOutputStream outputStream = new CountingOutputStream();
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            TokenCountMap map = new TokenCountMap();
+            for (String[] volume : volumes) {
+                if (tokenCountMap) {
+                    map.clear();
+                    for (String token : volume) {
+                        map.increment(token);
+                    }
+                    map.writeTo(outputStream, map.sort(type));
+                } else {
+                    countWithHashMap(volume, comparator, outputStream);
+                }
+            }
+            elapsed = System.nanoTime() - start;
+            long allocatedAfter = getAllocatedBytes();
+            allocated = (allocatedBefore >= 0L) ? allocatedAfter - allocatedBefore : -1L;
+            tokens = 0L;
+            for (String[] volume : volumes) {
+                tokens += volume.length;
+            }
+        }
+        double seconds = elapsed / 1e9;
+        String allocation = (allocated >= 0L) ? String.format("%8.1f bytes/token", (double)allocated / tokens) : "n/a";
+        System.out.println(String.format("%-45s %8.2f Mtokens/s   %s", label, tokens / seconds / 1e6, allocation));
+    }
+
+    // the counting and sorting TokenCountZipperFactory.Helper did before TokenCountMap
+    private static void countWithHashMap(String[] volume, Comparator<Entry<String, Count>> comparator, OutputStream outputStream) throws IOException {
+        Map<String, Count> map = new HashMap<String, Count>();
+        for (String token : volume) {
+            Count count = map.get(token);
+            if (count == null) {
+                count = new Count();
+                map.put(token, count);
+            }
+            count.increment();
+        }
+        List<Entry<String, Count>> list = new ArrayList<Entry<String, Count>>(map.entrySet());
+        Collections.sort(list, comparator);
+        for (Entry<String, Count> entry : list) {
+            outputStream.write(entry.getKey().getBytes("utf-8"));
+            outputStream.write(" ".getBytes("utf-8"));
+            outputStream.write(Integer.toString(entry.getValue().value()).getBytes("utf-8"));
+            outputStream.write("\n".getBytes("utf-8"));
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        long allocated = -1L;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            allocated = ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return allocated;
+    }
+
+    private static String[][] generateVolumes(int volumeCount, int tokensPerVolume) {
+        Random random = new Random(2013L);
+        // a Zipf-like vocabulary, so that most tokens repeat and a long tail is seen once or twice
+        String[] vocabulary = new String[50000];
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < vocabulary.length; i++) {
+            stringBuilder.setLength(0);
+            int length = 2 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                stringBuilder.append((char)('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = stringBuilder.toString();
+        }
+        String[][] volumes = new String[volumeCount][tokensPerVolume];
+        for (String[] volume : volumes) {
+            for (int i = 0; i < volume.length; i++) {
+                // tokens come out of the tokenizer as new String objects, not as shared constants
+                volume[i] = new String(vocabulary[(int)(vocabulary.length * Math.pow(random.nextDouble(), 3.0))]);
+            }
+        }
+        return volumes;
+    }
+
+}
+
@@ -0,0 +1,154 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenCountMapTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class TokenCountMapTest {
+
+    // tokens from all UTF-8 lengths, including characters above U+E000 and supplementary characters whose UTF-16 order differs from their code point order
+    private static final String[] ALPHABET = {"a", "b", "z", "-", ".", "\u00e9", "\u00df", "\u4e2d", "\u6587", "\ue000", "\uff21", "\ud835\udc00", "\ud83d\ude00"};
+
+    // this case tests that counts are kept per distinct token while the table grows
+    @Test
+    public void testCount() {
+        TokenCountMap map = new TokenCountMap(4);
+        Map<String, Integer> expected = countRandomTokens(map, 20000, 5);
+        Assert.assertEquals(expected.size(), map.size());
+        for (Entry<String, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(0, map.get("not counted"));
+
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        map.increment("a");
+        Assert.assertEquals(1, map.get("a"));
+    }
+
+    // this case tests that each specialized sort writes exactly what sorting the entries with the corresponding comparator writes
+    @Test
+    public void testSortMatchesComparators() throws IOException {
+        TokenCountMap map = new TokenCountMap();
+        countRandomTokens(map, 5000, 4);
+        TokenCountComparatorTypeEnum[] types = {TokenCountComparatorTypeEnum.TOKEN_LEX_ASC, TokenCountComparatorTypeEnum.TOKEN_LEX_DESC, TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC, TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC};
+        for (TokenCountComparatorTypeEnum type : types) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            map.writeTo(expected, map.sort(TokenCountComparatorFactory.getComparator(type)));
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            map.writeTo(actual, map.sort(type));
+            Assert.assertArrayEquals(type.name(), expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    // this case tests that the top K tokens are the first K tokens of the count descending order, and that minCount drops the rarer tokens
+    @Test
+    public void testSelect() throws IOException {
+        TokenCountMap map = new TokenCountMap();
+        countRandomTokens(map, 5000, 2);
+        int[] full = map.sort(TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+        for (int topK : new int[] {1, 7, 100, full.length, full.length + 10}) {
+            int[] selected = map.sort(map.select(1, topK), TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+            Assert.assertArrayEquals(Arrays.copyOf(full, Math.min(topK, full.length)), selected);
+        }
+
+        int[] frequent = map.select(20, 0);
+        for (int i = 1; i < frequent.length; i++) {
+            Assert.assertTrue(frequent[i - 1] < frequent[i]);
+        }
+        int expectedCount = 0;
+        for (int id : full) {
+            if (map.getCount(id) >= 20) {
+                expectedCount++;
+            }
+        }
+        Assert.assertEquals(expectedCount, frequent.length);
+        Assert.assertEquals(Math.min(5, expectedCount), map.select(20, 5).length);
+    }
+
+    // this case tests the lexical order of tokens String.compareTo() and UTF-8 byte order disagree on, and the output format
+    @Test
+    public void testWriteTo() throws IOException {
+        TokenCountMap map = new TokenCountMap();
+        map.add("\uff21", 2);
+        map.add("\ud83d\ude00", 12);
+        map.add("a", 1234567890);
+        List<String> expected = new ArrayList<String>();
+        expected.add("\uff21");
+        expected.add("\ud83d\ude00");
+        expected.add("a");
+        Collections.sort(expected);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        map.writeTo(actual, map.sort(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC));
+        Assert.assertEquals("a 1234567890\n\ud83d\ude00 12\n\uff21 2\n", actual.toString("utf-8"));
+        Assert.assertEquals(expected.get(1) + " 12", actual.toString("utf-8").split("\n")[1]);
+    }
+
+    private Map<String, Integer> countRandomTokens(TokenCountMap map, int tokenCount, int maxLength) {
+        Random random = new Random(2013L);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < tokenCount; i++) {
+            builder.setLength(0);
+            int length = 1 + random.nextInt(maxLength);
+            for (int j = 0; j < length; j++) {
+                builder.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            String token = builder.toString();
+            map.increment(token);
+            Integer count = expected.get(token);
+            expected.put(token, (count == null) ? 1 : count + 1);
+        }
+        return expected;
+    }
+
+}
+
@@ -0,0 +1,137 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TokenCountSketchTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class TokenCountSketchTest {
+
+    // token i is counted 1000 / (i + 1) times, so the first tokens are the heavy hitters
+    private static TokenCountMap zipfCounts(int first, int last) {
+        TokenCountMap map = new TokenCountMap();
+        for (int i = first; i < last; i++) {
+            map.add("token" + i, 1000 / (i + 1) + 1);
+        }
+        return map;
+    }
+
+    @Test
+    public void testEstimates() {
+        TokenCountSketch sketch = new TokenCountSketch(0.001, 0.01, 10, 12);
+        TokenCountMap counts = zipfCounts(0, 5000);
+        sketch.add(counts);
+        long errorBound = sketch.countMinSketch.getErrorBound();
+        for (int id = 0; id < counts.size(); id++) {
+            long estimate = sketch.estimate(counts.getToken(id));
+            Assert.assertTrue(estimate >= counts.getCount(id));
+            Assert.assertTrue(estimate <= counts.getCount(id) + errorBound);
+        }
+        long vocabulary = sketch.estimateVocabularySize();
+        Assert.assertTrue("vocabulary " + vocabulary, Math.abs(vocabulary - 5000) < 5000 * 4 * sketch.hyperLogLog.getRelativeError());
+        for (int i = 0; i < sketch.heapSize; i++) {
+            Assert.assertTrue(sketch.heavyHitters[i], Integer.parseInt(sketch.heavyHitters[i].substring("token".length())) < 10);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        TokenCountSketch sketch1 = new TokenCountSketch(0.001, 0.01, 10, 12);
+        TokenCountSketch sketch2 = new TokenCountSketch(0.001, 0.01, 10, 12);
+        TokenCountSketch whole = new TokenCountSketch(0.001, 0.01, 10, 12);
+        sketch1.add(zipfCounts(0, 2000));
+        sketch2.add(zipfCounts(1000, 3000));
+        whole.add(zipfCounts(0, 2000));
+        whole.add(zipfCounts(1000, 3000));
+        sketch1.merge(sketch2);
+        Assert.assertEquals(whole.countMinSketch.getTotal(), sketch1.countMinSketch.getTotal());
+        Assert.assertEquals(whole.estimateVocabularySize(), sketch1.estimateVocabularySize());
+        for (int i = 0; i < 3000; i += 7) {
+            Assert.assertEquals(whole.estimate("token" + i), sketch1.estimate("token" + i));
+        }
+    }
+
+    @Test
+    public void testCountAndZip() throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            TokenCountZipper tokenCountZipper = new ApproximateTokenCountZipper(new NullAuditor(new HashMap<String, List<String>>()), FormatEnum.ZIP, Deflater.NO_COMPRESSION, 1, 2, 0.001, 0.01, 100, 10);
+            tokenCountZipper.countAndZip(outputStream, new TestTokenCountVolumeRetrieverImpl(), new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl()),
+                    new SimpleTokenFilterChain(), TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC));
+            String actual = readEntries(outputStream.toByteArray());
+            // the test volumes are far smaller than the sketch, so the estimates are exact
+            Assert.assertTrue(actual, actual.startsWith("collection.count\nline 3\npage 2\ncollection.approximate\ntokens 34\n"));
+            Assert.assertTrue(actual, actual.contains("count.error.bound 1\n"));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    // the entries are compared rather than the bytes, which also hold the time the entries were written
+    private String readEntries(byte[] zipBytes) throws IOException {
+        StringBuilder entries = new StringBuilder();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        byte[] buffer = new byte[4096];
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.append(zipEntry.getName()).append('\n').append(content.toString("utf-8"));
+        }
+        return entries.toString();
+    }
+
+}
+
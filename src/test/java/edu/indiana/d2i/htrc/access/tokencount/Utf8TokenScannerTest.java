@@ -0,0 +1,118 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  Utf8TokenScannerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class Utf8TokenScannerTest {
+    
+    private static final String[] PIECES = {"word", "hyphen-", "-", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud835\udc00", " ", "  ", "\t", "\f", "\n", "\r", "\r\n", "\n\n", "\u0001", "\u0000", "\u00a0", "x-\u0002", "\ufeff"};
+    private static final String[] FILTERED_PIECES = {"The", "(Of", "Quick,", "hy-", "PHEN.", "E\u0301T\u00c9", "\u023a-", "\u00ab\u00bb", "\u0001", " ", "\n", "\r\n", "\n\n"};
+    
+    // this case tests that scanning the bytes gives the same tokens as tokenizing the decoded lines, including the joining of hyphenated words
+    @Test
+    public void testScanMatchesLineTokenization() throws IOException {
+        assertSameTokens("");
+        assertSameTokens("single-\nline");
+        assertSameTokens("two words-\n\n  next line\r\nend-");
+        assertSameTokens("a b-\nc-\nd e-\n");
+        assertSameTokens("\u0001 \u0001\u0002 b-\n\u0003");
+        
+        Random random = new Random(42L);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int pieceCount = random.nextInt(30);
+            for (int j = 0; j < pieceCount; j++) {
+                builder.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertSameTokens(builder.toString());
+        }
+    }
+    
+    // this case tests that content which is not well-formed UTF-8 is left to the line tokenization
+    @Test
+    public void testMalformed() {
+        Assert.assertTrue(Utf8TokenScanner.isWellFormed(new byte[] {'a', (byte)0xc3, (byte)0xa9, (byte)0xf0, (byte)0x9d, (byte)0x90, (byte)0x80}));
+        Assert.assertNull(Utf8TokenScanner.scan(new byte[] {'a', (byte)0xc3}));
+        Assert.assertNull(Utf8TokenScanner.scan(new byte[] {(byte)0xc0, (byte)0x80}));
+        Assert.assertNull(Utf8TokenScanner.scan(new byte[] {(byte)0xed, (byte)0xa0, (byte)0x80}));
+        Assert.assertNull(Utf8TokenScanner.scan(new byte[] {(byte)0xf4, (byte)0x90, (byte)0x80, (byte)0x80}));
+        Assert.assertNull(Utf8TokenScanner.scan(new byte[] {'a', (byte)0x80, 'b'}));
+    }
+    
+    // this case tests that the empty token removal works on the slices
+    @Test
+    public void testRemoveEmpty() throws Exception {
+        TokenSlices tokenSlices = Utf8TokenScanner.scan("a \u0001 b-\n\u0002\nc \u0003".getBytes("utf-8"));
+        TokenPackage tokenPackage = new EmptyTokenRemovalFilter().filter(new SliceTokenPackageImpl(new ContentIdentifierImpl("inu.a", "00000001.txt"), tokenSlices));
+        Assert.assertEquals("[a, b-, c]", tokenPackage.getTokenList().toString());
+    }
+    
+    // this case tests that filtering the tokens as they are scanned leaves the same tokens as filtering the scanned tokens afterwards, including joined,
+    // rewritten, dropped and empty tokens, and that the content itself is left as it was
+    @Test
+    public void testScanFilterMatchesPostPass() throws Exception {
+        FusedTokenFilter fusedTokenFilter = FusedTokenFilter.fuse(FusedTokenFilterTest.newFilter("nfc", "lowercase", "punctuation", "stopwords"));
+        FusedTokenFilter emptyTokenFilter = FusedTokenFilter.fuse(new EmptyTokenRemovalFilter());
+        Random random = new Random(42L);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int pieceCount = random.nextInt(30);
+            for (int j = 0; j < pieceCount; j++) {
+                builder.append(FILTERED_PIECES[random.nextInt(FILTERED_PIECES.length)]);
+            }
+            byte[] bytes = builder.toString().getBytes("utf-8");
+            for (FusedTokenFilter filter : new FusedTokenFilter[] {fusedTokenFilter, emptyTokenFilter}) {
+                TokenPackage tokenPackage = filter.filter(new SliceTokenPackageImpl(new ContentIdentifierImpl("inu.a", "00000001.txt"), Utf8TokenScanner.scan(bytes)));
+                Assert.assertEquals(builder.toString(), tokenPackage.getTokenList(), Utf8TokenScanner.scan(bytes, filter).toTokenList());
+                Assert.assertEquals(builder.toString(), new String(bytes, "utf-8"));
+            }
+        }
+    }
+    
+    private void assertSameTokens(String content) throws IOException {
+        byte[] bytes = content.getBytes("utf-8");
+        TokenSlices tokenSlices = Utf8TokenScanner.scan(bytes);
+        Assert.assertNotNull(tokenSlices);
+        Assert.assertEquals(SimpleTokenizer.TokenizationCallable.tokenizeLines(bytes), tokenSlices.toTokenList());
+    }
+
+}
+
@@ -0,0 +1,123 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeCountMergerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.tokencount;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class VolumeCountMergerTest {
+    
+    private static final String[] PAGES = {"first page of com-", "", "munication", "a b c-", "   ", "d e-", "f-", "g", "h i j-\nk l m-", "", "n-", "o-"};
+    
+    // this case tests that batches merged in any order give the same counts as batches merged in order, and that in order merging keeps the order tokens are read in
+    @Test
+    public void testMergeInAnyOrder() throws IOException {
+        String expectedDefault = write(merge(createBatches(PAGES.length), null, true), TokenCountComparatorTypeEnum.DEFAULT);
+        String expectedLex = write(merge(createBatches(PAGES.length), null, true), TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+        Assert.assertTrue(expectedLex.contains("com-munication 1\n"));
+        Assert.assertTrue(expectedLex.contains("m-n- 1\n"));
+        
+        Random random = new Random(7L);
+        for (int batchPages = 1; batchPages <= 4; batchPages++) {
+            for (int i = 0; i < 50; i++) {
+                List<PartialTokenCount> batches = createBatches(batchPages);
+                Collections.shuffle(batches, random);
+                Assert.assertEquals(expectedLex, write(merge(batches, null, false), TokenCountComparatorTypeEnum.TOKEN_LEX_ASC));
+                
+                batches = createBatches(batchPages);
+                Collections.shuffle(batches, random);
+                Assert.assertEquals(expectedDefault, write(merge(batches, null, true), TokenCountComparatorTypeEnum.DEFAULT));
+            }
+        }
+    }
+    
+    // this case tests that a volume is only complete once all of its batches have been merged
+    @Test
+    public void testIsComplete() {
+        List<PartialTokenCount> batches = createBatches(5);
+        Collections.reverse(batches);
+        VolumeCountMerger volumeCountMerger = new VolumeCountMerger(false);
+        for (PartialTokenCount partialTokenCount : batches) {
+            Assert.assertFalse(volumeCountMerger.isComplete());
+            volumeCountMerger.add(partialTokenCount);
+        }
+        Assert.assertTrue(volumeCountMerger.isComplete());
+        Assert.assertEquals(PAGES.length, volumeCountMerger.getPageSequenceIDs().length);
+        Assert.assertEquals("00000001", volumeCountMerger.getPageSequenceIDs()[0]);
+    }
+    
+    private List<PartialTokenCount> createBatches(int batchPages) {
+        List<PartialTokenCount> batches = new ArrayList<PartialTokenCount>();
+        int batchCount = (PAGES.length + batchPages - 1) / batchPages;
+        for (int batchIndex = 0; batchIndex < batchCount; batchIndex++) {
+            int start = batchIndex * batchPages;
+            int end = Math.min(PAGES.length, start + batchPages);
+            PartialTokenCount partialTokenCount = new PartialTokenCount(new ContentIdentifierImpl("test.volume", String.format("%08d", start + 1)), end - start, 0, batchIndex, end == PAGES.length);
+            for (int page = start; page < end; page++) {
+                partialTokenCount.countPage(String.format("%08d", page + 1), Utf8TokenScanner.scan(PAGES[page].getBytes()));
+            }
+            partialTokenCount.finish();
+            batches.add(partialTokenCount);
+        }
+        return batches;
+    }
+    
+    private TokenCountMap merge(List<PartialTokenCount> batches, VolumeCountMerger volumeCountMerger, boolean ordered) {
+        VolumeCountMerger merger = (volumeCountMerger != null) ? volumeCountMerger : new VolumeCountMerger(ordered);
+        for (PartialTokenCount partialTokenCount : batches) {
+            merger.add(partialTokenCount);
+        }
+        Assert.assertTrue(merger.isComplete());
+        return merger.getMap();
+    }
+    
+    private String write(TokenCountMap map, TokenCountComparatorTypeEnum type) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        map.writeTo(outputStream, map.sort(type));
+        return outputStream.toString("utf-8");
+    }
+
+}
+
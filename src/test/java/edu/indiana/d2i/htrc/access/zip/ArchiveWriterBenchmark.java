@@ -0,0 +1,161 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArchiveWriterBenchmark.java
+# Description:  This class measures the throughput and output size of the ArchiveWriter implementations
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+/**
+ * This class measures the throughput and output size of the ArchiveWriter implementations on synthetic OCR-like pages.  It is not a unit test and is not run
+ * by the build; run it by hand with
+ * <pre>
+ * java -cp target/classes:target/test-classes edu.indiana.d2i.htrc.access.zip.ArchiveWriterBenchmark [threads] [pages]
+ * </pre>
+ * Each configuration is run a few times first so the JIT has settled before the measured run.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class ArchiveWriterBenchmark {
+
+    /**
+     * This OutputStream only counts the bytes written to it, so the benchmark measures the writers rather than a sink
+     * @author Yiming Sun
+     *
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count = 0L;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    private static final int STANDARD = 0;
+    private static final int STORED = 1;
+    private static final int PARALLEL = 2;
+
+    private static final String[] WORDS = {"the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as", "was", "with", "be", "by", "on", "not", "he",
+        "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had", "they", "you", "were", "their", "one", "all", "we", "can", "her", "has",
+        "there", "been", "if", "more", "when", "will", "would", "who", "so", "no", "government", "congress", "committee", "report", "section", "state", "act"};
+
+    public static void main(String[] args) throws IOException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int pageCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        byte[][] pages = generatePages(pageCount);
+        long totalBytes = 0L;
+        for (byte[] page : pages) {
+            totalBytes += page.length;
+        }
+        System.out.println(pageCount + " pages, " + totalBytes + " bytes, " + threads + " compression threads");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            run("stored (ZipOutputStream level 0)", pages, totalBytes, executorService, Deflater.NO_COMPRESSION, STANDARD);
+            run("stored (StoredZipArchiveWriter)", pages, totalBytes, executorService, Deflater.NO_COMPRESSION, STORED);
+            run("deflate level 1, calling thread", pages, totalBytes, executorService, Deflater.BEST_SPEED, STANDARD);
+            run("deflate level 1, parallel", pages, totalBytes, executorService, Deflater.BEST_SPEED, PARALLEL);
+            run("deflate level 6, calling thread", pages, totalBytes, executorService, 6, STANDARD);
+            run("deflate level 6, parallel", pages, totalBytes, executorService, 6, PARALLEL);
+
+            // tiny entries, such as per-page metadata, are where header overhead and the number of writes dominate
+            byte[][] tinyPages = new byte[pageCount * 4][];
+            long tinyBytes = 0L;
+            for (int i = 0; i < tinyPages.length; i++) {
+                tinyPages[i] = Integer.toString(i).getBytes();
+                tinyBytes += tinyPages[i].length;
+            }
+            run("tiny entries, ZipOutputStream level 0", tinyPages, tinyBytes, executorService, Deflater.NO_COMPRESSION, STANDARD);
+            run("tiny entries, StoredZipArchiveWriter", tinyPages, tinyBytes, executorService, Deflater.NO_COMPRESSION, STORED);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void run(String label, byte[][] pages, long totalBytes, ExecutorService executorService, int level, int writer) throws IOException {
+        long outputBytes = 0L;
+        long elapsed = 0L;
+        for (int round = 0; round < 4; round++) {
+            CountingOutputStream outputStream = new CountingOutputStream();
+            ArchiveWriter archiveWriter = null;
+            if (writer == PARALLEL) {
+                archiveWriter = new ParallelDeflateZipArchiveWriter(outputStream, level, executorService, 64);
+            } else if (writer == STORED) {
+                archiveWriter = new StoredZipArchiveWriter(outputStream);
+            } else {
+                archiveWriter = new StandardZipArchiveWriter(outputStream, level);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < pages.length; i++) {
+                archiveWriter.writeEntry("volume/" + i + ".txt", pages[i]);
+            }
+            archiveWriter.close();
+            elapsed = System.nanoTime() - start;
+            outputBytes = outputStream.count;
+        }
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format("%-40s %8.1f MB/s   ratio %.2f", label, totalBytes / seconds / (1024 * 1024), (double)totalBytes / outputBytes));
+    }
+
+    private static byte[][] generatePages(int pageCount) {
+        Random random = new Random(2013L);
+        byte[][] pages = new byte[pageCount][];
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < pageCount; i++) {
+            stringBuilder.setLength(0);
+            int lines = 30 + random.nextInt(20);
+            for (int line = 0; line < lines; line++) {
+                int wordsOnLine = 6 + random.nextInt(8);
+                for (int w = 0; w < wordsOnLine; w++) {
+                    // skew towards frequent words the way running text does
+                    int index = (int)(WORDS.length * Math.pow(random.nextDouble(), 2.5));
+                    stringBuilder.append(WORDS[index]).append(' ');
+                }
+                stringBuilder.append('\n');
+            }
+            pages[i] = stringBuilder.toString().getBytes();
+        }
+        return pages;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArchiveWriterFactoryTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ArchiveWriterFactoryTest {
+
+    @After
+    public void tearDown() {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ArchiveWriterFactory.PN_MAX_COMPRESSION_LEVEL, "9");
+        ArchiveWriterFactory.init(parameterContainer, null);
+    }
+
+    // this case tests that an absent compression parameter means no compression
+    @Test
+    public void testNegotiateAbsent() throws InvalidParameterValueException {
+        Assert.assertEquals(0, ArchiveWriterFactory.negotiateCompressionLevel(null));
+        Assert.assertEquals(0, ArchiveWriterFactory.negotiateCompressionLevel(""));
+    }
+
+    // this case tests the named and numeric compression levels
+    @Test
+    public void testNegotiateValues() throws InvalidParameterValueException {
+        Assert.assertEquals(0, ArchiveWriterFactory.negotiateCompressionLevel("none"));
+        Assert.assertEquals(1, ArchiveWriterFactory.negotiateCompressionLevel("fast"));
+        Assert.assertEquals(6, ArchiveWriterFactory.negotiateCompressionLevel("Default"));
+        Assert.assertEquals(9, ArchiveWriterFactory.negotiateCompressionLevel("best"));
+        Assert.assertEquals(3, ArchiveWriterFactory.negotiateCompressionLevel(" 3 "));
+    }
+
+    // this case tests that the requested level is lowered to the configured maximum
+    @Test
+    public void testNegotiateClamped() throws InvalidParameterValueException {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ArchiveWriterFactory.PN_MAX_COMPRESSION_LEVEL, "4");
+        ArchiveWriterFactory.init(parameterContainer, null);
+
+        Assert.assertEquals(4, ArchiveWriterFactory.negotiateCompressionLevel("best"));
+        Assert.assertEquals(2, ArchiveWriterFactory.negotiateCompressionLevel("2"));
+    }
+
+    // this case tests that unrecognized values are rejected
+    @Test(expected = InvalidParameterValueException.class)
+    public void testNegotiateInvalid() throws InvalidParameterValueException {
+        ArchiveWriterFactory.negotiateCompressionLevel("10");
+    }
+
+    // this case tests that the format parameter wins over the Accept header, and that the Accept header is honored by quality
+    @Test
+    public void testNegotiateFormat() throws InvalidParameterValueException {
+        List<String> acceptHeaders = Arrays.asList("application/x-ndjson;q=0.5, application/x-tar", "*/*;q=0.1");
+        Assert.assertEquals(FormatEnum.ZIP, ArchiveWriterFactory.negotiateFormat(null, null));
+        Assert.assertEquals(FormatEnum.ZIP, ArchiveWriterFactory.negotiateFormat("", Arrays.asList("*/*")));
+        Assert.assertEquals(FormatEnum.TAR, ArchiveWriterFactory.negotiateFormat(null, acceptHeaders));
+        Assert.assertEquals(FormatEnum.NDJSON_GZIP, ArchiveWriterFactory.negotiateFormat("NDJSON.gz", acceptHeaders));
+        Assert.assertEquals(FormatEnum.TAR_GZIP, ArchiveWriterFactory.negotiateFormat("tgz", null));
+    }
+
+    // this case tests that unrecognized formats are rejected
+    @Test(expected = InvalidParameterValueException.class)
+    public void testNegotiateFormatInvalid() throws InvalidParameterValueException {
+        ArchiveWriterFactory.negotiateFormat("rar", null);
+    }
+
+    // this case tests that the formats that can only hold token counts are only negotiated for token counts
+    @Test
+    public void testNegotiateCountFormat() throws InvalidParameterValueException {
+        List<String> acceptHeaders = Arrays.asList("application/vnd.apache.arrow.stream, application/x-tar;q=0.5");
+        Assert.assertEquals(FormatEnum.ARROW, ArchiveWriterFactory.negotiateCountFormat("arrow", null));
+        Assert.assertEquals(FormatEnum.ARROW, ArchiveWriterFactory.negotiateCountFormat(null, acceptHeaders));
+        Assert.assertEquals(FormatEnum.TAR, ArchiveWriterFactory.negotiateFormat(null, acceptHeaders));
+        try {
+            ArchiveWriterFactory.negotiateFormat("arrow", null);
+            Assert.fail("InvalidParameterValueException expected");
+        } catch (InvalidParameterValueException e) {
+            Assert.assertEquals(ArchiveWriterFactory.FORMAT_PARAMETER_NAME, e.getParameterName());
+        }
+    }
+
+    // this case tests the compression level chosen for each format
+    @Test
+    public void testNegotiateCompressionLevelForFormat() throws InvalidParameterValueException {
+        Assert.assertEquals(0, ArchiveWriterFactory.negotiateCompressionLevel(null, FormatEnum.ZIP));
+        Assert.assertEquals(6, ArchiveWriterFactory.negotiateCompressionLevel(null, FormatEnum.TAR_GZIP));
+        Assert.assertEquals(1, ArchiveWriterFactory.negotiateCompressionLevel("fast", FormatEnum.NDJSON_GZIP));
+        Assert.assertEquals(0, ArchiveWriterFactory.negotiateCompressionLevel("best", FormatEnum.TAR));
+    }
+
+    // this case tests which ArchiveWriter implementation is chosen for each format
+    @Test
+    public void testNewInstanceFormat() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, FormatEnum.ZIP, 0) instanceof StandardZipArchiveWriter);
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, FormatEnum.TAR_GZIP, 6) instanceof TarArchiveWriter);
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, FormatEnum.NDJSON, 0) instanceof NdjsonArchiveWriter);
+    }
+
+    // this case tests which ArchiveWriter implementation is chosen for each level
+    @Test
+    public void testNewInstance() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 0) instanceof StandardZipArchiveWriter);
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 6) instanceof StandardZipArchiveWriter);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            ArchiveWriterFactory.init(new TestParameterContainer(), executorService);
+            Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 0) instanceof StandardZipArchiveWriter);
+            Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 6) instanceof ParallelDeflateZipArchiveWriter);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // this case tests that uncompressed output goes through StoredZipArchiveWriter only when it is enabled
+    @Test
+    public void testNewInstanceStored() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ArchiveWriterFactory.PN_STORED_ZIP_WRITER_ENABLED, "true");
+        ArchiveWriterFactory.init(parameterContainer, null);
+
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 0) instanceof StoredZipArchiveWriter);
+        Assert.assertTrue(ArchiveWriterFactory.newInstance(outputStream, 6) instanceof StandardZipArchiveWriter);
+    }
+
+}
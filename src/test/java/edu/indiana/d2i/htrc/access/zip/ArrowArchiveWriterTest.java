@@ -0,0 +1,212 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArrowArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ArrowArchiveWriterTest {
+
+    // this case tests that each entry becomes a record batch after the dictionary batches of its new strings, and that the rows read back from the stream
+    // hold the volume, the page, the token and the count of each line
+    @Test
+    public void testRows() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArrowArchiveWriter archiveWriter = new ArrowArchiveWriter(outputStream);
+        archiveWriter.putNextEntry("a.b1.count");
+        byte[] token = "the caf\u00e9".getBytes("utf-8");
+        archiveWriter.writeCount(token, 0, 3, 3);
+        archiveWriter.writeCount(token, 4, token.length - 4, 1);
+        archiveWriter.closeEntry();
+        archiveWriter.writeEntry("a.b2/00000001.count", "the 2\nnew 1\n".getBytes("utf-8"));
+        archiveWriter.writeEntry("error.err", "Cannot find some volumes\n".getBytes("utf-8"));
+        archiveWriter.writeEntry("empty.count", new byte[0]);
+        archiveWriter.close();
+
+        StringBuilder messages = new StringBuilder();
+        StringBuilder rows = new StringBuilder();
+        readStream(outputStream.toByteArray(), messages, rows);
+        Assert.assertEquals("schema volume page token count\ndictionary 0\ndictionary 1\ndictionary 2\nbatch\n"
+                + "delta 0\ndelta 1\ndelta 2\nbatch\ndelta 0\ndelta 2\nbatch\n", messages.toString());
+        Assert.assertEquals("a.b1|null|the|3\na.b1|null|caf\u00e9|1\na.b2|00000001|the|2\na.b2|00000001|new|1\nerror.err|null|Cannot find some volumes|null\n",
+                rows.toString());
+    }
+
+    // this case tests that a stream without entries still holds the schema and the dictionaries, so it can be read as an empty table
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ArrowArchiveWriter(outputStream).close();
+
+        StringBuilder messages = new StringBuilder();
+        StringBuilder rows = new StringBuilder();
+        readStream(outputStream.toByteArray(), messages, rows);
+        Assert.assertEquals("schema volume page token count\ndictionary 0\ndictionary 1\ndictionary 2\n", messages.toString());
+        Assert.assertEquals("", rows.toString());
+    }
+
+    // this case tests that a count past the range of the int32 count column fails the entry, whether it is written as a count or as a line
+    @Test
+    public void testCountBeyondInt() throws IOException {
+        ArrowArchiveWriter archiveWriter = new ArrowArchiveWriter(new ByteArrayOutputStream());
+        archiveWriter.putNextEntry("collection.count");
+        byte[] token = "the".getBytes("utf-8");
+        archiveWriter.writeCount(token, 0, token.length, Integer.MAX_VALUE);
+        try {
+            archiveWriter.writeCount(token, 0, token.length, Integer.MAX_VALUE + 1L);
+            Assert.fail("count beyond int32 written");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("int32"));
+        }
+        archiveWriter.closeEntry();
+        try {
+            archiveWriter.writeEntry("collection.count", "the 2147483647\nof 6442450941\n".getBytes("utf-8"));
+            Assert.fail("count beyond int32 parsed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("of"));
+        }
+    }
+
+    // reads the stream the way an Arrow reader would, checking the framing and the alignment of each message
+    private void readStream(byte[] stream, StringBuilder messages, StringBuilder rows) throws IOException {
+        List<List<String>> dictionaries = new ArrayList<List<String>>();
+        for (int i = 0; i < 3; i++) {
+            dictionaries.add(new ArrayList<String>());
+        }
+        int position = 0;
+        int metadataLength = -1;
+        while (metadataLength != 0) {
+            Assert.assertEquals(0, position % 8);
+            Assert.assertEquals(0xffffffff, getInt(stream, position));
+            metadataLength = getInt(stream, position + 4);
+            position += 8;
+            if (metadataLength > 0) {
+                Assert.assertEquals(0, metadataLength % 8);
+                byte[] metadata = Arrays.copyOfRange(stream, position, position + metadataLength);
+                position += metadataLength;
+                int message = deref(metadata, 0);
+                Assert.assertEquals(4, getShort(metadata, field(metadata, message, 0)));
+                int headerType = metadata[field(metadata, message, 1)];
+                int header = deref(metadata, field(metadata, message, 2));
+                int bodyLength = (int)getLong(metadata, field(metadata, message, 3));
+                Assert.assertEquals(0, bodyLength % 8);
+                byte[] body = Arrays.copyOfRange(stream, position, position + bodyLength);
+                position += bodyLength;
+
+                if (headerType == 1) {
+                    messages.append("schema");
+                    int fields = deref(metadata, field(metadata, header, 1));
+                    for (int i = 0; i < getInt(metadata, fields); i++) {
+                        int fieldTable = deref(metadata, fields + 4 + 4 * i);
+                        messages.append(' ').append(getString(metadata, deref(metadata, field(metadata, fieldTable, 0))));
+                        Assert.assertTrue(field(metadata, fieldTable, 5) >= 0);
+                    }
+                } else if (headerType == 2) {
+                    int id = (int)getLong(metadata, field(metadata, header, 0));
+                    boolean delta = metadata[field(metadata, header, 2)] != 0;
+                    messages.append(delta ? "delta " : "dictionary ").append(id);
+                    int recordBatch = deref(metadata, field(metadata, header, 1));
+                    int length = (int)getLong(metadata, field(metadata, recordBatch, 0));
+                    long[] buffers = getBuffers(metadata, recordBatch);
+                    for (int i = 0; i < length; i++) {
+                        int start = getInt(body, (int)buffers[2] + 4 * i);
+                        int end = getInt(body, (int)buffers[2] + 4 * i + 4);
+                        dictionaries.get(id).add(new String(body, (int)buffers[4] + start, end - start, "utf-8"));
+                    }
+                } else {
+                    Assert.assertEquals(3, headerType);
+                    messages.append("batch");
+                    int length = (int)getLong(metadata, field(metadata, header, 0));
+                    long[] buffers = getBuffers(metadata, header);
+                    for (int i = 0; i < length; i++) {
+                        rows.append(dictionaries.get(0).get(getInt(body, (int)buffers[2] + 4 * i))).append('|');
+                        rows.append(isValid(body, buffers, 2, i) ? dictionaries.get(1).get(getInt(body, (int)buffers[6] + 4 * i)) : "null").append('|');
+                        rows.append(dictionaries.get(2).get(getInt(body, (int)buffers[10] + 4 * i))).append('|');
+                        rows.append(isValid(body, buffers, 6, i) ? String.valueOf(getInt(body, (int)buffers[14] + 4 * i)) : "null").append('\n');
+                    }
+                }
+                messages.append('\n');
+            }
+        }
+        Assert.assertEquals(stream.length, position);
+    }
+
+    private boolean isValid(byte[] body, long[] buffers, int buffer, int row) {
+        return buffers[2 * buffer + 1] == 0 || (body[(int)buffers[2 * buffer] + row / 8] & (1 << (row % 8))) != 0;
+    }
+
+    private long[] getBuffers(byte[] metadata, int recordBatch) {
+        int vector = deref(metadata, field(metadata, recordBatch, 2));
+        long[] buffers = new long[2 * getInt(metadata, vector)];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = getLong(metadata, vector + 4 + 8 * i);
+        }
+        return buffers;
+    }
+
+    private int field(byte[] bytes, int table, int id) {
+        int vtable = table - getInt(bytes, table);
+        int offset = (4 + 2 * id < getShort(bytes, vtable)) ? getShort(bytes, vtable + 4 + 2 * id) : 0;
+        return (offset == 0) ? -1 : table + offset;
+    }
+
+    private int deref(byte[] bytes, int position) {
+        return position + getInt(bytes, position);
+    }
+
+    private String getString(byte[] bytes, int position) throws IOException {
+        return new String(bytes, position + 4, getInt(bytes, position), "utf-8");
+    }
+
+    private int getShort(byte[] bytes, int position) {
+        return (bytes[position] & 0xff) | ((bytes[position + 1] & 0xff) << 8);
+    }
+
+    private int getInt(byte[] bytes, int position) {
+        return getShort(bytes, position) | (getShort(bytes, position + 2) << 16);
+    }
+
+    private long getLong(byte[] bytes, int position) {
+        return (getInt(bytes, position) & 0xffffffffL) | ((long)getInt(bytes, position + 4) << 32);
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DownloadManifestTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class DownloadManifestTest {
+
+    private File spoolDir = null;
+
+    @Before
+    public void setUp() throws IOException {
+        spoolDir = File.createTempFile("manifest", "spool");
+        spoolDir.delete();
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_SPOOL_DIR, spoolDir.getAbsolutePath());
+        DownloadManifest.init(parameterContainer);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = spoolDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spoolDir.delete();
+        DownloadManifest.init(new TestParameterContainer());
+    }
+
+    // this case tests that only uncompressed zip downloads are resumable, and only when a spool directory is configured
+    @Test
+    public void testIsResumable() {
+        Assert.assertTrue(DownloadManifest.isResumable(FormatEnum.ZIP, 0));
+        Assert.assertFalse(DownloadManifest.isResumable(FormatEnum.ZIP, 6));
+        Assert.assertFalse(DownloadManifest.isResumable(FormatEnum.TAR, 0));
+        DownloadManifest.init(new TestParameterContainer());
+        Assert.assertFalse(DownloadManifest.isResumable(FormatEnum.ZIP, 0));
+        Assert.assertNull(DownloadManifest.open("key"));
+    }
+
+    // this case tests that the request key depends on the order and the options of the request
+    @Test
+    public void testComputeRequestKey() {
+        List<ItemCoordinatesImpl> volumes = new LinkedList<ItemCoordinatesImpl>();
+        volumes.add(new ItemCoordinatesImpl("inu.b"));
+        volumes.add(new ItemCoordinatesImpl("inu.a"));
+        String unsorted = DownloadManifest.computeRequestKey("volumes;SEPARATE_PAGE;false", volumes);
+        Collections.reverse(volumes);
+        String sorted = DownloadManifest.computeRequestKey("volumes;SEPARATE_PAGE;false", volumes);
+
+        Assert.assertEquals(64, sorted.length());
+        Assert.assertFalse(sorted.equals(unsorted));
+        Assert.assertFalse(sorted.equals(DownloadManifest.computeRequestKey("volumes;SEPARATE_PAGE;true", volumes)));
+        Assert.assertEquals("inu.a", volumes.get(0).getVolumeID());
+    }
+
+    // this case tests that Range requests are only honored once the length of the download is recorded, and only if If-Range matches
+    @Test
+    public void testResolveStartOffset() throws IOException {
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        downloadManifest.record(0, new DownloadManifest.Entry("inu.a", "inu.a/00000001.txt", 1L, 100L), false);
+        long recordedLength = downloadManifest.getRecordedLength();
+        Assert.assertEquals(30L + 18L + 100L, recordedLength);
+
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(null, null));
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-"), null));
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-"), Arrays.asList(downloadManifest.getETag())));
+        Assert.assertTrue(downloadManifest.isStartOffsetSatisfiable());
+
+        downloadManifest.recordFinish(500L);
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(null, null));
+        Assert.assertEquals(100L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-"), null));
+        Assert.assertEquals("bytes 100-499/500", downloadManifest.getContentRange());
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-200"), null));
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-"), Arrays.asList("\"other\"")));
+        Assert.assertEquals(100L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=100-"), Arrays.asList(downloadManifest.getETag())));
+        Assert.assertEquals(499L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=499-"), null));
+        Assert.assertEquals("bytes 499-499/500", downloadManifest.getContentRange());
+        Assert.assertTrue(downloadManifest.isStartOffsetSatisfiable());
+        downloadManifest.resolveStartOffset(Arrays.asList("bytes=500-"), null);
+        Assert.assertFalse(downloadManifest.isStartOffsetSatisfiable());
+        Assert.assertEquals("bytes */500", downloadManifest.getContentRange());
+        downloadManifest.close();
+    }
+
+    // this case tests that a resuming request waits for the download holding the manifest and leaves it alone if it is not released in time, while a
+    // manifest held past its time to live is taken over
+    @Test
+    public void testTakeOver() throws Exception {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_SPOOL_DIR, spoolDir.getAbsolutePath());
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_DRAIN_MAX_SECONDS, "1");
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_MANIFEST_TTL_SECONDS, "2");
+        DownloadManifest.init(parameterContainer);
+
+        DownloadManifest active = DownloadManifest.open("key");
+        active.record(0, new DownloadManifest.Entry("inu.a", "inu.a/00000001.txt", 1L, 10L), false);
+        Assert.assertNull(DownloadManifest.open("key", false));
+        long startTime = System.currentTimeMillis();
+        Assert.assertNull(DownloadManifest.open("key", true));
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 900L);
+        Assert.assertTrue(active.isRecording());
+
+        Thread.sleep(1100L);
+        DownloadManifest downloadManifest = DownloadManifest.open("key", false);
+        Assert.assertNotNull(downloadManifest);
+        Assert.assertFalse(active.isRecording());
+        Assert.assertTrue(downloadManifest.isRecording());
+
+        active.record(1, new DownloadManifest.Entry("inu.b", "inu.b/00000001.txt", 2L, 20L), false);
+        active.recordFinish(100L);
+        active.close();
+        // the stale download neither wrote into the manifest nor released the request
+        Assert.assertNull(DownloadManifest.open("key"));
+        downloadManifest.close();
+
+        downloadManifest = DownloadManifest.open("key");
+        Assert.assertEquals(-1L, downloadManifest.getCompleteLength());
+        downloadManifest.close();
+    }
+
+    // this case tests that a manifest cut short in the middle of a line keeps the complete lines, and that the same request cannot be opened twice
+    @Test
+    public void testLoadTruncated() throws IOException {
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        Assert.assertNull(DownloadManifest.open("key"));
+        downloadManifest.record(0, new DownloadManifest.Entry("inu.a", "inu.a/00000001.txt", 1L, 10L), false);
+        downloadManifest.record(1, new DownloadManifest.Entry(null, "ERROR.err", 2L, 20L), false);
+        downloadManifest.close();
+
+        OutputStream outputStream = new FileOutputStream(new File(spoolDir, "key" + DownloadManifest.MANIFEST_SUFFIX), true);
+        outputStream.write("E\tinu.b\t3\t3".getBytes("utf-8"));
+        outputStream.close();
+
+        downloadManifest = DownloadManifest.open("key");
+        Assert.assertEquals(2, downloadManifest.entries.size());
+        Assert.assertNull(downloadManifest.getEntry(1).volumeID);
+        Assert.assertEquals("ERROR.err", downloadManifest.getEntry(1).name);
+        downloadManifest.record(2, new DownloadManifest.Entry("inu.b", "inu.b/00000001.txt", 3L, 30L), false);
+        downloadManifest.close();
+
+        downloadManifest = DownloadManifest.open("key");
+        Assert.assertEquals(3, downloadManifest.entries.size());
+        Assert.assertEquals(30L, downloadManifest.getEntry(2).size);
+        downloadManifest.close();
+    }
+
+}
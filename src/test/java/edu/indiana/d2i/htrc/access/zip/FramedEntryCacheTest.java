@@ -0,0 +1,223 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FramedEntryCacheTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class FramedEntryCacheTest {
+
+    private static final String[] VOLUME_IDS = {"test.volume/id/1", "test.volume/id/2", "test.volume/id/3"};
+
+    /**
+     * This VolumeRetriever returns what ThrottledVolumeRetrieverImpl returns for volumes whose pages are not fetched: readers with the metadata only
+     */
+    private static class FramedVolumeRetriever implements VolumeRetriever {
+        private final Iterator<VolumeReader> volumeReaderIterator;
+
+        FramedVolumeRetriever(VolumeRetriever volumeRetriever) throws Exception {
+            List<VolumeReader> volumeReaders = new ArrayList<VolumeReader>();
+            while (volumeRetriever.hasMoreVolumes()) {
+                VolumeReader volumeReader = volumeRetriever.nextVolume();
+                VolumeReader framedVolumeReader = new VolumeReaderImpl(new ItemCoordinatesImpl(volumeReader.getVolumeID()));
+                List<ContentReader> metadataReaders = new ArrayList<ContentReader>();
+                while (volumeReader.hasMoreMetadata()) {
+                    metadataReaders.add(volumeReader.nextMetadata());
+                }
+                framedVolumeReader.setMetadata(metadataReaders);
+                volumeReaders.add(framedVolumeReader);
+            }
+            volumeReaderIterator = volumeReaders.iterator();
+        }
+
+        @Override
+        public boolean hasMoreVolumes() {
+            return volumeReaderIterator.hasNext();
+        }
+
+        @Override
+        public VolumeReader nextVolume() {
+            return volumeReaderIterator.next();
+        }
+
+        @Override
+        public boolean hasErrors() {
+            return false;
+        }
+    }
+
+    private ExecutorService executorService = null;
+
+    @Before
+    public void setUp() {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(ArchiveWriterFactory.PN_STORED_ZIP_WRITER_ENABLED, "true");
+        parameterContainer.setParameter(FramedEntryCache.PN_FRAMED_ENTRY_CACHE_MAX_BYTES, "1048576");
+        executorService = Executors.newSingleThreadExecutor();
+        ArchiveWriterFactory.init(parameterContainer, executorService);
+        FramedEntryCache.init(parameterContainer);
+    }
+
+    @After
+    public void tearDown() {
+        ArchiveWriterFactory.init(new TestParameterContainer(), null);
+        FramedEntryCache.init(new TestParameterContainer());
+        executorService.shutdown();
+    }
+
+    // this case tests that framed entries are only used for zip files written by a RawZipArchiveWriter
+    @Test
+    public void testIsApplicable() {
+        Assert.assertTrue(FramedEntryCache.isApplicable(FormatEnum.ZIP, Deflater.NO_COMPRESSION, false));
+        Assert.assertTrue(FramedEntryCache.isApplicable(FormatEnum.ZIP, 6, false));
+        Assert.assertFalse(FramedEntryCache.isApplicable(FormatEnum.TAR, Deflater.NO_COMPRESSION, false));
+        ArchiveWriterFactory.init(new TestParameterContainer(), null);
+        Assert.assertFalse(FramedEntryCache.isApplicable(FormatEnum.ZIP, Deflater.NO_COMPRESSION, false));
+        Assert.assertTrue(FramedEntryCache.isApplicable(FormatEnum.ZIP, Deflater.NO_COMPRESSION, true));
+        FramedEntryCache.init(new TestParameterContainer());
+        Assert.assertFalse(FramedEntryCache.isApplicable(FormatEnum.ZIP, Deflater.NO_COMPRESSION, true));
+    }
+
+    // this case tests that a zip file made of stored framed entries has the same content as the one they were framed from
+    @Test
+    public void testSpliceStored() throws Exception {
+        assertSplice(Deflater.NO_COMPRESSION);
+    }
+
+    // this case tests that a zip file made of deflated framed entries has the same content as the one they were framed from
+    @Test
+    public void testSpliceDeflated() throws Exception {
+        assertSplice(6);
+    }
+
+    // this case tests that the least recently used entries are evicted first, and that only volumes requested in whole are looked up
+    @Test
+    public void testEviction() throws IOException {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(FramedEntryCache.PN_FRAMED_ENTRY_CACHE_MAX_BYTES, "250");
+        parameterContainer.setParameter(FramedEntryCache.PN_FRAMED_ENTRY_CACHE_MAX_ENTRY_BYTES, "150");
+        FramedEntryCache.init(parameterContainer);
+        FramedEntryCache framedEntryCache = FramedEntryCache.getInstance();
+
+        List<ItemCoordinatesImpl> volumes = Arrays.asList(new ItemCoordinatesImpl("inu.a"), new ItemCoordinatesImpl("inu.b"), new ItemCoordinatesImpl("inu.c"));
+        framedEntryCache.put("inu.a", 0, frame("a", 100));
+        framedEntryCache.put("inu.b", 0, frame("b", 100));
+        Assert.assertEquals(2, framedEntryCache.lookup(volumes, 0).size());
+        framedEntryCache.lookup(volumes.subList(0, 1), 0);
+        framedEntryCache.put("inu.c", 0, frame("c", 100));
+        framedEntryCache.put("inu.d", 0, frame("d", 200));
+
+        Map<String, FramedEntryCache.FramedEntry> framedEntries = framedEntryCache.lookup(volumes, 0);
+        Assert.assertEquals(Arrays.asList("inu.a", "inu.c"), new ArrayList<String>(new TreeMap<String, FramedEntryCache.FramedEntry>(framedEntries).keySet()));
+        Assert.assertTrue(framedEntryCache.lookup(volumes, 6).isEmpty());
+
+        ItemCoordinatesImpl pages = new ItemCoordinatesImpl("inu.a");
+        pages.addPageSequence("00000001");
+        Assert.assertTrue(framedEntryCache.lookup(Arrays.asList(pages), 0).isEmpty());
+    }
+
+    private void assertSplice(int compressionLevel) throws Exception {
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.COMBINE_PAGE, new NullAuditor(null), FormatEnum.ZIP, compressionLevel, null, new LinkedHashMap<String, FramedEntryCache.FramedEntry>());
+        ByteArrayOutputStream fetched = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(fetched, new TestVolumeRetriever());
+
+        List<ItemCoordinatesImpl> volumes = new ArrayList<ItemCoordinatesImpl>();
+        for (String volumeID : VOLUME_IDS) {
+            volumes.add(new ItemCoordinatesImpl(volumeID));
+        }
+        Map<String, FramedEntryCache.FramedEntry> framedEntries = FramedEntryCache.getInstance().lookup(volumes, compressionLevel);
+        Assert.assertEquals(VOLUME_IDS.length, framedEntries.size());
+
+        zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.COMBINE_PAGE, new NullAuditor(null), FormatEnum.ZIP, compressionLevel, null, framedEntries);
+        ByteArrayOutputStream spliced = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(spliced, new FramedVolumeRetriever(new TestVolumeRetriever()));
+
+        Assert.assertEquals(readEntries(fetched.toByteArray()), readEntries(spliced.toByteArray()));
+        Assert.assertEquals(VOLUME_IDS.length * 2, readEntries(spliced.toByteArray()).size());
+    }
+
+    private Map<String, String> readEntries(byte[] zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            entries.put(zipEntry.getName(), content.toString("utf-8"));
+        }
+        return entries;
+    }
+
+    private FramedEntryCache.FramedEntry frame(String name, int length) {
+        byte[] content = new byte[length - name.length()];
+        return FramedEntryCache.FramedEntry.frame(name, content, content.length, Deflater.NO_COMPRESSION, new ArrayList<String>());
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NdjsonArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class NdjsonArchiveWriterTest {
+
+    // this case tests that each entry becomes one line, with quotes, backslashes and control characters escaped and UTF-8 passed through
+    @Test
+    public void testNdjson() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new NdjsonArchiveWriter(outputStream, false, 0);
+        writeEntries(archiveWriter);
+
+        String expected = "{\"name\":\"a/00000001.txt\",\"content\":\"line one\\nline \\\"two\\\"\\tend\\r\\n\"}\n"
+                + "{\"name\":\"a/00000002.txt\",\"content\":\"back\\\\slash \\u0001 caf\u00e9\"}\n"
+                + "{\"name\":\"empty.txt\",\"content\":\"\"}\n";
+        Assert.assertEquals(expected, new String(outputStream.toByteArray(), "utf-8"));
+    }
+
+    // this case tests that the gzip framed output decompresses to the same lines as the plain output
+    @Test
+    public void testNdjsonGzip() throws IOException {
+        ByteArrayOutputStream plainOutputStream = new ByteArrayOutputStream();
+        writeEntries(new NdjsonArchiveWriter(plainOutputStream, false, 0));
+        ByteArrayOutputStream gzipOutputStream = new ByteArrayOutputStream();
+        writeEntries(new NdjsonArchiveWriter(gzipOutputStream, true, 6));
+
+        byte[] decompressed = readFully(new GZIPInputStream(new ByteArrayInputStream(gzipOutputStream.toByteArray())));
+        Assert.assertArrayEquals(plainOutputStream.toByteArray(), decompressed);
+    }
+
+    // this case tests that content longer than the escape buffer is written completely
+    @Test
+    public void testLongContent() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append("\"q\"\n");
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new NdjsonArchiveWriter(outputStream, false, 0);
+        archiveWriter.writeEntry("long.txt", content.toString().getBytes("utf-8"));
+        archiveWriter.close();
+
+        String line = new String(outputStream.toByteArray(), "utf-8");
+        String escaped = content.toString().replace("\"", "\\\"").replace("\n", "\\n");
+        Assert.assertEquals("{\"name\":\"long.txt\",\"content\":\"" + escaped + "\"}\n", line);
+    }
+
+    // this case tests that each maximal ill-formed subpart of a malformed page is replaced by an escaped replacement character, so that the line is valid
+    // UTF-8 and valid JSON, while well-formed sequences pass through unchanged
+    @Test
+    public void testMalformed() throws IOException {
+        byte[] content = {'a', (byte)0xc3, 'b', (byte)0xe2, (byte)0x82, (byte)0xff, (byte)0xed, (byte)0xa0, (byte)0x80, (byte)0xc3, (byte)0xa9,
+                (byte)0xf0, (byte)0x9d, (byte)0x90, (byte)0x80, (byte)0xc0, (byte)0xaf, '"', (byte)0xf0, (byte)0x9d, (byte)0x90};
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new NdjsonArchiveWriter(outputStream, false, 0);
+        archiveWriter.writeEntry("malformed.txt", content);
+        archiveWriter.close();
+
+        CharsetDecoder decoder = Charset.forName("utf-8").newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+        String line = decoder.decode(ByteBuffer.wrap(outputStream.toByteArray())).toString();
+        Assert.assertEquals("{\"name\":\"malformed.txt\",\"content\":\"a\\ufffdb\\ufffd\\ufffd\\ufffd\\ufffd\\ufffd\u00e9\ud835\udc00\\ufffd\\ufffd\\\"\\ufffd\"}\n", line);
+    }
+
+    private void writeEntries(ArchiveWriter archiveWriter) throws IOException {
+        archiveWriter.putNextEntry("a/00000001.txt");
+        archiveWriter.write("line one\nline \"two\"\tend\r\n".getBytes("utf-8"));
+        archiveWriter.writeEntry("a/00000002.txt", "back\\slash \u0001 caf\u00e9".getBytes("utf-8"));
+        archiveWriter.writeEntry("empty.txt", new byte[0]);
+        archiveWriter.close();
+    }
+
+    private byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read = 0;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
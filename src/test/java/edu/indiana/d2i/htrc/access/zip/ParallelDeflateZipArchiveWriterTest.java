@@ -0,0 +1,178 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ParallelDeflateZipArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ParallelDeflateZipArchiveWriterTest {
+
+    private ExecutorService executorService = null;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    // this case tests that entries compressed in parallel come out of ZipInputStream in the order they were written and with their original content
+    @Test
+    public void testStreamingReadBack() throws IOException {
+        String[] names = {"a/00000001.txt", "a/00000002.txt", "a/mets.xml", "b.txt", "empty.txt"};
+        byte[][] contents = generateContents();
+
+        byte[] zip = writeZip(names, contents, 2);
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip));
+        for (int i = 0; i < names.length; i++) {
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+            Assert.assertNotNull(zipEntry);
+            Assert.assertEquals(names[i], zipEntry.getName());
+            Assert.assertArrayEquals(contents[i], readFully(zipInputStream));
+        }
+        Assert.assertNull(zipInputStream.getNextEntry());
+        zipInputStream.close();
+    }
+
+    // this case tests that the central directory is valid, so the archive can be opened with random access readers as well
+    @Test
+    public void testCentralDirectory() throws IOException {
+        String[] names = {"a/00000001.txt", "a/00000002.txt", "a/mets.xml", "b.txt", "empty.txt"};
+        byte[][] contents = generateContents();
+
+        byte[] zip = writeZip(names, contents, 1);
+
+        File file = File.createTempFile("parallel-deflate", ".zip");
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(file);
+            fileOutputStream.write(zip);
+            fileOutputStream.close();
+
+            ZipFile zipFile = new ZipFile(file);
+            List<String> actualNames = new LinkedList<String>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                actualNames.add(zipEntry.getName());
+                int index = actualNames.size() - 1;
+                Assert.assertEquals(contents[index].length, zipEntry.getSize());
+                InputStream inputStream = zipFile.getInputStream(zipEntry);
+                Assert.assertArrayEquals(contents[index], readFully(inputStream));
+                inputStream.close();
+            }
+            zipFile.close();
+            Assert.assertArrayEquals(names, actualNames.toArray(new String[0]));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // this case tests that compressible text gets smaller and incompressible content is stored rather than inflated
+    @Test
+    public void testCompressionMethods() throws IOException {
+        byte[][] contents = generateContents();
+        byte[] zip = writeZip(new String[] {"text.txt", "random.bin"}, new byte[][] {contents[0], contents[3]}, 4);
+
+        Assert.assertTrue(zip.length < contents[0].length + contents[3].length);
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip));
+        ZipEntry textEntry = zipInputStream.getNextEntry();
+        Assert.assertEquals(ZipEntry.DEFLATED, textEntry.getMethod());
+        readFully(zipInputStream);
+        ZipEntry randomEntry = zipInputStream.getNextEntry();
+        Assert.assertEquals(ZipEntry.STORED, randomEntry.getMethod());
+        zipInputStream.close();
+    }
+
+    private byte[] writeZip(String[] names, byte[][] contents, int maxPendingEntries) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new ParallelDeflateZipArchiveWriter(outputStream, Deflater.DEFAULT_COMPRESSION, executorService, maxPendingEntries);
+        for (int i = 0; i < names.length; i++) {
+            archiveWriter.putNextEntry(names[i]);
+            // write in two pieces to exercise buffering across write calls
+            int half = contents[i].length / 2;
+            archiveWriter.write(contents[i], 0, half);
+            archiveWriter.write(contents[i], half, contents[i].length - half);
+            archiveWriter.closeEntry();
+        }
+        archiveWriter.close();
+        return outputStream.toByteArray();
+    }
+
+    private byte[][] generateContents() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("the quick brown fox jumps over the lazy dog ").append(i % 17).append('\n');
+        }
+        byte[] random = new byte[20000];
+        new Random(42L).nextBytes(random);
+        return new byte[][] {text.toString().getBytes(), "second page".getBytes(), "<METS/>".getBytes(), random, new byte[0]};
+    }
+
+    private byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read = 0;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
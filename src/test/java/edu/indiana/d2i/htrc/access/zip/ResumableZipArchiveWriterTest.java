@@ -0,0 +1,410 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ResumableZipArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ResumableZipArchiveWriterTest {
+
+    private static final String[] VOLUME_IDS = {"inu.a", "inu.b", "inu.c", "inu.d"};
+
+    private File spoolDir = null;
+
+    @Before
+    public void setUp() throws IOException {
+        spoolDir = File.createTempFile("resume", "spool");
+        spoolDir.delete();
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_SPOOL_DIR, spoolDir.getAbsolutePath());
+        DownloadManifest.init(parameterContainer);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = spoolDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spoolDir.delete();
+        DownloadManifest.init(new TestParameterContainer());
+    }
+
+    // this case tests that the same request always produces the same bytes, and that the output is a valid zip file
+    @Test
+    public void testDeterministic() throws IOException {
+        byte[] first = writeDownload("first", null, 0);
+        byte[] second = writeDownload("second", null, 0);
+        Assert.assertArrayEquals(first, second);
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(first));
+        int count = 0;
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            Assert.assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+            count++;
+        }
+        Assert.assertEquals(VOLUME_IDS.length * 3, count);
+    }
+
+    // this case tests that a download resumed from any offset continues with exactly the remaining bytes, without fetching the volumes already sent
+    @Test
+    public void testResume() throws IOException {
+        byte[] full = writeDownload("key", null, 0);
+
+        for (long startOffset : new long[] {1L, 100L, full.length / 3, full.length / 2, full.length - 200L, full.length - 1L}) {
+            DownloadManifest downloadManifest = DownloadManifest.open("key");
+            Assert.assertEquals(full.length, downloadManifest.getCompleteLength());
+            Assert.assertEquals(startOffset, downloadManifest.resolveStartOffset(Arrays.asList("bytes=" + startOffset + "-"), null));
+            List<ItemCoordinatesImpl> volumes = toIdentifiers(VOLUME_IDS);
+            downloadManifest.skipSentVolumes(volumes);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            writeVolumes(new ResumableZipArchiveWriter(outputStream, downloadManifest), downloadManifest, volumes, null, true);
+            downloadManifest.close();
+
+            Assert.assertArrayEquals(Arrays.copyOfRange(full, (int)startOffset, full.length), outputStream.toByteArray());
+            if (startOffset == full.length - 1L) {
+                Assert.assertTrue(volumes.isEmpty());
+            }
+        }
+    }
+
+    // this case tests that a download cut short before the service recorded its length is sent whole again, since a partial response must state its end
+    @Test
+    public void testResumeIncomplete() throws IOException {
+        byte[] full = writeDownload("reference", null, 0);
+
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        ByteArrayOutputStream interrupted = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new ResumableZipArchiveWriter(interrupted, downloadManifest);
+        List<ItemCoordinatesImpl> volumes = toIdentifiers(Arrays.copyOf(VOLUME_IDS, 3));
+        writeVolumes(archiveWriter, downloadManifest, volumes, null, false);
+        archiveWriter.flush();
+        downloadManifest.close();
+
+        long startOffset = interrupted.size() - 10L;
+        downloadManifest = DownloadManifest.open("key", true);
+        Assert.assertEquals(-1L, downloadManifest.getCompleteLength());
+        Assert.assertEquals(0L, downloadManifest.resolveStartOffset(Arrays.asList("bytes=" + startOffset + "-"), Arrays.asList(downloadManifest.getETag())));
+        volumes = toIdentifiers(VOLUME_IDS);
+        downloadManifest.skipSentVolumes(volumes);
+        Assert.assertEquals(VOLUME_IDS.length, volumes.size());
+
+        ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        writeVolumes(new ResumableZipArchiveWriter(resumed, downloadManifest), downloadManifest, volumes, null, true);
+        downloadManifest.close();
+        Assert.assertArrayEquals(full, resumed.toByteArray());
+        downloadManifest = DownloadManifest.open("key");
+        Assert.assertEquals(full.length, downloadManifest.getCompleteLength());
+        downloadManifest.close();
+    }
+
+    // this case tests that a download whose client goes away is still recorded to its end, so that the client can resume it with a well-formed range
+    @Test
+    public void testResumeAfterClientGone() throws IOException {
+        byte[] full = writeDownload("reference", null, 0);
+        final int sentLength = full.length / 2;
+
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        final ByteArrayOutputStream interrupted = new ByteArrayOutputStream();
+        OutputStream clientStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                int accepted = Math.min(length, sentLength - interrupted.size());
+                interrupted.write(bytes, offset, accepted);
+                if (accepted < length) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+        try {
+            writeVolumes(new ResumableZipArchiveWriter(clientStream, downloadManifest), downloadManifest, toIdentifiers(VOLUME_IDS), null, true);
+            Assert.fail("the download must still fail");
+        } catch (IOException e) {
+            Assert.assertEquals("Broken pipe", e.getMessage());
+        } finally {
+            downloadManifest.close();
+        }
+        Assert.assertEquals(sentLength, interrupted.size());
+
+        long startOffset = sentLength - 10L;
+        downloadManifest = DownloadManifest.open("key", true);
+        Assert.assertEquals(full.length, downloadManifest.getCompleteLength());
+        Assert.assertEquals(startOffset, downloadManifest.resolveStartOffset(Arrays.asList("bytes=" + startOffset + "-"), Arrays.asList(downloadManifest.getETag())));
+        Assert.assertEquals("bytes " + startOffset + "-" + (full.length - 1) + "/" + full.length, downloadManifest.getContentRange());
+        List<ItemCoordinatesImpl> volumes = toIdentifiers(VOLUME_IDS);
+        downloadManifest.skipSentVolumes(volumes);
+        Assert.assertTrue(volumes.size() < VOLUME_IDS.length);
+
+        ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        writeVolumes(new ResumableZipArchiveWriter(resumed, downloadManifest), downloadManifest, volumes, null, true);
+        downloadManifest.close();
+        Assert.assertArrayEquals(Arrays.copyOfRange(full, (int)startOffset, full.length), resumed.toByteArray());
+    }
+
+    // this case tests that a resuming request that comes back while the rest of the download is still being recorded waits for the recording to end,
+    // then resumes from the requested offset without fetching the volumes already recorded
+    @Test
+    public void testResumeWhileDraining() throws Exception {
+        byte[] full = writeDownload("reference", null, 0);
+        final int sentLength = full.length / 3;
+        final Thread resumingThread = Thread.currentThread();
+        final ByteArrayOutputStream interrupted = new ByteArrayOutputStream();
+        final OutputStream clientStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                int accepted = Math.min(length, sentLength - interrupted.size());
+                interrupted.write(bytes, offset, accepted);
+                if (accepted < length) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+        final DownloadManifest drainingManifest = DownloadManifest.open("key");
+        final IOException[] drainFailure = new IOException[1];
+        Thread drainingThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ResumableZipArchiveWriter archiveWriter = new ResumableZipArchiveWriter(clientStream, drainingManifest);
+                    writeVolumes(archiveWriter, drainingManifest, toIdentifiers(Arrays.copyOf(VOLUME_IDS, 2)), null, false);
+                    archiveWriter.flush();
+                    // the rest is only recorded once the resuming request is waiting for it
+                    long deadline = System.currentTimeMillis() + 10000L;
+                    while (resumingThread.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(10L);
+                    }
+                    writeVolumes(archiveWriter, drainingManifest, toIdentifiers(Arrays.copyOfRange(VOLUME_IDS, 2, VOLUME_IDS.length)), null, true);
+                } catch (IOException e) {
+                    drainFailure[0] = e;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    drainingManifest.close();
+                }
+            }
+        };
+        drainingThread.start();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (interrupted.size() < sentLength && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        long startOffset = sentLength - 10L;
+        DownloadManifest downloadManifest = DownloadManifest.open("key", true);
+        drainingThread.join();
+        Assert.assertEquals("Broken pipe", drainFailure[0].getMessage());
+        Assert.assertEquals(full.length, downloadManifest.getCompleteLength());
+        Assert.assertEquals(startOffset, downloadManifest.resolveStartOffset(Arrays.asList("bytes=" + startOffset + "-"), Arrays.asList(downloadManifest.getETag())));
+        List<ItemCoordinatesImpl> volumes = toIdentifiers(VOLUME_IDS);
+        downloadManifest.skipSentVolumes(volumes);
+        Assert.assertTrue(volumes.size() < VOLUME_IDS.length);
+
+        ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        writeVolumes(new ResumableZipArchiveWriter(resumed, downloadManifest), downloadManifest, volumes, null, true);
+        downloadManifest.close();
+        Assert.assertArrayEquals(Arrays.copyOfRange(full, (int)startOffset, full.length), resumed.toByteArray());
+    }
+
+    // this case tests that a download whose client went away is given up on once more than resume.drain.max.bytes have been produced without being sent
+    @Test
+    public void testDrainBounded() throws IOException {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_SPOOL_DIR, spoolDir.getAbsolutePath());
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_DRAIN_MAX_BYTES, "1000");
+        DownloadManifest.init(parameterContainer);
+
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        OutputStream clientStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            // each volume is flushed, so the bytes reach the client stream volume by volume
+            ResumableZipArchiveWriter archiveWriter = new ResumableZipArchiveWriter(clientStream, downloadManifest);
+            for (String volumeID : VOLUME_IDS) {
+                writeVolumes(archiveWriter, downloadManifest, toIdentifiers(new String[] {volumeID}), null, false);
+                archiveWriter.flush();
+            }
+            archiveWriter.close();
+            Assert.fail("the download must still fail");
+        } catch (IOException e) {
+            Assert.assertEquals("Broken pipe", e.getMessage());
+        } finally {
+            downloadManifest.close();
+        }
+
+        downloadManifest = DownloadManifest.open("key", true);
+        Assert.assertEquals(-1L, downloadManifest.getCompleteLength());
+        Assert.assertTrue(downloadManifest.entries.size() < VOLUME_IDS.length * 3);
+        downloadManifest.close();
+    }
+
+    // this case tests that a download whose client went away stops being produced once another download has taken its expired manifest over
+    @Test
+    public void testClientGoneTakenOver() throws Exception {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_SPOOL_DIR, spoolDir.getAbsolutePath());
+        parameterContainer.setParameter(DownloadManifest.PN_RESUME_MANIFEST_TTL_SECONDS, "1");
+        DownloadManifest.init(parameterContainer);
+
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        OutputStream clientStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        ResumableZipArchiveWriter archiveWriter = new ResumableZipArchiveWriter(clientStream, downloadManifest);
+        downloadManifest.setCurrentVolumeID("inu.a");
+        archiveWriter.writeEntry("inu.a/00000001.txt", "page 1".getBytes("utf-8"));
+        archiveWriter.flush();
+        archiveWriter.writeEntry("inu.a/00000002.txt", "page 2".getBytes("utf-8"));
+
+        Thread.sleep(1100L);
+        DownloadManifest.open("key", true).close();
+        try {
+            archiveWriter.flush();
+            Assert.fail("the download must stop");
+        } catch (IOException e) {
+            Assert.assertEquals("Broken pipe", e.getMessage());
+        } finally {
+            downloadManifest.close();
+        }
+    }
+
+    // this case tests that a resumed download whose content has changed within the bytes already sent is aborted
+    @Test(expected = IOException.class)
+    public void testResumeDiverged() throws IOException {
+        writeDownload("key", null, 0);
+        DownloadManifest downloadManifest = DownloadManifest.open("key");
+        long startOffset = 10L;
+        for (int i = 0; i < 10; i++) {
+            startOffset += downloadManifest.getEntry(i).getLength();
+        }
+        downloadManifest.close();
+        writeDownload("key", "inu.d", startOffset);
+    }
+
+    private byte[] writeDownload(String requestKey, String changedVolumeID, long startOffset) throws IOException {
+        DownloadManifest downloadManifest = DownloadManifest.open(requestKey);
+        try {
+            if (startOffset > 0L) {
+                downloadManifest.resolveStartOffset(Arrays.asList("bytes=" + startOffset + "-"), null);
+            }
+            List<ItemCoordinatesImpl> volumes = toIdentifiers(VOLUME_IDS);
+            downloadManifest.skipSentVolumes(volumes);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            writeVolumes(new ResumableZipArchiveWriter(outputStream, downloadManifest), downloadManifest, volumes, changedVolumeID, true);
+            return outputStream.toByteArray();
+        } finally {
+            downloadManifest.close();
+        }
+    }
+
+    // writes each volume the way the ZipMaker implementations do, with pages written whole and the metadata written through putNextEntry()
+    private void writeVolumes(ArchiveWriter archiveWriter, DownloadManifest downloadManifest, List<ItemCoordinatesImpl> volumes, String changedVolumeID, boolean close) throws IOException {
+        for (ItemCoordinatesImpl volume : volumes) {
+            String volumeID = volume.getVolumeID();
+            downloadManifest.setCurrentVolumeID(volumeID);
+            for (int page = 1; page <= 2; page++) {
+                StringBuilder content = new StringBuilder();
+                for (int i = 0; i < 20 * page; i++) {
+                    content.append(volumeID).append(" page ").append(page).append(" line ").append(i).append('\n');
+                }
+                if (volumeID.equals(changedVolumeID)) {
+                    content.append("changed");
+                }
+                archiveWriter.writeEntry(volumeID + "/0000000" + page + ".txt", content.toString().getBytes("utf-8"));
+            }
+            archiveWriter.putNextEntry(volumeID + "/mets.xml");
+            archiveWriter.write(("<METS id=\"" + volumeID + "\"/>").getBytes("utf-8"));
+        }
+        if (close) {
+            archiveWriter.close();
+        }
+    }
+
+    private List<ItemCoordinatesImpl> toIdentifiers(String[] volumeIDs) {
+        List<ItemCoordinatesImpl> identifiers = new LinkedList<ItemCoordinatesImpl>();
+        for (String volumeID : volumeIDs) {
+            identifiers.add(new ItemCoordinatesImpl(volumeID));
+        }
+        return identifiers;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StoredZipArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class StoredZipArchiveWriterTest {
+
+    // this case tests that entries written through the streaming methods and through writeEntry() read back in order with STORED method and correct CRCs
+    @Test
+    public void testStreamingReadBack() throws IOException {
+        String[] names = {"a/00000001.txt", "a/00000002.txt", "a/mets.xml", "\u00e9t\u00e9.txt", "empty.txt"};
+        byte[][] contents = {"first page\n".getBytes(), "second page\n".getBytes(), "<METS/>".getBytes(), "summer".getBytes(), new byte[0]};
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        StoredZipArchiveWriter archiveWriter = new StoredZipArchiveWriter(outputStream, 16);
+        for (int i = 0; i < names.length; i++) {
+            if (i % 2 == 0) {
+                archiveWriter.writeEntry(names[i], contents[i]);
+            } else {
+                archiveWriter.putNextEntry(names[i]);
+                archiveWriter.write(contents[i], 0, 3);
+                archiveWriter.write(contents[i], 3, contents[i].length - 3);
+            }
+        }
+        archiveWriter.close();
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        for (int i = 0; i < names.length; i++) {
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+            Assert.assertNotNull(zipEntry);
+            Assert.assertEquals(names[i], zipEntry.getName());
+            Assert.assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+            Assert.assertEquals(contents[i].length, zipEntry.getSize());
+            CRC32 crc32 = new CRC32();
+            crc32.update(contents[i]);
+            Assert.assertEquals(crc32.getValue(), zipEntry.getCrc());
+            Assert.assertArrayEquals(contents[i], readFully(zipInputStream));
+        }
+        Assert.assertNull(zipInputStream.getNextEntry());
+        zipInputStream.close();
+    }
+
+    // this case tests that an archive with more entries than the classic end of central directory record can count gets Zip64 records a ZipFile understands
+    @Test
+    public void testZip64EntryCount() throws IOException {
+        int entryCount = 70000;
+        File file = File.createTempFile("stored-zip64", ".zip");
+        try {
+            StoredZipArchiveWriter archiveWriter = new StoredZipArchiveWriter(new FileOutputStream(file));
+            for (int i = 0; i < entryCount; i++) {
+                archiveWriter.writeEntry(i + ".txt", Integer.toString(i).getBytes());
+            }
+            archiveWriter.close();
+
+            ZipFile zipFile = new ZipFile(file);
+            Assert.assertEquals(entryCount, zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            int index = 0;
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                Assert.assertEquals(index + ".txt", zipEntry.getName());
+                index++;
+            }
+            ZipEntry lastEntry = zipFile.getEntry((entryCount - 1) + ".txt");
+            InputStream inputStream = zipFile.getInputStream(lastEntry);
+            Assert.assertArrayEquals(Integer.toString(entryCount - 1).getBytes(), readFully(inputStream));
+            inputStream.close();
+            zipFile.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read = 0;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TarArchiveWriterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class TarArchiveWriterTest {
+
+    private static final String LONG_DIR_NAME = "mdp.39015012345678+very+long+pairtree+cleaned+volume+identifier+that+does+not+fit+in+one+hundred+bytes/";
+
+    // this case tests that a plain tar stream has valid headers, the original names including long ones, and the original content
+    @Test
+    public void testTar() throws IOException {
+        Map<String, byte[]> entries = generateEntries();
+        byte[] tar = writeTar(entries, false);
+
+        Assert.assertEquals(0, tar.length % TarArchiveWriter.BLOCK_SIZE);
+        assertEntries(entries, readTar(new ByteArrayInputStream(tar)));
+    }
+
+    // this case tests that the gzip framed stream is an ordinary .tar.gz stream
+    @Test
+    public void testTarGzip() throws IOException {
+        Map<String, byte[]> entries = generateEntries();
+        byte[] tarGzip = writeTar(entries, true);
+
+        Assert.assertEquals(0x1f, tarGzip[0] & 0xff);
+        Assert.assertEquals(0x8b, tarGzip[1] & 0xff);
+        assertEntries(entries, readTar(new GZIPInputStream(new ByteArrayInputStream(tarGzip))));
+    }
+
+    // this case tests how names are split between the ustar prefix and name fields
+    @Test
+    public void testFindPrefixSplit() throws IOException {
+        Assert.assertEquals(0, TarArchiveWriter.findPrefixSplit("a/00000001.txt".getBytes()));
+        byte[] splittable = (LONG_DIR_NAME + "00000001.txt").getBytes();
+        Assert.assertEquals(LONG_DIR_NAME.length() - 1, TarArchiveWriter.findPrefixSplit(splittable));
+        StringBuilder longFileName = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            longFileName.append('x');
+        }
+        Assert.assertEquals(-1, TarArchiveWriter.findPrefixSplit(("a/" + longFileName).getBytes()));
+    }
+
+    private Map<String, byte[]> generateEntries() {
+        StringBuilder longFileName = new StringBuilder("a/");
+        for (int i = 0; i < 150; i++) {
+            longFileName.append((char)('a' + i % 26));
+        }
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("a/00000001.txt", "first page\n".getBytes());
+        entries.put("a/mets.xml", "<METS/>".getBytes());
+        entries.put(LONG_DIR_NAME + "00000001.txt", new byte[TarArchiveWriter.BLOCK_SIZE]);
+        entries.put(longFileName.toString(), "long name".getBytes());
+        entries.put("empty.txt", new byte[0]);
+        return entries;
+    }
+
+    private byte[] writeTar(Map<String, byte[]> entries, boolean gzipFramed) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ArchiveWriter archiveWriter = new TarArchiveWriter(outputStream, gzipFramed, 6);
+        boolean streaming = false;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            if (streaming) {
+                archiveWriter.putNextEntry(entry.getKey());
+                archiveWriter.write(entry.getValue());
+            } else {
+                archiveWriter.writeEntry(entry.getKey(), entry.getValue());
+            }
+            streaming = !streaming;
+        }
+        archiveWriter.close();
+        return outputStream.toByteArray();
+    }
+
+    private void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        Assert.assertArrayEquals(expected.keySet().toArray(), actual.keySet().toArray());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            Assert.assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    // a minimal ustar reader that understands the pax path keyword, written against the format rather than against TarArchiveWriter
+    private Map<String, byte[]> readTar(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        byte[] header = new byte[512];
+        String paxPath = null;
+        while (true) {
+            dataInputStream.readFully(header);
+            if (isZeroBlock(header)) {
+                dataInputStream.readFully(header);
+                Assert.assertTrue(isZeroBlock(header));
+                Assert.assertEquals(-1, dataInputStream.read());
+                return entries;
+            }
+            long checksum = 0L;
+            for (int i = 0; i < header.length; i++) {
+                checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+            }
+            Assert.assertEquals(checksum, parseOctal(header, 148, 8));
+            Assert.assertEquals("ustar", new String(header, 257, 5, "US-ASCII"));
+
+            int size = (int)parseOctal(header, 124, 12);
+            byte[] content = new byte[size];
+            dataInputStream.readFully(content);
+            int padding = (512 - size % 512) % 512;
+            dataInputStream.readFully(new byte[padding]);
+
+            if (header[156] == 'x') {
+                String record = new String(content, "utf-8");
+                paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                Assert.assertEquals(size, Integer.parseInt(record.substring(0, record.indexOf(' '))));
+            } else {
+                Assert.assertEquals('0', header[156]);
+                String name = paxPath;
+                if (name == null) {
+                    String prefix = cString(header, 345, 155);
+                    name = cString(header, 0, 100);
+                    if (prefix.length() > 0) {
+                        name = prefix + "/" + name;
+                    }
+                }
+                paxPath = null;
+                entries.put(name, content);
+            }
+        }
+    }
+
+    private boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseOctal(byte[] buffer, int offset, int length) {
+        long value = 0L;
+        for (int i = offset; i < offset + length && buffer[i] >= '0' && buffer[i] <= '7'; i++) {
+            value = (value << 3) + (buffer[i] - '0');
+        }
+        return value;
+    }
+
+    private String cString(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && buffer[end] != 0) {
+            end++;
+        }
+        return new String(buffer, offset, end - offset, "utf-8");
+    }
+
+}
@@ -34,6 +34,9 @@ package edu.indiana.d2i.htrc.access.zip;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -43,11 +46,13 @@ import org.junit.Test;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.exception.InvalidParameterValueException;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
 import edu.indiana.d2i.htrc.access.read.ExceptionalVolumeRetriever;
 import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ArchiveWriterFactory.FormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.NullAuditor;
 
@@ -192,5 +197,149 @@ public class ZipMakerFactoryTest {
 
         Assert.assertEquals(true, hasErrorEntry);
     }
+
+    // This case tests that TokenIDSequenceZipMaker writes every page as a run of token IDs closed by a page marker, every volume closed by a volume marker,
+    // and a dictionary and a volume list that decode the IDs back to the tokens
+    @Test
+    public void testTokenIDSequenceZipMaker() throws IOException, DataAPIException, Exception {
+        VolumeRetriever volumeRetriever = new TestVolumeRetriever();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.TOKEN_ID_SEQUENCE, new NullAuditor(null));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(actual, volumeRetriever);
+
+        byte[] sequence = null;
+        String[] dictionary = null;
+        String[] volumeIDs = null;
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(actual.toByteArray()));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                entry.write(buffer, 0, read);
+            }
+            zipInputStream.closeEntry();
+            if ("wordseq.bin".equals(zipEntry.getName())) {
+                sequence = entry.toByteArray();
+            } else if ("wordseq.dict".equals(zipEntry.getName())) {
+                dictionary = entry.toString("utf-8").split("\n");
+            } else if ("wordseq.volumes".equals(zipEntry.getName())) {
+                volumeIDs = entry.toString("utf-8").split("\n");
+            }
+        }
+        zipInputStream.close();
+
+        Assert.assertNotNull(sequence);
+        Assert.assertNotNull(dictionary);
+        Assert.assertArrayEquals(new String[] {"test.volume/id/1", "test.volume/id/2", "test.volume/id/3"}, volumeIDs);
+
+        List<String> pageTokens = new ArrayList<String>();
+        List<String> pages = new ArrayList<String>();
+        int volumes = 0;
+        int position = 0;
+        while (position < sequence.length) {
+            int code = 0;
+            int shift = 0;
+            byte b = 0;
+            do {
+                b = sequence[position++];
+                code |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if (code == TokenIDSequenceZipMaker.END_OF_PAGE) {
+                pages.add(pageTokens.toString());
+                pageTokens.clear();
+            } else if (code == TokenIDSequenceZipMaker.END_OF_VOLUME) {
+                volumes++;
+            } else {
+                String line = dictionary[code - TokenIDSequenceZipMaker.FIRST_TOKEN_CODE];
+                pageTokens.add(line.substring(0, line.lastIndexOf(' ')));
+            }
+        }
+
+        Assert.assertEquals(3, volumes);
+        Assert.assertEquals(4 + 10 + 7, pages.size());
+        Assert.assertTrue(pages.get(0).startsWith("[the, content, of, page, 1, for, volume"));
+        Assert.assertTrue(pages.get(20).startsWith("[the, content, of, page, 7, for, volume"));
+        Assert.assertEquals("the 21", dictionary[0]);
+    }
+
+    // This case tests that wordseq=ids selects TokenIDSequenceZipMaker, and that it is refused for NDJSON output, which cannot carry binary entries
+    @Test
+    public void testGetWordSequenceType() throws InvalidParameterValueException {
+        Assert.assertEquals(ZipTypeEnum.WORD_SEQUENCE, ZipMakerFactory.getWordSequenceType(null, FormatEnum.ZIP));
+        Assert.assertEquals(ZipTypeEnum.WORD_SEQUENCE, ZipMakerFactory.getWordSequenceType("text", FormatEnum.NDJSON));
+        Assert.assertEquals(ZipTypeEnum.TOKEN_ID_SEQUENCE, ZipMakerFactory.getWordSequenceType("ids", FormatEnum.ZIP));
+        try {
+            ZipMakerFactory.getWordSequenceType("ids", FormatEnum.NDJSON);
+            Assert.fail("expected InvalidParameterValueException");
+        } catch (InvalidParameterValueException e) {
+            Assert.assertEquals(ZipMakerFactory.WORD_SEQUENCE_PARAMETER_NAME, e.getParameterName());
+        }
+    }
+
+    // This case tests that IndexedVolumeZipMaker writes one entry per volume whose page offset table and footer lead to the content of every page
+    @Test
+    public void testIndexedVolumeZipMaker() throws IOException, DataAPIException, Exception {
+        VolumeRetriever volumeRetriever = new TestVolumeRetriever();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.INDEXED_VOLUME, new NullAuditor(null));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(actual, volumeRetriever);
+
+        List<String> entryNames = new ArrayList<String>();
+        int[] expectedPageCounts = {4, 10, 7};
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(actual.toByteArray()));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) > 0) {
+                entry.write(buffer, 0, read);
+            }
+            zipInputStream.closeEntry();
+            entryNames.add(zipEntry.getName());
+
+            if (zipEntry.getName().endsWith(".pages")) {
+                int volumeIndex = entryNames.size() / 2 + 1;
+                ByteBuffer content = ByteBuffer.wrap(entry.toByteArray());
+                int footer = content.limit() - IndexedVolumeZipMaker.FOOTER_LENGTH;
+                long tableOffset = content.getLong(footer);
+                int pageCount = content.getInt(footer + 8);
+                Assert.assertEquals(IndexedVolumeZipMaker.MAGIC, content.getInt(footer + 12));
+                Assert.assertEquals(expectedPageCounts[volumeIndex - 1], pageCount);
+                Assert.assertEquals(footer, tableOffset + pageCount * IndexedVolumeZipMaker.RECORD_LENGTH);
+
+                for (int i = 0; i < pageCount; i++) {
+                    int record = (int)tableOffset + i * IndexedVolumeZipMaker.RECORD_LENGTH;
+                    Assert.assertEquals(i + 1, content.getInt(record));
+                    int offset = (int)content.getLong(record + 4);
+                    int length = content.getInt(record + 12);
+                    Assert.assertEquals("the content of page " + (i + 1) + " for volume test.volume/id/" + volumeIndex, new String(entry.toByteArray(), offset, length, "utf-8"));
+                }
+            }
+        }
+        zipInputStream.close();
+
+        Assert.assertEquals(6, entryNames.size());
+        Assert.assertTrue(entryNames.get(0).endsWith(".pages"));
+        Assert.assertTrue(entryNames.get(1).endsWith(".mets.xml"));
+    }
+
+    // This case tests that layout=indexed selects IndexedVolumeZipMaker, and that it is refused for NDJSON output, which cannot carry the binary table
+    @Test
+    public void testGetVolumeLayoutType() throws InvalidParameterValueException {
+        Assert.assertEquals(ZipTypeEnum.SEPARATE_PAGE, ZipMakerFactory.getVolumeLayoutType(false, null, FormatEnum.ZIP));
+        Assert.assertEquals(ZipTypeEnum.COMBINE_PAGE, ZipMakerFactory.getVolumeLayoutType(true, "pages", FormatEnum.NDJSON));
+        Assert.assertEquals(ZipTypeEnum.INDEXED_VOLUME, ZipMakerFactory.getVolumeLayoutType(false, "indexed", FormatEnum.TAR));
+        try {
+            ZipMakerFactory.getVolumeLayoutType(true, "indexed", FormatEnum.NDJSON_GZIP);
+            Assert.fail("expected InvalidParameterValueException");
+        } catch (InvalidParameterValueException e) {
+            Assert.assertEquals(ZipMakerFactory.LAYOUT_PARAMETER_NAME, e.getParameterName());
+        }
+    }
 }
 